@@ -43,14 +43,16 @@ export class KafkaClient {
    *
    * @param topic Name of the topic to send message to
    * @param data Data to send to Kafka, will be jsonify to JSON string
+   * @param key Optional record key, records with the same key stay in order on one partition
    * @returns
    */
-  async send<T>(topic: string, data: T): Promise<RecordMetadata[]> {
+  async send<T>(topic: string, data: T, key?: string): Promise<RecordMetadata[]> {
     await this.ensureProducerConnected();
     const result: RecordMetadata[] = await this.producer.send({
       topic: topic,
       messages: [
         {
+          key,
           value: serialize(data),
         },
       ],
@@ -2,6 +2,7 @@ import { Test, TestingModule } from "@nestjs/testing";
 import { OrderRouterService } from "./order-router.service";
 import { KafkaClient } from "src/shares/kafka-client/kafka-client";
 import { ShardStatus, ShardRole } from "./shard-info.interface";
+import { CONTROL_RECORD_KEY } from "./shard-config";
 import {
   ShardUnavailableException,
   SymbolPausedException,
@@ -140,6 +141,11 @@ describe("OrderRouterService", () => {
       expect(result.shardId).toBe("shard-1");
       expect(result.topic).toBe("matching-engine-shard-1-input");
       expect(result.success).toBe(true);
+      expect(mockKafkaClient.send).toHaveBeenCalledWith(
+        "matching-engine-shard-1-input",
+        { code: "PLACE_ORDER", data: { id: 1 } },
+        "BTCUSDT"
+      );
     });
 
     it("should route ETHUSDT to shard-2", async () => {
@@ -218,6 +224,21 @@ describe("OrderRouterService", () => {
       expect(mockKafkaClient.send).toHaveBeenCalledTimes(2);
     });
 
+    it("should broadcast to every shard input with the control key", async () => {
+      const results = await service.broadcastToAllShards({ code: "START_ENGINE" });
+
+      expect(results.map((r) => r.topic)).toEqual([
+        "matching-engine-shard-1-input",
+        "matching-engine-shard-2-input",
+        "matching-engine-shard-3-input",
+      ]);
+      expect(mockKafkaClient.send).toHaveBeenCalledWith(
+        "matching-engine-shard-1-input",
+        { code: "START_ENGINE" },
+        CONTROL_RECORD_KEY
+      );
+    });
+
     it("should update symbol mapping dynamically", () => {
       service.updateSymbolMapping("SOLUSDT", "shard-1");
 
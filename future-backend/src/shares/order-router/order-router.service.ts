@@ -12,6 +12,7 @@ import {
   DEFAULT_SYMBOL_MAPPING,
   DEFAULT_SHARD_ID,
   LEGACY_MATCHING_ENGINE_TOPIC,
+  CONTROL_RECORD_KEY,
 } from "./shard-config";
 import {
   ShardUnavailableException,
@@ -88,7 +89,7 @@ export class OrderRouterService implements OnModuleInit {
     }
 
     try {
-      await this.kafkaClient.send(shard.kafkaInputTopic, command);
+      await this.kafkaClient.send(shard.kafkaInputTopic, command, symbol);
 
       this.logger.debug(
         `Routed command ${command.code} for symbol ${symbol} to shard ${shard.shardId}`
@@ -142,7 +143,7 @@ export class OrderRouterService implements OnModuleInit {
 
     try {
       for (const command of commands) {
-        await this.kafkaClient.send(shard.kafkaInputTopic, command);
+        await this.kafkaClient.send(shard.kafkaInputTopic, command, symbol);
       }
 
       return {
@@ -387,7 +388,8 @@ export class OrderRouterService implements OnModuleInit {
         : shard.kafkaInputTopic;
 
       try {
-        await this.kafkaClient.send(topic, command);
+        // keyed so that every shard reads it in order with its own input
+        await this.kafkaClient.send(topic, command, CONTROL_RECORD_KEY);
         results.push({
           shardId: shard.shardId,
           topic,
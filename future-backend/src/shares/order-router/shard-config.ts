@@ -59,6 +59,12 @@ export const DEFAULT_SYMBOL_MAPPING: Record<string, string> = {
  */
 export const DEFAULT_SHARD_ID = "shard-3";
 
+/**
+ * Record key of the commands broadcast to all shards. Shards read the records keyed by their own
+ * symbols or by this key, and skip the other records without decoding them
+ */
+export const CONTROL_RECORD_KEY = "control";
+
 /**
  * Legacy topic for backward compatibility when sharding is disabled
  */
@@ -0,0 +1,91 @@
+package com.sotatek.future.benchmark;
+
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.enums.Asset;
+import com.sotatek.future.service.BaseService;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transactions of a service holding {@code entities} committed accounts, where a command changes
+ * {@code changed} of them, like the account service does for the accounts of a match.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseServiceBenchmark {
+
+  private static final MarginBigDecimal FEE = MarginBigDecimal.valueOf("0.01");
+
+  @Param({"1000", "100000"})
+  public int entities;
+
+  @Param({"2", "20"})
+  public int changed;
+
+  private BaseService<Account> service;
+  private long nextId = 0;
+
+  @Setup
+  public void setUp() {
+    // accounts are cloned on read, like in the account service
+    service = new BaseService<>(true);
+    for (long id = 0; id < entities; id++) {
+      Account account = Account.builder().build();
+      account.setId(id);
+      account.setUserId(id);
+      account.setAsset(Asset.USDT);
+      account.setBalance(MarginBigDecimal.valueOf(1_000_000));
+      service.update(account);
+    }
+    service.commit();
+  }
+
+  @Benchmark
+  public BaseService<Account> updateThenCommit() {
+    change();
+    service.commit();
+    return service;
+  }
+
+  @Benchmark
+  public BaseService<Account> updateThenRollback() {
+    change();
+    service.rollback();
+    return service;
+  }
+
+  /** A match saves a savepoint, changes the accounts and rolls back to it on insufficient balance */
+  @Benchmark
+  public BaseService<Account> savepointThenRollbackTemporary() {
+    change();
+    service.commitTemporarily();
+    change();
+    service.rollbackTemporary();
+    service.commit();
+    return service;
+  }
+
+  private void change() {
+    for (int i = 0; i < changed; i++) {
+      Account account = service.get(nextId);
+      account.setBalance(account.getBalance().subtract(FEE));
+      service.update(account);
+      nextId = (nextId + 1) % entities;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.sotatek.future.benchmark;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.util.FastDeletePriorityQueue;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A queue of {@code size} stop orders ordered by trigger price, like the queues of the trigger.
+ * Each invocation adds one order and takes one out, so the size does not change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastDeletePriorityQueueBenchmark {
+
+  // trigger prices are drawn from this many ticks
+  private static final int PRICES = 10_000;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  private final SplittableRandom random = new SplittableRandom(42);
+  private FastDeletePriorityQueue<Order> queue;
+  private Order[] queued;
+  private Order spare;
+  private long nextId = 0;
+
+  @Setup
+  public void setUp() {
+    queue =
+        new FastDeletePriorityQueue<>(
+            Comparator.comparing(Order::getTpSLPrice).thenComparing(Order::getPriority));
+    queued = new Order[size];
+    for (int i = 0; i < size; i++) {
+      queued[i] = createOrder();
+      queue.add(queued[i]);
+    }
+    spare = createOrder();
+  }
+
+  private Order createOrder() {
+    Order order =
+        Order.builder()
+            .side(OrderSide.SELL)
+            .tpSLPrice(MarginBigDecimal.valueOf(20_000 + random.nextInt(PRICES)))
+            .build();
+    order.setId(nextId);
+    order.setPriority(nextId);
+    nextId++;
+    return order;
+  }
+
+  /** A stop order is added and the one with the nearest trigger price is triggered */
+  @Benchmark
+  public Order addThenPoll() {
+    queue.add(spare);
+    spare = queue.poll();
+    return spare;
+  }
+
+  /** A stop order is added and a random one is canceled */
+  @Benchmark
+  public boolean addThenRemove() {
+    int index = random.nextInt(size);
+    queue.add(spare);
+    Order canceled = queued[index];
+    queued[index] = spare;
+    spare = canceled;
+    return queue.remove(canceled);
+  }
+}
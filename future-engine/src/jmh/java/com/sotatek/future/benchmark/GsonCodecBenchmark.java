@@ -0,0 +1,102 @@
+package com.sotatek.future.benchmark;
+
+import static com.sotatek.future.benchmark.TradingFixture.MAKER_ACCOUNT_ID;
+import static com.sotatek.future.benchmark.TradingFixture.MID_PRICE;
+import static com.sotatek.future.benchmark.TradingFixture.TAKER_ACCOUNT_ID;
+
+import com.google.gson.Gson;
+import com.sotatek.future.engine.MatchingEngineConfig;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.service.AccountService;
+import com.sotatek.future.service.OrderService;
+import com.sotatek.future.service.PositionService;
+import com.sotatek.future.service.TradeService;
+import com.sotatek.future.util.json.JsonUtil;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON codec of the engine: commands read from the input topic and outputs written to the output
+ * topic, with the output of a match between two orders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonCodecBenchmark {
+
+  // outputs are published in batches of the default size
+  private static final int BATCH_SIZE = MatchingEngineConfig.OUTPUT_BATCH_SIZE;
+
+  private final Gson gson = JsonUtil.createGson();
+  private Command command;
+  private String commandJson;
+  private CommandOutput output;
+  private List<CommandOutput> outputBatch;
+
+  @Setup
+  public void setUp() {
+    TradingFixture fixture = new TradingFixture();
+    Order maker = fixture.limitOrder(MAKER_ACCOUNT_ID, OrderSide.SELL, MID_PRICE, 1);
+    Order taker = fixture.limitOrder(TAKER_ACCOUNT_ID, OrderSide.BUY, MID_PRICE, 1);
+    command = new Command(CommandCode.PLACE_ORDER, taker);
+    commandJson = gson.toJson(command);
+
+    OrderService.getInstance().matchOrders(taker, maker);
+    output = new CommandOutput();
+    output.setCode(CommandCode.PLACE_ORDER);
+    output.setData(taker);
+    output.setOrders(OrderService.getInstance().getProcessingEntities());
+    output.setTrades(TradeService.getInstance().getProcessingEntities());
+    output.setAccounts(AccountService.getInstance().getProcessingEntities());
+    output.setPositions(PositionService.getInstance().getProcessingEntities());
+    fixture.commit();
+    outputBatch = Collections.nCopies(BATCH_SIZE, output);
+  }
+
+  @Benchmark
+  public String encodeCommand() {
+    return gson.toJson(command);
+  }
+
+  @Benchmark
+  public Command decodeCommand() {
+    return gson.fromJson(commandJson, Command.class);
+  }
+
+  @Benchmark
+  public Command roundTripCommand() {
+    return gson.fromJson(gson.toJson(command), Command.class);
+  }
+
+  /** Output of a match, with both orders, the trade, and the accounts and positions */
+  @Benchmark
+  public String encodeMatchOutput() {
+    return gson.toJson(output);
+  }
+
+  /** A batch of outputs, as the output stream serializes it into one message */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public String encodeOutputBatch() {
+    return gson.toJson(outputBatch);
+  }
+}
@@ -0,0 +1,82 @@
+package com.sotatek.future.benchmark;
+
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Arithmetic of the values matching works with: prices, quantities and fee rates. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarginBigDecimalBenchmark {
+
+  private MarginBigDecimal price;
+  private MarginBigDecimal otherPrice;
+  private MarginBigDecimal quantity;
+  private MarginBigDecimal feeRate;
+  private MarginBigDecimal leverage;
+
+  @Setup
+  public void setUp() {
+    price = MarginBigDecimal.valueOf("30123.45");
+    otherPrice = MarginBigDecimal.valueOf("30098.7");
+    quantity = MarginBigDecimal.valueOf("0.125");
+    feeRate = MarginBigDecimal.valueOf("0.00075");
+    leverage = MarginBigDecimal.valueOf(20);
+  }
+
+  @Benchmark
+  public MarginBigDecimal add() {
+    return price.add(otherPrice);
+  }
+
+  @Benchmark
+  public MarginBigDecimal subtract() {
+    return price.subtract(otherPrice);
+  }
+
+  /** Notional value of a fill */
+  @Benchmark
+  public MarginBigDecimal multiply() {
+    return price.multiply(quantity);
+  }
+
+  /** Margin of a fill */
+  @Benchmark
+  public MarginBigDecimal divide() {
+    return price.divide(leverage);
+  }
+
+  /** Fee of a fill */
+  @Benchmark
+  public MarginBigDecimal multiplyThenDivide() {
+    return price.multiply(quantity).multiplyThenDivide(feeRate, leverage);
+  }
+
+  @Benchmark
+  public int compareTo() {
+    return price.compareTo(otherPrice);
+  }
+
+  @Benchmark
+  public MarginBigDecimal parse() {
+    return MarginBigDecimal.valueOf("30123.45");
+  }
+
+  @Benchmark
+  public String format() {
+    return price.toString();
+  }
+}
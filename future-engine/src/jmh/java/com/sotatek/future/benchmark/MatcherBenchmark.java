@@ -0,0 +1,128 @@
+package com.sotatek.future.benchmark;
+
+import static com.sotatek.future.benchmark.TradingFixture.MAKER_ACCOUNT_ID;
+import static com.sotatek.future.benchmark.TradingFixture.MID_PRICE;
+import static com.sotatek.future.benchmark.TradingFixture.TAKER_ACCOUNT_ID;
+
+import com.sotatek.future.engine.Matcher;
+import com.sotatek.future.engine.MatchingEngineConfig;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching of one symbol on a book of {@code levels} price levels per side, with {@code
+ * ordersPerLevel} resting orders each. Every invocation leaves the book as it found it, and the
+ * traders alternate sides so their positions stay small.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatcherBenchmark {
+
+  // a sweep takes as many levels as fit in one output message
+  private static final int SWEEP_LEVELS = MatchingEngineConfig.TRADES_PER_MESSAGE;
+  private static final int CANCELS = 100;
+
+  @Param({"10", "1000"})
+  public int levels;
+
+  @Param({"1", "10"})
+  public int ordersPerLevel;
+
+  private TradingFixture fixture;
+  private Matcher matcher;
+  private OrderSide takerSide = OrderSide.BUY;
+
+  @Setup
+  public void setUp() {
+    fixture = new TradingFixture();
+    matcher = new Matcher(TradingFixture.SYMBOL);
+    fixture.fillBook(matcher, levels, ordersPerLevel);
+  }
+
+  /** A maker order rests at the mid price, then a taker order fills it */
+  @Benchmark
+  public boolean matchTopOfBook() {
+    OrderSide makerSide = nextMakerSide();
+    matcher.processOrder(fixture.limitOrder(MAKER_ACCOUNT_ID, makerSide, MID_PRICE, 1));
+    fixture.commit();
+    boolean hasMore =
+        matcher.processOrder(fixture.limitOrder(TAKER_ACCOUNT_ID, takerSide, MID_PRICE, 1));
+    fixture.commit();
+    return hasMore;
+  }
+
+  /** Maker orders rest on consecutive levels from the mid price, then a taker order takes all */
+  @Benchmark
+  public boolean sweepLevels() {
+    OrderSide makerSide = nextMakerSide();
+    MarginBigDecimal price = MID_PRICE;
+    MarginBigDecimal tick = awayFromMid(makerSide);
+    for (int i = 0; i < SWEEP_LEVELS; i++) {
+      matcher.processOrder(fixture.limitOrder(MAKER_ACCOUNT_ID, makerSide, price, 1));
+      fixture.commit();
+      if (i < SWEEP_LEVELS - 1) {
+        price = price.add(tick);
+      }
+    }
+    boolean hasMore =
+        matcher.processOrder(fixture.limitOrder(TAKER_ACCOUNT_ID, takerSide, price, SWEEP_LEVELS));
+    fixture.commit();
+    return hasMore;
+  }
+
+  /**
+   * Orders rest inside the book, on its levels, then they are all canceled. The time is per order,
+   * placing and canceling.
+   */
+  @Benchmark
+  @OperationsPerInvocation(CANCELS)
+  public int cancelStorm() {
+    OrderSide side = nextMakerSide();
+    MarginBigDecimal best = matcher.getPendingOrdersQueue(side).first().getPrice();
+    MarginBigDecimal tick = awayFromMid(side);
+    List<Order> orders = new ArrayList<>(CANCELS);
+    for (int i = 0; i < CANCELS; i++) {
+      MarginBigDecimal price = best.add(tick.multiply(i % levels));
+      Order order = fixture.limitOrder(MAKER_ACCOUNT_ID, side, price, 1);
+      matcher.processOrder(order);
+      fixture.commit();
+      orders.add(order);
+    }
+    for (Order order : orders) {
+      matcher.cancelOrder(order);
+      fixture.commit();
+    }
+    return matcher.getPendingOrdersQueue(side).size();
+  }
+
+  private OrderSide nextMakerSide() {
+    OrderSide makerSide = takerSide;
+    takerSide = takerSide == OrderSide.BUY ? OrderSide.SELL : OrderSide.BUY;
+    return makerSide;
+  }
+
+  /** One tick deeper into the book of a side */
+  private static MarginBigDecimal awayFromMid(OrderSide side) {
+    return side == OrderSide.SELL ? MarginBigDecimal.ONE : MarginBigDecimal.NEGATIVE_ONE;
+  }
+}
@@ -0,0 +1,57 @@
+package com.sotatek.future.benchmark;
+
+import static com.sotatek.future.benchmark.TradingFixture.MAKER_ACCOUNT_ID;
+import static com.sotatek.future.benchmark.TradingFixture.MID_PRICE;
+import static com.sotatek.future.benchmark.TradingFixture.TAKER_ACCOUNT_ID;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.Trade;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.service.OrderService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One trade between two orders, with the margin, fee and position updates of both accounts but
+ * without the order book.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderServiceBenchmark {
+
+  private TradingFixture fixture;
+  private OrderService orderService;
+  private OrderSide takerSide = OrderSide.BUY;
+
+  @Setup
+  public void setUp() {
+    fixture = new TradingFixture();
+    orderService = OrderService.getInstance();
+  }
+
+  /** The taker fills the maker, the traders alternate sides so their positions stay small */
+  @Benchmark
+  public Pair<Order, Trade> matchOrders() {
+    OrderSide makerSide = takerSide;
+    takerSide = takerSide == OrderSide.BUY ? OrderSide.SELL : OrderSide.BUY;
+    Order maker = fixture.limitOrder(MAKER_ACCOUNT_ID, makerSide, MID_PRICE, 1);
+    Order taker = fixture.limitOrder(TAKER_ACCOUNT_ID, takerSide, MID_PRICE, 1);
+    Pair<Order, Trade> result = orderService.matchOrders(taker, maker);
+    fixture.commit();
+    return result;
+  }
+}
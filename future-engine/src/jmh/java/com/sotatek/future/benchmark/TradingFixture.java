@@ -0,0 +1,256 @@
+package com.sotatek.future.benchmark;
+
+import static com.sotatek.future.enums.OrderSide.BUY;
+import static com.sotatek.future.enums.OrderSide.SELL;
+
+import com.sotatek.future.engine.Matcher;
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.entity.Instrument;
+import com.sotatek.future.entity.InstrumentExtraInformation;
+import com.sotatek.future.entity.LeverageMargin;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.TradingRule;
+import com.sotatek.future.enums.Asset;
+import com.sotatek.future.enums.ContractType;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.enums.TimeInForce;
+import com.sotatek.future.service.AccountService;
+import com.sotatek.future.service.FundingService;
+import com.sotatek.future.service.InstrumentService;
+import com.sotatek.future.service.MarginHistoryService;
+import com.sotatek.future.service.OrderBookService;
+import com.sotatek.future.service.OrderService;
+import com.sotatek.future.service.PositionHistoryService;
+import com.sotatek.future.service.PositionService;
+import com.sotatek.future.service.ServiceFactory;
+import com.sotatek.future.service.TradeService;
+import com.sotatek.future.service.TradingRuleService;
+import com.sotatek.future.service.TransactionService;
+import com.sotatek.future.util.MarginBigDecimal;
+
+/**
+ * Services, instrument and accounts of one symbol, with a book of resting orders around a mid
+ * price, for the benchmarks which run the matching core without the engine loop.
+ *
+ * <p>The resting book is placed away from the mid price, so orders placed by a benchmark at the
+ * mid price only match each other and the book keeps its shape between invocations.
+ */
+public class TradingFixture {
+
+  public static final String SYMBOL = "BTCUSDT";
+  public static final Asset ASSET = Asset.USDT;
+  public static final long INSURANCE_ACCOUNT_ID = 1_000_000_000L;
+  // the two traders of the benchmarks, resting book accounts start after them
+  public static final long MAKER_ACCOUNT_ID = 1;
+  public static final long TAKER_ACCOUNT_ID = 2;
+  private static final long FIRST_BOOK_ACCOUNT_ID = 3;
+  private static final int BOOK_ACCOUNTS = 100;
+
+  public static final MarginBigDecimal MID_PRICE = MarginBigDecimal.valueOf(30000);
+  public static final MarginBigDecimal LEVERAGE = MarginBigDecimal.valueOf(10);
+  // distance between the mid price and the best resting order
+  private static final long SPREAD = 1000;
+
+  private final AccountService accountService;
+  private final OrderService orderService;
+  private final PositionService positionService;
+  private final TradeService tradeService;
+  private final FundingService fundingService;
+  private final MarginHistoryService marginHistoryService;
+  private final PositionHistoryService positionHistoryService;
+  private final TransactionService transactionService;
+  private final OrderBookService orderbookService;
+  private long nextOrderId = 1;
+
+  public TradingFixture() {
+    ServiceFactory.initialize();
+    accountService = AccountService.getInstance();
+    orderService = OrderService.getInstance();
+    positionService = PositionService.getInstance();
+    tradeService = TradeService.getInstance();
+    fundingService = FundingService.getInstance();
+    marginHistoryService = MarginHistoryService.getInstance();
+    positionHistoryService = PositionHistoryService.getInstance();
+    transactionService = TransactionService.getInstance();
+    orderbookService = OrderBookService.getInstance();
+    InstrumentService instrumentService = InstrumentService.getInstance();
+
+    accountService.clear();
+    positionService.clear();
+    instrumentService.clear();
+    clearHistory();
+    accountService.setCurrentId(1);
+    fundingService.setCurrentId(1);
+    instrumentService.setCurrentId(1);
+    marginHistoryService.setCurrentId(1);
+    orderService.setCurrentId(1);
+    positionService.setCurrentId(1);
+    positionHistoryService.setCurrentId(1);
+    tradeService.setCurrentId(1);
+    transactionService.setCurrentId(1);
+
+    instrumentService.update(createInstrument());
+    instrumentService.commit();
+    InstrumentExtraInformation extraInformation = new InstrumentExtraInformation();
+    extraInformation.setSymbol(SYMBOL);
+    extraInformation.setOraclePrice(MID_PRICE);
+    instrumentService.updateExtraInfo(extraInformation);
+    loadTradingRules();
+
+    AccountService.INSURANCE_ACCOUNT_IDS.put(ASSET, INSURANCE_ACCOUNT_ID);
+    Account insurance = createAccount(INSURANCE_ACCOUNT_ID, MarginBigDecimal.valueOf(100_000_000));
+    insurance.setUserId(AccountService.INSURANCE_USER_ID);
+    accountService.update(insurance);
+    for (long id = MAKER_ACCOUNT_ID; id < FIRST_BOOK_ACCOUNT_ID + BOOK_ACCOUNTS; id++) {
+      accountService.update(createAccount(id, MarginBigDecimal.valueOf(1_000_000_000)));
+    }
+    accountService.commit();
+  }
+
+  private static Instrument createInstrument() {
+    Instrument instrument = new Instrument();
+    instrument.setSymbol(SYMBOL);
+    instrument.setRootSymbol("BTC");
+    instrument.setState("Open");
+    instrument.setType(0);
+    instrument.setInitMargin(MarginBigDecimal.valueOf("0.01"));
+    instrument.setMaintainMargin(MarginBigDecimal.valueOf("0.005"));
+    instrument.setMultiplier(MarginBigDecimal.ONE);
+    instrument.setTickSize(MarginBigDecimal.valueOf("0.01"));
+    instrument.setContractSize(MarginBigDecimal.valueOf("0.000001"));
+    instrument.setLotSize(MarginBigDecimal.valueOf("100"));
+    instrument.setReferenceIndex("BTC");
+    instrument.setFundingBaseIndex("BTCBON8H");
+    instrument.setFundingQuoteIndex("USDBON8H");
+    instrument.setFundingPremiumIndex("BTCUSDPI8H");
+    instrument.setFundingInterval(8);
+    instrument.setMaxPrice(MarginBigDecimal.valueOf(1_000_000));
+    instrument.setMaxOrderQty(MarginBigDecimal.valueOf(1_000_000));
+    instrument.setTakerFee(MarginBigDecimal.valueOf("0.00075"));
+    instrument.setMakerFee(MarginBigDecimal.valueOf("0.00025"));
+    instrument.setContractType(ContractType.USD_M);
+    return instrument;
+  }
+
+  /** The first tiers of the leverage margin of the symbol, and its liquidation clearance fee */
+  private static void loadTradingRules() {
+    TradingRuleService tradingRuleService = TradingRuleService.INSTANCE;
+    tradingRuleService.clear();
+    tradingRuleService.loadLeverageMarginRule(leverageMargin(0, 0, 50_000, 125, "0.4", 0));
+    tradingRuleService.loadLeverageMarginRule(leverageMargin(1, 50_000, 250_000, 100, "0.5", 50));
+    tradingRuleService.loadLeverageMarginRule(
+        leverageMargin(2, 250_000, 1_000_000, 50, "1", 1_300));
+    tradingRuleService.loadLeverageMarginRule(
+        leverageMargin(3, 1_000_000, 10_000_000, 20, "2.5", 16_300));
+    TradingRule rule = new TradingRule();
+    rule.setSymbol(SYMBOL);
+    rule.setLiqClearanceFee(MarginBigDecimal.valueOf(2));
+    tradingRuleService.loadTradingRule(rule);
+  }
+
+  private static LeverageMargin leverageMargin(
+      int tier, long min, long max, int maxLeverage, String rate, long amount) {
+    return new LeverageMargin(
+        tier,
+        MarginBigDecimal.valueOf(min),
+        MarginBigDecimal.valueOf(max),
+        maxLeverage,
+        MarginBigDecimal.valueOf(rate),
+        MarginBigDecimal.valueOf(amount),
+        SYMBOL);
+  }
+
+  private static Account createAccount(long id, MarginBigDecimal balance) {
+    Account account = Account.builder().build();
+    account.setId(id);
+    account.setUserId(id);
+    account.setAsset(ASSET);
+    account.setBalance(balance);
+    return account;
+  }
+
+  /**
+   * Fill both sides of the matcher with resting orders, {@code ordersPerLevel} orders on each of
+   * {@code levels} price levels, one tick apart from the spread.
+   */
+  public void fillBook(Matcher matcher, int levels, int ordersPerLevel) {
+    for (int level = 0; level < levels; level++) {
+      MarginBigDecimal bid = MID_PRICE.subtract(MarginBigDecimal.valueOf(SPREAD + level));
+      MarginBigDecimal ask = MID_PRICE.add(MarginBigDecimal.valueOf(SPREAD + level));
+      for (int i = 0; i < ordersPerLevel; i++) {
+        long accountId = FIRST_BOOK_ACCOUNT_ID + (level * ordersPerLevel + i) % BOOK_ACCOUNTS;
+        matcher.getPendingOrdersQueue(OrderSide.BUY).add(limitOrder(accountId, BUY, bid, 1));
+        matcher.getPendingOrdersQueue(OrderSide.SELL).add(limitOrder(accountId, SELL, ask, 1));
+      }
+    }
+    commit();
+  }
+
+  /** A GTC limit order, with the cost and margin the order service would have locked for it */
+  public Order limitOrder(long accountId, OrderSide side, MarginBigDecimal price, long quantity) {
+    MarginBigDecimal size = MarginBigDecimal.valueOf(quantity);
+    MarginBigDecimal cost = price.multiply(size).divide(LEVERAGE);
+    Order order =
+        Order.builder()
+            .accountId(accountId)
+            .userId(accountId)
+            .asset(ASSET)
+            .quantity(size)
+            .remaining(size)
+            .status(OrderStatus.ACTIVE)
+            .side(side)
+            .timeInForce(TimeInForce.GTC)
+            .cost(cost)
+            .originalCost(cost)
+            .leverage(LEVERAGE)
+            .price(price)
+            .orderMargin(cost)
+            .originalOrderMargin(cost)
+            .symbol(SYMBOL)
+            .type(OrderType.LIMIT)
+            .build();
+    order.setId(nextOrderId);
+    order.setPriority(nextOrderId);
+    nextOrderId++;
+    return order;
+  }
+
+  /**
+   * Commit the services like the engine does after a command, then drop the orders and history it
+   * would have published, so that a long benchmark keeps only accounts and positions in memory.
+   */
+  public void commit() {
+    accountService.commit();
+    positionService.commit();
+    orderService.commit();
+    tradeService.commit();
+    marginHistoryService.commit();
+    positionHistoryService.commit();
+    transactionService.commit();
+    orderbookService.commit();
+    clearHistory();
+  }
+
+  /** Roll back the services like the engine does after a failed command */
+  public void rollback() {
+    accountService.rollback();
+    positionService.rollback();
+    orderService.rollback();
+    tradeService.rollback();
+    marginHistoryService.rollback();
+    transactionService.rollback();
+    orderbookService.rollback();
+    clearHistory();
+  }
+
+  private void clearHistory() {
+    orderService.clear();
+    tradeService.clear();
+    fundingService.clear();
+    marginHistoryService.clear();
+    positionHistoryService.clear();
+    transactionService.clear();
+  }
+}
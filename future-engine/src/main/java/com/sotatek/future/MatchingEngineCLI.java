@@ -1,5 +1,6 @@
 package com.sotatek.future;
 
+import com.sotatek.future.engine.CommandRingBuffer.WaitStrategy;
 import com.sotatek.future.engine.MatchingEngine;
 import com.sotatek.future.engine.MatchingEngineConfig;
 import com.sotatek.future.enums.InputDriver;
@@ -8,6 +9,8 @@ import com.sotatek.future.enums.KafkaTopic;
 import com.sotatek.future.enums.OutputDriver;
 import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
 import com.sotatek.future.input.InputStreamFactory;
+import com.sotatek.future.output.JsonOutputStream;
+import com.sotatek.future.output.OrderBookOutputStream;
 import com.sotatek.future.output.OutputStreamFactory;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,7 +30,9 @@ public class MatchingEngineCLI {
 
     MatchingEngineConfig config = new MatchingEngineConfig();
 
-    config.setCommandInputDriver(InputDriver.KAFKA);
+    // KAFKA_BINARY can be selected for producers which encode commands with BinaryCodec
+    config.setCommandInputDriver(
+        InputDriver.valueOf(System.getProperty("command.input.driver", "KAFKA")));
     config.setCommandPreloadDriver(InputDriver.KAFKA);
     Map<String, Object> inputParams = new HashMap<>();
     inputParams.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaBrokers);
@@ -41,7 +46,8 @@ public class MatchingEngineCLI {
     inputParams.put(InputStreamFactory.INPUT_QUEUE, KafkaTopic.MATCHING_ENGINE_INPUT.getValue());
     config.setInputParameters(inputParams);
 
-    config.setCommandOutputDriver(OutputDriver.KAFKA);
+    config.setCommandOutputDriver(
+        OutputDriver.valueOf(System.getProperty("command.output.driver", "KAFKA")));
     config.setOrderBookOutputDriver(OutputDriver.KAFKA);
     Map<String, Object> outputParams = new HashMap<>();
     outputParams.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaBrokers);
@@ -52,7 +58,28 @@ public class MatchingEngineCLI {
     outputParams.put(
         OutputStreamFactory.OUTPUT_QUEUE, KafkaTopic.MATCHING_ENGINE_OUTPUT.getValue());
     outputParams.put(OutputStreamFactory.ORDERBOOK_QUEUE, KafkaTopic.ORDERBOOK_OUTPUT.getValue());
+    // comma separated depths of the incremental orderbook events, each on its own topic:
+    // orderbook_output_top_20... orderbook_output keeps the full books
+    outputParams.put(
+        OrderBookOutputStream.DEPTHS, System.getProperty("orderbook.depths", "TOP_20,TOP_1000"));
+    // batching of the JSON command output
+    outputParams.put(
+        JsonOutputStream.BATCH_SIZE,
+        Integer.getInteger("output.batch.size", MatchingEngineConfig.OUTPUT_BATCH_SIZE));
+    outputParams.put(JsonOutputStream.LINGER_MS, Long.getLong("output.linger.ms", 0L));
+    outputParams.put(
+        ProducerConfig.COMPRESSION_TYPE_CONFIG, System.getProperty("output.compression", "lz4"));
     config.setOutputParameters(outputParams);
+    config.setCommandWaitStrategy(
+        WaitStrategy.valueOf(System.getProperty("command.wait.strategy", "BLOCKING")));
+    // restart from the latest snapshot and the journal instead of the preload when it is set
+    config.setJournalDirectory(System.getProperty("journal.dir"));
+    config.setSnapshotInterval(Long.getLong("journal.snapshot.interval", 1_000_000L));
+    // record the input for ReplayEngineCLI when it is set
+    config.setRecordDirectory(System.getProperty("command.record.dir"));
+    // settle funding in outputs of up to this number of positions
+    config.setFundingBatchSize(
+        Integer.getInteger("funding.batch.size", MatchingEngineConfig.FUNDING_BATCH_SIZE));
 
     MatchingEngine matchingEngine = MatchingEngine.getInstance();
     try {
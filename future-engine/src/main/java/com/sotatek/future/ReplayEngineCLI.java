@@ -0,0 +1,87 @@
+package com.sotatek.future;
+
+import com.sotatek.future.engine.MatchingEngineConfig;
+import com.sotatek.future.engine.ReplayMatchingEngine;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
+import com.sotatek.future.journal.CommandJournal;
+import com.sotatek.future.output.ListOutputStream;
+import com.sotatek.future.util.metrics.LatencyHistogram.Interval;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Replay the commands recorded by an engine started with {@code -Dcommand.record.dir} and report
+ * the throughput, the latency percentiles, the GC activity and a digest of the outputs.
+ *
+ * <p>Two replays of the same recording have the same digest, unless the engine processes the
+ * commands differently.
+ */
+@Slf4j
+public class ReplayEngineCLI {
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  public static void main(String[] args) throws InvalidMatchingEngineConfigException {
+    System.setProperty("user.timezone", "UTC");
+
+    Path directory = Path.of(args[0]);
+    List<Command> recording = new ArrayList<>();
+    CommandJournal.read(directory, 0, record -> recording.add(record.command()));
+    log.atInfo()
+        .addKeyValue("directory", directory)
+        .addKeyValue("commands", recording.size())
+        .log("Loaded recording");
+
+    ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+    ListOutputStream<OrderBookOutput> orderBookOutputStream = new ListOutputStream<>();
+    MatchingEngineConfig config =
+        ReplayMatchingEngine.createConfig(commandOutputStream, orderBookOutputStream);
+    ReplayMatchingEngine engine = new ReplayMatchingEngine(recording);
+    engine.initialize(config);
+
+    long gcCount = gcCount();
+    long gcMillis = gcMillis();
+    long startTime = System.nanoTime();
+    engine.replay();
+    long elapsed = System.nanoTime() - startTime;
+    gcCount = gcCount() - gcCount;
+    gcMillis = gcMillis() - gcMillis;
+
+    Interval latencies = engine.getLatencies().readInterval(QUANTILES);
+    System.out.printf(
+        "commands: %d in %.3f s, %.0f commands/s%n",
+        engine.getFedCommands(), elapsed / 1e9, engine.getFedCommands() * 1e9 / elapsed);
+    if (latencies.quantileNanos() != null) {
+      System.out.printf(
+          "latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+          latencies.quantileNanos()[0] / 1e3,
+          latencies.quantileNanos()[1] / 1e3,
+          latencies.quantileNanos()[2] / 1e3,
+          latencies.quantileNanos()[3] / 1e3,
+          latencies.maxNanos() / 1e3);
+    }
+    System.out.printf("gc: %d collections, %d ms%n", gcCount, gcMillis);
+    List<CommandOutput> outputs = commandOutputStream.getData();
+    System.out.printf(
+        "outputs: %d, digest: %s%n", outputs.size(), ReplayMatchingEngine.digest(outputs));
+  }
+
+  private static long gcCount() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+        .sum();
+  }
+
+  private static long gcMillis() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+        .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+        .sum();
+  }
+}
@@ -1,5 +1,6 @@
 package com.sotatek.future;
 
+import com.sotatek.future.engine.MatchingEngineConfig;
 import com.sotatek.future.engine.ShardedMatchingEngine;
 import com.sotatek.future.engine.ShardedMatchingEngineConfig;
 import com.sotatek.future.enums.InputDriver;
@@ -7,6 +8,7 @@ import com.sotatek.future.enums.KafkaGroup;
 import com.sotatek.future.enums.OutputDriver;
 import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
 import com.sotatek.future.input.InputStreamFactory;
+import com.sotatek.future.output.JsonOutputStream;
 import com.sotatek.future.output.OutputStreamFactory;
 import com.sotatek.future.router.ShardHealthServer;
 import com.sotatek.future.router.ShardInfo.ShardRole;
@@ -141,6 +143,11 @@ public class ShardedMatchingEngineCLI {
         outputParams.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
         outputParams.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
         outputParams.put(ProducerConfig.ACKS_CONFIG, "all");
+        outputParams.put(JsonOutputStream.BATCH_SIZE,
+                Integer.getInteger("output.batch.size", MatchingEngineConfig.OUTPUT_BATCH_SIZE));
+        outputParams.put(JsonOutputStream.LINGER_MS, Long.getLong("output.linger.ms", 0L));
+        outputParams.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,
+                System.getProperty("output.compression", "lz4"));
 
         // Use shard-specific output topics
         String outputTopic = "matching-engine-" + args.shardId + "-output";
@@ -0,0 +1,235 @@
+package com.sotatek.future.engine;
+
+import com.sotatek.future.entity.Command;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer, single-consumer queue of commands for the matching engine loop.
+ *
+ * <p>Slots are preallocated in a ring. Producers (input streams, trigger thread) claim a sequence
+ * with a CAS and publish the command into its slot, so an enqueue neither allocates a node nor
+ * takes a lock. When the ring is full, producers wait until the engine frees a slot, which applies
+ * backpressure to the input stream instead of growing the heap during a replay burst.
+ *
+ * <p>The engine thread itself also enqueues commands (e.g. tp/sl orders of a position, the input
+ * stream connected by START_ENGINE). It cannot wait for free space because it is the only one
+ * which frees it, so when the ring is full its commands go to an overflow queue. Each overflow
+ * command keeps the sequence it would have had, so commands are still taken in enqueue order.
+ *
+ * <p>The ring has a single consumer stage. Decoding and deduplication of order commands run on the
+ * producer threads before a command is added; journaling and matching run on the engine thread
+ * after it is taken; serialization and publishing of the outputs run on the threads of the output
+ * stream.
+ */
+public class CommandRingBuffer {
+
+  /** How the engine thread waits for the next command. */
+  public enum WaitStrategy {
+    /** Spin on the slot, lowest latency but keeps one core busy. */
+    BUSY_SPIN,
+    /** Spin for a while then yield the core to other threads. */
+    YIELD,
+    /** Park until a producer publishes a command. */
+    BLOCKING
+  }
+
+  private static final int SPIN_TRIES = 100;
+  private static final long CONSUMER_PARK_NANOS = 1_000_000;
+  private static final long PRODUCER_PARK_NANOS = 50_000;
+
+  private final int capacity;
+  private final int mask;
+  private final Command[] slots;
+  // sequence published in each slot, a slot is readable when it holds the expected sequence
+  private final AtomicLongArray published;
+  // next sequence to claim by producers
+  private final AtomicLong tail = new AtomicLong();
+  // next sequence to take by the engine thread
+  private volatile long head = 0;
+  // commands enqueued by the engine thread while the ring was full, only accessed by that thread
+  private final Deque<PendingCommand> overflow = new ArrayDeque<>();
+  private volatile int overflowSize = 0;
+  private volatile Thread consumer;
+  private volatile boolean consumerWaiting = false;
+  private volatile WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+  public CommandRingBuffer(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+    }
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.slots = new Command[capacity];
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+  }
+
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Make the calling thread the engine thread before it takes its first command, so the commands
+   * it enqueues before (e.g. a list preload) never wait for space
+   */
+  public void registerConsumer() {
+    consumer = Thread.currentThread();
+  }
+
+  /**
+   * Enqueue a command, waiting for a free slot if the ring is full and the caller is not the
+   * engine thread
+   */
+  public void add(Command command) {
+    if (Thread.currentThread() == consumer) {
+      addFromConsumer(command);
+      return;
+    }
+    int spins = 0;
+    long sequence = tail.get();
+    while (true) {
+      if (sequence - head >= capacity) {
+        // ring is full, wait for the engine to take a command
+        if (++spins < SPIN_TRIES) {
+          Thread.onSpinWait();
+        } else {
+          LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+        }
+        sequence = tail.get();
+      } else if (tail.compareAndSet(sequence, sequence + 1)) {
+        break;
+      } else {
+        sequence = tail.get();
+      }
+    }
+    publish(sequence, command);
+  }
+
+  public void addAll(Iterable<Command> commands) {
+    for (Command command : commands) {
+      add(command);
+    }
+  }
+
+  /**
+   * Take the next command, waiting with the configured wait strategy if there is none. It must
+   * always be called by the same (engine) thread.
+   */
+  public Command take() throws InterruptedException {
+    if (consumer != Thread.currentThread()) {
+      consumer = Thread.currentThread();
+    }
+    long sequence = head;
+    PendingCommand pending = overflow.peekFirst();
+    if (pending != null && pending.sequence == sequence) {
+      overflow.pollFirst();
+      overflowSize--;
+      return pending.command;
+    }
+    int index = (int) sequence & mask;
+    waitFor(sequence, index);
+    Command command = slots[index];
+    slots[index] = null;
+    head = sequence + 1;
+    return command;
+  }
+
+  /**
+   * @return sequence of the next command added by a producer thread, all commands added by
+   *     producers before the call have a lower one
+   */
+  public long getAddedSequence() {
+    return tail.get();
+  }
+
+  /** @return sequence of the next command to take, commands of lower ones have been taken */
+  public long getTakenSequence() {
+    return head;
+  }
+
+  /** @return number of commands waiting to be taken */
+  public int size() {
+    return (int) (tail.get() - head) + overflowSize;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  private void addFromConsumer(Command command) {
+    if (overflow.isEmpty()) {
+      long sequence = tail.get();
+      while (sequence - head < capacity) {
+        if (tail.compareAndSet(sequence, sequence + 1)) {
+          publish(sequence, command);
+          return;
+        }
+        sequence = tail.get();
+      }
+    }
+    // the command is taken right before the ring command which would be claimed next
+    overflow.addLast(new PendingCommand(tail.get(), command));
+    overflowSize++;
+  }
+
+  private void publish(long sequence, Command command) {
+    int index = (int) sequence & mask;
+    slots[index] = command;
+    published.set(index, sequence);
+    if (consumerWaiting) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  private void waitFor(long sequence, int index) throws InterruptedException {
+    int spins = 0;
+    while (published.get(index) != sequence) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      switch (waitStrategy) {
+        case BUSY_SPIN -> Thread.onSpinWait();
+        case YIELD -> {
+          if (++spins < SPIN_TRIES) {
+            Thread.onSpinWait();
+          } else {
+            Thread.yield();
+          }
+        }
+        case BLOCKING -> {
+          consumerWaiting = true;
+          // check again after publishing the flag, so a producer either sees the flag or we see
+          // its command
+          if (published.get(index) != sequence) {
+            LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+          }
+          consumerWaiting = false;
+        }
+      }
+    }
+  }
+
+  private static class PendingCommand {
+    private final long sequence;
+    private final Command command;
+
+    PendingCommand(long sequence, Command command) {
+      this.sequence = sequence;
+      this.command = command;
+    }
+  }
+}
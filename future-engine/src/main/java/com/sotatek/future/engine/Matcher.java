@@ -22,8 +22,10 @@ import com.sotatek.future.service.PositionService;
 import com.sotatek.future.service.TradeService;
 import com.sotatek.future.util.MarginBigDecimal;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.TreeMap;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -33,16 +35,10 @@ public class Matcher {
 
   private final String symbol;
 
-  // Buy Order queue, where orders with higher price appear first
-  private final TreeSet<Order> buyOrders =
-      new TreeSet<>(
-          OrderComparators.HighPriceComparator.thenComparing(
-              OrderComparators.LowPriorityComparator));
-  // Sell Order queue, where orders with a lower price appear first
-  private final TreeSet<Order> sellOrders =
-      new TreeSet<>(
-          OrderComparators.LowPriceComparator.thenComparing(
-              OrderComparators.LowPriorityComparator));
+  // Buy Order book, where orders with higher price appear first
+  private final OrderBookSide buyOrders = new OrderBookSide(OrderSide.BUY);
+  // Sell Order book, where orders with a lower price appear first
+  private final OrderBookSide sellOrders = new OrderBookSide(OrderSide.SELL);
 
   private final List<Order> processingEntities = new ArrayList<>();
   private final OrderBookService orderbookService = OrderBookService.getInstance();
@@ -58,7 +54,41 @@ public class Matcher {
   public void cancelOrder(Order cancelOrder) {
     log.debug("Cancel order: {}", cancelOrder);
     MarginBigDecimal orderBookQuantity = cancelOrder.getOrderBookQuantity();
-    TreeSet<Order> orderQueue = getPendingOrdersQueue(cancelOrder.getSide());
+    // update order-book with a quantity negate (subtract) with the same other order's price
+    if (cancel(cancelOrder)) {
+      updateOrderBookOutput(
+          cancelOrder.getSide(), cancelOrder.getPrice(), orderBookQuantity.negate());
+    }
+  }
+
+  /**
+   * Cancel orders of this symbol together, the order book gets one update per price level instead
+   * of one per order
+   */
+  public void cancelOrders(List<Order> cancelOrders) {
+    log.debug("Cancel {} orders", cancelOrders.size());
+    Map<OrderSide, Map<MarginBigDecimal, MarginBigDecimal>> removedQuantities =
+        new EnumMap<>(OrderSide.class);
+    for (Order cancelOrder : cancelOrders) {
+      MarginBigDecimal orderBookQuantity = cancelOrder.getOrderBookQuantity();
+      if (cancel(cancelOrder)) {
+        removedQuantities
+            .computeIfAbsent(cancelOrder.getSide(), side -> new TreeMap<>())
+            .merge(cancelOrder.getPrice(), orderBookQuantity, MarginBigDecimal::add);
+      }
+    }
+    removedQuantities.forEach(
+        (side, levels) ->
+            levels.forEach(
+                (price, quantity) -> updateOrderBookOutput(side, price, quantity.negate())));
+  }
+
+  /**
+   * Remove the order from the order queue and cancel it
+   *
+   * @return true if the order was on the order book
+   */
+  private boolean cancel(Order cancelOrder) {
     // initial variable for update order book or not
     boolean updateOrderBook = false;
     // remove order limit from order queue
@@ -67,7 +97,7 @@ public class Matcher {
       // + order is limit order
       // + order existed on order queue of Matcher => this mean order is active and do not cancel
       // yet
-      updateOrderBook = orderQueue.remove(cancelOrder);
+      updateOrderBook = getPendingOrdersQueue(cancelOrder.getSide()).remove(cancelOrder);
       if (!updateOrderBook) {
         log.debug(
             "Cancel order not update order book due to orderQueue not contain order {}",
@@ -76,21 +106,19 @@ public class Matcher {
     }
     // execute cancel order
     orderService.cancel(cancelOrder);
-    // update order-book with a quantity negate (subtract) with the same other order's price
-    if (updateOrderBook) {
-      updateOrderBookOutput(
-          cancelOrder.getSide(), cancelOrder.getPrice(), orderBookQuantity.negate());
-    }
+    return updateOrderBook;
   }
 
   public boolean processOrder(Order order) {
     log.atDebug().log("Process order: {}", order.getId());
     // get order book on opposite side
-    TreeSet<Order> orderBookOpposite = getPendingOrdersQueue(order.getOppositeSide());
+    OrderBookSide orderBookOpposite = getPendingOrdersQueue(order.getOppositeSide());
     int tradeCount = 0;
     Order candidate;
     while (order.canBeMatched() && !orderBookOpposite.isEmpty()) {
-      candidate = orderBookOpposite.first().deepCopy();
+      // the resting order is not modified by matching, it keeps the state before this match
+      Order originCandidate = orderBookOpposite.first();
+      candidate = originCandidate.deepCopy();
       if (!order.canBeMatchedWith(candidate)) {
         log.atDebug().log("Candidate {} cannot be matched", candidate.getId());
         break;
@@ -105,7 +133,6 @@ public class Matcher {
       if (order.isPostOnly()) {
         throw new PostOnlyOrderException(order.getId());
       }
-      Order originCandidate = candidate.deepCopy();
       processingEntities.add(originCandidate);
 
       Trade trade = null;
@@ -116,8 +143,6 @@ public class Matcher {
         // trade successful then commit a version of processing entity to temporary
         commitTemporarily();
         trade = matchOrders(order, candidate);
-        // remove candidate from queue if match order is successful
-        orderBookOpposite.remove(candidate);
       } catch (InsufficientBalanceException e) {
         log.atError()
             .setCause(e)
@@ -134,7 +159,7 @@ public class Matcher {
         // roll back all state of service
         rollBackTemporarily();
         // roll back order with previous state
-        order = processOrderBefore.deepCopy();
+        order = processOrderBefore;
         // handle for logic when account is insufficient balance
         // get account which has insufficient balance from exception
         Account insufficientAccount = e.getAccount();
@@ -177,12 +202,19 @@ public class Matcher {
             candidate.getPrice(),
             candidate.getOrderBookQuantity().subtract(originCandidate.getOrderBookQuantity()));
       }
+      if (isSufficientBalance) {
+        // candidate queue is already handled on insufficient balance
+        continue;
+      }
       if (OrderNote.REDUCE_ONLY_CANCELED.equals(candidate.getNote())) {
-        // add back candidate order to queue before cancel
-        getPendingOrdersQueue(candidate.getSide()).add(candidate);
+        // keep the matched state of candidate on its level before cancel
+        orderBookOpposite.update(candidate);
         cancelOrder(candidate);
       } else if (candidate.canBeMatched() && trade != null) {
-        getPendingOrdersQueue(candidate.getSide()).add(candidate);
+        // partial fill, candidate keeps its position on the price level
+        orderBookOpposite.update(candidate);
+      } else {
+        orderBookOpposite.remove(candidate);
       }
     }
 
@@ -216,7 +248,7 @@ public class Matcher {
     accountService.rollbackTemporary();
   }
 
-  public TreeSet<Order> getPendingOrdersQueue(OrderSide side) {
+  public OrderBookSide getPendingOrdersQueue(OrderSide side) {
     return (OrderSide.BUY == side) ? buyOrders : sellOrders;
   }
 
@@ -224,7 +256,7 @@ public class Matcher {
     log.debug("activateOrder");
     if (order.canBeActivated()) {
       // calculate lock price and active order
-      TreeSet<Order> orderQueue = getPendingOrdersQueue(order.getOppositeSide());
+      OrderBookSide orderQueue = getPendingOrdersQueue(order.getOppositeSide());
       MarginBigDecimal lockPrice = orderService.calculateLockPrice(order, orderQueue);
       order.setLockPrice(lockPrice);
       orderService.activateOrder(order);
@@ -235,7 +267,7 @@ public class Matcher {
 
   public void reactivateOrder(Order order) {
     log.debug("reactivateOrder {}", order);
-    TreeSet<Order> orderQueue = getPendingOrdersQueue(order.getOppositeSide());
+    OrderBookSide orderQueue = getPendingOrdersQueue(order.getOppositeSide());
     MarginBigDecimal newLockPrice = orderService.calculateLockPrice(order, orderQueue);
     orderService.reactivateOrder(order, newLockPrice);
   }
@@ -306,8 +338,14 @@ public class Matcher {
     if (processingEntities.isEmpty()) {
       return;
     }
-    TreeSet<Order> queue = getPendingOrdersQueue(processingEntities.get(0).getSide());
-    processingEntities.forEach(queue::add);
+    OrderBookSide queue = getPendingOrdersQueue(processingEntities.get(0).getSide());
+    // restore the earliest state of each candidate
+    for (int i = processingEntities.size() - 1; i >= 0; i--) {
+      Order candidate = processingEntities.get(i);
+      if (!queue.update(candidate)) {
+        queue.add(candidate);
+      }
+    }
   }
 
   private void log(String message, Object... params) {
@@ -3,12 +3,18 @@ package com.sotatek.future.engine;
 import com.sotatek.future.engine.Trigger.OnOrderTriggeredListener;
 import com.sotatek.future.entity.*;
 import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
 import com.sotatek.future.enums.OrderStatus;
 import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
 import com.sotatek.future.exception.MarginException;
+import com.sotatek.future.input.InputProgress;
 import com.sotatek.future.input.InputStream;
 import com.sotatek.future.input.InputStreamFactory;
 import com.sotatek.future.input.OnNewDataListener;
+import com.sotatek.future.journal.CommandJournal;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.JournalRecord;
+import com.sotatek.future.journal.SnapshotStore;
 import com.sotatek.future.model.*;
 import com.sotatek.future.output.JsonOutputStream;
 import com.sotatek.future.output.OrderBookOutputStream;
@@ -27,13 +33,16 @@ import com.sotatek.future.service.ServiceFactory;
 import com.sotatek.future.service.TradeService;
 import com.sotatek.future.service.TradingRuleService;
 import com.sotatek.future.service.TransactionService;
-import com.sotatek.future.thread.TriggerThread;
 import com.sotatek.future.usecase.*;
 import com.sotatek.future.util.OperationIdGenerator;
+import com.sotatek.future.util.metrics.LatencyRecorder;
+import com.sotatek.future.util.metrics.LatencyRecorder.Stage;
 import com.sotatek.util.SelfExpiringConcurrentMap;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -42,7 +51,8 @@ import org.apache.commons.lang3.ObjectUtils;
 
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
-public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTriggeredListener {
+public class MatchingEngine
+    implements OnNewDataListener<Command>, OnOrderTriggeredListener, InputProgress {
   private static MatchingEngine instance = new MatchingEngine();
 
   public static void setInstance(MatchingEngine engine) {
@@ -50,7 +60,8 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
   }
   public static final Map<String, Matcher> matchers = new HashMap<>();
   public static final Map<String, Trigger> triggers = new HashMap<>();
-  public static final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+  public static final CommandRingBuffer commands =
+      new CommandRingBuffer(MatchingEngineConfig.COMMAND_BUFFER_SIZE);
   private Command currentProcCommand;
   private final SelfExpiringConcurrentMap<Long, CommandCode> receivedOrders =
       new SelfExpiringConcurrentMap<>();
@@ -87,6 +98,25 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
 
   private volatile boolean stopEngine = false;
   private boolean showProcessingTime = true;
+  private final LatencyRecorder latencyRecorder = LatencyRecorder.getInstance();
+  // System.nanoTime() when the current command was dequeued, and when its last stage ended
+  private long dequeuedAt;
+  private long stageEndedAt;
+  // true after START_ENGINE, when the preload has been done
+  private boolean engineStarted = false;
+  private CommandJournal journal;
+  private SnapshotStore snapshotStore;
+  private long lastSnapshotSequence = 0;
+  private boolean journalSnapshotRequested = false;
+  // ring sequence before which the taken commands are journaled, read by the input streams
+  private volatile long journaledSequence = 0;
+  // engine generated commands which have been queued but not processed yet
+  private int pendingEngineCommands = 0;
+  // commands generated while replaying the journal, null when not replaying
+  private Deque<Command> replayedCommands;
+  private long replayMismatches = 0;
+  // records the input commands for ReplayMatchingEngine, null when not recording
+  private CommandJournal recorder;
 
   public static MatchingEngine getInstance() {
     return instance;
@@ -94,11 +124,30 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
 
   public void initialize(MatchingEngineConfig config) throws InvalidMatchingEngineConfigException {
     this.config = config;
+    commands.setWaitStrategy(config.getCommandWaitStrategy());
+    // initialize and start run on the engine thread. A list preload is enqueued right here, before
+    // the engine takes any command, so it must not wait for free slots in the ring
+    commands.registerConsumer();
     initializeServices();
-    createPreloadStream(config);
+    if (isReplica()) {
+      // a replica loads its state from the primary, outputs are published after the promotion
+      replayedCommands = new ArrayDeque<>();
+    }
+    boolean recovered =
+        !isReplica() && config.getJournalDirectory() != null && recover(config);
+    if (config.getRecordDirectory() != null && !isReplica()) {
+      openRecorder(config, recovered);
+    }
+    if (!recovered && !isReplica()) {
+      createPreloadStream(config);
+    }
     createCommandOutputStream(config);
     createOrderBookOutputStream(config);
-    startTriggerThread();
+    if (recovered) {
+      writeOrderBooks();
+      // the preload has been done before the restart
+      createInputStream(config);
+    }
 //    new MemoryCheckingThread().start();
   }
 
@@ -113,6 +162,9 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
     instrumentUseCase = ServiceFactory.getInstrumentUseCase();
     liquidationUseCase = ServiceFactory.getLiquidationUseCase();
     fundingUseCase = ServiceFactory.getFundingUseCase();
+    if (config != null) {
+      fundingUseCase.setBatchSize(config.getFundingBatchSize());
+    }
     orderUseCase = ServiceFactory.getOrderUseCase();
     retrieveDataUseCase = ServiceFactory.getRetrieveDataUseCase();
     accountService = AccountService.getInstance();
@@ -171,10 +223,6 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
     }
   }
 
-  private void startTriggerThread() {
-    new TriggerThread(triggers).start();
-  }
-
   @Override
   public long onNewData(Command command) {
     try {
@@ -189,19 +237,25 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
   public void onOrderTriggered(Command command) {
     log.debug("onOrderTriggered");
     try {
-      onReceiveCommand(command);
+      onEngineCommand(command);
     } catch (Exception e) {
       log.error(e.getMessage(), e);
     }
   }
 
+  /** Receive a command generated by the engine while processing the current command */
+  public void onEngineCommand(Command command) {
+    command.setEngineGenerated(true);
+    onReceiveCommand(command);
+  }
+
   public static int numOfOrdersMeReceived = 0;
   public void onReceiveCommand(Command command) {
     if (!command.getCode().equals(CommandCode.LIQUIDATE)) {
       log.debug("onReceiveCommand: {}", command);
     }
     if (!command.isOrderCommand()) {
-      commands.add(command);
+      enqueue(command);
       return;
     }
     if (ObjectUtils.isEmpty(command.getOrder())) {
@@ -232,12 +286,12 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
     if (command.isPlaceOrderCommand()) {
       Order order = (Order) command.getData();
       order.setPriority(currentPriority++);
-      commands.add(command);
+      enqueue(command);
       return CommandCode.PLACE_ORDER;
     } else if (command.isCancelOrderCommand()) {
       log.debug("Order hasn't been processed before");
       command.setExtraData(false); // added to orderbook: false
-      commands.add(command);
+      enqueue(command);
       return CommandCode.CANCEL_ORDER;
     }
     throw new MarginException("Unknown command " + command.getCode());
@@ -250,14 +304,14 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
       Order order = this.orderService.get(commandOrder.getKey());
       if (order != null && (order.isLimitOrder() || order.isStopOrder())) {
 //      if (commandOrder.isLimitOrder() || commandOrder.isStopOrder()) {
-        commands.add(command);
+        enqueue(command);
       } else {
         log.debug("Market order is canceled by matching engine automatically");
       }
       return command.getCode();
     } else if (command.isPlaceOrderCommand()) {
       if (command.isTriggerCommand()) {
-        commands.add(command);
+        enqueue(command);
       } else {
         log.debug("Order is already processed");
       }
@@ -266,6 +320,20 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
     throw new MarginException("Unknown command " + command.getCode());
   }
 
+  private void enqueue(Command command) {
+    if (replayedCommands != null) {
+      replayedCommands.add(command);
+      return;
+    }
+    if (command.isEngineGenerated()) {
+      pendingEngineCommands++;
+    }
+    if (command.getEnqueuedAt() == 0) {
+      command.setEnqueuedAt(System.nanoTime());
+    }
+    commands.add(command);
+  }
+
   public static long sumOfTime = 0;
   public static long startTime;
   public void start() {
@@ -276,7 +344,15 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
       String processCommandCode = null;
       Integer currSizeCommand = null;
       try {
-        currentProcCommand = commands.take(); // GC activate
+        currentProcCommand = commands.take();
+        dequeuedAt = System.nanoTime();
+        stageEndedAt = dequeuedAt;
+        if (currentProcCommand.isEngineGenerated()) {
+          pendingEngineCommands--;
+        }
+        if (currentProcCommand.getEnqueuedAt() > 0) {
+          recordLatency(Stage.QUEUE, dequeuedAt - currentProcCommand.getEnqueuedAt());
+        }
         processCommandCode = currentProcCommand.getCode().toString();
         currSizeCommand = commands.size();
       } catch (InterruptedException e) {
@@ -288,10 +364,19 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
         if (!currentProcCommand.getCode().equals(CommandCode.LIQUIDATE)) {
           log.debug("Process command: [code={}, id={}]", currentProcCommand.getCode(), commandId);
         }
+        if (!journalCommand(currentProcCommand)) {
+          // a command which is not journaled would be lost by a restart, so it is not processed
+          stopEngine = true;
+          continue;
+        }
+        // the input streams commit the offsets of the commands taken so far
+        journaledSequence = commands.getTakenSequence();
         if (currentProcCommand.getCode().equals(CommandCode.SHOW_PROCESSING_TIME)) {
           showProcessingTime = !showProcessingTime;
           continue;
         }
+        recordCommand(currentProcCommand);
+        beforeTick(currentProcCommand);
         try {
           onTick();
         } catch (Exception e) {
@@ -299,6 +384,9 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
           log.error(e.getMessage(), e);
           rollback();
         }
+        saveSnapshotIfNeeded();
+        afterTick(currentProcCommand);
+        recordLatency(Stage.TICK, System.nanoTime() - dequeuedAt);
         if (!currentProcCommand.getCode().equals(CommandCode.LIQUIDATE)) {
           log.debug("End process. [code={}, id={}]", currentProcCommand.getCode(), commandId);
         }
@@ -306,16 +394,26 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
 
       long processingTime = System.currentTimeMillis() - startTime;
       if (showProcessingTime && processingTime > 200) {
-        System.out.println("Start process command: " + processCommandCode);
-        System.out.println("Current size of commands: " + currSizeCommand);
-        System.out.println("👋 Processing Time: " + processingTime);
+        log.warn(
+            "Slow command. [code={}, queueSize={}, processingTime={}ms]",
+            processCommandCode,
+            currSizeCommand,
+            processingTime);
       }
     }
     if (stopEngine) {
       log.info("Stop Matching Engine");
       // When STOP matching engine we need to save output stream
+      commandOutputStream.flush();
       orderBookOutputStream.flush();
       orderBookOutputStream.close();
+      if (journal != null) {
+        journal.close();
+        snapshotStore.close();
+      }
+      if (recorder != null) {
+        recorder.close();
+      }
     }
   }
 
@@ -373,6 +471,10 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
         currentProcCommand.setData(commandOrder);
         orderUseCase.cancelOrder(currentProcCommand);
         break;
+      case CANCEL_ORDERS_BATCH:
+      case CANCEL_ALL:
+        orderUseCase.cancelOrders(currentProcCommand);
+        break;
       case LIQUIDATE:
         liquidationUseCase.liquidate(currentProcCommand, triggers);
         break;
@@ -411,6 +513,12 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
         this.retrievingData.addAll(this.retrieveDataUseCase.execute(currentProcCommand, orderBookOutputStream));
         commit();
         break;
+      case SYNC_STANDBY:
+      case MIGRATE_SYMBOL:
+      case HAND_OVER_SYMBOL:
+      case APPLY_MIGRATION:
+        // served by the sharded engine after the tick
+        break;
       default:
         log.atError()
             .addKeyValue("command", currentProcCommand.getCode())
@@ -432,12 +540,449 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
 
   private void startEngine() {
     log.info("Start Matching Engine and Waiting Order");
-    preloadStream.close();
+    engineStarted = true;
+    if (preloadStream != null) {
+      preloadStream.close();
+    }
     createInputStream(config);
   }
 
+  @Override
+  public long getInputPosition() {
+    return commands.getAddedSequence();
+  }
+
+  @Override
+  public long getJournaledPosition() {
+    return journaledSequence;
+  }
+
+  /** Journal the command before it is processed, false if it could not be journaled */
+  private boolean journalCommand(Command command) {
+    if (journal == null || !changesState(command)) {
+      return true;
+    }
+    try {
+      journal.append(command);
+      return true;
+    } catch (RuntimeException e) {
+      // a new segment cannot be mapped, or the disk is full
+      log.atError()
+          .setCause(e)
+          .addKeyValue("code", command.getCode())
+          .addKeyValue("sequence", journal.getLastSequence() + 1)
+          .log("Cannot journal command, stopping the engine");
+      return false;
+    }
+  }
+
+  /**
+   * Start recording the input commands. A recording replaces the previous one in the directory. An
+   * engine recovered from its journal is recorded from its current state, written as a preload
+   */
+  private void openRecorder(MatchingEngineConfig config, boolean recovered) {
+    Path directory = Path.of(config.getRecordDirectory());
+    CommandJournal.deleteSegments(directory);
+    recorder = new CommandJournal(directory, config.getJournalSegmentSize(), 0);
+    if (recovered) {
+      createSnapshot(0).commands().forEach(recorder::append);
+      recorder.append(new Command(CommandCode.START_ENGINE, null));
+    }
+    log.atInfo().addKeyValue("directory", directory).log("Recording input commands");
+  }
+
+  /** Record a command of the input, commands generated by the engine are generated by the replay */
+  private void recordCommand(Command command) {
+    if (recorder == null || command.isEngineGenerated() || !changesState(command)) {
+      return;
+    }
+    try {
+      recorder.append(command);
+    } catch (RuntimeException e) {
+      // the recording is only used by replays, the engine keeps running without it
+      log.atError().setCause(e).log("Cannot record command, recording stopped");
+      try {
+        recorder.close();
+      } catch (RuntimeException closeException) {
+        log.atError().setCause(closeException).log("Cannot close recording");
+      }
+      recorder = null;
+    }
+  }
+
+  /** True if the command changes the engine state, so it is journaled and replicated */
+  protected static boolean changesState(Command command) {
+    return switch (command.getCode()) {
+      case DUMP, START_MEASURE_TPS, SHOW_PROCESSING_TIME, RETRIEVE_DATA, SYNC_STANDBY -> false;
+      // the migrated state is saved by the next snapshot
+      case APPLY_MIGRATION -> false;
+      default -> true;
+    };
+  }
+
+  /** Called on the engine thread before each command is processed */
+  protected void beforeTick(Command command) {}
+
+  /** Called on the engine thread after each command is processed */
+  protected void afterTick(Command command) {}
+
+  /** True if the engine state is loaded from a primary engine instead of the preload */
+  protected boolean isReplica() {
+    return false;
+  }
+
+  /**
+   * True if a snapshot can be taken now. No engine generated command may be queued, so the
+   * commands after the snapshot never need a command generated before it
+   */
+  protected boolean canSnapshot() {
+    return engineStarted && pendingEngineCommands == 0;
+  }
+
+  /**
+   * Save a snapshot every snapshotInterval journaled commands, or when one is requested. The state
+   * is copied and encoded on the engine thread, which stalls matching for a time that grows with
+   * the number of accounts, positions and open orders. The stall is recorded as the SNAPSHOT
+   * latency of the command after which the snapshot is taken
+   */
+  private void saveSnapshotIfNeeded() {
+    if (journal == null
+        || !canSnapshot()
+        || (!journalSnapshotRequested
+            && journal.getLastSequence() - lastSnapshotSequence < config.getSnapshotInterval())
+        || snapshotStore.isWriting()) {
+      return;
+    }
+    journalSnapshotRequested = false;
+    lastSnapshotSequence = journal.getLastSequence();
+    long startedAt = System.nanoTime();
+    EngineSnapshot snapshot = createSnapshot(lastSnapshotSequence);
+    snapshotStore.save(snapshot);
+    long elapsed = System.nanoTime() - startedAt;
+    recordLatency(Stage.SNAPSHOT, elapsed);
+    log.atInfo()
+        .addKeyValue("sequence", lastSnapshotSequence)
+        .addKeyValue("commands", snapshot.commands().size())
+        .addKeyValue("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsed))
+        .log("Created engine snapshot");
+  }
+
+  /** Save a snapshot as soon as one can be taken, after state was loaded outside the journal */
+  protected void requestJournalSnapshot() {
+    journalSnapshotRequested = true;
+  }
+
+  /** Create the commands which load the current state into an empty engine */
+  protected EngineSnapshot createSnapshot(long sequence) {
+    List<Command> snapshot = new ArrayList<>();
+    EngineParams params = new EngineParams();
+    params.setLastOrderId(orderService.getCurrentId() - 1);
+    params.setLastPositionId(positionService.getCurrentId() - 1);
+    params.setLastTradeId(tradeService.getCurrentId() - 1);
+    params.setLastMarginHistoryId(marginHistoryService.getCurrentId() - 1);
+    params.setLastPositionHistoryId(positionHistoryService.getCurrentId() - 1);
+    params.setLastFundingHistoryId(fundingService.getCurrentId() - 1);
+    params.setLiquidationOrderIds(new LinkedHashSet<>(orderService.getLiquidationOrderIds()));
+    snapshot.add(new Command(CommandCode.INITIALIZE_ENGINE, params));
+    tradingRuleService
+        .getLeverageMargins()
+        .forEach(lm -> snapshot.add(new Command(CommandCode.LOAD_LEVERAGE_MARGIN, lm)));
+    tradingRuleService
+        .getTradingRules()
+        .forEach(rule -> snapshot.add(new Command(CommandCode.LOAD_TRADING_RULE, rule)));
+    addInstruments(snapshot, symbol -> true);
+    accountService
+        .getCommittedEntities()
+        .forEach(a -> snapshot.add(new Command(CommandCode.CREATE_ACCOUNT, a)));
+    AccountService.BOT_ACCOUNT_IDS.forEach(
+        (accountId, userId) -> {
+          Account botAccount = new Account();
+          botAccount.setId(accountId);
+          botAccount.setUserId(userId);
+          snapshot.add(new Command(CommandCode.LOAD_BOT_ACCOUNT, botAccount));
+        });
+    addPositions(snapshot, symbol -> true);
+    positionHistoryService
+        .getCommittedEntities()
+        .forEach(h -> snapshot.add(new Command(CommandCode.LOAD_POSITION_HISTORY, h)));
+    fundingService
+        .getCommittedEntities()
+        .forEach(h -> snapshot.add(new Command(CommandCode.LOAD_FUNDING_HISTORY, h)));
+    addOrders(snapshot, symbol -> true);
+    return new EngineSnapshot(sequence, currentPriority, snapshot);
+  }
+
+  /**
+   * Create the commands which load the state of one symbol into an engine which has the accounts:
+   * the instrument, the positions and the open orders with their trigger state
+   */
+  protected List<Command> createSymbolSnapshot(String symbol) {
+    List<Command> snapshot = new ArrayList<>();
+    addInstruments(snapshot, symbol::equals);
+    addPositions(snapshot, symbol::equals);
+    addOrders(snapshot, symbol::equals);
+    return snapshot;
+  }
+
+  private void addInstruments(List<Command> snapshot, Predicate<String> symbols) {
+    instrumentService.getCommittedEntities().stream()
+        .filter(i -> symbols.test(i.getSymbol()))
+        .forEach(i -> snapshot.add(new Command(CommandCode.UPDATE_INSTRUMENT, i)));
+    instrumentService.getExtraInfos().stream()
+        .filter(extra -> symbols.test(extra.getSymbol()))
+        .forEach(extra -> snapshot.add(new Command(CommandCode.UPDATE_INSTRUMENT_EXTRA, extra)));
+  }
+
+  private void addPositions(List<Command> snapshot, Predicate<String> symbols) {
+    positionService.getCommittedEntities().stream()
+        .filter(p -> symbols.test(p.getSymbol()))
+        .forEach(p -> snapshot.add(new Command(CommandCode.LOAD_POSITION, p)));
+  }
+
+  private void addOrders(List<Command> snapshot, Predicate<String> symbols) {
+    // trailing prices are only kept by the triggers
+    Map<Object, Order> trailingStopOrders = new HashMap<>();
+    for (Trigger trigger : triggers.values()) {
+      trigger.getTrailingStopOrders().forEach(o -> trailingStopOrders.put(o.getKey(), o));
+    }
+    orderService.getCommittedEntities().stream()
+        .filter(order -> !order.isClosed() && symbols.test(order.getSymbol()))
+        .map(
+            order -> {
+              Order trailingStopOrder = trailingStopOrders.get(order.getKey());
+              if (trailingStopOrder == null) {
+                return order;
+              }
+              Order copy = order.deepCopy();
+              copy.setActivated(trailingStopOrder.isActivated());
+              copy.setTrailPrice(trailingStopOrder.getTrailPrice());
+              return copy;
+            })
+        .sorted(Comparator.comparingLong(Order::getPriority))
+        .forEach(order -> snapshot.add(new Command(CommandCode.LOAD_ORDER, order)));
+  }
+
+  /**
+   * Remove the state of a symbol which has moved to another engine, without outputs. Called
+   * between ticks
+   */
+  protected void removeSymbolState(String symbol) {
+    orderService.removeIf(order -> symbol.equals(order.getSymbol()));
+    positionService.removeIf(position -> symbol.equals(position.getSymbol()));
+    instrumentService.removeIf(instrument -> symbol.equals(instrument.getSymbol()));
+    matchers.remove(symbol);
+    triggers.remove(symbol);
+  }
+
+  /**
+   * Load the latest snapshot and replay the journal after it. Outputs of the replayed commands
+   * are not published again. Commands generated by the engine are generated again by the replay,
+   * each of them must match the next journaled one. The input is read again after the offsets
+   * committed for the journaled commands, so the commands queued at the stop are not lost
+   *
+   * @return true if the engine has been started before the restart, so the preload is not needed
+   */
+  private boolean recover(MatchingEngineConfig config) {
+    long startTime = System.currentTimeMillis();
+    Path directory = Path.of(config.getJournalDirectory());
+    snapshotStore = new SnapshotStore(directory);
+    Optional<EngineSnapshot> snapshot = snapshotStore.loadLatest();
+    if (snapshot.isEmpty()) {
+      boolean[] started = new boolean[1];
+      CommandJournal.read(
+          directory,
+          0,
+          r -> started[0] |= CommandCode.START_ENGINE.equals(r.command().getCode()));
+      if (!started[0]) {
+        // the journal only has a part of the preload, which is sent again by the backend
+        CommandJournal.deleteSegments(directory);
+        journal = new CommandJournal(directory, config.getJournalSegmentSize(), 0);
+        return false;
+      }
+    }
+    replayedCommands = new ArrayDeque<>();
+    long lastSequence = 0;
+    if (snapshot.isPresent()) {
+      lastSequence = snapshot.get().sequence();
+      lastSnapshotSequence = lastSequence;
+      loadSnapshot(snapshot.get());
+    }
+    long snapshotSequence = lastSequence;
+    lastSequence = CommandJournal.read(directory, lastSequence, this::replayRecord);
+    Deque<Command> pendingCommands = replayedCommands;
+    replayedCommands = null;
+    // commands generated by the last journaled commands which were not processed before the stop
+    pendingCommands.forEach(this::enqueue);
+    journal = new CommandJournal(directory, config.getJournalSegmentSize(), lastSequence);
+    log.atInfo()
+        .addKeyValue("snapshotSequence", snapshotSequence)
+        .addKeyValue("lastSequence", lastSequence)
+        .addKeyValue("mismatches", replayMismatches)
+        .addKeyValue("elapsedMs", System.currentTimeMillis() - startTime)
+        .log("Recovered engine state from the journal");
+    return true;
+  }
+
+  /** Load a snapshot into the engine while replaying, the engine must be empty */
+  protected void loadSnapshot(EngineSnapshot snapshot) {
+    currentPriority = snapshot.currentPriority();
+    snapshot.commands().forEach(this::replayCommand);
+    engineStarted = true;
+    replayedCommands.clear();
+  }
+
+  /** Remove all the engine state, so a replica can load a new snapshot */
+  protected void resetState() {
+    accountService.clear();
+    fundingService.clear();
+    instrumentService.clear();
+    instrumentService.clearExtraInfo();
+    marginHistoryService.clear();
+    orderService.clear();
+    positionHistoryService.clear();
+    positionService.clear();
+    tradeService.clear();
+    transactionService.clear();
+    tradingRuleService.clear();
+    AccountService.INSURANCE_ACCOUNT_IDS.clear();
+    AccountService.BOT_ACCOUNT_IDS.clear();
+    triggers.clear();
+    initializeServices();
+    currentPriority = 0;
+    engineStarted = false;
+    replayedCommands.clear();
+  }
+
+  /**
+   * Stop replaying the commands of the primary and start processing the input. Commands generated
+   * by the last replicated commands are processed first
+   */
+  protected void finishReplication() throws InvalidMatchingEngineConfigException {
+    Deque<Command> pendingCommands = replayedCommands;
+    replayedCommands = null;
+    pendingCommands.forEach(this::enqueue);
+    writeOrderBooks();
+    createInputStream(config);
+  }
+
+  private void writeOrderBooks() {
+    matchers.keySet().forEach(this::writeOrderBook);
+  }
+
+  /**
+   * Write the order book of replayed state to the order book stream, which has not seen the
+   * changes of replayed commands, and send its snapshot with the next event
+   */
+  protected void writeOrderBook(String symbol) {
+    Matcher matcher = matchers.get(symbol);
+    if (matcher == null) {
+      return;
+    }
+    List<OrderBookOutput> levels = new ArrayList<>();
+    for (OrderSide side : OrderSide.values()) {
+      matcher
+          .getPendingOrdersQueue(side)
+          .getLevels()
+          .forEach(
+              level ->
+                  levels.add(
+                      new OrderBookOutput(
+                          side, level.getPrice(), level.getTotalQuantity(), symbol)));
+    }
+    orderBookOutputStream.write(levels);
+    if (orderBookOutputStream instanceof OrderBookOutputStream stream) {
+      stream.requestSnapshot(symbol);
+    }
+  }
+
+  /**
+   * Replay a command of another engine without publishing its outputs, while the engine processes
+   * its own commands. Commands generated by the replay are kept in the given queue
+   */
+  protected void replayRecord(JournalRecord record, Deque<Command> generated) {
+    Deque<Command> previous = replayedCommands;
+    replayedCommands = generated;
+    try {
+      replayRecord(record);
+    } finally {
+      replayedCommands = previous;
+    }
+  }
+
+  /** Replay a command of the primary or of the journal */
+  protected void replayRecord(JournalRecord record) {
+    Command command = record.command();
+    if (command.isEngineGenerated()) {
+      Command regenerated = replayedCommands.poll();
+      if (regenerated != null && isSameCommand(regenerated, command)) {
+        // use the generated command, it shares the objects of the engine state as it did before
+        if (regenerated.getData() instanceof Order order) {
+          order.setPriority(command.getOrder().getPriority());
+        }
+        command = regenerated;
+      } else {
+        if (regenerated != null) {
+          replayedCommands.addFirst(regenerated);
+        }
+        replayMismatches++;
+        log.atWarn()
+            .addKeyValue("sequence", record.sequence())
+            .addKeyValue("command", command.getCode())
+            .log("Journaled engine command is not generated again by the replay");
+      }
+    }
+    replayCommand(command);
+  }
+
+  private static boolean isSameCommand(Command command, Command other) {
+    if (!command.getCode().equals(other.getCode())) {
+      return false;
+    }
+    if (command.getData() instanceof Order order && other.getData() instanceof Order otherOrder) {
+      return Objects.equals(order.getId(), otherOrder.getId());
+    }
+    return true;
+  }
+
+  private void replayCommand(Command command) {
+    switch (command.getCode()) {
+      case START_ENGINE -> {
+        engineStarted = true;
+        return;
+      }
+      case STOP_ENGINE -> {
+        return;
+      }
+      default -> {}
+    }
+    if (command.isOrderCommand() && command.getData() instanceof Order order) {
+      currentPriority = Math.max(currentPriority, order.getPriority() + 1);
+      receivedOrders.compute(
+          order.getId(),
+          (id, oldCommand) -> {
+            if (command.isCancelOrderCommand()) {
+              return CommandCode.CANCEL_ORDER;
+            }
+            return oldCommand == null ? CommandCode.PLACE_ORDER : oldCommand;
+          });
+    }
+    currentProcCommand = command;
+    try {
+      onTick();
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      rollback();
+    }
+  }
+
   public static int numOfTradesMeHandled = 0;
   public void commit() {
+    // cross positions of the accounts whose balance has changed are output with the commit
+    positionService.updateDirtyCrossPositions();
+    long commitStartedAt = System.nanoTime();
+    if (replayedCommands == null) {
+      recordLatency(Stage.MATCH, commitStartedAt - stageEndedAt);
+    }
     CommandOutput output = new CommandOutput();
     output.setCode(currentProcCommand.getCode());
     output.setData(currentProcCommand.getData());
@@ -501,9 +1046,19 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
         || output.getCode().equals(CommandCode.UPDATE_INSTRUMENT)
         || output.getCode().equals(CommandCode.UPDATE_INSTRUMENT_EXTRA)
         || output.hasData()) {
-      commandOutputStream.write(output.deepCopy());
+      // outputs of replayed commands have been published before the restart
+      if (replayedCommands == null) {
+        if (latencyRecorder.isEnabled()) {
+          output.setSymbol(currentProcCommand.getSymbol());
+          output.setEnqueuedAt(currentProcCommand.getEnqueuedAt());
+          output.setWrittenAt(System.nanoTime());
+        }
+        commandOutputStream.write(output.deepCopy());
+      }
+    }
+    if (replayedCommands == null) {
+      orderBookOutputStream.write(orderbookService.getProcessingEntities());
     }
-    orderBookOutputStream.write(orderbookService.getProcessingEntities());
 
     accountService.commit();
     fundingService.commit();
@@ -518,6 +1073,15 @@ public class MatchingEngine implements OnNewDataListener<Command>, OnOrderTrigge
     instrumentService.updateLastPrice(output.getTrades());
     errors.clear();
     this.retrievingData.clear();
+    if (replayedCommands == null) {
+      stageEndedAt = System.nanoTime();
+      recordLatency(Stage.COMMIT, stageEndedAt - commitStartedAt);
+    }
+  }
+
+  private void recordLatency(Stage stage, long nanos) {
+    latencyRecorder.record(
+        stage, currentProcCommand.getCode(), currentProcCommand.getSymbol(), nanos);
   }
 
   /** Set tp/sl order for position */
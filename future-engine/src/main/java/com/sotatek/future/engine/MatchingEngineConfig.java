@@ -1,12 +1,15 @@
 package com.sotatek.future.engine;
 
 import com.rabbitmq.client.ConnectionFactory;
+import com.sotatek.future.engine.CommandRingBuffer.WaitStrategy;
 import com.sotatek.future.entity.Command;
 import com.sotatek.future.entity.CommandOutput;
 import com.sotatek.future.entity.OrderBookOutput;
 import com.sotatek.future.enums.InputDriver;
 import com.sotatek.future.enums.OutputDriver;
 import com.sotatek.future.input.InputStream;
+import com.sotatek.future.input.RecordKeyAssignment;
+import com.sotatek.future.journal.CommandJournal;
 import com.sotatek.future.output.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,7 +17,12 @@ import java.util.Map;
 public class MatchingEngineConfig {
 
   public static final int TRADES_PER_MESSAGE = 10;
-  public static final int OUTPUT_BATCH_SIZE = 1;
+  // most command outputs of one JSON output message
+  public static final int OUTPUT_BATCH_SIZE = 100;
+  // positions settled in one funding commit
+  public static final int FUNDING_BATCH_SIZE = 500;
+  // capacity of the command ring buffer, input streams wait when it is full
+  public static final int COMMAND_BUFFER_SIZE = 1 << 16;
 
   private boolean isTesting = false;
 
@@ -33,6 +41,23 @@ public class MatchingEngineConfig {
 
   private ConnectionFactory rabbitMQConnectionFactory;
 
+  private WaitStrategy commandWaitStrategy = WaitStrategy.BLOCKING;
+
+  // directory of the command journal and snapshots, null to disable journaling
+  private String journalDirectory;
+  private int journalSegmentSize = CommandJournal.DEFAULT_SEGMENT_SIZE;
+  // number of journaled commands between 2 snapshots. Taking a snapshot pauses matching while the
+  // state is copied, see the SNAPSHOT latency
+  private long snapshotInterval = 1_000_000;
+  // directory where the input commands are recorded for replays, null to disable recording
+  private String recordDirectory;
+  // positions settled in one funding output, 1 commits each position on its own
+  private int fundingBatchSize = FUNDING_BATCH_SIZE;
+
+  // Kafka record keys read from the input, records with other keys are skipped before decoding.
+  // null to accept all records
+  private RecordKeyAssignment inputKeyAssignment;
+
   public MatchingEngineConfig() {}
 
   public MatchingEngineConfig(
@@ -139,4 +164,60 @@ public class MatchingEngineConfig {
   public void setOutputParameters(Map<String, Object> outputParameters) {
     this.outputParameters = outputParameters;
   }
+
+  public WaitStrategy getCommandWaitStrategy() {
+    return commandWaitStrategy;
+  }
+
+  public void setCommandWaitStrategy(WaitStrategy commandWaitStrategy) {
+    this.commandWaitStrategy = commandWaitStrategy;
+  }
+
+  public String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  public void setJournalDirectory(String journalDirectory) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  public int getJournalSegmentSize() {
+    return journalSegmentSize;
+  }
+
+  public void setJournalSegmentSize(int journalSegmentSize) {
+    this.journalSegmentSize = journalSegmentSize;
+  }
+
+  public long getSnapshotInterval() {
+    return snapshotInterval;
+  }
+
+  public void setSnapshotInterval(long snapshotInterval) {
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  public String getRecordDirectory() {
+    return recordDirectory;
+  }
+
+  public void setRecordDirectory(String recordDirectory) {
+    this.recordDirectory = recordDirectory;
+  }
+
+  public int getFundingBatchSize() {
+    return fundingBatchSize;
+  }
+
+  public void setFundingBatchSize(int fundingBatchSize) {
+    this.fundingBatchSize = fundingBatchSize;
+  }
+
+  public RecordKeyAssignment getInputKeyAssignment() {
+    return inputKeyAssignment;
+  }
+
+  public void setInputKeyAssignment(RecordKeyAssignment inputKeyAssignment) {
+    this.inputKeyAssignment = inputKeyAssignment;
+  }
 }
@@ -0,0 +1,348 @@
+package com.sotatek.future.engine;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * One side of a price-level order book.
+ *
+ * <p>Resting orders are grouped into one {@link PriceLevel} per price. Each level keeps its orders
+ * in a doubly linked FIFO queue sorted by priority, together with the aggregated order book
+ * quantity of the level. Levels are held in an array ladder sorted from the worst to the best
+ * price, so the best level is always the last element of the ladder:
+ *
+ * <ul>
+ *   <li>best price access is O(1)
+ *   <li>cancel of any resting order is O(1) through the order id index
+ *   <li>inserting a new level costs a binary search plus a shift of the levels which are better
+ *       than it, which is cheap because most activity happens close to the top of the book
+ * </ul>
+ *
+ * <p>The collection iterates orders from the best price to the worst one, and in priority order
+ * inside a level, which is the same order as the {@code TreeSet<Order>} this class replaces.
+ */
+public class OrderBookSide extends AbstractCollection<Order> {
+  private static final int INITIAL_LEVEL_CAPACITY = 64;
+
+  private final OrderSide side;
+  // ladder of price levels sorted from the worst price to the best price
+  private PriceLevel[] levels = new PriceLevel[INITIAL_LEVEL_CAPACITY];
+  private int levelCount = 0;
+  // index of resting orders by order id, used for O(1) removal
+  private final Map<Long, OrderNode> nodes = new HashMap<>();
+
+  public OrderBookSide(OrderSide side) {
+    this.side = side;
+  }
+
+  public OrderSide getSide() {
+    return side;
+  }
+
+  /**
+   * Add an order to the tail of its price level. An order which is already resting in the book is
+   * not added again.
+   *
+   * @return true if the order has been added
+   */
+  @Override
+  public boolean add(Order order) {
+    if (nodes.containsKey(order.getId())) {
+      return false;
+    }
+    int index = search(order.getPrice());
+    PriceLevel level;
+    if (index >= 0) {
+      level = levels[index];
+    } else {
+      level = new PriceLevel(order.getPrice());
+      insertLevel(-(index + 1), level);
+    }
+    OrderNode node = new OrderNode(order, level);
+    level.enqueue(node);
+    nodes.put(order.getId(), node);
+    return true;
+  }
+
+  /**
+   * Remove a resting order by its id.
+   *
+   * @return true if the order was resting in the book
+   */
+  @Override
+  public boolean remove(Object o) {
+    if (!(o instanceof Order order)) {
+      return false;
+    }
+    OrderNode node = nodes.remove(order.getId());
+    if (node == null) {
+      return false;
+    }
+    PriceLevel level = node.level;
+    level.unlink(node);
+    if (level.isEmpty()) {
+      removeLevel(level);
+    }
+    return true;
+  }
+
+  /**
+   * Replace the state of a resting order in place, keeping its position in the level queue. It is
+   * used after a partial fill, where the order price and priority do not change.
+   *
+   * @return true if the order was resting in the book
+   */
+  public boolean update(Order order) {
+    OrderNode node = nodes.get(order.getId());
+    if (node == null) {
+      return false;
+    }
+    node.level.totalQuantity =
+        node.level.totalQuantity.subtract(node.quantity).add(order.getOrderBookQuantity());
+    node.order = order;
+    node.quantity = order.getOrderBookQuantity();
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Order order && nodes.containsKey(order.getId());
+  }
+
+  /** @return the first order of the best price level */
+  public Order first() {
+    if (levelCount == 0) {
+      throw new NoSuchElementException();
+    }
+    return levels[levelCount - 1].head.order;
+  }
+
+  /** @return the best price level, or null if this side is empty */
+  public PriceLevel bestLevel() {
+    return levelCount == 0 ? null : levels[levelCount - 1];
+  }
+
+  /** @return the price level at the given price, or null if there is no order at that price */
+  public PriceLevel getLevel(MarginBigDecimal price) {
+    int index = search(price);
+    return index >= 0 ? levels[index] : null;
+  }
+
+  /** @return aggregated order book quantity at the given price */
+  public MarginBigDecimal getLevelQuantity(MarginBigDecimal price) {
+    PriceLevel level = getLevel(price);
+    return level == null ? MarginBigDecimal.ZERO : level.totalQuantity;
+  }
+
+  /** @return the price levels from the best price to the worst one */
+  public List<PriceLevel> getLevels() {
+    List<PriceLevel> result = new ArrayList<>(levelCount);
+    for (int i = levelCount - 1; i >= 0; i--) {
+      result.add(levels[i]);
+    }
+    return result;
+  }
+
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  @Override
+  public int size() {
+    return nodes.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < levelCount; i++) {
+      levels[i] = null;
+    }
+    levelCount = 0;
+    nodes.clear();
+  }
+
+  @NotNull
+  @Override
+  public Iterator<Order> iterator() {
+    return new Iterator<>() {
+      private int levelIndex = levelCount - 1;
+      private OrderNode next = levelIndex >= 0 ? levels[levelIndex].head : null;
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Order next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        Order order = next.order;
+        next = next.next;
+        if (next == null && --levelIndex >= 0) {
+          next = levels[levelIndex].head;
+        }
+        return order;
+      }
+    };
+  }
+
+  /**
+   * Compare two prices by their quality for this side: a positive value means {@code a} is a
+   * better price than {@code b}.
+   */
+  private int compareQuality(MarginBigDecimal a, MarginBigDecimal b) {
+    int result = a.compareTo(b);
+    return side == OrderSide.BUY ? result : -result;
+  }
+
+  /**
+   * Binary search of a price in the ladder.
+   *
+   * @return index of the level if found, otherwise (-(insertion point) - 1)
+   */
+  private int search(MarginBigDecimal price) {
+    // fast path: most lookups hit the top of the book
+    if (levelCount > 0) {
+      int top = compareQuality(price, levels[levelCount - 1].price);
+      if (top == 0) {
+        return levelCount - 1;
+      }
+      if (top > 0) {
+        return -(levelCount + 1);
+      }
+    }
+    int low = 0;
+    int high = levelCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareQuality(levels[mid].price, price);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private void insertLevel(int index, PriceLevel level) {
+    if (levelCount == levels.length) {
+      PriceLevel[] newLevels = new PriceLevel[levels.length * 2];
+      System.arraycopy(levels, 0, newLevels, 0, levelCount);
+      levels = newLevels;
+    }
+    System.arraycopy(levels, index, levels, index + 1, levelCount - index);
+    levels[index] = level;
+    levelCount++;
+  }
+
+  private void removeLevel(PriceLevel level) {
+    int index = levels[levelCount - 1] == level ? levelCount - 1 : search(level.price);
+    System.arraycopy(levels, index + 1, levels, index, levelCount - index - 1);
+    levels[--levelCount] = null;
+  }
+
+  /** All resting orders at one price, in FIFO (priority) order. */
+  public static class PriceLevel {
+    private final MarginBigDecimal price;
+    private MarginBigDecimal totalQuantity = MarginBigDecimal.ZERO;
+    private int orderCount = 0;
+    private OrderNode head;
+    private OrderNode tail;
+
+    PriceLevel(MarginBigDecimal price) {
+      this.price = price;
+    }
+
+    public MarginBigDecimal getPrice() {
+      return price;
+    }
+
+    public MarginBigDecimal getTotalQuantity() {
+      return totalQuantity;
+    }
+
+    public int getOrderCount() {
+      return orderCount;
+    }
+
+    public boolean isEmpty() {
+      return orderCount == 0;
+    }
+
+    /**
+     * Orders usually arrive with increasing priority, so they are appended to the tail. Orders
+     * which are re-inserted (rollback, shard import) walk back to their priority position.
+     */
+    private void enqueue(OrderNode node) {
+      OrderNode cursor = tail;
+      while (cursor != null && cursor.order.getPriority() > node.order.getPriority()) {
+        cursor = cursor.prev;
+      }
+      node.prev = cursor;
+      node.next = cursor == null ? head : cursor.next;
+      if (node.prev == null) {
+        head = node;
+      } else {
+        node.prev.next = node;
+      }
+      if (node.next == null) {
+        tail = node;
+      } else {
+        node.next.prev = node;
+      }
+      orderCount++;
+      totalQuantity = totalQuantity.add(node.quantity);
+    }
+
+    private void unlink(OrderNode node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      orderCount--;
+      totalQuantity = totalQuantity.subtract(node.quantity);
+    }
+  }
+
+  private static class OrderNode {
+    private final PriceLevel level;
+    private Order order;
+    // order book quantity of the order when it was last added or updated
+    private MarginBigDecimal quantity;
+    private OrderNode prev;
+    private OrderNode next;
+
+    OrderNode(Order order, PriceLevel level) {
+      this.order = order;
+      this.level = level;
+      this.quantity = order.getOrderBookQuantity();
+    }
+  }
+}
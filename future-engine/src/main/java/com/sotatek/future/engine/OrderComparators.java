@@ -5,13 +5,6 @@ import java.util.Comparator;
 
 public class OrderComparators {
 
-  // Comparator where lower price order appear first
-  static final Comparator<Order> LowPriceComparator = Comparator.comparing(Order::getPrice);
-
-  // Comparator where higher price order appear first
-  static final Comparator<Order> HighPriceComparator =
-      Comparator.comparing(Order::getPrice).reversed();
-
   // Comparator where lower TPSL price order appear first
   static final Comparator<Order> LowTpslPriceComparator = Comparator.comparing(Order::getTpSLPrice);
 
@@ -0,0 +1,140 @@
+package com.sotatek.future.engine;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
+import com.sotatek.future.enums.OutputDriver;
+import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.output.OrderBookOutputStream;
+import com.sotatek.future.output.OutputStream;
+import com.sotatek.future.util.json.JsonUtil;
+import com.sotatek.future.util.metrics.LatencyHistogram;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Engine which processes a recorded command stream as fast as it can, to benchmark the engine.
+ *
+ * <p>The next recorded command is fed when the commands generated by the previous one have been
+ * processed, so a replay processes the same commands in the same order every time. In production
+ * the input does not wait for the generated commands, so they can be interleaved differently.
+ */
+@Slf4j
+public class ReplayMatchingEngine extends MatchingEngine {
+
+  // fields which are set from the clock or at random, they differ between two replays
+  private static final Set<String> VOLATILE_FIELDS =
+      Set.of("createdAt", "updatedAt", "lastOpenTime", "uuid", "tradeUuid", "operationId");
+
+  private final Iterator<Command> recording;
+  // time from feeding a recorded command until all the commands it generated are processed
+  @Getter private final LatencyHistogram latencies = new LatencyHistogram();
+  // recorded commands fed to the engine
+  @Getter private long fedCommands = 0;
+  private long fedAt;
+
+  public ReplayMatchingEngine(List<Command> recording) {
+    super();
+    this.recording = recording.iterator();
+    MatchingEngine.setInstance(this);
+  }
+
+  /** Config without preload and input, the preload is the beginning of the recording */
+  public static MatchingEngineConfig createConfig(
+      OutputStream<CommandOutput> commandOutputStream,
+      OutputStream<OrderBookOutput> orderBookOutputStream) {
+    MatchingEngineConfig config = new MatchingEngineConfig();
+    config.setCommandPreloadDriver(InputDriver.JAVA_LIST);
+    config.setCommandPreloadStream(new ListInputStream<>(List.of()));
+    config.setCommandInputDriver(InputDriver.JAVA_LIST);
+    config.setCommandInputStream(new ListInputStream<>(List.of()));
+    config.setCommandOutputDriver(OutputDriver.JAVA_LIST);
+    config.setCommandOutputStream(commandOutputStream);
+    config.setOrderBookOutputDriver(OutputDriver.JAVA_LIST);
+    config.setOrderBookOutputStream(orderBookOutputStream);
+    Map<String, Object> params = new HashMap<>();
+    params.put(OrderBookOutputStream.UPDATE_INTERVAL, 0);
+    config.setOutputParameters(params);
+    return config;
+  }
+
+  /** Process the whole recording, then stop the engine */
+  public void replay() {
+    feedNext();
+    start();
+    log.atInfo()
+        .addKeyValue("commands", fedCommands)
+        .addKeyValue("remaining", recording.hasNext())
+        .log("Replayed recording");
+  }
+
+  @Override
+  protected void afterTick(Command command) {
+    if (!commands.isEmpty()) {
+      return;
+    }
+    if (fedAt > 0) {
+      latencies.record(System.nanoTime() - fedAt);
+    }
+    if (command.getCode() != CommandCode.STOP_ENGINE) {
+      feedNext();
+    }
+  }
+
+  private void feedNext() {
+    // a command which is dropped by the deduplication of orders is not queued
+    do {
+      if (!recording.hasNext()) {
+        fedAt = 0;
+        onNewData(new Command(CommandCode.STOP_ENGINE, null));
+        return;
+      }
+      fedAt = System.nanoTime();
+      fedCommands++;
+      onNewData(recording.next());
+    } while (commands.isEmpty());
+  }
+
+  /** SHA-256 of the outputs in JSON, without the fields which depend on the time of the run */
+  public static String digest(List<CommandOutput> outputs) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    Gson gson = JsonUtil.createGson();
+    for (CommandOutput output : outputs) {
+      JsonElement json = gson.toJsonTree(output);
+      removeVolatileFields(json);
+      digest.update(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static void removeVolatileFields(JsonElement json) {
+    if (json.isJsonObject()) {
+      JsonObject object = json.getAsJsonObject();
+      VOLATILE_FIELDS.forEach(object::remove);
+      object.entrySet().forEach(entry -> removeVolatileFields(entry.getValue()));
+    } else if (json.isJsonArray()) {
+      JsonArray array = json.getAsJsonArray();
+      array.forEach(ReplayMatchingEngine::removeVolatileFields);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.sotatek.future.engine;
 
 import com.sotatek.future.router.ShardInfo.ShardRole;
 import com.sotatek.future.router.ShardInfo.ShardStatus;
+import java.util.Map;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -97,6 +98,16 @@ public class ShardHealthStatus {
      */
     private long standbyLagMs;
 
+    /**
+     * Input records dropped since their key has not been assigned to this shard.
+     */
+    private long rejectedRecords;
+
+    /**
+     * State of the symbols migrating from or to this shard.
+     */
+    private Map<String, SymbolMigrator.State> migrations;
+
     /**
      * Queue depth of pending commands.
      */
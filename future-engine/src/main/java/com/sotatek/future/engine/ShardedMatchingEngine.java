@@ -4,13 +4,22 @@ import com.sotatek.future.entity.Command;
 import com.sotatek.future.entity.Order;
 import com.sotatek.future.enums.CommandCode;
 import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
+import com.sotatek.future.input.RecordKeyAssignment;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.JournalRecord;
+import com.sotatek.future.journal.ReplicationMessage;
+import com.sotatek.future.router.OrderRouter;
 import com.sotatek.future.router.ShardInfo;
 import com.sotatek.future.router.ShardInfo.ShardRole;
 import com.sotatek.future.service.OrderService;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -18,9 +27,17 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Sharded Matching Engine that processes only assigned symbols.
  * Each shard runs as an independent JVM instance.
+ *
+ * <p>A primary replicates the commands it processes to its standby. A standby applies them to its
+ * own state without publishing outputs, and takes over the input when it is promoted.
  */
 @Slf4j
-public class ShardedMatchingEngine extends MatchingEngine {
+public class ShardedMatchingEngine extends MatchingEngine implements RecordKeyAssignment {
+
+    private static final long STANDBY_POLL_MS = 100;
+    // a standby waiting for a snapshot asks again after this time, doubled up to the maximum
+    private static final long SNAPSHOT_REQUEST_TIMEOUT_MS = 5000;
+    private static final long MAX_SNAPSHOT_REQUEST_TIMEOUT_MS = 60_000;
 
     @Getter
     private final String shardId;
@@ -29,12 +46,34 @@ public class ShardedMatchingEngine extends MatchingEngine {
     private final Set<String> assignedSymbols;
 
     @Getter
-    private final ShardRole role;
+    private volatile ShardRole role;
 
+    private ShardedMatchingEngineConfig config;
     private StandbySync standbySync;
+    private StandbyApplier standbyApplier;
+    private SymbolMigrator symbolMigrator;
+    private volatile boolean promoted = false;
+    // replication state of a standby, on its engine thread
+    private volatile boolean replicaReady = false;
+    private boolean replicaLoaded = false;
+    private long replicaStreamId;
+    private long replicaSequence;
+    private long snapshotRequestedAt;
+    private long snapshotRequestTimeout = SNAPSHOT_REQUEST_TIMEOUT_MS;
+    // commands of the snapshot parts received so far, null if none is being received
+    private List<Command> snapshotCommands;
+    private long snapshotStreamId;
+    private long snapshotSequence;
+    private int nextSnapshotPart;
+    private long tickStartTime;
     private ShardHealthStatus healthStatus;
     private long lastProcessedTime;
     private long commandsProcessed;
+    // changed with the assigned symbols, records of other keys wait for it to change
+    private final AtomicLong assignmentEpoch = new AtomicLong();
+    private final AtomicLong rejectedRecords = new AtomicLong();
+    // assignment epoch at which the dropped records of a key have last been logged
+    private final Map<String, Long> rejectedKeys = new ConcurrentHashMap<>();
 
     /**
      * Create a new sharded matching engine.
@@ -66,39 +105,279 @@ public class ShardedMatchingEngine extends MatchingEngine {
                 shardId, role, symbols);
     }
 
+    /**
+     * Create a standby which receives the replication stream from the given applier.
+     */
+    ShardedMatchingEngine(String shardId, Set<String> symbols, StandbyApplier standbyApplier) {
+        this(shardId, symbols, ShardRole.STANDBY);
+        this.standbyApplier = standbyApplier;
+    }
+
     /**
      * Initialize with sharding configuration.
      */
     public void initialize(ShardedMatchingEngineConfig config) throws InvalidMatchingEngineConfigException {
+        this.config = config;
+        config.setInputKeyAssignment(this);
         super.initialize(config);
 
-        if (role == ShardRole.PRIMARY) {
-            // Initialize standby synchronization for primary nodes
-            this.standbySync = new StandbySync(shardId, config.getStandbySyncTopic(),
+        if (role == ShardRole.PRIMARY && config.isStandbySyncEnabled()) {
+            startStandbySync();
+        } else if (role == ShardRole.STANDBY && standbyApplier == null) {
+            this.standbyApplier = new StandbyApplier(shardId, config.getStandbySyncTopic(),
                     config.getKafkaBootstrapServers());
-            log.info("Standby sync initialized for shard {}", shardId);
+        }
+        if (role == ShardRole.PRIMARY) {
+            startSymbolMigrator();
         }
 
         this.healthStatus = ShardHealthStatus.builder()
                 .shardId(shardId)
                 .role(role)
-                .status(ShardInfo.ShardStatus.ACTIVE)
+                // a standby is degraded until it has loaded a snapshot of the primary
+                .status(role == ShardRole.STANDBY
+                        ? ShardInfo.ShardStatus.DEGRADED
+                        : ShardInfo.ShardStatus.ACTIVE)
                 .assignedSymbols(assignedSymbols.size())
                 .build();
     }
 
+    private void startStandbySync() {
+        // the request is served on the engine thread, which may be waiting for a command
+        this.standbySync = new StandbySync(shardId, config.getStandbySyncTopic(),
+                config.getKafkaBootstrapServers(),
+                () -> commands.add(new Command(CommandCode.SYNC_STANDBY, null)));
+        log.info("Standby sync initialized for shard {}", shardId);
+    }
+
+    private void startSymbolMigrator() {
+        if (config.getKafkaBootstrapServers() != null) {
+            this.symbolMigrator =
+                    new SymbolMigrator(this, shardId, config.getKafkaBootstrapServers());
+        }
+    }
+
+    @Override
+    protected boolean isReplica() {
+        return role == ShardRole.STANDBY;
+    }
+
+    /**
+     * Start the engine. A standby applies the replication stream of its primary until it is
+     * promoted, then processes the input.
+     */
+    @Override
+    public void start() {
+        if (standbyApplier != null && !replicate()) {
+            return;
+        }
+        super.start();
+    }
+
+    /**
+     * Promote this standby to primary. It is only promoted once it has the state of the primary,
+     * the commands of the primary which it has not received yet are lost.
+     *
+     * @return false if the standby is not in sync with the primary
+     */
+    public boolean promote() {
+        if (role != ShardRole.STANDBY || !replicaReady) {
+            log.warn("Shard {} cannot be promoted: role={}, inSync={}",
+                    shardId, role, replicaReady);
+            return false;
+        }
+        promoted = true;
+        return true;
+    }
+
+    /**
+     * Apply the replication stream of the primary until this standby is promoted.
+     *
+     * @return true if promoted, false if the thread has been interrupted
+     */
+    private boolean replicate() {
+        log.info("Shard {} is replicating its primary", shardId);
+        snapshotRequestedAt = System.currentTimeMillis();
+        while (!promoted) {
+            ReplicationMessage message;
+            try {
+                message = standbyApplier.poll(STANDBY_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                standbyApplier.close();
+                return false;
+            }
+            if (message != null) {
+                applyReplicationMessage(message);
+            }
+            long sinceRequest = System.currentTimeMillis() - snapshotRequestedAt;
+            if (!replicaReady && sinceRequest > snapshotRequestTimeout) {
+                // the primary may be busy, each snapshot stalls it
+                requestReplicaSnapshot();
+                snapshotRequestTimeout =
+                        Math.min(snapshotRequestTimeout * 2, MAX_SNAPSHOT_REQUEST_TIMEOUT_MS);
+            }
+        }
+        standbyApplier.close();
+        standbyApplier = null;
+        try {
+            finishReplication();
+        } catch (InvalidMatchingEngineConfigException e) {
+            throw new RuntimeException(e);
+        }
+        role = ShardRole.PRIMARY;
+        healthStatus.setRole(role);
+        healthStatus.setStatus(ShardInfo.ShardStatus.ACTIVE);
+        // a restarted old primary can follow as the new standby
+        startStandbySync();
+        startSymbolMigrator();
+        log.info("Shard {} promoted to primary at seq={}", shardId, replicaSequence);
+        return true;
+    }
+
+    /**
+     * Apply a message of the replication stream, on the engine thread of a standby.
+     */
+    void applyReplicationMessage(ReplicationMessage message) {
+        if (message.isSnapshot()) {
+            applySnapshotPart(message);
+        } else if (replicaReady && message.streamId() == replicaStreamId) {
+            for (JournalRecord record : message.records()) {
+                if (record.sequence() <= replicaSequence) {
+                    continue;
+                }
+                if (record.sequence() != replicaSequence + 1) {
+                    log.warn("Shard {} missed replicated commands from seq={} to seq={}",
+                            shardId, replicaSequence + 1, record.sequence() - 1);
+                    onReplicaOutOfSync();
+                    return;
+                }
+                replayRecord(record);
+                replicaSequence = record.sequence();
+                commandsProcessed++;
+            }
+            lastProcessedTime = System.currentTimeMillis();
+        } else if (replicaReady) {
+            log.warn("Primary of shard {} started a new replication stream", shardId);
+            onReplicaOutOfSync();
+        }
+        healthStatus.setStandbyLagMs(Math.max(0, System.currentTimeMillis() - message.sentAt()));
+    }
+
+    private void applySnapshotPart(ReplicationMessage message) {
+        EngineSnapshot part = message.snapshot();
+        if (message.part() == 0) {
+            snapshotCommands = new ArrayList<>();
+            snapshotStreamId = message.streamId();
+            snapshotSequence = part.sequence();
+        } else if (snapshotCommands == null
+                || message.streamId() != snapshotStreamId
+                || part.sequence() != snapshotSequence
+                || message.part() != nextSnapshotPart) {
+            // the snapshot is asked again when it does not arrive in time
+            log.warn("Shard {} dropped part {} of snapshot seq={}, an earlier part is missing",
+                    shardId, message.part(), part.sequence());
+            snapshotCommands = null;
+            return;
+        }
+        snapshotCommands.addAll(part.commands());
+        nextSnapshotPart = message.part() + 1;
+        // not asked again while the parts arrive
+        snapshotRequestedAt = System.currentTimeMillis();
+        if (message.isLastPart()) {
+            EngineSnapshot snapshot =
+                    new EngineSnapshot(snapshotSequence, part.currentPriority(), snapshotCommands);
+            snapshotCommands = null;
+            applyReplicaSnapshot(message.streamId(), snapshot);
+        }
+    }
+
+    private void applyReplicaSnapshot(long streamId, EngineSnapshot snapshot) {
+        if (replicaReady && streamId == replicaStreamId && snapshot.sequence() <= replicaSequence) {
+            // requested more than once, the state is already there
+            return;
+        }
+        if (replicaLoaded) {
+            resetState();
+        }
+        loadSnapshot(snapshot);
+        replicaLoaded = true;
+        replicaStreamId = streamId;
+        replicaSequence = snapshot.sequence();
+        replicaReady = true;
+        snapshotRequestTimeout = SNAPSHOT_REQUEST_TIMEOUT_MS;
+        lastProcessedTime = System.currentTimeMillis();
+        healthStatus.setStatus(ShardInfo.ShardStatus.ACTIVE);
+        log.info("Shard {} loaded snapshot seq={} of {} commands",
+                shardId, snapshot.sequence(), snapshot.commands().size());
+    }
+
+    private void onReplicaOutOfSync() {
+        replicaReady = false;
+        healthStatus.setStatus(ShardInfo.ShardStatus.DEGRADED);
+        requestReplicaSnapshot();
+    }
+
+    private void requestReplicaSnapshot() {
+        snapshotRequestedAt = System.currentTimeMillis();
+        standbyApplier.requestSnapshot();
+    }
+
+    @Override
+    protected void beforeTick(Command command) {
+        tickStartTime = System.currentTimeMillis();
+        if (standbySync != null && changesState(command)) {
+            standbySync.append(command);
+        }
+        if (symbolMigrator != null) {
+            symbolMigrator.beforeTick(command);
+        }
+    }
+
+    @Override
+    protected void afterTick(Command command) {
+        commandsProcessed++;
+        lastProcessedTime = System.currentTimeMillis();
+        updateHealthMetrics(lastProcessedTime - tickStartTime);
+        if (symbolMigrator != null) {
+            // before the standby sync, which serves the snapshots requested by a migration
+            symbolMigrator.afterTick(command);
+        }
+        if (standbySync == null) {
+            return;
+        }
+        if (command.getCode() == CommandCode.SYNC_STANDBY) {
+            standbySync.requestSnapshot();
+        }
+        if (standbySync.isSnapshotRequested() && canSnapshot()) {
+            standbySync.sendSnapshot(createSnapshot(standbySync.getSequenceNumber()));
+        } else if (commands.isEmpty()
+                || standbySync.getBatchSize() >= StandbySync.MAX_BATCH_RECORDS) {
+            // one batch per tick of queued commands
+            standbySync.flush();
+        }
+    }
+
     /**
      * Override onNewData to filter commands for assigned symbols only.
      */
     @Override
     public long onNewData(Command command) {
+        if (symbolMigrator != null) {
+            // the input of a symbol migrating to this shard waits for the hand-over
+            String stateSymbol = SymbolMigrator.getStateSymbol(command);
+            if (stateSymbol != null && symbolMigrator.hold(command, stateSymbol)) {
+                return commands.size();
+            }
+        }
+
         // Global commands (like INITIALIZE_ENGINE, START_ENGINE) are processed by all shards
         if (isGlobalCommand(command)) {
             return super.onNewData(command);
         }
 
         // Check if this command is for a symbol assigned to this shard
-        String symbol = extractSymbol(command);
+        String symbol = command.getSymbol();
         if (symbol != null && !assignedSymbols.contains(symbol)) {
             log.debug("Ignoring command for unassigned symbol: {} (shard: {})", symbol, shardId);
             return commands.size();
@@ -107,10 +386,44 @@ public class ShardedMatchingEngine extends MatchingEngine {
         return super.onNewData(command);
     }
 
+    /**
+     * Check if an input record key belongs to this shard, before the record is decoded.
+     * Records are keyed by symbol, global commands by the control key or the shard ID.
+     */
+    @Override
+    public boolean acceptsRecordKey(String key) {
+        return key == null
+                || assignedSymbols.contains(key)
+                || key.equals(shardId)
+                || key.equals(OrderRouter.CONTROL_KEY);
+    }
+
+    @Override
+    public long getAssignmentEpoch() {
+        return assignmentEpoch.get();
+    }
+
+    @Override
+    public void onRecordKeyRejected(String key) {
+        rejectedRecords.incrementAndGet();
+        long epoch = assignmentEpoch.get();
+        Long loggedEpoch = rejectedKeys.put(key, epoch);
+        if (loggedEpoch == null || loggedEpoch != epoch) {
+            log.warn("Shard {} dropped input records of unassigned key {} at assignment epoch {}",
+                    shardId, key, epoch);
+        }
+    }
+
+    // called after the assigned symbols have changed
+    private void onAssignmentChanged() {
+        assignmentEpoch.incrementAndGet();
+        healthStatus.setAssignedSymbols(assignedSymbols.size());
+    }
+
     /**
      * Check if a command is a global command that all shards should process.
      */
-    private boolean isGlobalCommand(Command command) {
+    static boolean isGlobalCommand(Command command) {
         CommandCode code = command.getCode();
         return code == CommandCode.INITIALIZE_ENGINE
                 || code == CommandCode.START_ENGINE
@@ -122,54 +435,53 @@ public class ShardedMatchingEngine extends MatchingEngine {
     }
 
     /**
-     * Extract symbol from command.
+     * Accept the input of a symbol migrating to this shard, on the migration consumer thread.
      */
-    private String extractSymbol(Command command) {
-        if (command.isOrderCommand() && command.getOrder() != null) {
-            return command.getOrder().getSymbol();
-        }
-        try {
-            if (command.getPosition() != null) {
-                return command.getPosition().getSymbol();
-            }
-        } catch (ClassCastException ignored) {
-        }
-        try {
-            if (command.getInstrument() != null) {
-                return command.getInstrument().getSymbol();
-            }
-        } catch (ClassCastException ignored) {
+    void acceptSymbol(String symbol) {
+        if (assignedSymbols.add(symbol)) {
+            onAssignmentChanged();
         }
-        return null;
     }
 
     /**
-     * Process tick with standby synchronization.
+     * Stop processing a symbol handed over to another shard, on the engine thread. Its state is
+     * kept until the other shard acknowledges.
      */
-    protected void onTickWithSync(Command command) {
-        long startTime = System.currentTimeMillis();
-
-        try {
-            // Process the command
-            onTick();
-
-            // Sync state to standby if primary
-            if (role == ShardRole.PRIMARY && standbySync != null) {
-                standbySync.syncCommand(command);
-            }
+    void onSymbolHandingOver(String symbol) {
+        assignedSymbols.remove(symbol);
+        onAssignmentChanged();
+    }
 
-            commandsProcessed++;
-            lastProcessedTime = System.currentTimeMillis();
+    /**
+     * Drop the state of a symbol which another shard has taken over, on the engine thread.
+     */
+    void onSymbolHandedOver(String symbol) {
+        removeSymbolState(symbol);
+        requestJournalSnapshot();
+        if (standbySync != null) {
+            standbySync.requestSnapshot();
+        }
+    }
 
-        } catch (Exception e) {
-            log.error("Error processing command in shard {}: {}", shardId, e.getMessage(), e);
-            throw e;
-        } finally {
-            long processingTime = System.currentTimeMillis() - startTime;
-            updateHealthMetrics(processingTime);
+    /**
+     * Start processing a symbol which another shard has handed over, on the engine thread.
+     */
+    void onSymbolTakenOver(String symbol) {
+        writeOrderBook(symbol);
+        // the migrated state is in neither the journal nor the replication stream
+        requestJournalSnapshot();
+        if (standbySync != null) {
+            standbySync.requestSnapshot();
         }
     }
 
+    /**
+     * Process a command held while its symbol was migrating to this shard.
+     */
+    void processHeldCommand(Command command) {
+        super.onNewData(command);
+    }
+
     /**
      * Add a new symbol to this shard (for rebalancing).
      */
@@ -184,7 +496,7 @@ public class ShardedMatchingEngine extends MatchingEngine {
             triggers.put(symbol, trigger);
 
             log.info("Added symbol {} to shard {}", symbol, shardId);
-            healthStatus.setAssignedSymbols(assignedSymbols.size());
+            onAssignmentChanged();
         }
     }
 
@@ -220,7 +532,7 @@ public class ShardedMatchingEngine extends MatchingEngine {
 
         log.info("Removed symbol {} from shard {}. Migrating {} orders",
                 symbol, shardId, pendingOrders.size());
-        healthStatus.setAssignedSymbols(assignedSymbols.size());
+        onAssignmentChanged();
 
         return pendingOrders;
     }
@@ -260,6 +572,9 @@ public class ShardedMatchingEngine extends MatchingEngine {
                 .memoryUsed(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())
                 .memoryMax(Runtime.getRuntime().maxMemory())
                 .avgProcessingTimeMs(healthStatus.getAvgProcessingTimeMs())
+                .standbyLagMs(healthStatus.getStandbyLagMs())
+                .rejectedRecords(rejectedRecords.get())
+                .migrations(symbolMigrator != null ? symbolMigrator.getStates() : Map.of())
                 .build();
     }
 
@@ -306,6 +621,12 @@ public class ShardedMatchingEngine extends MatchingEngine {
         if (standbySync != null) {
             standbySync.close();
         }
+        if (standbyApplier != null) {
+            standbyApplier.close();
+        }
+        if (symbolMigrator != null) {
+            symbolMigrator.close();
+        }
 
         // Let parent handle the rest
         // Note: The parent class doesn't have a shutdown method,
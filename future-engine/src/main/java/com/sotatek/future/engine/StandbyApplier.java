@@ -0,0 +1,142 @@
+package com.sotatek.future.engine;
+
+import com.sotatek.future.journal.ReplicationMessage;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Receives the replication stream of a primary shard on its standby.
+ *
+ * <p>Messages are consumed and decoded on a background thread and taken in order by the engine
+ * thread of the standby, which applies them. The stream is read from its end, the state before it
+ * comes from a snapshot, which is requested as soon as the partitions are assigned.
+ */
+@Slf4j
+public class StandbyApplier implements AutoCloseable {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final String shardId;
+    private final String syncTopic;
+    private final KafkaConsumer<String, byte[]> consumer;
+    private final KafkaProducer<String, String> requestProducer;
+    private final BlockingQueue<ReplicationMessage> messages =
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread consumerThread;
+
+    private volatile boolean closed = false;
+
+    public StandbyApplier(String shardId, String syncTopic, String bootstrapServers) {
+        this.shardId = shardId;
+        this.syncTopic = syncTopic;
+        this.consumer = createConsumer(bootstrapServers);
+        this.requestProducer = createRequestProducer(bootstrapServers);
+        this.consumerThread = new Thread(this::pollMessages, "StandbyApplier-" + shardId);
+        this.consumerThread.setDaemon(true);
+        this.consumerThread.start();
+
+        log.info("StandbyApplier initialized for shard {} with topic {}", shardId, syncTopic);
+    }
+
+    private KafkaConsumer<String, byte[]> createConsumer(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        // offsets are never committed, the state comes from a snapshot after each restart
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, syncTopic + "-standby-" + UUID.randomUUID());
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                ByteArrayDeserializer.class.getName());
+        // snapshots arrive in parts of the default message size
+        props.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, 1 << 20);
+        return new KafkaConsumer<>(props);
+    }
+
+    private KafkaProducer<String, String> createRequestProducer(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        return new KafkaProducer<>(props);
+    }
+
+    private void pollMessages() {
+        try {
+            consumer.subscribe(List.of(syncTopic), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {}
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    // the stream is read from here, the state before it comes from a snapshot
+                    requestSnapshot();
+                }
+            });
+            while (!closed) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofSeconds(1))) {
+                    try {
+                        messages.put(ReplicationMessage.decode(record.value()));
+                    } catch (IllegalStateException e) {
+                        // the engine thread sees the gap
+                        log.error("Cannot decode replication message at offset {}",
+                                record.offset(), e);
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Replication consumer of shard {} failed", shardId, e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Take the next message of the stream, or null if none arrives in the timeout.
+     */
+    public ReplicationMessage poll(long timeoutMs) throws InterruptedException {
+        return messages.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ask the primary for a snapshot of its current state.
+     */
+    public void requestSnapshot() {
+        log.info("Requesting a snapshot for the standby of shard {}", shardId);
+        requestProducer.send(
+                new ProducerRecord<>(StandbySync.getRequestTopic(syncTopic), shardId, shardId));
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            consumer.wakeup();
+            requestProducer.close();
+            log.info("StandbyApplier for shard {} closed", shardId);
+        }
+    }
+}
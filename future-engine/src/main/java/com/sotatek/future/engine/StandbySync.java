@@ -1,271 +1,255 @@
 package com.sotatek.future.engine;
 
-import com.google.gson.Gson;
 import com.sotatek.future.entity.Command;
-import com.sotatek.future.util.json.JsonUtil;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.ReplicationMessage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
-import lombok.Builder;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 /**
- * Handles synchronization of state from Primary to Standby shard.
- * Uses Kafka for reliable state replication.
+ * Replicates the commands processed by a primary shard to its standby.
+ *
+ * <p>Commands are appended on the engine thread in processing order and sent as one
+ * {@link ReplicationMessage} batch per engine tick, when the command queue is empty or the batch
+ * is full. All messages of a shard have the same key, so they stay in order on one partition. A
+ * failed send is not retried out of order, the standby sees the sequence gap and requests a
+ * snapshot instead. Snapshot requests of the standby arrive on {@link #getRequestTopic}, a
+ * snapshot is sent in parts which fit the default message size of the brokers, and requests of
+ * the standby are served at most once per {@link #MIN_SNAPSHOT_INTERVAL_MS}.
  */
 @Slf4j
 public class StandbySync implements AutoCloseable {
 
-    private static final int MAX_RETRY_ATTEMPTS = 3;
-    private static final int RETRY_BACKOFF_MS = 100;
-    private static final int QUEUE_CAPACITY = 10000;
+    public static final int MAX_BATCH_RECORDS = 512;
+    private static final String REQUEST_TOPIC_SUFFIX = "-request";
+    // below the default message.max.bytes of the brokers
+    private static final int MAX_MESSAGE_BYTES = 1 << 20;
+    // records of a snapshot part, the rest of the message is the header and the compression
+    static final int SNAPSHOT_PART_BYTES = 512 << 10;
+    // each snapshot stalls the engine thread, a standby asking again waits for this time
+    static final long MIN_SNAPSHOT_INTERVAL_MS = 10_000;
 
     private final String shardId;
     private final String syncTopic;
-    private final KafkaProducer<String, String> producer;
-    private final Gson gson = JsonUtil.createGson();
+    private final long streamId = ThreadLocalRandom.current().nextLong();
+    private final KafkaProducer<String, byte[]> producer;
+    private final KafkaConsumer<String, String> requestConsumer;
+    private final Thread requestThread;
+    private final Runnable onSnapshotRequested;
+
+    // written on the engine thread only
+    private final List<byte[]> batch = new ArrayList<>();
+    private volatile long sequenceNumber = 0;
+    private boolean snapshotRequested = false;
+    private volatile long lastSnapshotAt = 0;
 
-    private final AtomicLong sequenceNumber = new AtomicLong(0);
     private final AtomicLong syncedCount = new AtomicLong(0);
     private final AtomicLong failedCount = new AtomicLong(0);
-    private final AtomicLong consecutiveFailures = new AtomicLong(0);
-
-    private final BlockingQueue<SyncMessage> retryQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
-    private final Thread retryThread;
 
     private volatile boolean closed = false;
 
     /**
      * Create a new StandbySync instance.
+     *
+     * @param onSnapshotRequested called on the request thread when the standby requests a snapshot,
+     *     it must wake the engine thread up to serve it
      */
-    public StandbySync(String shardId, String syncTopic, String bootstrapServers) {
+    public StandbySync(String shardId, String syncTopic, String bootstrapServers,
+            Runnable onSnapshotRequested) {
         this.shardId = shardId;
         this.syncTopic = syncTopic;
+        this.onSnapshotRequested = onSnapshotRequested;
         this.producer = createProducer(bootstrapServers);
-        this.retryThread = new RetryThread();
-        this.retryThread.setName("StandbySync-Retry-" + shardId);
-        this.retryThread.setDaemon(true);
-        this.retryThread.start();
+        this.requestConsumer = createRequestConsumer(bootstrapServers);
+        this.requestThread = new Thread(this::pollRequests, "StandbySync-Request-" + shardId);
+        this.requestThread.setDaemon(true);
+        this.requestThread.start();
 
         log.info("StandbySync initialized for shard {} with topic {}", shardId, syncTopic);
     }
 
-    private KafkaProducer<String, String> createProducer(String bootstrapServers) {
+    public static String getRequestTopic(String syncTopic) {
+        return syncTopic + REQUEST_TOPIC_SUFFIX;
+    }
+
+    private KafkaProducer<String, byte[]> createProducer(String bootstrapServers) {
         Properties props = new Properties();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        // High reliability settings for replication
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                ByteArraySerializer.class.getName());
+        // the idempotent producer keeps the order of the batches through its own retries
         props.put(ProducerConfig.ACKS_CONFIG, "all");
-        props.put(ProducerConfig.RETRIES_CONFIG, 3);
-        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 1);
         props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
-        // Low latency settings
+        props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        // batches are built per engine tick
         props.put(ProducerConfig.LINGER_MS_CONFIG, 0);
-        props.put(ProducerConfig.BATCH_SIZE_CONFIG, 16384);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, MAX_MESSAGE_BYTES);
 
         return new KafkaProducer<>(props);
     }
 
-    /**
-     * Synchronize a command to the standby.
-     */
-    public void syncCommand(Command command) {
-        if (closed) {
-            log.warn("StandbySync is closed, cannot sync command");
-            return;
+    private KafkaConsumer<String, String> createRequestConsumer(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, syncTopic + "-primary");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                StringDeserializer.class.getName());
+        // requests sent before this primary started are for an older stream
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        return new KafkaConsumer<>(props);
+    }
+
+    private void pollRequests() {
+        try {
+            requestConsumer.subscribe(List.of(getRequestTopic(syncTopic)));
+            boolean pending = false;
+            while (!closed) {
+                ConsumerRecords<String, String> records =
+                        requestConsumer.poll(Duration.ofSeconds(1));
+                if (!records.isEmpty()) {
+                    log.info("Standby of shard {} requested a snapshot", shardId);
+                    pending = true;
+                }
+                if (pending && isSnapshotDue(System.currentTimeMillis())) {
+                    pending = false;
+                    onSnapshotRequested.run();
+                }
+            }
+        } catch (WakeupException e) {
+            // closed
+        } catch (Exception e) {
+            log.error("Snapshot request consumer of shard {} failed", shardId, e);
+        } finally {
+            requestConsumer.close();
         }
+    }
 
-        SyncMessage message = SyncMessage.builder()
-                .shardId(shardId)
-                .sequenceNumber(sequenceNumber.incrementAndGet())
-                .command(command)
-                .timestamp(System.currentTimeMillis())
-                .build();
+    /**
+     * Append a command to the current batch, on the engine thread before it is processed.
+     */
+    public void append(Command command) {
+        batch.add(ReplicationMessage.encodeRecord(++sequenceNumber, command));
+    }
 
-        sendSync(message);
+    public int getBatchSize() {
+        return batch.size();
     }
 
     /**
-     * Synchronize a state snapshot (for initial sync or recovery).
+     * Send the current batch, on the engine thread.
      */
-    public void syncSnapshot(StateSnapshot snapshot) {
-        if (closed) {
+    public void flush() {
+        if (batch.isEmpty()) {
             return;
         }
-
-        SyncMessage message = SyncMessage.builder()
-                .shardId(shardId)
-                .sequenceNumber(sequenceNumber.incrementAndGet())
-                .snapshot(snapshot)
-                .isSnapshot(true)
-                .timestamp(System.currentTimeMillis())
-                .build();
-
-        sendSyncBlocking(message);
+        int count = batch.size();
+        long lastSequence = sequenceNumber;
+        byte[] message =
+                ReplicationMessage.encodeBatch(streamId, System.currentTimeMillis(), batch);
+        batch.clear();
+        send(message, count, lastSequence);
     }
 
     /**
-     * Send sync message asynchronously.
+     * Mark a snapshot as requested, it is sent by the engine thread when one can be taken.
      */
-    private void sendSync(SyncMessage message) {
-        String payload = gson.toJson(message);
-        ProducerRecord<String, String> record = new ProducerRecord<>(syncTopic, shardId, payload);
+    public void requestSnapshot() {
+        snapshotRequested = true;
+    }
 
-        producer.send(record, (metadata, exception) -> {
-            if (exception != null) {
-                handleSyncFailure(message, exception);
-            } else {
-                syncedCount.incrementAndGet();
-                consecutiveFailures.set(0);
-                log.debug("Synced message seq={} to standby", message.getSequenceNumber());
-            }
-        });
+    public boolean isSnapshotRequested() {
+        return snapshotRequested;
     }
 
     /**
-     * Send sync message and wait for acknowledgment.
+     * Check if a request of the standby can be served, the requests of the engine itself are
+     * always served.
      */
-    private void sendSyncBlocking(SyncMessage message) {
-        String payload = gson.toJson(message);
-        ProducerRecord<String, String> record = new ProducerRecord<>(syncTopic, shardId, payload);
-
-        try {
-            producer.send(record).get(5, TimeUnit.SECONDS);
-            syncedCount.incrementAndGet();
-            consecutiveFailures.set(0);
-            log.info("Synced snapshot seq={} to standby", message.getSequenceNumber());
-        } catch (Exception e) {
-            handleSyncFailure(message, e);
-        }
+    boolean isSnapshotDue(long now) {
+        return now - lastSnapshotAt >= MIN_SNAPSHOT_INTERVAL_MS;
     }
 
     /**
-     * Handle synchronization failure.
+     * Send a snapshot of the state after the last appended command, on the engine thread. The
+     * parts are sent one after the other, no batch comes between them.
      */
-    private void handleSyncFailure(SyncMessage message, Exception e) {
-        failedCount.incrementAndGet();
-        long failures = consecutiveFailures.incrementAndGet();
-
-        log.error("Failed to sync message seq={} to standby: {}",
-                message.getSequenceNumber(), e.getMessage());
-
-        // Add to retry queue
-        if (message.getRetryCount() < MAX_RETRY_ATTEMPTS) {
-            message.setRetryCount(message.getRetryCount() + 1);
-            if (!retryQueue.offer(message)) {
-                log.error("Retry queue full, dropping sync message seq={}", message.getSequenceNumber());
-            }
-        } else {
-            log.error("Max retries exceeded for sync message seq={}", message.getSequenceNumber());
+    public void sendSnapshot(EngineSnapshot snapshot) {
+        flush();
+        snapshotRequested = false;
+        lastSnapshotAt = System.currentTimeMillis();
+        List<byte[]> parts = ReplicationMessage.encodeSnapshotParts(
+                streamId, lastSnapshotAt, snapshot, SNAPSHOT_PART_BYTES);
+        long bytes = 0;
+        for (byte[] part : parts) {
+            send(part, 1, snapshot.sequence());
+            bytes += part.length;
         }
+        log.info("Sent snapshot seq={} of {} bytes in {} parts to the standby of shard {}",
+                snapshot.sequence(), bytes, parts.size(), shardId);
+    }
 
-        // Alert on consecutive failures
-        if (failures >= 10) {
-            log.error("CRITICAL: {} consecutive sync failures for shard {}", failures, shardId);
-            // TODO: Trigger alert via monitoring system
-        }
+    private void send(byte[] message, int count, long lastSequence) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(syncTopic, shardId, message);
+        producer.send(record, (metadata, exception) -> {
+            if (exception != null) {
+                failedCount.addAndGet(count);
+                // the standby detects the gap and requests a snapshot
+                log.error("Failed to sync messages up to seq={} to standby: {}",
+                        lastSequence, exception.getMessage());
+            } else {
+                syncedCount.addAndGet(count);
+            }
+        });
     }
 
     /**
-     * Get the current sequence number.
+     * Get the sequence number of the last appended command.
      */
     public long getSequenceNumber() {
-        return sequenceNumber.get();
+        return sequenceNumber;
     }
 
     /**
-     * Get the count of successfully synced messages.
+     * Get the count of successfully synced commands and snapshot parts.
      */
     public long getSyncedCount() {
         return syncedCount.get();
     }
 
     /**
-     * Get the count of failed sync attempts.
+     * Get the count of commands and snapshot parts which could not be synced.
      */
     public long getFailedCount() {
         return failedCount.get();
     }
 
-    /**
-     * Get the retry queue size.
-     */
-    public int getRetryQueueSize() {
-        return retryQueue.size();
-    }
-
     @Override
     public void close() {
         if (!closed) {
             closed = true;
-            retryThread.interrupt();
+            requestConsumer.wakeup();
             producer.flush();
             producer.close();
             log.info("StandbySync for shard {} closed. Synced: {}, Failed: {}",
                     shardId, syncedCount.get(), failedCount.get());
         }
     }
-
-    /**
-     * Background thread for retrying failed sync messages.
-     */
-    private class RetryThread extends Thread {
-        @Override
-        public void run() {
-            while (!closed) {
-                try {
-                    SyncMessage message = retryQueue.poll(1, TimeUnit.SECONDS);
-                    if (message != null) {
-                        Thread.sleep(RETRY_BACKOFF_MS * message.getRetryCount());
-                        log.debug("Retrying sync message seq={}, attempt={}",
-                                message.getSequenceNumber(), message.getRetryCount());
-                        sendSync(message);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Exception e) {
-                    log.error("Error in retry thread: {}", e.getMessage());
-                }
-            }
-        }
-    }
-
-    /**
-     * Message structure for synchronization.
-     */
-    @Data
-    @Builder
-    public static class SyncMessage {
-        private String shardId;
-        private long sequenceNumber;
-        private Command command;
-        private StateSnapshot snapshot;
-        private boolean isSnapshot;
-        private long timestamp;
-        @Builder.Default
-        private int retryCount = 0;
-    }
-
-    /**
-     * State snapshot for full synchronization.
-     */
-    @Data
-    @Builder
-    public static class StateSnapshot {
-        private String shardId;
-        private long sequenceNumber;
-        private byte[] ordersData;
-        private byte[] positionsData;
-        private byte[] accountsData;
-        private long timestamp;
-    }
 }
@@ -0,0 +1,587 @@
+package com.sotatek.future.engine;
+
+import com.sotatek.future.entity.AdjustLeverage;
+import com.sotatek.future.entity.AdjustMarginPosition;
+import com.sotatek.future.entity.AdjustTpSl;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.FundingParams;
+import com.sotatek.future.entity.InstrumentExtraInformation;
+import com.sotatek.future.entity.SymbolMigration;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.JournalRecord;
+import com.sotatek.future.journal.ReplicationMessage;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Moves symbols between shards while they keep trading.
+ *
+ * <p>The router writes two fences on the input of the source shard, in the command order of the
+ * symbol:
+ *
+ * <ol>
+ *   <li>{@code MIGRATE_SYMBOL}: the source sends a snapshot of the symbol state, then each command
+ *       of the symbol it processes, to the migration topic of the target. The target loads the
+ *       snapshot and applies the commands without publishing outputs.
+ *   <li>{@code HAND_OVER_SYMBOL}: written right before the router routes the symbol to the target.
+ *       Once no engine generated command is queued, the source sends the hand-over record and
+ *       stops processing the symbol. The target then owns the symbol, processes the input of the
+ *       symbol which it has held since the routing changed and acknowledges the hand-over. The
+ *       source keeps the symbol state until the acknowledgement arrives.
+ * </ol>
+ *
+ * <p>Messages are {@link ReplicationMessage}s keyed by symbol, with the migration ID as stream ID.
+ * The snapshot starts with the {@code MIGRATE_SYMBOL} fence, which names the source. Records are
+ * numbered per migration, on a gap the target asks the source for a new snapshot with a
+ * {@code MIGRATE_SYMBOL} record on the migration topic of the source, and acknowledges with a
+ * {@code HAND_OVER_SYMBOL} record. Both sides send again when no answer arrives in
+ * {@link #REPLY_TIMEOUT_MS}.
+ */
+@Slf4j
+public class SymbolMigrator implements AutoCloseable {
+
+    public static final String TOPIC_PREFIX = "shard-migration-";
+    private static final int MAX_MESSAGE_BYTES = 64 << 20;
+    // a source waiting for the acknowledgement, or a target for a new snapshot, asks again
+    static final long REPLY_TIMEOUT_MS = 5000;
+    // the input thread waits for the hand-over when more commands of a symbol are held
+    static final int MAX_HELD_COMMANDS = 100_000;
+
+    /**
+     * State of a symbol migrating from or to this shard.
+     */
+    public enum State {
+        SENDING, HANDING_OVER, LOADING, SHADOWING
+    }
+
+    private final ShardedMatchingEngine engine;
+    private final String shardId;
+    private final Producer<String, byte[]> producer;
+    private final KafkaConsumer<String, byte[]> consumer;
+    private final Thread consumerThread;
+    // migrations from this shard, changed on the engine thread
+    private final Map<String, Outgoing> outgoing = new ConcurrentHashMap<>();
+    // migrations to this shard, created on the consumer thread
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+    // last migration to this shard of each symbol, acknowledged again if the source asks
+    private final Map<String, SymbolMigration> completed = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    public SymbolMigrator(ShardedMatchingEngine engine, String shardId, String bootstrapServers) {
+        this(engine, shardId, createProducer(bootstrapServers),
+                createConsumer(shardId, bootstrapServers));
+    }
+
+    /**
+     * Create a migrator which sends with the given producer and receives nothing by itself.
+     */
+    SymbolMigrator(ShardedMatchingEngine engine, String shardId,
+            Producer<String, byte[]> producer) {
+        this(engine, shardId, producer, null);
+    }
+
+    private SymbolMigrator(ShardedMatchingEngine engine, String shardId,
+            Producer<String, byte[]> producer, KafkaConsumer<String, byte[]> consumer) {
+        this.engine = engine;
+        this.shardId = shardId;
+        this.producer = producer;
+        this.consumer = consumer;
+        if (consumer != null) {
+            this.consumerThread = new Thread(this::pollMessages, "SymbolMigrator-" + shardId);
+            this.consumerThread.setDaemon(true);
+            this.consumerThread.start();
+        } else {
+            this.consumerThread = null;
+        }
+    }
+
+    public static String getTopic(String shardId) {
+        return TOPIC_PREFIX + shardId;
+    }
+
+    private static KafkaProducer<String, byte[]> createProducer(String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 0);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        props.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, MAX_MESSAGE_BYTES);
+        return new KafkaProducer<>(props);
+    }
+
+    private static KafkaConsumer<String, byte[]> createConsumer(
+            String shardId, String bootstrapServers) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, getTopic(shardId));
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, MAX_MESSAGE_BYTES);
+        return new KafkaConsumer<>(props);
+    }
+
+    /**
+     * Get the symbol of the state a command changes, for the commands which carry one.
+     */
+    public static String getStateSymbol(Command command) {
+        String symbol = command.getSymbol();
+        if (symbol != null) {
+            return symbol;
+        }
+        Object data = command.getData();
+        if (data instanceof InstrumentExtraInformation extra) {
+            return extra.getSymbol();
+        }
+        if (data instanceof FundingParams funding) {
+            return funding.getSymbol();
+        }
+        if (data instanceof AdjustLeverage adjustLeverage) {
+            return adjustLeverage.getSymbol();
+        }
+        if (data instanceof AdjustMarginPosition adjustMargin) {
+            return adjustMargin.getSymbol();
+        }
+        if (data instanceof AdjustTpSl adjustTpSl) {
+            return adjustTpSl.getSymbol();
+        }
+        return null;
+    }
+
+    /**
+     * Get the state of the symbols migrating from or to this shard.
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<>();
+        outgoing.forEach((symbol, migration) ->
+                states.put(symbol, migration.handingOver ? State.HANDING_OVER : State.SENDING));
+        incoming.forEach((symbol, migration) -> states.put(symbol, migration.state));
+        return states;
+    }
+
+    /**
+     * Hold a command of the input while its symbol is migrating to this shard, on the input thread.
+     * Global commands of the symbol are dropped, the source sends its own copy. Commands of a
+     * symbol handed over by this shard are dropped too, the target processes them. The input thread
+     * waits while {@link #MAX_HELD_COMMANDS} commands of the symbol are held.
+     *
+     * @return true if the command must not be processed now
+     */
+    public boolean hold(Command command, String symbol) {
+        Outgoing sending = outgoing.get(symbol);
+        if (sending != null && sending.handedOver) {
+            return true;
+        }
+        Incoming migration = incoming.get(symbol);
+        while (migration != null) {
+            synchronized (migration) {
+                waitForRoom(migration);
+                if (!migration.done) {
+                    if (!ShardedMatchingEngine.isGlobalCommand(command)) {
+                        migration.held.add(command);
+                    }
+                    return true;
+                }
+            }
+            // replaced by a new snapshot of the migration, or completed
+            migration = incoming.get(symbol);
+        }
+        return false;
+    }
+
+    private static void waitForRoom(Incoming migration) {
+        try {
+            while (!migration.done && migration.held.size() >= MAX_HELD_COMMANDS) {
+                migration.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called on the engine thread before each command is processed.
+     */
+    public void beforeTick(Command command) {
+        if (outgoing.isEmpty() || command.getCode() == CommandCode.HAND_OVER_SYMBOL) {
+            return;
+        }
+        String symbol = getStateSymbol(command);
+        Outgoing migration = symbol != null ? outgoing.get(symbol) : null;
+        if (migration != null && !migration.handedOver) {
+            migration.append(command);
+        }
+    }
+
+    /**
+     * Called on the engine thread after each command is processed.
+     */
+    public void afterTick(Command command) {
+        switch (command.getCode()) {
+            case MIGRATE_SYMBOL -> startOutgoing((SymbolMigration) command.getData());
+            case HAND_OVER_SYMBOL -> {
+                SymbolMigration fence = (SymbolMigration) command.getData();
+                Outgoing migration = outgoing.get(fence.getSymbol());
+                if (migration != null
+                        && migration.migration.getMigrationId() == fence.getMigrationId()) {
+                    migration.handingOver = true;
+                }
+            }
+            case APPLY_MIGRATION -> apply((Received) command.getData());
+            default -> {}
+        }
+        if (outgoing.isEmpty() && incoming.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean idle = MatchingEngine.commands.isEmpty();
+        for (Outgoing migration : outgoing.values()) {
+            if (migration.handedOver) {
+                if (now - migration.handedOverAt >= REPLY_TIMEOUT_MS) {
+                    // the acknowledgement is lost, or the target has not seen the hand-over
+                    migration.sendHandOver();
+                }
+            } else if (migration.handingOver && engine.canSnapshot()) {
+                // the last record, no command of the symbol is processed by this shard after it
+                migration.append(new Command(CommandCode.HAND_OVER_SYMBOL, migration.migration));
+                migration.sendHandOver();
+                engine.onSymbolHandingOver(migration.migration.getSymbol());
+                log.info("Handing symbol {} over to shard {} after {} commands",
+                        migration.migration.getSymbol(), migration.migration.getTargetShardId(),
+                        migration.sequence);
+            } else if (idle || migration.batch.size() >= StandbySync.MAX_BATCH_RECORDS) {
+                migration.flush();
+            }
+        }
+        for (Map.Entry<String, Incoming> entry : incoming.entrySet()) {
+            Incoming migration = entry.getValue();
+            if (migration.snapshotRequestedAt > 0
+                    && now - migration.snapshotRequestedAt >= REPLY_TIMEOUT_MS) {
+                requestSnapshot(entry.getKey(), migration);
+            }
+        }
+    }
+
+    private void startOutgoing(SymbolMigration migration) {
+        String symbol = migration.getSymbol();
+        if (!engine.handlesSymbol(symbol)) {
+            log.warn("Cannot migrate symbol {} which is not on shard {}", symbol, shardId);
+            return;
+        }
+        Outgoing sending = new Outgoing(migration);
+        Outgoing previous = outgoing.put(symbol, sending);
+        if (previous != null) {
+            log.warn("Migration {} of symbol {} replaces unfinished migration {}",
+                    migration.getMigrationId(), symbol, previous.migration.getMigrationId());
+        }
+        sendSnapshot(sending);
+    }
+
+    // the state after the records sent so far
+    private void sendSnapshot(Outgoing sending) {
+        SymbolMigration migration = sending.migration;
+        sending.flush();
+        List<Command> state = new ArrayList<>();
+        state.add(new Command(CommandCode.MIGRATE_SYMBOL, migration));
+        state.addAll(engine.createSymbolSnapshot(migration.getSymbol()));
+        byte[] message = ReplicationMessage.encodeSnapshot(migration.getMigrationId(),
+                System.currentTimeMillis(), new EngineSnapshot(sending.sequence, 0, state));
+        send(migration.getTargetShardId(), migration, message);
+        log.info("Migrating symbol {} to shard {}: sent {} state commands of {} bytes at seq={}",
+                migration.getSymbol(), migration.getTargetShardId(), state.size() - 1,
+                message.length, sending.sequence);
+    }
+
+    private void send(String targetShardId, SymbolMigration migration, byte[] message) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(
+                getTopic(targetShardId), migration.getSymbol(), message);
+        producer.send(record, (metadata, exception) -> {
+            if (exception != null) {
+                // the other side sees the gap, or asks again
+                log.error("Failed to send migration {} of symbol {} to shard {}: {}",
+                        migration.getMigrationId(), migration.getSymbol(), targetShardId,
+                        exception.getMessage());
+            }
+        });
+    }
+
+    // a record from the target to the source
+    private void reply(SymbolMigration migration, CommandCode code) {
+        byte[] message = ReplicationMessage.encodeBatch(migration.getMigrationId(),
+                System.currentTimeMillis(),
+                List.of(ReplicationMessage.encodeRecord(0, new Command(code, migration))));
+        send(migration.getSourceShardId(), migration, message);
+    }
+
+    private void pollMessages() {
+        try {
+            consumer.subscribe(List.of(getTopic(shardId)));
+            while (!closed) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofSeconds(1))) {
+                    receive(record.key(), record.value());
+                }
+            }
+        } catch (WakeupException e) {
+            // closed
+        } catch (Exception e) {
+            log.error("Migration consumer of shard {} failed", shardId, e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void receive(String symbol, byte[] value) {
+        ReplicationMessage message;
+        try {
+            message = ReplicationMessage.decode(value);
+        } catch (IllegalStateException e) {
+            // the engine thread sees the gap
+            log.error("Cannot decode migration message of symbol {}", symbol, e);
+            return;
+        }
+        MatchingEngine.commands.add(
+                new Command(CommandCode.APPLY_MIGRATION, receive(symbol, message)));
+    }
+
+    /**
+     * Take a message from the migration topic of this shard, on the consumer thread. The input of
+     * a symbol is accepted and held from its first snapshot on.
+     *
+     * @return the message to apply on the engine thread
+     */
+    Received receive(String symbol, ReplicationMessage message) {
+        if (!message.isSnapshot()) {
+            return new Received(symbol, message);
+        }
+        SymbolMigration done = completed.get(symbol);
+        List<Command> commands = message.snapshot().commands();
+        if ((done != null && done.getMigrationId() == message.streamId())
+                || commands.isEmpty()
+                || commands.get(0).getCode() != CommandCode.MIGRATE_SYMBOL) {
+            // applying it finds no migration and ignores it
+            return new Received(symbol, message);
+        }
+        Incoming migration = new Incoming((SymbolMigration) commands.get(0).getData());
+        Incoming previous = incoming.get(symbol);
+        if (previous == null) {
+            incoming.put(symbol, migration);
+        } else {
+            synchronized (previous) {
+                // no command is held by the new migration before the ones held by this one
+                migration.held.addAll(previous.held);
+                migration.replacesLoaded = previous.loaded;
+                incoming.put(symbol, migration);
+                previous.done = true;
+                previous.notifyAll();
+            }
+        }
+        engine.acceptSymbol(symbol);
+        return new Received(symbol, message);
+    }
+
+    private void apply(Received received) {
+        String symbol = received.symbol();
+        ReplicationMessage message = received.message();
+        Outgoing sending = outgoing.get(symbol);
+        if (sending != null && sending.migration.getMigrationId() == message.streamId()) {
+            applyReply(symbol, sending, message);
+            return;
+        }
+        Incoming migration = incoming.get(symbol);
+        if (migration == null || migration.migrationId != message.streamId()) {
+            SymbolMigration done = completed.get(symbol);
+            if (done != null && done.getMigrationId() == message.streamId()
+                    && !message.isSnapshot()) {
+                // the source has not received the acknowledgement
+                reply(done, CommandCode.HAND_OVER_SYMBOL);
+            }
+            log.debug("Ignoring message of an old migration of symbol {}", symbol);
+            return;
+        }
+        if (message.isSnapshot()) {
+            if (migration.replacesLoaded) {
+                engine.removeSymbolState(symbol);
+            }
+            List<Command> commands = message.snapshot().commands();
+            // after the fence
+            for (Command command : commands.subList(1, commands.size())) {
+                engine.replayRecord(new JournalRecord(0, command), migration.generated);
+            }
+            migration.lastSequence = message.snapshot().sequence();
+            migration.loaded = true;
+            migration.state = State.SHADOWING;
+            log.info("Loaded {} state commands of symbol {} migrating to shard {} at seq={}",
+                    commands.size() - 1, symbol, shardId, migration.lastSequence);
+            return;
+        }
+        if (migration.state != State.SHADOWING) {
+            return;
+        }
+        for (JournalRecord record : message.records()) {
+            if (record.sequence() <= migration.lastSequence) {
+                continue;
+            }
+            if (record.sequence() != migration.lastSequence + 1) {
+                log.warn("Migration {} of symbol {} missed commands from seq={} to seq={}",
+                        migration.migrationId, symbol, migration.lastSequence + 1,
+                        record.sequence() - 1);
+                requestSnapshot(symbol, migration);
+                return;
+            }
+            migration.lastSequence = record.sequence();
+            if (record.command().getCode() == CommandCode.HAND_OVER_SYMBOL) {
+                complete(symbol, migration);
+                return;
+            }
+            engine.replayRecord(record, migration.generated);
+        }
+    }
+
+    // records of the migration are ignored until the new snapshot arrives
+    private void requestSnapshot(String symbol, Incoming migration) {
+        migration.state = State.LOADING;
+        migration.snapshotRequestedAt = System.currentTimeMillis();
+        reply(migration.migration, CommandCode.MIGRATE_SYMBOL);
+        log.info("Requested a new snapshot of symbol {} from shard {}",
+                symbol, migration.migration.getSourceShardId());
+    }
+
+    private void complete(String symbol, Incoming migration) {
+        synchronized (migration) {
+            migration.done = true;
+            incoming.remove(symbol, migration);
+            completed.put(symbol, migration.migration);
+            engine.onSymbolTakenOver(symbol);
+            // input held since the routing changed comes after the last command of the source
+            migration.held.forEach(engine::processHeldCommand);
+            migration.notifyAll();
+        }
+        reply(migration.migration, CommandCode.HAND_OVER_SYMBOL);
+        log.info("Shard {} took symbol {} over after {} commands, {} held commands released",
+                shardId, symbol, migration.lastSequence, migration.held.size());
+    }
+
+    private void applyReply(String symbol, Outgoing sending, ReplicationMessage message) {
+        for (JournalRecord record : message.records()) {
+            CommandCode code = record.command().getCode();
+            if (code == CommandCode.MIGRATE_SYMBOL) {
+                // a hand-over already sent is sent again after the snapshot
+                sendSnapshot(sending);
+                if (sending.handedOver) {
+                    sending.append(new Command(CommandCode.HAND_OVER_SYMBOL, sending.migration));
+                    sending.sendHandOver();
+                }
+            } else if (code == CommandCode.HAND_OVER_SYMBOL && sending.handedOver) {
+                outgoing.remove(symbol, sending);
+                engine.onSymbolHandedOver(symbol);
+                log.info("Handed symbol {} over to shard {} after {} commands",
+                        symbol, sending.migration.getTargetShardId(), sending.sequence);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (consumer != null) {
+                consumer.wakeup();
+            }
+            producer.flush();
+            producer.close();
+        }
+    }
+
+    /**
+     * A message of an incoming migration, applied on the engine thread.
+     */
+    public record Received(String symbol, ReplicationMessage message) {}
+
+    private class Outgoing {
+        private final SymbolMigration migration;
+        private final List<byte[]> batch = new ArrayList<>();
+        private long sequence = 0;
+        private volatile boolean handingOver = false;
+        // the hand-over record has been sent, the state is kept until the target acknowledges
+        private volatile boolean handedOver = false;
+        private byte[] handOverMessage;
+        private long handedOverAt;
+
+        Outgoing(SymbolMigration migration) {
+            this.migration = migration;
+        }
+
+        void append(Command command) {
+            batch.add(ReplicationMessage.encodeRecord(++sequence, command));
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            send(migration.getTargetShardId(), migration, ReplicationMessage.encodeBatch(
+                    migration.getMigrationId(), System.currentTimeMillis(), batch));
+            batch.clear();
+        }
+
+        // the batch ends with the hand-over record, or it is sent again
+        void sendHandOver() {
+            if (!batch.isEmpty()) {
+                handOverMessage = ReplicationMessage.encodeBatch(
+                        migration.getMigrationId(), System.currentTimeMillis(), batch);
+                batch.clear();
+            }
+            send(migration.getTargetShardId(), migration, handOverMessage);
+            handedOver = true;
+            handedOverAt = System.currentTimeMillis();
+        }
+    }
+
+    private static class Incoming {
+        private final SymbolMigration migration;
+        private final long migrationId;
+        // commands generated by the applied commands, matched with the ones the source sends
+        private final Deque<Command> generated = new ArrayDeque<>();
+        private final List<Command> held = new ArrayList<>();
+        private volatile State state = State.LOADING;
+        private volatile boolean loaded = false;
+        private boolean replacesLoaded = false;
+        private boolean done = false;
+        private long lastSequence = 0;
+        // a new snapshot has been requested after a gap, 0 if none
+        private long snapshotRequestedAt = 0;
+
+        Incoming(SymbolMigration migration) {
+            this.migration = migration;
+            this.migrationId = migration.getMigrationId();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.sotatek.future.engine;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.TriggerCondition;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Trailing stop orders of a symbol with the same trigger (LAST/ORACLE) and side.
+ *
+ * <p>The trailing price of a SELL (BUY) order is reset to trigger price * (1 -/+ callback rate)
+ * every time the trigger price goes up (down). Instead of rewriting every order on each tick, the
+ * index keeps the price of the last such tick and derives the trailing price of the orders which
+ * have seen it from their callback rate. Activated orders are sorted by callback rate and orders
+ * waiting for activation by activation price, so a tick only visits the orders it activates or
+ * triggers.
+ */
+class TrailingStopIndex {
+  private final OrderSide side;
+  // Trigger price of the last tick which moved trailing prices, and the number of such ticks
+  private MarginBigDecimal trailingBasePrice;
+  private long epoch = 0;
+  // Orders waiting for activation, by activation price
+  private final NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> gtActivations =
+      new TreeMap<>();
+  private final NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> ltActivations =
+      new TreeMap<>();
+  // Activated orders whose trailing price follows trailingBasePrice, by callback rate
+  private final NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> activated =
+      new TreeMap<>();
+  // Activated orders which keep their own trailing price until the next tick moving it
+  private final Map<Object, TrailingStopOrder> pending = new LinkedHashMap<>();
+  private final Map<Object, TrailingStopOrder> orders = new HashMap<>();
+
+  TrailingStopIndex(OrderSide side) {
+    this.side = side;
+  }
+
+  void add(Order order) {
+    TrailingStopOrder trailingStopOrder = new TrailingStopOrder(order, epoch);
+    orders.put(order.getKey(), trailingStopOrder);
+    if (order.isActivated() || order.getActivationPrice() == null) {
+      order.setActivated(true);
+      pending.put(order.getKey(), trailingStopOrder);
+    } else {
+      addToLevel(getActivations(order), order.getActivationPrice(), trailingStopOrder);
+    }
+  }
+
+  void remove(Order order) {
+    TrailingStopOrder trailingStopOrder = orders.remove(order.getKey());
+    if (trailingStopOrder == null) {
+      return;
+    }
+    Order indexed = trailingStopOrder.order();
+    if (pending.remove(indexed.getKey()) == null) {
+      if (indexed.isActivated()) {
+        removeFromLevel(activated, indexed.getCallbackRate(), indexed);
+      } else {
+        removeFromLevel(getActivations(indexed), indexed.getActivationPrice(), indexed);
+      }
+    }
+  }
+
+  /** Orders of the index, activated orders with their current trailing price */
+  List<Order> getOrders() {
+    for (Map.Entry<MarginBigDecimal, Map<Object, TrailingStopOrder>> level : activated.entrySet()) {
+      MarginBigDecimal trailPrice = getTrailPrice(level.getKey());
+      level.getValue().values().forEach(o -> o.order().setTrailPrice(trailPrice));
+    }
+    return orders.values().stream().map(TrailingStopOrder::order).toList();
+  }
+
+  /** Move trailing prices and activate orders when the trigger price changes */
+  void updateTrailingPrice(MarginBigDecimal oldTriggerPrice, MarginBigDecimal newTriggerPrice) {
+    if (oldTriggerPrice == null || newTriggerPrice == null || newTriggerPrice.eq(oldTriggerPrice)) {
+      return;
+    }
+    boolean moveTrailingPrice =
+        OrderSide.SELL.equals(side)
+            ? newTriggerPrice.gt(oldTriggerPrice)
+            : newTriggerPrice.lt(oldTriggerPrice);
+    if (moveTrailingPrice) {
+      trailingBasePrice = newTriggerPrice;
+      epoch++;
+      pending.values().forEach(o -> addToLevel(activated, o.order().getCallbackRate(), o));
+      pending.clear();
+    }
+    activate(gtActivations.headMap(newTriggerPrice, true));
+    activate(ltActivations.tailMap(newTriggerPrice, true));
+  }
+
+  /** Remove and return the orders triggered at the trigger price, with trailing price set */
+  List<Order> pollTriggeredOrders(MarginBigDecimal triggerPrice) {
+    List<Order> triggeredOrders = new ArrayList<>();
+    Iterator<TrailingStopOrder> pendingIterator = pending.values().iterator();
+    while (pendingIterator.hasNext()) {
+      Order order = pendingIterator.next().order();
+      if (isTriggered(triggerPrice, order.getTrailPrice())) {
+        pendingIterator.remove();
+        orders.remove(order.getKey());
+        triggeredOrders.add(order);
+      }
+    }
+    if (trailingBasePrice == null) {
+      return triggeredOrders;
+    }
+    // Trailing price is monotonic in callback rate, the lowest rates are triggered first
+    Iterator<Map.Entry<MarginBigDecimal, Map<Object, TrailingStopOrder>>> levelIterator =
+        activated.entrySet().iterator();
+    while (levelIterator.hasNext()) {
+      Map.Entry<MarginBigDecimal, Map<Object, TrailingStopOrder>> level = levelIterator.next();
+      MarginBigDecimal trailPrice = getTrailPrice(level.getKey());
+      if (!isTriggered(triggerPrice, trailPrice)) {
+        break;
+      }
+      for (TrailingStopOrder trailingStopOrder : level.getValue().values()) {
+        Order order = trailingStopOrder.order();
+        order.setTrailPrice(trailPrice);
+        orders.remove(order.getKey());
+        triggeredOrders.add(order);
+      }
+      levelIterator.remove();
+    }
+    return triggeredOrders;
+  }
+
+  private void activate(NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> levels) {
+    for (Map<Object, TrailingStopOrder> level : levels.values()) {
+      for (TrailingStopOrder trailingStopOrder : level.values()) {
+        Order order = trailingStopOrder.order();
+        order.setActivated(true);
+        if (trailingStopOrder.epoch() < epoch) {
+          order.setTrailPrice(getTrailPrice(order.getCallbackRate()));
+          addToLevel(activated, order.getCallbackRate(), trailingStopOrder);
+        } else {
+          pending.put(order.getKey(), trailingStopOrder);
+        }
+      }
+    }
+    levels.clear();
+  }
+
+  private MarginBigDecimal getTrailPrice(MarginBigDecimal callbackRate) {
+    MarginBigDecimal callBackRatePercent = callbackRate.divide(MarginBigDecimal.valueOf(100));
+    return OrderSide.SELL.equals(side)
+        ? trailingBasePrice.multiply(MarginBigDecimal.ONE.subtract(callBackRatePercent))
+        : trailingBasePrice.multiply(MarginBigDecimal.ONE.add(callBackRatePercent));
+  }
+
+  private boolean isTriggered(MarginBigDecimal triggerPrice, MarginBigDecimal trailPrice) {
+    if (trailPrice == null) {
+      return false;
+    }
+    // SELL order is triggered when trigger price <= trailing price, BUY order when >=
+    return OrderSide.SELL.equals(side)
+        ? triggerPrice.lte(trailPrice)
+        : triggerPrice.gte(trailPrice);
+  }
+
+  private NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> getActivations(
+      Order order) {
+    return TriggerCondition.GT.equals(order.getStopCondition()) ? gtActivations : ltActivations;
+  }
+
+  private static void addToLevel(
+      NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> levels,
+      MarginBigDecimal price,
+      TrailingStopOrder trailingStopOrder) {
+    levels
+        .computeIfAbsent(price, p -> new LinkedHashMap<>())
+        .put(trailingStopOrder.order().getKey(), trailingStopOrder);
+  }
+
+  private static void removeFromLevel(
+      NavigableMap<MarginBigDecimal, Map<Object, TrailingStopOrder>> levels,
+      MarginBigDecimal price,
+      Order order) {
+    Map<Object, TrailingStopOrder> level = levels.get(price);
+    if (level != null) {
+      level.remove(order.getKey());
+      if (level.isEmpty()) {
+        levels.remove(price);
+      }
+    }
+  }
+
+  // epoch is the number of trailing price moves when the order was added
+  private record TrailingStopOrder(Order order, long epoch) {}
+}
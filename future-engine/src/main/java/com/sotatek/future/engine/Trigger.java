@@ -25,8 +25,8 @@ public class Trigger {
   private final OnOrderTriggeredListener listener;
   private final InstrumentService instrumentService;
   private final OrderService orderService;
-  private final List<Order> trailingStopOrders = new ArrayList<>();
   private final Map<String, FastDeletePriorityQueue<Order>> queues = new HashMap<>();
+  private final Map<String, TrailingStopIndex> trailingStopIndices = new HashMap<>();
 
   public Trigger(String symbol, OnOrderTriggeredListener listener) {
     this.symbol = symbol;
@@ -38,6 +38,12 @@ public class Trigger {
     this.queues.put(OrderTrigger.LAST.toString() + TriggerCondition.GT, this.createGtQueue());
     this.queues.put(OrderTrigger.ORACLE.toString() + TriggerCondition.LT, this.createLtQueue());
     this.queues.put(OrderTrigger.ORACLE.toString() + TriggerCondition.GT, this.createGtQueue());
+
+    for (OrderTrigger trigger : OrderTrigger.values()) {
+      for (OrderSide side : OrderSide.values()) {
+        this.trailingStopIndices.put(trigger.toString() + side, new TrailingStopIndex(side));
+      }
+    }
   }
 
   private FastDeletePriorityQueue<Order> createLtQueue() {
@@ -65,7 +71,7 @@ public class Trigger {
       return;
     }
     if (stopOrder.getTpSLType() == TPSLType.TRAILING_STOP) {
-      trailingStopOrders.add(stopOrder);
+      getTrailingStopIndex(stopOrder).add(stopOrder);
     } else {
       FastDeletePriorityQueue<Order> queue =
           queues.get(stopOrder.getTrigger().toString() + stopOrder.getStopCondition().toString());
@@ -82,7 +88,7 @@ public class Trigger {
   public void cancelOrder(Order stopOrder) {
     log.debug("Cancel stop order {}", stopOrder);
     if (stopOrder.getTpSLType() == TPSLType.TRAILING_STOP) {
-      trailingStopOrders.remove(stopOrder);
+      getTrailingStopIndex(stopOrder).remove(stopOrder);
     } else {
       FastDeletePriorityQueue<Order> queue =
           queues.get(stopOrder.getTrigger().toString() + stopOrder.getStopCondition().toString());
@@ -90,8 +96,23 @@ public class Trigger {
     }
   }
 
+  /** Untriggered trailing stop orders with their activation and current trailing price */
+  public List<Order> getTrailingStopOrders() {
+    List<Order> trailingStopOrders = new ArrayList<>();
+    trailingStopIndices.values().forEach(index -> trailingStopOrders.addAll(index.getOrders()));
+    return trailingStopOrders;
+  }
+
+  private TrailingStopIndex getTrailingStopIndex(Order trailingOrder) {
+    return trailingStopIndices.get(
+        trailingOrder.getTrigger().toString() + trailingOrder.getSide().toString());
+  }
+
+  /**
+   * Trigger all stop orders which meet their condition at the current prices. Called on the engine
+   * thread whenever the oracle price or the last price of the symbol changes
+   */
   public void startTrigger() {
-    List<Order> triggeredOrders = new ArrayList<>();
     InstrumentExtraInformation instrumentExtra = instrumentService.getExtraInfo(symbol);
     if (instrumentExtra == null) {
       log.error("Trigger can not load instrument extra for symbol {}", symbol);
@@ -106,15 +127,20 @@ public class Trigger {
     doTrigger(OrderTrigger.ORACLE, instrumentExtra.getOraclePrice());
 
     // handle for trailing stop order
-    for (Order trailingOrder : trailingStopOrders) {
-      if (isTriggerTrailingStopOrder(trailingOrder, instrumentExtra)) {
-        triggeredOrders.add(trailingOrder);
-        log.debug("Trigger trailing stop order {}", trailingOrder);
-        trailingOrder.setTriggered(true);
-        listener.onOrderTriggered(new Command(CommandCode.TRIGGER_ORDER, trailingOrder));
+    for (OrderTrigger trigger : OrderTrigger.values()) {
+      MarginBigDecimal triggerPrice = getTriggerPrice(instrumentExtra, trigger);
+      if (triggerPrice == null) {
+        continue;
+      }
+      for (OrderSide side : OrderSide.values()) {
+        TrailingStopIndex index = trailingStopIndices.get(trigger.toString() + side);
+        for (Order trailingOrder : index.pollTriggeredOrders(triggerPrice)) {
+          log.debug("Trigger trailing stop order {}", trailingOrder);
+          trailingOrder.setTriggered(true);
+          listener.onOrderTriggered(new Command(CommandCode.TRIGGER_ORDER, trailingOrder));
+        }
       }
     }
-    triggeredOrders.forEach(trailingStopOrders::remove);
   }
 
   private void doTrigger(OrderTrigger trigger, MarginBigDecimal triggerPrice) {
@@ -211,107 +237,22 @@ public class Trigger {
   public void updateTrailingPrice(
       InstrumentExtraInformation oldInstrumentExtra,
       InstrumentExtraInformation newInstrumentExtra) {
-    for (Order trailingOrder : trailingStopOrders) {
+    if (ObjectUtils.isEmpty(oldInstrumentExtra) || ObjectUtils.isEmpty(newInstrumentExtra)) {
+      return;
+    }
+    for (OrderTrigger trigger : OrderTrigger.values()) {
       // get old + new trigger price to compare
-      MarginBigDecimal oldTriggerPrice =
-          getTriggerPrice(oldInstrumentExtra, trailingOrder.getTrigger());
-      MarginBigDecimal newTriggerPrice =
-          getTriggerPrice(newInstrumentExtra, trailingOrder.getTrigger());
-      if (ObjectUtils.isEmpty(newTriggerPrice) || ObjectUtils.isEmpty(oldTriggerPrice)) {
-        return;
-      }
-
-      if (newTriggerPrice.eq(oldTriggerPrice)) {
-        // not change price do not update
-        return;
-      }
-      // update trailing price for long position => order trailing stop is SELL
-      // only update trailing price when
-      //   + trailPrice is has value  or (trigger price >= activation price)
-      //   + trigger price is increment ->  newTriggerPrice > oldTriggerPrice
-      // [trailing price = triggerPrice * (1- callback rate)]
-      MarginBigDecimal activatePrice = trailingOrder.getActivationPrice();
-      OrderSide orderSide = trailingOrder.getSide();
-      TriggerCondition triggerCondition = trailingOrder.getStopCondition();
-      boolean isTrigger =
-          TriggerCondition.GT.equals(triggerCondition)
-              ? newTriggerPrice.gte(activatePrice)
-              : newTriggerPrice.lte(activatePrice);
-      // if activation price meet condition and not set value yet
-      if (isTrigger && !trailingOrder.isActivated()) {
-        trailingOrder.setActivated(true);
-      }
-
-      MarginBigDecimal callBackRatePercent =
-          trailingOrder.getCallbackRate().divide(MarginBigDecimal.valueOf(100));
-      MarginBigDecimal temPrice = MarginBigDecimal.valueOf(1).subtract(callBackRatePercent);
-      log.debug(
-          "updateTrailingPrice with orderId {} temPrice {}", trailingOrder.getKey(), temPrice);
-      log.debug(
-          "updateTrailingPrice with orderId {} oldTriggerPrice {}  newTriggerPrice {} activatePrice"
-              + " {}",
-          trailingOrder.getKey(),
-          oldTriggerPrice,
-          newTriggerPrice,
-          activatePrice);
-      log.debug(
-          "updateTrailingPrice with orderId {} triggerCondition {} trailingPrice {} isTrigger {}",
-          trailingOrder.getKey(),
-          triggerCondition,
-          trailingOrder.getTrailPrice(),
-          trailingOrder.isActivated());
-      // old trigger price maybe null at the firstTime run or restart service
-      if (OrderSide.SELL.equals(orderSide)
-          && (ObjectUtils.isEmpty(oldTriggerPrice) || newTriggerPrice.gt(oldTriggerPrice))) {
-        trailingOrder.setTrailPrice(newTriggerPrice.multiply(temPrice));
+      MarginBigDecimal oldTriggerPrice = getTriggerPrice(oldInstrumentExtra, trigger);
+      MarginBigDecimal newTriggerPrice = getTriggerPrice(newInstrumentExtra, trigger);
+      // update trailing price for long position (SELL order) when trigger price is increment
+      // [trailing price = triggerPrice * (1 - callback rate)], and for short position (BUY order)
+      // when trigger price is decrement [trailing price = triggerPrice * (1 + callback rate)]
+      for (OrderSide side : OrderSide.values()) {
+        trailingStopIndices
+            .get(trigger.toString() + side)
+            .updateTrailingPrice(oldTriggerPrice, newTriggerPrice);
       }
-      // update trailing price for short position => order trailing stop is BUY
-      // only update trailing price when
-      // + trailPrice is has value  or (trigger price <= activation price)
-      // + trigger price is decrement -> newTriggerPrice < oldTriggerPrice
-      // [trailing price = triggerPrice * (1+ callback rate)]
-      temPrice = MarginBigDecimal.valueOf(1).add(callBackRatePercent);
-      // old trigger price maybe null at the firstTime run or restart service
-      if (OrderSide.BUY.equals(orderSide)
-          && (ObjectUtils.isEmpty(oldTriggerPrice) || newTriggerPrice.lt(oldTriggerPrice))) {
-        trailingOrder.setTrailPrice(newTriggerPrice.multiply(temPrice));
-      }
-    }
-  }
-
-  /**
-   * Check should we trigger a trailing stop order
-   *
-   * @param trailingOrder trailing stop order to check
-   * @param instrumentExtra instrument to get trigger price
-   * @return is should trigger trailing order or not
-   */
-  private boolean isTriggerTrailingStopOrder(
-      Order trailingOrder, InstrumentExtraInformation instrumentExtra) {
-    MarginBigDecimal triggerPrice = getTriggerPrice(instrumentExtra, trailingOrder.getTrigger());
-    if (triggerPrice == null) {
-      return false;
-    }
-    MarginBigDecimal trailingPrice = trailingOrder.getTrailPrice();
-    OrderSide orderSide = trailingOrder.getSide();
-    // For long position => order trailing stop is SELL then active trailing stop order when
-    //  + Order has trailing price => we calculate trailing price when trigger price start reach to
-    // activation price
-    //  + The trigger price ( LAST/MARK ) <= trailing price
-    if (OrderSide.SELL.equals(orderSide)
-        && trailingOrder.isActivated()
-        && ObjectUtils.isNotEmpty(trailingPrice)
-        && triggerPrice.lte(trailingPrice)) {
-      return true;
     }
-    // For short position => order trailing stop is BUY then active trailing stop order when
-    //  + Order has trailing price => we calculate trailing price when trigger price start reach to
-    // activation price
-    //  + The trigger price ( LAST/MARK ) >= trailing price
-    return OrderSide.BUY.equals(orderSide)
-        && trailingOrder.isActivated()
-        && ObjectUtils.isNotEmpty(trailingPrice)
-        && triggerPrice.gte(trailingPrice);
   }
 
   /**
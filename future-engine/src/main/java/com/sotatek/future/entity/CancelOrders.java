@@ -0,0 +1,21 @@
+package com.sotatek.future.entity;
+
+import java.io.Serializable;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Orders of an account canceled by one command: the listed orders for CANCEL_ORDERS_BATCH, all
+ * open orders for CANCEL_ALL. The symbol is optional, without it the orders of all symbols are
+ * canceled
+ */
+@Getter
+@Setter
+@ToString
+public class CancelOrders implements Serializable {
+  private Long accountId;
+  private String symbol;
+  private List<Long> orderIds;
+}
@@ -2,6 +2,7 @@ package com.sotatek.future.entity;
 
 import com.sotatek.future.enums.CommandCode;
 import com.sotatek.future.model.RetrieveData;
+import com.sotatek.future.util.json.Exclude;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -12,6 +13,10 @@ public class Command {
   private CommandCode code;
   private Object data;
   private Object extraData;
+  // true if the command is generated by the engine while processing another command
+  @Exclude private boolean engineGenerated;
+  // System.nanoTime() when the command is queued for the engine
+  @Exclude private long enqueuedAt;
 
   public Command(CommandCode action, Object data) {
     this.code = action;
@@ -64,6 +69,10 @@ public class Command {
     return null;
   }
 
+  public CancelOrders getCancelOrders() {
+    return (CancelOrders) this.data;
+  }
+
   public PositionHistory getPositionHistory() {
     return (PositionHistory) this.data;
   }
@@ -79,6 +88,32 @@ public class Command {
     return (RetrieveData) this.data;
   }
 
+  /**
+   * Get the symbol which a command is bound to, it is used to route the command to the engine
+   * handling that symbol
+   *
+   * @return symbol of the order, position or instrument of the command, null if the command is not
+   *     bound to a symbol
+   */
+  public String getSymbol() {
+    if (isOrderCommand() && this.data instanceof Order order) {
+      return order.getSymbol();
+    }
+    if (this.data instanceof Position position) {
+      return position.getSymbol();
+    }
+    if (this.data instanceof Instrument instrument) {
+      return instrument.getSymbol();
+    }
+    if (this.data instanceof SymbolMigration migration) {
+      return migration.getSymbol();
+    }
+    if (this.data instanceof CancelOrders cancelOrders) {
+      return cancelOrders.getSymbol();
+    }
+    return null;
+  }
+
   public boolean isOrderCommand() {
     return this.code == CommandCode.PLACE_ORDER
         || this.code == CommandCode.CANCEL_ORDER
@@ -9,6 +9,7 @@ import com.sotatek.future.util.MarginBigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.sotatek.future.util.json.Exclude;
 import com.sotatek.future.util.json.JsonUtil;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -39,6 +40,11 @@ public class CommandOutput {
   private AdjustLeverage adjustLeverage;
   private List<Object> retrievingData;
   private List<AccHasNoOpenOrdersAndPositions> accHasNoOpenOrdersAndPositionsList;
+  // latency recording of the command: its symbol, and System.nanoTime() when it was queued and
+  // when its output was written
+  @Exclude @ToString.Exclude private String symbol;
+  @Exclude @ToString.Exclude private long enqueuedAt;
+  @Exclude @ToString.Exclude private long writtenAt;
 
   public Instrument getInstrument() {
     LinkedTreeMap instrumentData = (LinkedTreeMap) this.data;
@@ -157,6 +163,9 @@ public class CommandOutput {
     copy.accHasNoOpenOrdersAndPositionsList = copyList(this.accHasNoOpenOrdersAndPositionsList);
     copy.shouldSeedLiquidationOrderId = this.shouldSeedLiquidationOrderId;
     copy.retrievingData = copyList(this.retrievingData);
+    copy.symbol = this.symbol;
+    copy.enqueuedAt = this.enqueuedAt;
+    copy.writtenAt = this.writtenAt;
 
     return copy;
   }
@@ -1,12 +1,26 @@
 package com.sotatek.future.entity;
 
+import com.sotatek.future.enums.OrderBookDepth;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+/**
+ * Update of the order book of a symbol at a depth. Events of a symbol and depth are numbered by
+ * sequence, an event with an orderbook is a snapshot which replaces the book, the others only have
+ * the changed rows, a row with 0 quantity is removed.
+ *
+ * <p>Legacy events have no depth: each one has the full book and all the changed rows.
+ */
 @AllArgsConstructor
 @Getter
 public class OrderBookEvent {
   private String symbol;
   private OrderBook orderbook;
   private OrderBook changes;
+  private OrderBookDepth depth;
+  private Long sequence;
+
+  public OrderBookEvent(String symbol, OrderBook orderbook, OrderBook changes) {
+    this(symbol, orderbook, changes, null, null);
+  }
 }
@@ -0,0 +1,22 @@
+package com.sotatek.future.entity;
+
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** Move of a symbol and its state from a source shard to a target shard */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class SymbolMigration implements Serializable {
+  private String symbol;
+  private String sourceShardId;
+  private String targetShardId;
+  // identifies the migration, a new migration of the symbol replaces an unfinished one
+  private long migrationId;
+}
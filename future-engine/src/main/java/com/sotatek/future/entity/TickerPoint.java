@@ -1,16 +1,16 @@
 package com.sotatek.future.entity;
 
 import com.sotatek.future.util.MarginBigDecimal;
-import java.util.ArrayList;
-import java.util.List;
 
 public class TickerPoint {
 
   public MarginBigDecimal price;
   public MarginBigDecimal volume;
   public MarginBigDecimal quoteVolume;
-  // store price of all trade that create in the same second
-  public List<MarginBigDecimal> allPrices;
+  // highest and lowest non zero price of the trades in the same second, lowPrice is null if all
+  // prices are zero
+  public MarginBigDecimal highPrice;
+  public MarginBigDecimal lowPrice;
   public long time;
 
   public TickerPoint(
@@ -19,8 +19,17 @@ public class TickerPoint {
     this.quoteVolume = quoteVolume;
     this.price = price;
     this.time = time;
-    this.allPrices = new ArrayList<>();
-    this.allPrices.add(price);
+    this.highPrice = price;
+    this.addPrice(price);
+  }
+
+  public void addPrice(MarginBigDecimal price) {
+    if (price.gt(highPrice)) {
+      highPrice = price;
+    }
+    if (!price.eq(MarginBigDecimal.ZERO) && (lowPrice == null || price.lt(lowPrice))) {
+      lowPrice = price;
+    }
   }
 
   @Override
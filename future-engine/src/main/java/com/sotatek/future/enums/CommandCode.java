@@ -38,7 +38,17 @@ public enum CommandCode {
 
   START_MEASURE_TPS(null),
   SHOW_PROCESSING_TIME(null),
-  RETRIEVE_DATA(RetrieveData.class);
+  RETRIEVE_DATA(RetrieveData.class),
+  // sends a snapshot to the standby engine, queued when the standby requests one
+  SYNC_STANDBY(null),
+  // fences of a live symbol migration on the source shard, see SymbolMigrator
+  MIGRATE_SYMBOL(SymbolMigration.class),
+  HAND_OVER_SYMBOL(SymbolMigration.class),
+  // state and commands of a migrating symbol received by the target shard
+  APPLY_MIGRATION(null),
+  // cancel many orders of an account in one tick, codes are appended to keep journaled ordinals
+  CANCEL_ORDERS_BATCH(CancelOrders.class),
+  CANCEL_ALL(CancelOrders.class);
 
   private Class dataClass;
 
@@ -2,6 +2,8 @@ package com.sotatek.future.enums;
 
 public enum InputDriver {
   KAFKA,
+  // Kafka with commands encoded by BinaryCodec
+  KAFKA_BINARY,
   RABBIT_MQ,
   JAVA_LIST,
   AUTO_GENERATE
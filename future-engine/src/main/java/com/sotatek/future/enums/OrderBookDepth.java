@@ -0,0 +1,19 @@
+package com.sotatek.future.enums;
+
+/** Number of price levels of each side in an order book stream */
+public enum OrderBookDepth {
+  TOP_20(20),
+  TOP_100(100),
+  TOP_1000(1000),
+  FULL(Integer.MAX_VALUE);
+
+  private final int levels;
+
+  OrderBookDepth(int levels) {
+    this.levels = levels;
+  }
+
+  public int getLevels() {
+    return levels;
+  }
+}
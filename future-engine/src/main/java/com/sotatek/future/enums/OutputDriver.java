@@ -2,6 +2,8 @@ package com.sotatek.future.enums;
 
 public enum OutputDriver {
   KAFKA,
+  // Kafka with outputs encoded by BinaryCodec, only for command outputs
+  KAFKA_BINARY,
   RABBIT_MQ,
   JAVA_LIST
 }
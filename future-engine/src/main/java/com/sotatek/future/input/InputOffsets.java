@@ -0,0 +1,67 @@
+package com.sotatek.future.input;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Offsets of the Kafka records given to the engine, committed once the engine has journaled
+ * their commands. A restart reads the records after the committed offsets again, so a command
+ * queued but not journaled at a crash is not lost, and a journaled one read again is dropped by
+ * the deduplication of the engine. Used on the input thread only.
+ */
+public class InputOffsets {
+
+  private final InputProgress progress;
+  // offsets of each poll after the engine position of its last command, oldest first
+  private final Deque<Pending> pending = new ArrayDeque<>();
+
+  public InputOffsets(InputProgress progress) {
+    this.progress = progress;
+  }
+
+  /** Called after the records of a poll have been given to the engine or parked */
+  public void onPolled(ConsumerRecords<?, ?> records) {
+    if (records.isEmpty()) {
+      return;
+    }
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    for (TopicPartition partition : records.partitions()) {
+      List<? extends ConsumerRecord<?, ?>> partitionRecords = records.records(partition);
+      long last = partitionRecords.get(partitionRecords.size() - 1).offset();
+      offsets.put(partition, new OffsetAndMetadata(last + 1));
+    }
+    pending.addLast(new Pending(progress.getInputPosition(), offsets));
+  }
+
+  /**
+   * Take the offsets whose commands are journaled. The offset of a partition stays at its first
+   * parked record, which the engine has not been given yet.
+   *
+   * @return the offsets to commit, empty if there is nothing new
+   */
+  public Map<TopicPartition, OffsetAndMetadata> takeCommittable(
+      List<? extends ConsumerRecord<?, ?>> parked) {
+    long journaled = progress.getJournaledPosition();
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    while (!pending.isEmpty() && pending.peekFirst().position() <= journaled) {
+      offsets.putAll(pending.pollFirst().offsets());
+    }
+    for (ConsumerRecord<?, ?> record : parked) {
+      TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+      OffsetAndMetadata offset = offsets.get(partition);
+      if (offset != null && offset.offset() > record.offset()) {
+        offsets.put(partition, new OffsetAndMetadata(record.offset()));
+      }
+    }
+    return offsets;
+  }
+
+  private record Pending(long position, Map<TopicPartition, OffsetAndMetadata> offsets) {}
+}
@@ -0,0 +1,14 @@
+package com.sotatek.future.input;
+
+/**
+ * Progress of the engine through the commands of its input streams. A stream acknowledges its
+ * source only up to the commands which a restart does not lose.
+ */
+public interface InputProgress {
+
+  /** Position of the next command given to the engine, called after giving commands */
+  long getInputPosition();
+
+  /** Commands before this position are journaled, or processed if there is no journal */
+  long getJournaledPosition();
+}
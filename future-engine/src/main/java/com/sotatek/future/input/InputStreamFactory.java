@@ -14,6 +14,10 @@ public class InputStreamFactory {
       case KAFKA:
         String topic = (String) config.getInputParameters().get(InputStreamFactory.PRELOAD_QUEUE);
         return new KafkaInputStream(config.getInputParameters(), topic, Command.class);
+      case KAFKA_BINARY:
+        String binaryTopic =
+            (String) config.getInputParameters().get(InputStreamFactory.PRELOAD_QUEUE);
+        return new KafkaBinaryInputStream(config.getInputParameters(), binaryTopic);
       case RABBIT_MQ:
         String queue = (String) config.getInputParameters().get(InputStreamFactory.PRELOAD_QUEUE);
         return new RabbitMQInputStream(config.getRabbitMQConnectionFactory(), queue);
@@ -30,7 +34,13 @@ public class InputStreamFactory {
     switch (config.getCommandInputDriver()) {
       case KAFKA:
         String topic = (String) config.getInputParameters().get(InputStreamFactory.INPUT_QUEUE);
-        return new KafkaInputStream(config.getInputParameters(), topic, Command.class);
+        return new KafkaInputStream(
+            config.getInputParameters(), topic, Command.class, config.getInputKeyAssignment());
+      case KAFKA_BINARY:
+        String binaryTopic =
+            (String) config.getInputParameters().get(InputStreamFactory.INPUT_QUEUE);
+        return new KafkaBinaryInputStream(
+            config.getInputParameters(), binaryTopic, config.getInputKeyAssignment());
       case RABBIT_MQ:
         String queue = (String) config.getInputParameters().get(InputStreamFactory.INPUT_QUEUE);
         return new RabbitMQInputStream(config.getRabbitMQConnectionFactory(), queue);
@@ -42,4 +52,5 @@ public class InputStreamFactory {
             "Unknown command input driver: " + config.getCommandInputDriver());
     }
   }
+
 }
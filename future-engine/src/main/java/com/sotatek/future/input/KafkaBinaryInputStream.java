@@ -0,0 +1,131 @@
+package com.sotatek.future.input;
+
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.util.binary.BinaryCodec;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+/** Kafka input of commands encoded with {@link BinaryCodec}. */
+@Slf4j
+public class KafkaBinaryInputStream extends BaseInputStream<Command> {
+
+  private final Map<String, Object> parameters;
+  private final String topic;
+  // records of the keys which are not assigned are skipped without decoding, null to read all
+  private final RecordKeyFilter<ConsumerRecord<String, byte[]>> keyFilter;
+  private Consumer<String, byte[]> consumer;
+  // offsets waiting for the engine to journal their commands, null until the first poll
+  private InputOffsets offsets;
+
+  public KafkaBinaryInputStream(Map<String, Object> parameters, String topic) {
+    this(parameters, topic, null);
+  }
+
+  public KafkaBinaryInputStream(
+      Map<String, Object> parameters, String topic, RecordKeyAssignment keyAssignment) {
+    this.parameters = parameters;
+    this.topic = topic;
+    this.keyFilter = keyAssignment != null ? new RecordKeyFilter<>(keyAssignment) : null;
+  }
+
+  @Override
+  public boolean connect() {
+    Properties props = new Properties();
+    props.put(
+        ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,
+        parameters.get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG));
+    props.put(ConsumerConfig.GROUP_ID_CONFIG, parameters.get(ConsumerConfig.GROUP_ID_CONFIG));
+    props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+    props.put(
+        ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+    props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+    props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+    this.consumer = new KafkaConsumer<>(props);
+    this.consumer.subscribe(List.of(this.topic));
+    new InputThread().start();
+    return true;
+  }
+
+  private void poll() {
+    while (!this.isClosed) {
+      ConsumerRecords<String, byte[]> consumerRecords = ConsumerRecords.empty();
+      try {
+        consumerRecords = consumer.poll(Duration.ofMillis(100));
+        for (ConsumerRecord<String, byte[]> record : consumerRecords) {
+          if (keyFilter != null) {
+            keyFilter.accept(record.key(), record, this::process);
+          } else {
+            process(record);
+          }
+        }
+        if (keyFilter != null) {
+          keyFilter.release(this::process);
+        }
+        commit(consumerRecords);
+      } catch (Exception e) {
+        log.atError().setCause(e).log("KafkaBinaryInputStream has error");
+        commit(consumerRecords);
+      }
+    }
+    consumer.close();
+  }
+
+  // without progress of the engine, the offsets are committed once the records are given to it
+  private void commit(ConsumerRecords<String, byte[]> records) {
+    if (!(callback instanceof InputProgress progress)) {
+      consumer.commitAsync();
+      return;
+    }
+    if (offsets == null) {
+      offsets = new InputOffsets(progress);
+    }
+    offsets.onPolled(records);
+    Map<TopicPartition, OffsetAndMetadata> committable =
+        offsets.takeCommittable(keyFilter != null ? keyFilter.getParked() : List.of());
+    if (!committable.isEmpty()) {
+      consumer.commitAsync(committable, null);
+    }
+  }
+
+  private void process(ConsumerRecord<String, byte[]> record) {
+    Command command;
+    try {
+      command = BinaryCodec.decodeCommand(record.value());
+    } catch (RuntimeException e) {
+      log.atError()
+          .setCause(e)
+          .log("KafkaBinaryInputStream cannot decode record at offset {}", record.offset());
+      return;
+    }
+    if (callback != null) {
+      // blocks while the engine command buffer is full
+      this.callback.onNewData(command);
+    }
+  }
+
+  @Override
+  public void close() {
+    this.isClosed = true;
+  }
+
+  private class InputThread extends Thread {
+
+    @Override
+    public void run() {
+      poll();
+    }
+  }
+}
@@ -4,16 +4,18 @@ import com.google.gson.Gson;
 import com.sotatek.future.util.json.JsonUtil;
 import java.lang.reflect.Type;
 import java.time.Duration;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 
 @Slf4j
 public class KafkaInputStream<T> extends BaseInputStream<T> {
@@ -23,7 +25,11 @@ public class KafkaInputStream<T> extends BaseInputStream<T> {
   private String topic;
   private Class dataClass;
   private Type type;
+  // records of the keys which are not assigned are skipped without decoding, null to read all
+  private RecordKeyFilter<ConsumerRecord<String, String>> keyFilter;
   private Consumer<String, String> consumer;
+  // offsets waiting for the engine to journal their commands, null until the first poll
+  private InputOffsets offsets;
 
   public KafkaInputStream(Map<String, Object> parameters, String topic, Class dataClass) {
     this.parameters = parameters;
@@ -31,6 +37,15 @@ public class KafkaInputStream<T> extends BaseInputStream<T> {
     this.dataClass = dataClass;
   }
 
+  public KafkaInputStream(
+      Map<String, Object> parameters,
+      String topic,
+      Class dataClass,
+      RecordKeyAssignment keyAssignment) {
+    this(parameters, topic, dataClass);
+    this.keyFilter = keyAssignment != null ? new RecordKeyFilter<>(keyAssignment) : null;
+  }
+
   public KafkaInputStream(Map<String, Object> parameters, String topic, Type type) {
     this.parameters = parameters;
     this.topic = topic;
@@ -57,7 +72,7 @@ public class KafkaInputStream<T> extends BaseInputStream<T> {
     //    props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, IKafkaConstants.OFFSET_RESET_EARLIER);
 
     this.consumer = new KafkaConsumer<>(props);
-    this.consumer.subscribe(Arrays.asList(this.topic));
+    this.consumer.subscribe(List.of(this.topic));
     new InputThread().start();
 
     return true;
@@ -70,36 +85,61 @@ public class KafkaInputStream<T> extends BaseInputStream<T> {
       }
       // to write error log
       AtomicReference<String> recordData = new AtomicReference<>();
+      ConsumerRecords<String, String> consumerRecords = ConsumerRecords.empty();
       try {
-        final ConsumerRecords<String, String> consumerRecords =
-            consumer.poll(Duration.ofMillis(100));
-        consumerRecords.forEach(
-            record -> {
-              //                log.debug("KafkaInputStream record {}", record.value());
-              recordData.set(record.value());
-              T command;
-              if (this.dataClass != null) {
-                command = (T) this.gson.fromJson(record.value(), this.dataClass);
-              } else {
-                command = (T) this.gson.fromJson(record.value(), this.type);
-              }
-              if (callback != null) {
-                //                    log.debug("KafkaInputStream command {}", command);
-                long pendingCount = this.callback.onNewData(command);
-//                if (pendingCount > 100000) {
-//                  Utils.sleep(50);
-//                }
-              }
-            });
-        consumer.commitAsync();
+        consumerRecords = consumer.poll(Duration.ofMillis(100));
+        for (ConsumerRecord<String, String> record : consumerRecords) {
+          //                log.debug("KafkaInputStream record {}", record.value());
+          recordData.set(record.value());
+          if (keyFilter != null) {
+            keyFilter.accept(record.key(), record, this::process);
+          } else {
+            process(record);
+          }
+        }
+        if (keyFilter != null) {
+          keyFilter.release(this::process);
+        }
+        commit(consumerRecords);
       } catch (Exception e) {
         log.atError().setCause(e).log("KafkaInputStream with data {} has error", recordData);
-        consumer.commitAsync();
+        commit(consumerRecords);
       }
     }
     consumer.close();
   }
 
+  // without progress of the engine, the offsets are committed once the records are given to it
+  private void commit(ConsumerRecords<String, String> records) {
+    if (!(callback instanceof InputProgress progress)) {
+      consumer.commitAsync();
+      return;
+    }
+    if (offsets == null) {
+      offsets = new InputOffsets(progress);
+    }
+    offsets.onPolled(records);
+    Map<TopicPartition, OffsetAndMetadata> committable =
+        offsets.takeCommittable(keyFilter != null ? keyFilter.getParked() : List.of());
+    if (!committable.isEmpty()) {
+      consumer.commitAsync(committable, null);
+    }
+  }
+
+  private void process(ConsumerRecord<String, String> record) {
+    T command;
+    if (this.dataClass != null) {
+      command = (T) this.gson.fromJson(record.value(), this.dataClass);
+    } else {
+      command = (T) this.gson.fromJson(record.value(), this.type);
+    }
+    if (callback != null) {
+      //                    log.debug("KafkaInputStream command {}", command);
+      // blocks while the engine command buffer is full
+      this.callback.onNewData(command);
+    }
+  }
+
   @Override
   public void close() {
     this.isClosed = true;
@@ -0,0 +1,14 @@
+package com.sotatek.future.input;
+
+/** Record keys assigned to an engine, which reads only the input records with these keys */
+public interface RecordKeyAssignment {
+
+  /** Changed whenever the accepted keys change */
+  long getAssignmentEpoch();
+
+  /** Check if a non-null record key is assigned to the engine */
+  boolean acceptsRecordKey(String key);
+
+  /** Called on the input thread when a record is dropped since its key has not been accepted */
+  void onRecordKeyRejected(String key);
+}
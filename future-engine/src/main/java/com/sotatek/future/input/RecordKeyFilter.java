@@ -0,0 +1,100 @@
+package com.sotatek.future.input;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Skips the input records of other engines by key, before they are decoded. Used on the input
+ * thread only.
+ *
+ * <p>A record whose key is not accepted is parked rather than dropped, since its key may be in the
+ * middle of being assigned to this engine. Parked records are released in order once the
+ * assignment epoch changes and accepts their key, and the later records of a parked key wait
+ * behind them. A record still parked after {@link #PARK_TIMEOUT_MS} is dropped and reported.
+ *
+ * @param <R> the raw record
+ */
+public class RecordKeyFilter<R> {
+
+  static final long PARK_TIMEOUT_MS = 10_000;
+  static final int MAX_PARKED_RECORDS = 100_000;
+
+  private final RecordKeyAssignment assignment;
+  private final Deque<Parked<R>> parked = new ArrayDeque<>();
+  // number of parked records of each key
+  private final Map<String, Integer> parkedKeys = new HashMap<>();
+  // assignment epoch the parked records have been checked at
+  private long checkedEpoch;
+
+  public RecordKeyFilter(RecordKeyAssignment assignment) {
+    this.assignment = assignment;
+    this.checkedEpoch = assignment.getAssignmentEpoch();
+  }
+
+  /** Give the record to the consumer if its key is accepted, park it otherwise */
+  public void accept(String key, R record, Consumer<R> consumer) {
+    release(consumer);
+    if (key == null || !parkedKeys.containsKey(key) && assignment.acceptsRecordKey(key)) {
+      consumer.accept(record);
+      return;
+    }
+    if (parked.size() >= MAX_PARKED_RECORDS) {
+      drop(parked.pollFirst());
+    }
+    parked.addLast(new Parked<>(key, record, System.currentTimeMillis()));
+    parkedKeys.merge(key, 1, Integer::sum);
+  }
+
+  /**
+   * Release the parked records whose key has been accepted since they were parked, and drop those
+   * which have waited too long. Called for each record and after each poll.
+   */
+  public void release(Consumer<R> consumer) {
+    if (parked.isEmpty()) {
+      return;
+    }
+    long epoch = assignment.getAssignmentEpoch();
+    long expiry = System.currentTimeMillis() - PARK_TIMEOUT_MS;
+    if (epoch == checkedEpoch && parked.peekFirst().parkedAt > expiry) {
+      return;
+    }
+    checkedEpoch = epoch;
+    Iterator<Parked<R>> iterator = parked.iterator();
+    while (iterator.hasNext()) {
+      Parked<R> record = iterator.next();
+      if (assignment.acceptsRecordKey(record.key)) {
+        iterator.remove();
+        removeParkedKey(record.key);
+        consumer.accept(record.record);
+      } else if (record.parkedAt <= expiry) {
+        iterator.remove();
+        drop(record);
+      }
+    }
+  }
+
+  public int getParkedRecords() {
+    return parked.size();
+  }
+
+  /** The parked records, oldest first */
+  public List<R> getParked() {
+    return parked.isEmpty() ? List.of() : parked.stream().map(Parked::record).toList();
+  }
+
+  private void drop(Parked<R> record) {
+    removeParkedKey(record.key);
+    assignment.onRecordKeyRejected(record.key);
+  }
+
+  private void removeParkedKey(String key) {
+    parkedKeys.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+  }
+
+  private record Parked<R>(String key, R record, long parkedAt) {}
+}
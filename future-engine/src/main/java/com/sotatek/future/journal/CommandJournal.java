@@ -0,0 +1,232 @@
+package com.sotatek.future.journal;
+
+import com.sotatek.future.entity.Command;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the commands processed by the engine, written to memory mapped segment
+ * files.
+ *
+ * <p>Each segment is named after the sequence of its first record. A record is written body
+ * first and length last, so a record torn by a crash reads as the end of the segment, and a
+ * record which is only partly flushed fails its checksum. Records written to the mapping survive a
+ * crash of the process, {@link #force()} is needed to survive a crash of the host.
+ */
+@Slf4j
+public class CommandJournal implements AutoCloseable {
+  public static final int DEFAULT_SEGMENT_SIZE = 256 << 20;
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final int segmentSize;
+  private FileChannel channel;
+  private MappedByteBuffer segment;
+  private long lastSequence;
+
+  /**
+   * Open the journal for appending after the last sequence. A new segment is always started, so a
+   * torn tail left by a crash is never overwritten
+   */
+  public CommandJournal(Path directory, int segmentSize, long lastSequence) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.lastSequence = lastSequence;
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Append the command with the next sequence number and return it */
+  public long append(Command command) {
+    long sequence = lastSequence + 1;
+    byte[] body = new JournalRecord(sequence, command).encode();
+    int size = JournalRecord.HEADER_SIZE + body.length;
+    if (size > segmentSize) {
+      throw new IllegalStateException(
+          "Journal record of " + size + " bytes exceeds segment size " + segmentSize);
+    }
+    if (segment == null || segment.remaining() < size) {
+      openSegment(sequence);
+    }
+    int position = segment.position();
+    segment.put(position + JournalRecord.HEADER_SIZE, body);
+    segment.putInt(position + 4, JournalRecord.checksum(body, 0, body.length));
+    segment.putInt(position, body.length);
+    segment.position(position + size);
+    lastSequence = sequence;
+    return sequence;
+  }
+
+  public long getLastSequence() {
+    return lastSequence;
+  }
+
+  /** Flush written records to the storage device */
+  public void force() {
+    if (segment != null) {
+      segment.force();
+    }
+  }
+
+  @Override
+  public void close() {
+    force();
+    closeSegment();
+  }
+
+  private void openSegment(long firstSequence) {
+    closeSegment();
+    Path path =
+        directory.resolve(
+            String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    try {
+      channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              // an existing segment with the same first sequence has no valid record
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    log.atInfo().addKeyValue("segment", path).log("Opened journal segment");
+  }
+
+  private void closeSegment() {
+    if (segment == null) {
+      return;
+    }
+    segment.force();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.atError().setCause(e).log("Cannot close journal segment");
+    }
+    segment = null;
+    channel = null;
+  }
+
+  /**
+   * Read the records after a sequence in order, until the torn tail of the journal
+   *
+   * @return sequence of the last record read, or afterSequence if there is none
+   * @throws IllegalStateException if records right after afterSequence are missing
+   */
+  public static long read(Path directory, long afterSequence, Consumer<JournalRecord> consumer) {
+    List<Segment> segments = listSegments(directory);
+    long lastSequence = afterSequence;
+    for (int i = 0; i < segments.size(); i++) {
+      // skip segments which only have records up to afterSequence
+      if (i + 1 < segments.size() && segments.get(i + 1).firstSequence() <= afterSequence + 1) {
+        continue;
+      }
+      Segment segment = segments.get(i);
+      if (segment.firstSequence() > lastSequence + 1) {
+        throw new IllegalStateException(
+            "Journal records from " + (lastSequence + 1) + " to " + (segment.firstSequence() - 1)
+                + " are missing");
+      }
+      lastSequence = readSegment(segment.path(), lastSequence, consumer);
+    }
+    return lastSequence;
+  }
+
+  private static long readSegment(Path path, long lastSequence, Consumer<JournalRecord> consumer) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      while (buffer.remaining() >= JournalRecord.HEADER_SIZE) {
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          break;
+        }
+        byte[] body = new byte[length];
+        buffer.get(body);
+        if (JournalRecord.checksum(body, 0, length) != checksum) {
+          log.atWarn().addKeyValue("segment", path).log("Journal record checksum mismatch");
+          break;
+        }
+        JournalRecord record = JournalRecord.decode(body);
+        if (record.sequence() <= lastSequence) {
+          continue;
+        }
+        if (record.sequence() != lastSequence + 1) {
+          throw new IllegalStateException(
+              "Journal sequence " + record.sequence() + " follows " + lastSequence);
+        }
+        consumer.accept(record);
+        lastSequence = record.sequence();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return lastSequence;
+  }
+
+  /** Delete the segments which only have records up to a sequence, the last one is always kept */
+  public static void deleteSegmentsBefore(Path directory, long sequence) {
+    List<Segment> segments = listSegments(directory);
+    for (int i = 0; i + 1 < segments.size(); i++) {
+      if (segments.get(i + 1).firstSequence() > sequence + 1) {
+        break;
+      }
+      deleteFile(segments.get(i).path());
+    }
+  }
+
+  /** Delete all segments of the journal */
+  public static void deleteSegments(Path directory) {
+    listSegments(directory).forEach(segment -> deleteFile(segment.path()));
+  }
+
+  private static void deleteFile(Path path) {
+    try {
+      Files.deleteIfExists(path);
+      log.atInfo().addKeyValue("file", path).log("Deleted journal file");
+    } catch (IOException e) {
+      log.atError().setCause(e).addKeyValue("file", path).log("Cannot delete journal file");
+    }
+  }
+
+  private static List<Segment> listSegments(Path directory) {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Segment> segments = new ArrayList<>();
+      files.forEach(
+          path -> {
+            String name = path.getFileName().toString();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+              String sequence =
+                  name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+              segments.add(new Segment(Long.parseLong(sequence), path));
+            }
+          });
+      segments.sort(Comparator.comparingLong(Segment::firstSequence));
+      return segments;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private record Segment(long firstSequence, Path path) {}
+}
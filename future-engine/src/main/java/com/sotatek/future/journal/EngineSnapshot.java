@@ -0,0 +1,10 @@
+package com.sotatek.future.journal;
+
+import com.sotatek.future.entity.Command;
+import java.util.List;
+
+/**
+ * Full state of the engine after the journal record with the sequence, as the commands which load
+ * that state into an empty engine
+ */
+public record EngineSnapshot(long sequence, long currentPriority, List<Command> commands) {}
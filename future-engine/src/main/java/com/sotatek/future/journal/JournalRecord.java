@@ -0,0 +1,62 @@
+package com.sotatek.future.journal;
+
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.util.BinaryReader;
+import com.sotatek.future.util.BinaryWriter;
+import com.sotatek.future.util.binary.BinaryCodec;
+import java.util.zip.CRC32;
+
+/**
+ * A command processed by the engine with its sequence number.
+ *
+ * <p>The body of a record is the sequence, the flags, the order priority and the {@link
+ * BinaryCodec} payload of the command. Order priority and activation are engine state which the
+ * codec does not write, they are kept in the record so a replayed order gets the same place in the
+ * order book and trigger queues. Records are framed as [body length][CRC32 of body][body].
+ */
+public record JournalRecord(long sequence, Command command) {
+  static final int HEADER_SIZE = 8;
+
+  private static final int FLAG_ENGINE_GENERATED = 1;
+  private static final int FLAG_ORDER_ACTIVATED = 1 << 1;
+
+  byte[] encode() {
+    Order order = command.getData() instanceof Order o ? o : null;
+    int flags = 0;
+    if (command.isEngineGenerated()) {
+      flags |= FLAG_ENGINE_GENERATED;
+    }
+    if (order != null && order.isActivated()) {
+      flags |= FLAG_ORDER_ACTIVATED;
+    }
+    byte[] payload = BinaryCodec.encodeCommand(command);
+    BinaryWriter writer = new BinaryWriter(payload.length + 24);
+    writer.writeVarLong(sequence);
+    writer.writeByte(flags);
+    writer.writeVarLong(order != null ? order.getPriority() : 0);
+    writer.writeVarInt(payload.length);
+    writer.writeBytes(payload);
+    return writer.toByteArray();
+  }
+
+  static JournalRecord decode(byte[] body) {
+    BinaryReader reader = new BinaryReader(body);
+    long sequence = reader.readVarLong();
+    int flags = reader.readByte();
+    long priority = reader.readVarLong();
+    Command command = BinaryCodec.decodeCommand(reader.readBytes(reader.readVarInt()));
+    command.setEngineGenerated((flags & FLAG_ENGINE_GENERATED) != 0);
+    if (command.getData() instanceof Order order) {
+      order.setPriority(priority);
+      order.setActivated((flags & FLAG_ORDER_ACTIVATED) != 0);
+    }
+    return new JournalRecord(sequence, command);
+  }
+
+  static int checksum(byte[] body, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(body, offset, length);
+    return (int) crc.getValue();
+  }
+}
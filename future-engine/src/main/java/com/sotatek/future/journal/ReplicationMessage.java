@@ -0,0 +1,187 @@
+package com.sotatek.future.journal;
+
+import com.sotatek.future.entity.Command;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message of the replication stream from a primary engine to its standby.
+ *
+ * <p>A batch message has the journal records of the commands processed by the primary since the
+ * previous batch, a snapshot message has the full state after a sequence. A large snapshot is
+ * split in parts sent one after the other, each part message has the commands of its part in
+ * {@link #snapshot}. Sequences are numbered per stream, a primary starts a new stream with a new ID
+ * each time it starts, so the standby needs a snapshot of the new stream before it can apply its
+ * records. Records are framed as in the journal.
+ */
+public record ReplicationMessage(
+    long streamId,
+    long sentAt,
+    List<JournalRecord> records,
+    EngineSnapshot snapshot,
+    int part,
+    int parts) {
+  private static final int MAGIC = 0x5245504C;
+  private static final int VERSION = 1;
+  private static final int TYPE_BATCH = 1;
+  private static final int TYPE_SNAPSHOT = 2;
+  private static final int TYPE_SNAPSHOT_PART = 3;
+
+  public boolean isSnapshot() {
+    return snapshot != null;
+  }
+
+  /** True for the single message of a whole snapshot, and for the last part of a split one */
+  public boolean isLastPart() {
+    return part == parts - 1;
+  }
+
+  /** Encode a command with its sequence, on the engine thread before it is processed */
+  public static byte[] encodeRecord(long sequence, Command command) {
+    return new JournalRecord(sequence, command).encode();
+  }
+
+  public static byte[] encodeBatch(long streamId, long sentAt, List<byte[]> records) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeHeader(out, TYPE_BATCH, streamId, sentAt);
+      writeRecords(out, records);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static byte[] encodeSnapshot(long streamId, long sentAt, EngineSnapshot snapshot) {
+    List<byte[]> records = encodeCommands(snapshot);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeHeader(out, TYPE_SNAPSHOT, streamId, sentAt);
+      out.writeLong(snapshot.sequence());
+      out.writeLong(snapshot.currentPriority());
+      writeRecords(out, records);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encode a snapshot as part messages of at most maxPartBytes of records each, or of a single
+   * record larger than that
+   */
+  public static List<byte[]> encodeSnapshotParts(
+      long streamId, long sentAt, EngineSnapshot snapshot, int maxPartBytes) {
+    List<List<byte[]>> partRecords = new ArrayList<>();
+    List<byte[]> current = new ArrayList<>();
+    int currentBytes = 0;
+    for (byte[] record : encodeCommands(snapshot)) {
+      if (!current.isEmpty() && currentBytes + record.length > maxPartBytes) {
+        partRecords.add(current);
+        current = new ArrayList<>();
+        currentBytes = 0;
+      }
+      current.add(record);
+      currentBytes += record.length;
+    }
+    partRecords.add(current);
+    List<byte[]> messages = new ArrayList<>(partRecords.size());
+    for (int part = 0; part < partRecords.size(); part++) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        writeHeader(out, TYPE_SNAPSHOT_PART, streamId, sentAt);
+        out.writeLong(snapshot.sequence());
+        out.writeLong(snapshot.currentPriority());
+        out.writeInt(part);
+        out.writeInt(partRecords.size());
+        writeRecords(out, partRecords.get(part));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      messages.add(bytes.toByteArray());
+    }
+    return messages;
+  }
+
+  private static List<byte[]> encodeCommands(EngineSnapshot snapshot) {
+    List<byte[]> records = new ArrayList<>(snapshot.commands().size());
+    for (Command command : snapshot.commands()) {
+      records.add(encodeRecord(snapshot.sequence(), command));
+    }
+    return records;
+  }
+
+  /**
+   * @throws IllegalStateException if the message is not a replication message or it is damaged
+   */
+  public static ReplicationMessage decode(byte[] message) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IllegalStateException("Unknown replication message format");
+      }
+      int type = in.readInt();
+      long streamId = in.readLong();
+      long sentAt = in.readLong();
+      if (type == TYPE_BATCH) {
+        return new ReplicationMessage(streamId, sentAt, readRecords(in), null, 0, 1);
+      }
+      if (type != TYPE_SNAPSHOT && type != TYPE_SNAPSHOT_PART) {
+        throw new IllegalStateException("Unknown replication message type " + type);
+      }
+      long sequence = in.readLong();
+      long currentPriority = in.readLong();
+      int part = type == TYPE_SNAPSHOT_PART ? in.readInt() : 0;
+      int parts = type == TYPE_SNAPSHOT_PART ? in.readInt() : 1;
+      List<Command> commands = readRecords(in).stream().map(JournalRecord::command).toList();
+      return new ReplicationMessage(
+          streamId,
+          sentAt,
+          List.of(),
+          new EngineSnapshot(sequence, currentPriority, commands),
+          part,
+          parts);
+    } catch (IOException e) {
+      throw new IllegalStateException("Truncated replication message", e);
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out, int type, long streamId, long sentAt)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(type);
+    out.writeLong(streamId);
+    out.writeLong(sentAt);
+  }
+
+  private static void writeRecords(DataOutputStream out, List<byte[]> records)
+      throws IOException {
+    out.writeInt(records.size());
+    for (byte[] body : records) {
+      out.writeInt(body.length);
+      out.writeInt(JournalRecord.checksum(body, 0, body.length));
+      out.write(body);
+    }
+  }
+
+  private static List<JournalRecord> readRecords(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<JournalRecord> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] body = new byte[in.readInt()];
+      int checksum = in.readInt();
+      in.readFully(body);
+      if (JournalRecord.checksum(body, 0, body.length) != checksum) {
+        throw new IllegalStateException("Replication record " + i + " checksum mismatch");
+      }
+      records.add(JournalRecord.decode(body));
+    }
+    return records;
+  }
+}
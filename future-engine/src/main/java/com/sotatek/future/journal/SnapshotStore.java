@@ -0,0 +1,186 @@
+package com.sotatek.future.journal;
+
+import com.sotatek.future.entity.Command;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot files of the engine state next to the command journal.
+ *
+ * <p>A snapshot is encoded on the engine thread, so it sees a consistent state, and written to
+ * disk on a background thread. The file is written under a temporary name and renamed when
+ * complete. The last {@link #RETAINED_SNAPSHOTS} snapshots and the journal after the oldest of
+ * them are kept, so a damaged latest snapshot can fall back to the previous one.
+ */
+@Slf4j
+public class SnapshotStore implements AutoCloseable {
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SNAPSHOT_SUFFIX = ".bin";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int MAGIC = 0x534E4150;
+  private static final int VERSION = 1;
+  private static final int RETAINED_SNAPSHOTS = 2;
+
+  private final Path directory;
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private Future<?> pendingWrite;
+
+  public SnapshotStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /** True if the previous snapshot is still being written */
+  public boolean isWriting() {
+    return pendingWrite != null && !pendingWrite.isDone();
+  }
+
+  /** Encode the snapshot on the calling thread and write it in the background */
+  public void save(EngineSnapshot snapshot) {
+    List<byte[]> records = new ArrayList<>(snapshot.commands().size());
+    for (Command command : snapshot.commands()) {
+      records.add(new JournalRecord(snapshot.sequence(), command).encode());
+    }
+    pendingWrite =
+        executor.submit(() -> write(snapshot.sequence(), snapshot.currentPriority(), records));
+  }
+
+  private void write(long sequence, long currentPriority, List<byte[]> records) {
+    Path target = directory.resolve(getFileName(sequence));
+    Path temp = directory.resolve(getFileName(sequence) + TEMP_SUFFIX);
+    try {
+      try (FileOutputStream file = new FileOutputStream(temp.toFile());
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sequence);
+        out.writeLong(currentPriority);
+        out.writeInt(records.size());
+        for (byte[] body : records) {
+          out.writeInt(body.length);
+          out.writeInt(JournalRecord.checksum(body, 0, body.length));
+          out.write(body);
+        }
+        out.flush();
+        file.getFD().sync();
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      log.atInfo()
+          .addKeyValue("sequence", sequence)
+          .addKeyValue("records", records.size())
+          .log("Wrote engine snapshot");
+      deleteOldFiles();
+    } catch (IOException e) {
+      log.atError().setCause(e).addKeyValue("sequence", sequence).log("Cannot write snapshot");
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // the temporary file is never read
+      }
+    }
+  }
+
+  private void deleteOldFiles() throws IOException {
+    List<Long> sequences = listSnapshots();
+    if (sequences.size() < RETAINED_SNAPSHOTS) {
+      return;
+    }
+    for (Long sequence : sequences.subList(RETAINED_SNAPSHOTS, sequences.size())) {
+      Files.deleteIfExists(directory.resolve(getFileName(sequence)));
+    }
+    CommandJournal.deleteSegmentsBefore(directory, sequences.get(RETAINED_SNAPSHOTS - 1));
+  }
+
+  /** Load the latest readable snapshot, older ones are tried if it is damaged */
+  public Optional<EngineSnapshot> loadLatest() {
+    for (Long sequence : listSnapshots()) {
+      Path path = directory.resolve(getFileName(sequence));
+      try {
+        return Optional.of(read(path));
+      } catch (IOException | RuntimeException e) {
+        log.atError().setCause(e).addKeyValue("snapshot", path).log("Cannot read snapshot");
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static EngineSnapshot read(Path path) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IllegalStateException("Unknown snapshot format");
+      }
+      long sequence = in.readLong();
+      long currentPriority = in.readLong();
+      int count = in.readInt();
+      List<Command> commands = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] body = new byte[in.readInt()];
+        int checksum = in.readInt();
+        in.readFully(body);
+        if (JournalRecord.checksum(body, 0, body.length) != checksum) {
+          throw new IllegalStateException("Snapshot record " + i + " checksum mismatch");
+        }
+        commands.add(JournalRecord.decode(body).command());
+      }
+      return new EngineSnapshot(sequence, currentPriority, commands);
+    }
+  }
+
+  // sequences of the snapshots, latest first
+  private List<Long> listSnapshots() {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+          .map(
+              name ->
+                  Long.parseLong(
+                      name.substring(
+                          SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())))
+          .sorted(Comparator.reverseOrder())
+          .toList();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String getFileName(long sequence) {
+    return String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -5,28 +5,68 @@ import com.sotatek.future.engine.MatchingEngineConfig;
 import com.sotatek.future.entity.CommandOutput;
 import com.sotatek.future.util.TimeUtil;
 import com.sotatek.future.util.json.JsonUtil;
+import com.sotatek.future.util.metrics.LatencyRecorder;
+import com.sotatek.future.util.metrics.LatencyRecorder.Stage;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Publishes outputs as JSON, one message per batch of outputs.
+ *
+ * <p>The batching thread waits for outputs and cuts a batch when it has {@code batchSize} outputs,
+ * or when no more output is queued and {@code lingerMs} has passed since its first output. Batches
+ * are serialized in parallel by a worker pool and published by the publish thread in the order
+ * they were cut. Every stage waits on its queue, so an output is published as soon as the stages
+ * before it are done.
+ */
 @Slf4j
 public abstract class JsonOutputStream<T> extends BaseOutputStream<T> {
 
+  public static final String BATCH_SIZE = "output_batch_size";
+  public static final String LINGER_MS = "output_linger_ms";
+  public static final String SERIALIZATION_THREADS = "output_serialization_threads";
+  // batches being serialized or waiting to be published, batching waits when it is full
+  private static final int MAX_PENDING_BATCHES = 1024;
+  private static final long FLUSH_TIMEOUT_MS = 10_000;
+  private static final long STATS_INTERVAL_MS = 10_000;
+
   private final Gson gson = JsonUtil.createGson();
+  // 0 to publish each output alone, not in an array
   protected int batchSize = MatchingEngineConfig.OUTPUT_BATCH_SIZE;
-  protected long currentId = 0;
-  protected long sentId = 0;
+  protected long lingerMs = 0;
   protected int threadCount = 4;
-  protected Queue<T> queue = new ConcurrentLinkedQueue<>();
-  protected Queue<Batch> batches = new ConcurrentLinkedQueue<>();
-  protected PriorityBlockingQueue<Batch> pendingQueue =
-      new PriorityBlockingQueue<>(1000, Comparator.comparingLong((Batch o) -> o.id));
+  protected long currentId = 0;
+  protected volatile long sentId = 0;
+
+  private final BlockingQueue<T> queue = new LinkedBlockingQueue<>();
+  private final BlockingQueue<Batch> pendingQueue = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+  private final AtomicInteger serializing = new AtomicInteger();
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong publishedCount = new AtomicLong();
+  private final OutputStageMetrics batchingMetrics =
+      new OutputStageMetrics("batching", queue::size);
+  private final OutputStageMetrics serializationMetrics =
+      new OutputStageMetrics("serialization", serializing::get);
+  private final OutputStageMetrics publishMetrics =
+      new OutputStageMetrics("publish", pendingQueue::size);
+  private final LatencyRecorder latencyRecorder = LatencyRecorder.getInstance();
+  private final List<Thread> threads = new ArrayList<>();
+  private ExecutorService serializers;
+  private volatile boolean closed = false;
 
   public JsonOutputStream() {}
 
@@ -34,168 +74,226 @@ public abstract class JsonOutputStream<T> extends BaseOutputStream<T> {
     this.batchSize = batchSize;
   }
 
+  /** Read the pipeline settings of the output parameters, before connecting */
+  protected void configure(Map<String, Object> parameters) {
+    if (parameters.get(BATCH_SIZE) != null) {
+      batchSize = Integer.parseInt(parameters.get(BATCH_SIZE).toString());
+    }
+    if (parameters.get(LINGER_MS) != null) {
+      lingerMs = Long.parseLong(parameters.get(LINGER_MS).toString());
+    }
+    if (parameters.get(SERIALIZATION_THREADS) != null) {
+      threadCount = Integer.parseInt(parameters.get(SERIALIZATION_THREADS).toString());
+    }
+  }
+
   @Override
   public boolean connect() throws IOException, TimeoutException {
-    List<Thread> checkThreads = new ArrayList<>();
-    Thread batch = new BatchingThread();
-    batch.setName("Batch");
-    checkThreads.add(batch);
-    batch.start();
-    Thread serialization = new SerializationThread(0);
-    serialization.setName("Serialize");
-    checkThreads.add(serialization);
-    serialization.start();
-    Thread publish = new PublishThread();
-    publish.setName("Publish");
-    checkThreads.add(publish);
-    publish.start();
-    Thread checking = new CheckingStatusThread(checkThreads);
-    checking.setName("Checking");
-    checking.start();
+    AtomicInteger serializerId = new AtomicInteger();
+    serializers =
+        Executors.newFixedThreadPool(
+            threadCount,
+            runnable -> {
+              Thread thread = new Thread(runnable, "Serialize-" + serializerId.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    startThread("Batch", this::runBatching);
+    startThread("Publish", this::runPublishing);
+    startThread("Checking", this::logStats);
     return true;
   }
 
+  private void startThread(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
   @Override
   public void write(T o) {
+    writtenCount.incrementAndGet();
     queue.add(o);
-    log.debug("queue size {}", queue.size());
   }
 
   @Override
   public void write(List<T> list) {
+    writtenCount.addAndGet(list.size());
     queue.addAll(list);
-    log.debug("queue size {}", queue.size());
   }
 
+  /** Wait until the outputs written so far are published */
   @Override
-  public void flush() {}
+  public void flush() {
+    if (threads.isEmpty()) {
+      return;
+    }
+    long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+    while (publishedCount.get() < writtenCount.get()) {
+      if (System.currentTimeMillis() > deadline) {
+        log.warn(
+            "{} outputs are not published after {} ms",
+            writtenCount.get() - publishedCount.get(),
+            FLUSH_TIMEOUT_MS);
+        return;
+      }
+      TimeUtil.sleep(1);
+    }
+  }
+
+  /** Publish the written outputs and stop the pipeline threads */
+  protected void closePipeline() {
+    if (closed) {
+      return;
+    }
+    flush();
+    closed = true;
+    threads.forEach(Thread::interrupt);
+    if (serializers != null) {
+      serializers.shutdownNow();
+    }
+  }
 
   public abstract void publish(String data);
 
+  /** Queue depth and latency of the batching, serialization and publish stages */
+  public List<OutputStageMetrics> getStageMetrics() {
+    return List.of(batchingMetrics, serializationMetrics, publishMetrics);
+  }
+
   private class Batch {
 
     public long id;
     public List<T> data;
-    public String serializedData;
+    // time the batch was cut and serialized
+    public long createdAt;
+    public long serializedAt;
+    public CompletableFuture<String> serializedData;
 
     public Batch(long id, List<T> data) {
       this.id = id;
       this.data = data;
+      this.createdAt = System.nanoTime();
     }
   }
 
-  private class BatchingThread extends Thread {
-    @Override
-    public void run() {
-      while (true) {
-        try {
-          List<T> dataList = new ArrayList<>();
-          T data;
-          do {
-            data = queue.poll();
-            if (data != null) {
-              dataList.add(data);
-            }
-          } while (data != null && dataList.size() <= batchSize);
-
-          if (!dataList.isEmpty()) {
-            batches.add(new Batch(currentId++, dataList));
-          } else {
-            TimeUtil.sleep(20);
-          }
-          if (batches.size() > 0) {
-            log.debug("batches size {}", batches.size());
+  private void runBatching() {
+    int maxSize = Math.max(batchSize, 1);
+    long lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    while (!closed) {
+      try {
+        List<T> data = new ArrayList<>(maxSize);
+        data.add(queue.take());
+        long startedAt = System.nanoTime();
+        queue.drainTo(data, maxSize - data.size());
+        while (data.size() < maxSize && lingerNanos > 0) {
+          T next = queue.poll(startedAt + lingerNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
           }
-        } catch (Exception e) {
-          log.error("BatchingThread error", e);
+          data.add(next);
+          queue.drainTo(data, maxSize - data.size());
         }
+        Batch batch = new Batch(currentId++, data);
+        batchingMetrics.record(batch.createdAt - startedAt);
+        serializing.incrementAndGet();
+        batch.serializedData = CompletableFuture.supplyAsync(() -> serialize(batch), serializers);
+        pendingQueue.put(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        log.error("BatchingThread error", e);
       }
     }
   }
 
-  private class SerializationThread extends Thread {
-
-    int id;
-
-    public SerializationThread(int id) {
-      this.id = id;
-    }
-
-    @Override
-    public void run() {
-      while (true) {
-        List<T> batchData = null;
-        try {
-          Batch batch = batches.poll();
-          if (batch != null) {
-            batchData = new ArrayList<>(batch.data);
-            if (batchSize > 0) {
-              batch.serializedData = gson.toJson(batchData);
-            } else {
-              batch.serializedData = gson.toJson(batchData.get(0));
-            }
-            pendingQueue.add(batch);
-            log.debug("Pending queue batch {}", pendingQueue.size());
-          } else {
-            TimeUtil.sleep(20);
-          }
-        } catch (Exception e) {
-          log.error("SerializationThread error", e);
-          log.error("batchData {}", batchData);
+  private String serialize(Batch batch) {
+    try {
+      String serialized =
+          batchSize > 0 ? gson.toJson(batch.data) : gson.toJson(batch.data.get(0));
+      batch.serializedAt = System.nanoTime();
+      serializationMetrics.record(batch.serializedAt - batch.createdAt);
+      for (T data : batch.data) {
+        if (data instanceof CommandOutput output && output.getWrittenAt() > 0) {
+          latencyRecorder.record(
+              Stage.SERIALIZE,
+              output.getCode(),
+              output.getSymbol(),
+              batch.serializedAt - output.getWrittenAt());
         }
       }
+      return serialized;
+    } finally {
+      serializing.decrementAndGet();
     }
   }
 
   public static int numOfTradesSentToKafka = 0;
-  private class PublishThread extends Thread {
-    @Override
-    public void run() {
-      while (true) {
-        try {
-          Batch batch = pendingQueue.poll();
-          if (batch != null) {
-            log.debug("Publish batch data size {} and {}", batch.data.size(), batch.serializedData);
-            publish(batch.serializedData);
-            sentId++;
 
-            // Count number of trades sent to kafka
-            for (T data: batch.data) {
-              if (data instanceof CommandOutput) {
-                if (((CommandOutput)data).getTrades() != null) {
-                  JsonOutputStream.numOfTradesSentToKafka += ((CommandOutput)data).getTrades().size();
-                }
-              }
+  private void runPublishing() {
+    while (!closed) {
+      Batch batch;
+      try {
+        batch = pendingQueue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        // batches are taken in the order they were cut, whichever worker finished first
+        String serializedData = batch.serializedData.join();
+        log.debug("Publish batch data size {} and {}", batch.data.size(), serializedData);
+        publish(serializedData);
+        sentId++;
+        long publishedAt = System.nanoTime();
+        publishMetrics.record(publishedAt - batch.createdAt);
 
+        for (T data : batch.data) {
+          if (data instanceof CommandOutput output) {
+            recordPublished(output, batch.serializedAt, publishedAt);
+            // Count number of trades sent to kafka
+            if (output.getTrades() != null) {
+              JsonOutputStream.numOfTradesSentToKafka += output.getTrades().size();
             }
-
-          } else {
-            TimeUtil.sleep(20);
           }
-        } catch (Exception e) {
-          log.error("PublishThread error", e);
         }
+      } catch (CompletionException e) {
+        log.error("SerializationThread error", e.getCause());
+        log.error("batchData {}", batch.data);
+      } catch (Exception e) {
+        log.error("PublishThread error", e);
+      } finally {
+        publishedCount.addAndGet(batch.data.size());
       }
     }
   }
 
-  private class CheckingStatusThread extends Thread {
-    List<Thread> checkingThreads;
-
-    CheckingStatusThread(List<Thread> threads) {
-      checkingThreads = threads;
+  private void recordPublished(CommandOutput output, long serializedAt, long publishedAt) {
+    if (output.getWrittenAt() == 0) {
+      return;
+    }
+    latencyRecorder.record(
+        Stage.PUBLISH, output.getCode(), output.getSymbol(), publishedAt - serializedAt);
+    if (output.getEnqueuedAt() > 0) {
+      latencyRecorder.record(
+          Stage.END_TO_END,
+          output.getCode(),
+          output.getSymbol(),
+          publishedAt - output.getEnqueuedAt());
     }
+  }
 
-    @Override
-    public void run() {
-      while (true) {
-        checkingThreads.forEach(
-            t -> {
-              log.debug(
-                  "Thread id {} with name {} and status {}", t.getId(), t.getName(), t.getState());
-            });
-        TimeUtil.sleep(2000);
+  private void logStats() {
+    while (!closed) {
+      try {
+        Thread.sleep(STATS_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
       }
+      log.debug("Output pipeline {}", getStageMetrics());
     }
   }
 }
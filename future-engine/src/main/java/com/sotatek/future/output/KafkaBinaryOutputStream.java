@@ -0,0 +1,75 @@
+package com.sotatek.future.output;
+
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.util.binary.BinaryCodec;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Kafka output of command outputs encoded with {@link BinaryCodec}, one output per record.
+ *
+ * <p>Binary encoding is cheap enough to run on the caller thread, so unlike {@link
+ * JsonOutputStream} there is no batching and serialization thread pipeline. The record is sent
+ * asynchronously by the Kafka producer.
+ */
+@Slf4j
+public class KafkaBinaryOutputStream extends BaseOutputStream<CommandOutput> {
+
+  private final Map<String, Object> parameters;
+  private final String topic;
+  private Producer<String, byte[]> producer;
+
+  public KafkaBinaryOutputStream(Map<String, Object> parameters, String topic) {
+    this.parameters = parameters;
+    this.topic = topic;
+  }
+
+  @Override
+  public boolean connect() {
+    Properties props = new Properties();
+    props.put(
+        ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
+        parameters.get(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+    props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+    props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+    props.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, 104857600);
+    props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 504857600);
+    this.producer = new KafkaProducer<>(props);
+    return true;
+  }
+
+  @Override
+  public void write(CommandOutput output) {
+    byte[] data = BinaryCodec.encodeOutput(output);
+    producer.send(
+        new ProducerRecord<>(topic, data),
+        (metadata, exception) -> {
+          if (exception != null) {
+            log.error("Kafka send failed", exception);
+          }
+        });
+  }
+
+  @Override
+  public void write(List<CommandOutput> outputs) {
+    outputs.forEach(this::write);
+  }
+
+  @Override
+  public void flush() {
+    producer.flush();
+  }
+
+  @Override
+  public void close() {
+    producer.close();
+  }
+}
@@ -2,7 +2,9 @@ package com.sotatek.future.output;
 
 import com.google.gson.Gson;
 import com.sotatek.future.entity.OrderBookEvent;
+import com.sotatek.future.enums.OrderBookDepth;
 import com.sotatek.future.util.json.JsonUtil;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Properties;
 import lombok.extern.slf4j.Slf4j;
@@ -14,14 +16,23 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 @Slf4j
 public class KafkaOrderBookStream extends OrderBookOutputStream {
 
+  private static final long DEFAULT_SNAPSHOT_INTERVAL = 30_000;
+
   private final Map<String, Object> parameters;
   private final Gson gson = JsonUtil.createGson();
   private final String topic;
+  // incremental events of each depth, e.g. orderbook_output_top_20
+  private final Map<OrderBookDepth, String> depthTopics = new EnumMap<>(OrderBookDepth.class);
   private Producer<String, String> producer;
 
   public KafkaOrderBookStream(Map<String, Object> parameters, String topic) {
     this.parameters = parameters;
     this.topic = topic;
+    this.snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+    configure(parameters);
+    for (OrderBookDepth depth : depths) {
+      depthTopics.put(depth, topic + "_" + depth.name().toLowerCase());
+    }
   }
 
   @Override
@@ -39,13 +50,18 @@ public class KafkaOrderBookStream extends OrderBookOutputStream {
     }
     props.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, 104857600);
     props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 504857600);
+    // events of a symbol are keyed to one partition, idempotence keeps them in order on retries
+    props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+    props.put(ProducerConfig.ACKS_CONFIG, "all");
     this.producer = new KafkaProducer<>(props);
     return true;
   }
 
   @Override
   public void flush() {
-    // nothing to do
+    if (this.producer != null) {
+      this.producer.flush();
+    }
   }
 
   @Override
@@ -57,12 +73,39 @@ public class KafkaOrderBookStream extends OrderBookOutputStream {
   protected void publish(OrderBookEvent event) {
     String value = gson.toJson(event);
 //    log.debug("KafkaOrderBookStream {}", value);
-    ProducerRecord<String, String> producerRecord = new ProducerRecord<>(this.topic, value);
-    try {
-      this.producer.send(producerRecord).get();
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new RuntimeException(e.getMessage());
-    }
+    ProducerRecord<String, String> producerRecord =
+        new ProducerRecord<>(this.topic, event.getSymbol(), value);
+    this.producer.send(
+        producerRecord,
+        (metadata, exception) -> {
+          if (exception != null) {
+            // the next event has the full book again
+            log.atError()
+                .setCause(exception)
+                .addKeyValue("symbol", event.getSymbol())
+                .log("Cannot publish order book");
+          }
+        });
+  }
+
+  @Override
+  protected void publishDepth(OrderBookEvent event) {
+    String value = gson.toJson(event);
+    ProducerRecord<String, String> producerRecord =
+        new ProducerRecord<>(depthTopics.get(event.getDepth()), event.getSymbol(), value);
+    this.producer.send(
+        producerRecord,
+        (metadata, exception) -> {
+          if (exception != null) {
+            log.atError()
+                .setCause(exception)
+                .addKeyValue("symbol", event.getSymbol())
+                .addKeyValue("depth", event.getDepth())
+                .addKeyValue("sequence", event.getSequence())
+                .log("Cannot publish order book event");
+            // consumers see a gap, the next event carries a snapshot to resynchronize them
+            requestSnapshot(event.getSymbol());
+          }
+        });
   }
 }
@@ -23,17 +23,18 @@ public class KafkaOutputStream<T> extends JsonOutputStream<T> {
     super();
     this.parameters = parameters;
     this.topic = topic;
+    configure(parameters);
   }
 
   public KafkaOutputStream(Map<String, Object> parameters, String topic, int batchSize) {
     super(batchSize);
     this.parameters = parameters;
     this.topic = topic;
+    configure(parameters);
   }
 
   @Override
   public boolean connect() throws IOException, TimeoutException {
-    super.connect();
     String[] keys =
         new String[] {
           ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
@@ -46,12 +47,30 @@ public class KafkaOutputStream<T> extends JsonOutputStream<T> {
     }
     props.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, 104857600);
     props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 504857600);
+    // messages are batches of JSON outputs, which compress well
+    props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+    props.put(ProducerConfig.LINGER_MS_CONFIG, 0);
+    String[] optionalKeys =
+        new String[] {
+          ProducerConfig.ACKS_CONFIG,
+          ProducerConfig.COMPRESSION_TYPE_CONFIG,
+          ProducerConfig.LINGER_MS_CONFIG,
+          ProducerConfig.BATCH_SIZE_CONFIG
+        };
+    for (String key : optionalKeys) {
+      if (parameters.get(key) != null) {
+        props.put(key, parameters.get(key));
+      }
+    }
     this.producer = new KafkaProducer<>(props);
+    // the publish thread uses the producer
+    super.connect();
     return true;
   }
 
   @Override
   public void close() {
+    closePipeline();
     this.producer.close();
   }
 
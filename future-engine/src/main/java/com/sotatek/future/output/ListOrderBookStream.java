@@ -1,6 +1,7 @@
 package com.sotatek.future.output;
 
 import com.sotatek.future.entity.OrderBookEvent;
+import com.sotatek.future.enums.OrderBookDepth;
 import com.sotatek.future.util.TimeUtil;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,20 +9,43 @@ import java.util.List;
 public class ListOrderBookStream extends OrderBookOutputStream {
 
   private final List<OrderBookEvent> data = new ArrayList<>();
+  private final List<OrderBookEvent> depthData = new ArrayList<>();
 
   public ListOrderBookStream(int interval) {
     this.updateInterval = interval;
+    this.legacyInterval = interval;
+  }
+
+  public ListOrderBookStream(int interval, long snapshotInterval, List<OrderBookDepth> depths) {
+    this(interval, interval, snapshotInterval, depths);
+  }
+
+  public ListOrderBookStream(
+      int interval, int legacyInterval, long snapshotInterval, List<OrderBookDepth> depths) {
+    this.updateInterval = interval;
+    this.legacyInterval = legacyInterval;
+    this.snapshotInterval = snapshotInterval;
+    this.depths = depths;
   }
 
   public List<OrderBookEvent> getData() {
     return this.data;
   }
 
+  public List<OrderBookEvent> getDepthData() {
+    return this.depthData;
+  }
+
   @Override
   protected void publish(OrderBookEvent event) {
     this.data.add(event);
   }
 
+  @Override
+  protected void publishDepth(OrderBookEvent event) {
+    this.depthData.add(event);
+  }
+
   @Override
   public void flush() {
     TimeUtil.sleep(Math.max(this.updateInterval, 100));
@@ -8,9 +8,9 @@ import com.sotatek.future.entity.FutureBidsAsksBinanceDataResponse;
 import com.sotatek.future.entity.OrderBook;
 import com.sotatek.future.entity.OrderBookEvent;
 import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.OrderBookDepth;
 import com.sotatek.future.enums.OrderSide;
 import com.sotatek.future.util.MarginBigDecimal;
-import com.sotatek.future.util.TimeUtil;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -20,15 +20,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
@@ -38,13 +43,52 @@ import org.apache.commons.lang3.ObjectUtils;
 public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOutput> {
 
   public static final String UPDATE_INTERVAL = "update_interval";
-  private static final int ROW_LIMIT = 1000;
+  public static final String LEGACY_INTERVAL = "legacy_interval";
+  public static final String SNAPSHOT_INTERVAL = "snapshot_interval";
+  public static final String DEPTHS = "depths";
+  // how often idle symbols are checked for a due snapshot, ms
+  private static final long SNAPSHOT_CHECK_INTERVAL = 1000;
 
   protected final Map<String, OrderBookData> data = new HashMap<>();
-  protected Queue<OrderBookOutput> queue = new ConcurrentLinkedQueue<>();
-  protected int updateInterval = 450; // ms
+  protected BlockingQueue<OrderBookOutput> queue = new LinkedBlockingQueue<>();
+  // outputs received within this time after the first one are published together, ms
+  protected int updateInterval = 10;
+  // least time between two legacy events of a symbol, ms. Their full books are large, so the
+  // changes of this time are published together
+  protected int legacyInterval = 450;
+  // rows of each side in the full books of the legacy events
+  protected OrderBookDepth legacyDepth = OrderBookDepth.TOP_1000;
+  // interval of full snapshots in the depth events, ms. 0 to send the snapshot with every event
+  protected long snapshotInterval = 0;
+  // depths of the incremental events, published besides the legacy events
+  protected List<OrderBookDepth> depths = List.of(OrderBookDepth.TOP_1000);
   protected Map<String, Long> lastUpdatedAts = new HashMap<>();
   protected boolean isClosing = false;
+  private final Map<String, Map<OrderBookDepth, DepthState>> depthStates = new HashMap<>();
+  private final Set<String> snapshotRequests = ConcurrentHashMap.newKeySet();
+  // symbols changed since their last legacy event, on the output thread
+  private final Set<String> legacySymbols = new HashSet<>();
+  private long lastLegacyPublishAt = 0;
+  private long lastSnapshotCheck = 0;
+
+  /** Read the stream settings from output parameters, missing ones keep their current value */
+  protected void configure(Map<String, Object> parameters) {
+    if (parameters.get(UPDATE_INTERVAL) != null) {
+      updateInterval = Integer.parseInt(parameters.get(UPDATE_INTERVAL).toString());
+    }
+    if (parameters.get(LEGACY_INTERVAL) != null) {
+      legacyInterval = Integer.parseInt(parameters.get(LEGACY_INTERVAL).toString());
+    }
+    if (parameters.get(SNAPSHOT_INTERVAL) != null) {
+      snapshotInterval = Long.parseLong(parameters.get(SNAPSHOT_INTERVAL).toString());
+    }
+    if (parameters.get(DEPTHS) != null) {
+      depths =
+          Arrays.stream(parameters.get(DEPTHS).toString().split(","))
+              .map(depth -> OrderBookDepth.valueOf(depth.trim()))
+              .toList();
+    }
+  }
 
   @Override
   public boolean connect() {
@@ -77,10 +121,20 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
       updatedSymbols.add(output.symbol());
       processOrderBookOutput(output);
     }
+    updatedSymbols.addAll(snapshotRequests);
+    updatedSymbols.addAll(getSymbolsWithDueSnapshot());
 
     for (String symbol : updatedSymbols) {
       write(symbol);
     }
+    long now = System.currentTimeMillis();
+    if (!legacySymbols.isEmpty() && now - lastLegacyPublishAt >= legacyInterval) {
+      for (String symbol : legacySymbols) {
+        writeLegacy(symbol, now);
+      }
+      legacySymbols.clear();
+      lastLegacyPublishAt = now;
+    }
 
 //    Map<String, Matcher> matchers = MatchingEngine.matchers;
 //    for (String symbol : matchers.keySet()) {
@@ -90,45 +144,150 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
 //    }
   }
 
-  private void write(String symbol) {
-    Function<Entry<MarginBigDecimal, MarginBigDecimal>, MarginBigDecimal[]> mapper =
-        (Entry<MarginBigDecimal, MarginBigDecimal> entry) ->
-            new MarginBigDecimal[] {entry.getKey(), entry.getValue()};
-
-    List<MarginBigDecimal[]> newBids =
-        this.getMap(symbol, OrderSide.BUY).entrySet().stream()
-            .limit(ROW_LIMIT)
-            .map(mapper)
-            .collect(Collectors.toList());
-    List<MarginBigDecimal[]> newAsks =
-        this.getMap(symbol, OrderSide.SELL).entrySet().stream()
-            .limit(ROW_LIMIT)
-            .map(mapper)
-            .collect(Collectors.toList());
-
-    SortedMap<MarginBigDecimal, MarginBigDecimal> updatedBids =
-        this.getUpdatedMap(symbol, OrderSide.BUY);
-    SortedMap<MarginBigDecimal, MarginBigDecimal> updatedAsks =
-        this.getUpdatedMap(symbol, OrderSide.SELL);
-    List<MarginBigDecimal[]> changedBids =
-        updatedBids.entrySet().stream().map(mapper).collect(Collectors.toList());
-    List<MarginBigDecimal[]> changedAsks =
-        updatedAsks.entrySet().stream().map(mapper).collect(Collectors.toList());
-    updatedBids.clear();
-    updatedAsks.clear();
-
-    // Get data from binance
-//    BidsAsksDataCombinedWithBinance bidsAsksDataCombinedWithBinance = this.combineCurrentBidsAsksWithBinanceData(symbol, newBids,  newAsks,  changedBids,  changedAsks);
+  /** Publish the legacy event of a symbol: its full book and the rows changed since the last one */
+  private void writeLegacy(String symbol, long updatedAt) {
+    OrderBookData orderBookData = getOrderBookData(symbol);
+    OrderBook orderbook =
+        new OrderBook(
+            getRows(orderBookData.bids, legacyDepth),
+            getRows(orderBookData.asks, legacyDepth),
+            updatedAt,
+            null);
+    OrderBook changes =
+        new OrderBook(
+            toRows(orderBookData.legacyUpdatedBids),
+            toRows(orderBookData.legacyUpdatedAsks),
+            updatedAt,
+            this.getLastUpdatedAt(symbol));
+    this.publish(new OrderBookEvent(symbol, orderbook, changes));
+    orderBookData.legacyUpdatedBids.clear();
+    orderBookData.legacyUpdatedAsks.clear();
+    this.lastUpdatedAts.put(symbol, updatedAt);
+  }
 
+  /**
+   * Publish the changed rows of a symbol for each depth, with the snapshot of that depth when it is
+   * requested or due. Only the changes which a consumer keeping the best levels of the depth needs
+   * are sent: changed rows within the depth, removed rows which were within it, and rows which
+   * moved into it because better rows were removed.
+   */
+  private void write(String symbol) {
+    OrderBookData orderBookData = getOrderBookData(symbol);
     long updatedAt = System.currentTimeMillis();
-    OrderBook newOrderBook = new OrderBook(newBids, newAsks, updatedAt, null);
-//    OrderBook newOrderBook = new OrderBook(bidsAsksDataCombinedWithBinance.newBidsWithBinance, bidsAsksDataCombinedWithBinance.newAsksWithBinance, updatedAt, null);
-//    OrderBook changedRows =
-//        new OrderBook(bidsAsksDataCombinedWithBinance.changedBidsWithBinance, bidsAsksDataCombinedWithBinance.changedAsksWithBinance, updatedAt, this.getLastUpdatedAt(symbol));
-    OrderBook changedRows =
-        new OrderBook(changedBids, changedAsks, updatedAt, this.getLastUpdatedAt(symbol));
-    this.lastUpdatedAts.put(symbol, updatedAt);
-    this.publish(new OrderBookEvent(symbol, newOrderBook, changedRows));
+    boolean snapshotRequested = snapshotRequests.remove(symbol);
+    if (snapshotRequested) {
+      legacySymbols.add(symbol);
+    }
+    Map<OrderBookDepth, DepthState> states =
+        depthStates.computeIfAbsent(symbol, s -> new EnumMap<>(OrderBookDepth.class));
+    for (OrderBookDepth depth : depths) {
+      DepthState state = states.computeIfAbsent(depth, d -> new DepthState());
+      List<MarginBigDecimal[]> changedBids =
+          getChangedRows(orderBookData.bids, orderBookData.updatedBids, depth, state.bidBoundary);
+      List<MarginBigDecimal[]> changedAsks =
+          getChangedRows(orderBookData.asks, orderBookData.updatedAsks, depth, state.askBoundary);
+      state.bidBoundary = getBoundary(orderBookData.bids, depth);
+      state.askBoundary = getBoundary(orderBookData.asks, depth);
+
+      OrderBook snapshot = null;
+      if (snapshotRequested
+          || snapshotInterval == 0
+          || state.sequence == 0
+          || updatedAt - state.lastSnapshotAt >= snapshotInterval) {
+        snapshot =
+            new OrderBook(
+                getRows(orderBookData.bids, depth),
+                getRows(orderBookData.asks, depth),
+                updatedAt,
+                null);
+        state.lastSnapshotAt = updatedAt;
+      } else if (changedBids.isEmpty() && changedAsks.isEmpty()) {
+        // nothing changed within this depth
+        continue;
+      }
+      state.sequence++;
+      long lastUpdatedAt = state.sequence == 1 ? updatedAt : state.lastPublishedAt;
+      OrderBook changedRows = new OrderBook(changedBids, changedAsks, updatedAt, lastUpdatedAt);
+      this.publishDepth(new OrderBookEvent(symbol, snapshot, changedRows, depth, state.sequence));
+      state.lastPublishedAt = updatedAt;
+    }
+    orderBookData.updatedBids.clear();
+    orderBookData.updatedAsks.clear();
+  }
+
+  private List<MarginBigDecimal[]> getChangedRows(
+      NavigableMap<MarginBigDecimal, MarginBigDecimal> rows,
+      NavigableMap<MarginBigDecimal, MarginBigDecimal> updatedRows,
+      OrderBookDepth depth,
+      MarginBigDecimal oldBoundary) {
+    if (depth == OrderBookDepth.FULL) {
+      return toRows(updatedRows);
+    }
+    Comparator<? super MarginBigDecimal> comparator = rows.comparator();
+    MarginBigDecimal newBoundary = getBoundary(rows, depth);
+    NavigableMap<MarginBigDecimal, MarginBigDecimal> changedRows = new TreeMap<>(comparator);
+    // rows which moved into the depth
+    if (oldBoundary != null
+        && (newBoundary == null || comparator.compare(newBoundary, oldBoundary) > 0)) {
+      changedRows.putAll(
+          newBoundary == null
+              ? rows.tailMap(oldBoundary, false)
+              : rows.subMap(oldBoundary, false, newBoundary, true));
+    }
+    for (Entry<MarginBigDecimal, MarginBigDecimal> row : updatedRows.entrySet()) {
+      MarginBigDecimal boundary = rows.containsKey(row.getKey()) ? newBoundary : oldBoundary;
+      if (boundary == null || comparator.compare(row.getKey(), boundary) <= 0) {
+        changedRows.put(row.getKey(), row.getValue());
+      }
+    }
+    return toRows(changedRows);
+  }
+
+  // price of the last row within the depth, null if all rows are within it
+  private static MarginBigDecimal getBoundary(
+      NavigableMap<MarginBigDecimal, MarginBigDecimal> rows, OrderBookDepth depth) {
+    if (rows.size() <= depth.getLevels()) {
+      return null;
+    }
+    Iterator<MarginBigDecimal> prices = rows.keySet().iterator();
+    for (int i = 1; i < depth.getLevels(); i++) {
+      prices.next();
+    }
+    return prices.next();
+  }
+
+  private static List<MarginBigDecimal[]> getRows(
+      NavigableMap<MarginBigDecimal, MarginBigDecimal> rows, OrderBookDepth depth) {
+    return rows.entrySet().stream()
+        .limit(depth.getLevels())
+        .map(entry -> new MarginBigDecimal[] {entry.getKey(), entry.getValue()})
+        .collect(Collectors.toList());
+  }
+
+  private static List<MarginBigDecimal[]> toRows(
+      NavigableMap<MarginBigDecimal, MarginBigDecimal> rows) {
+    return getRows(rows, OrderBookDepth.FULL);
+  }
+
+  // symbols whose periodic snapshot is due, checked at most once per SNAPSHOT_CHECK_INTERVAL
+  private List<String> getSymbolsWithDueSnapshot() {
+    long now = System.currentTimeMillis();
+    if (snapshotInterval == 0 || now - lastSnapshotCheck < SNAPSHOT_CHECK_INTERVAL) {
+      return List.of();
+    }
+    lastSnapshotCheck = now;
+    return depthStates.entrySet().stream()
+        .filter(
+            entry ->
+                entry.getValue().values().stream()
+                    .anyMatch(state -> now - state.lastSnapshotAt >= snapshotInterval))
+        .map(Entry::getKey)
+        .toList();
+  }
+
+  /** Send the snapshot of the symbol with its next event, e.g. for a consumer which saw a gap */
+  public void requestSnapshot(String symbol) {
+    snapshotRequests.add(symbol);
   }
 
   private Map<String, FutureBidsAsksBinanceDataResponse> oldBinanceDatasBySymbol = new HashMap<>();
@@ -203,9 +362,7 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
   }
 
   public void refreshOrderBook(String symbol) {
-    OrderBook orderbook =
-        new OrderBook(Arrays.asList(), Arrays.asList(), System.currentTimeMillis(), null);
-    this.publish(new OrderBookEvent(symbol, orderbook, orderbook));
+    requestSnapshot(symbol);
   }
 
   private long getLastUpdatedAt(String symbol) {
@@ -228,41 +385,54 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
       rows.put(price, amount);
     }
 
-    SortedMap<MarginBigDecimal, MarginBigDecimal> updatedRows =
-        this.getUpdatedMap(orderbookOutput.symbol(), orderbookOutput.side());
-    updatedRows.put(price, amount);
+    OrderBookData orderBookData = getOrderBookData(orderbookOutput.symbol());
+    boolean buy = orderbookOutput.side() == OrderSide.BUY;
+    (buy ? orderBookData.updatedBids : orderBookData.updatedAsks).put(price, amount);
+    (buy ? orderBookData.legacyUpdatedBids : orderBookData.legacyUpdatedAsks).put(price, amount);
+    legacySymbols.add(orderbookOutput.symbol());
   }
 
-  private SortedMap<MarginBigDecimal, MarginBigDecimal> getMap(String symbol, OrderSide side) {
-    OrderBookData orderbookData = this.data.get(symbol);
-    if (orderbookData == null) {
-      orderbookData = new OrderBookData();
-      this.data.put(symbol, orderbookData);
-    }
-    return side == OrderSide.BUY ? orderbookData.bids : orderbookData.asks;
+  private OrderBookData getOrderBookData(String symbol) {
+    return this.data.computeIfAbsent(symbol, s -> new OrderBookData());
   }
 
-  private SortedMap<MarginBigDecimal, MarginBigDecimal> getUpdatedMap(
-      String symbol, OrderSide side) {
-    OrderBookData orderbookData = this.data.get(symbol);
-    if (orderbookData == null) {
-      orderbookData = new OrderBookData();
-      this.data.put(symbol, orderbookData);
-    }
-    return side == OrderSide.BUY ? orderbookData.updatedBids : orderbookData.updatedAsks;
+  private SortedMap<MarginBigDecimal, MarginBigDecimal> getMap(String symbol, OrderSide side) {
+    OrderBookData orderbookData = getOrderBookData(symbol);
+    return side == OrderSide.BUY ? orderbookData.bids : orderbookData.asks;
   }
 
+  /** Publish an event with the full book of a symbol, for the consumers of the legacy stream */
   protected abstract void publish(OrderBookEvent event);
 
+  /** Publish an incremental event of a depth */
+  protected abstract void publishDepth(OrderBookEvent event);
+
   public static class OrderBookData {
 
-    final SortedMap<MarginBigDecimal, MarginBigDecimal> bids =
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> bids =
         new TreeMap<>(Comparator.reverseOrder());
-    final SortedMap<MarginBigDecimal, MarginBigDecimal> asks = new TreeMap<>();
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> asks =
+        new TreeMap<>(Comparator.naturalOrder());
 
-    final SortedMap<MarginBigDecimal, MarginBigDecimal> updatedBids =
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> updatedBids =
         new TreeMap<>(Comparator.reverseOrder());
-    final SortedMap<MarginBigDecimal, MarginBigDecimal> updatedAsks = new TreeMap<>();
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> updatedAsks =
+        new TreeMap<>(Comparator.naturalOrder());
+
+    // rows changed since the last legacy event
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> legacyUpdatedBids =
+        new TreeMap<>(Comparator.reverseOrder());
+    final NavigableMap<MarginBigDecimal, MarginBigDecimal> legacyUpdatedAsks =
+        new TreeMap<>(Comparator.naturalOrder());
+  }
+
+  // sequence and published boundaries of a symbol at a depth
+  private static class DepthState {
+    private long sequence;
+    private long lastSnapshotAt;
+    private long lastPublishedAt;
+    private MarginBigDecimal bidBoundary;
+    private MarginBigDecimal askBoundary;
   }
 
   private class OrderBookOutputThread extends Thread {
@@ -273,6 +443,8 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
         try {
           List<OrderBookOutput> batch = this.getBatch();
           processBatch(batch);
+        } catch (InterruptedException e) {
+          break;
         } catch (Exception e) {
           //just log to keep output thread running
           log.error("OrderBookOutputStream processBatch get exception", e);
@@ -280,18 +452,36 @@ public abstract class OrderBookOutputStream extends BaseOutputStream<OrderBookOu
       }
     }
 
-    protected List<OrderBookOutput> getBatch() {
-      long lastUpdateTime = System.currentTimeMillis();
-
+    /**
+     * Wait for the first output, then take the outputs received within updateInterval after it.
+     * An empty batch is returned periodically to publish the due snapshots, and when the pending
+     * legacy events are due.
+     */
+    protected List<OrderBookOutput> getBatch() throws InterruptedException {
       List<OrderBookOutput> batch = new ArrayList<>();
-      do {
-        OrderBookOutput data = queue.poll();
-        if (data != null) {
-          batch.add(data);
-        } else {
-          TimeUtil.sleep(20);
+      long timeout = SNAPSHOT_CHECK_INTERVAL;
+      if (!legacySymbols.isEmpty()) {
+        long legacyDueIn = lastLegacyPublishAt + legacyInterval - System.currentTimeMillis();
+        timeout = Math.max(0, Math.min(timeout, legacyDueIn));
+      }
+      OrderBookOutput first = queue.poll(timeout, TimeUnit.MILLISECONDS);
+      if (first == null) {
+        return batch;
+      }
+      batch.add(first);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(updateInterval);
+      while (!isClosing) {
+        queue.drainTo(batch);
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        OrderBookOutput data = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (data == null) {
+          break;
         }
-      } while (System.currentTimeMillis() - lastUpdateTime < updateInterval);
+        batch.add(data);
+      }
       return batch;
     }
   }
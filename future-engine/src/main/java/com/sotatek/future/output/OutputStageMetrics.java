@@ -0,0 +1,61 @@
+package com.sotatek.future.output;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/** Queue depth and latency of one stage of an output pipeline, safe to read from any thread. */
+public class OutputStageMetrics {
+
+  private final String name;
+  private final IntSupplier queueDepth;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+  public OutputStageMetrics(String name, IntSupplier queueDepth) {
+    this.name = name;
+    this.queueDepth = queueDepth;
+  }
+
+  public void record(long nanos) {
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Number of items waiting for this stage */
+  public int getQueueDepth() {
+    return queueDepth.getAsInt();
+  }
+
+  /** Number of batches which went through this stage */
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getAverageLatencyNanos() {
+    long batches = count.sum();
+    return batches == 0 ? 0 : totalNanos.sum() / batches;
+  }
+
+  public long getMaxLatencyNanos() {
+    return maxNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s[depth=%d batches=%d avgUs=%d maxUs=%d]",
+        name,
+        getQueueDepth(),
+        getCount(),
+        TimeUnit.NANOSECONDS.toMicros(getAverageLatencyNanos()),
+        TimeUnit.NANOSECONDS.toMicros(getMaxLatencyNanos()));
+  }
+}
@@ -21,6 +21,10 @@ public class OutputStreamFactory {
       case KAFKA:
         String topic = (String) config.getOutputParameters().get(OutputStreamFactory.OUTPUT_QUEUE);
         return new KafkaOutputStream<>(config.getOutputParameters(), topic);
+      case KAFKA_BINARY:
+        String binaryTopic =
+            (String) config.getOutputParameters().get(OutputStreamFactory.OUTPUT_QUEUE);
+        return new KafkaBinaryOutputStream(config.getOutputParameters(), binaryTopic);
       default:
         throw new InvalidMatchingEngineConfigException(
             "Unknown order output driver: " + config.getCommandOutputDriver());
@@ -10,6 +10,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -19,6 +21,12 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class OrderRouter implements AutoCloseable {
 
+    /**
+     * Record key of the global commands on the input topic of each shard, shards accept it besides
+     * their own symbols.
+     */
+    public static final String CONTROL_KEY = "control";
+
     private static volatile OrderRouter instance;
     private static final Object lock = new Object();
 
@@ -27,6 +35,8 @@ public class OrderRouter implements AutoCloseable {
     private final Map<String, ShardInfo> shardInfoMap;
     private final Set<String> pausedSymbols;
     private final String defaultShardId;
+    // routing reads the mapping under the read lock, a cut-over changes it under the write lock
+    private final ReadWriteLock mappingLock = new ReentrantReadWriteLock();
     private String bootstrapServers;
 
     private volatile boolean closed = false;
@@ -178,7 +188,16 @@ public class OrderRouter implements AutoCloseable {
      * Route a command to the appropriate shard.
      */
     public void routeCommand(Command command) {
-        String symbol = extractSymbol(command);
+        mappingLock.readLock().lock();
+        try {
+            doRouteCommand(command);
+        } finally {
+            mappingLock.readLock().unlock();
+        }
+    }
+
+    private void doRouteCommand(Command command) {
+        String symbol = command.getSymbol();
 
         if (pausedSymbols.contains(symbol)) {
             throw new SymbolPausedException("Symbol is paused for rebalancing: " + symbol);
@@ -207,41 +226,53 @@ public class OrderRouter implements AutoCloseable {
      * Route a command synchronously and wait for acknowledgment.
      */
     public void routeCommandSync(Command command) throws Exception {
-        String symbol = extractSymbol(command);
+        String symbol = command.getSymbol();
 
         if (pausedSymbols.contains(symbol)) {
             throw new SymbolPausedException("Symbol is paused for rebalancing: " + symbol);
         }
 
-        ShardInfo shard = getShardForSymbol(symbol);
-        if (shard == null) {
-            throw new UnknownSymbolException("Unknown symbol: " + symbol);
+        mappingLock.readLock().lock();
+        try {
+            ShardInfo shard = getShardForSymbol(symbol);
+            if (shard == null) {
+                throw new UnknownSymbolException("Unknown symbol: " + symbol);
+            }
+            ShardClient client = shardClients.get(shard.getShardId());
+            client.sendCommandSync(command);
+        } finally {
+            mappingLock.readLock().unlock();
         }
-
-        ShardClient client = shardClients.get(shard.getShardId());
-        client.sendCommandSync(command);
     }
 
     /**
-     * Extract symbol from command.
+     * Send a command to a specific shard, keyed by the symbol of the command.
      */
-    private String extractSymbol(Command command) {
-        if (command.isOrderCommand() && command.getOrder() != null) {
-            return command.getOrder().getSymbol();
+    public void sendToShard(String shardId, Command command) {
+        ShardClient client = shardClients.get(shardId);
+        if (client == null) {
+            throw new ShardUnavailableException("No client for shard: " + shardId);
         }
-        try {
-            if (command.getPosition() != null) {
-                return command.getPosition().getSymbol();
-            }
-        } catch (ClassCastException ignored) {
+        client.sendCommand(command);
+    }
+
+    /**
+     * Route a symbol to a new shard without pausing it. The fence is the last command of the
+     * symbol sent to the current shard, every command routed after it goes to the new shard.
+     */
+    public void cutOver(String symbol, String newShardId, Command fence) {
+        ShardInfo newShard = shardInfoMap.get(newShardId);
+        if (newShard == null) {
+            throw new IllegalArgumentException("Unknown shard: " + newShardId);
         }
+        mappingLock.writeLock().lock();
         try {
-            if (command.getInstrument() != null) {
-                return command.getInstrument().getSymbol();
-            }
-        } catch (ClassCastException ignored) {
+            sendToShard(getShardForSymbol(symbol).getShardId(), fence);
+            symbolToShardMapping.put(symbol, newShard);
+        } finally {
+            mappingLock.writeLock().unlock();
         }
-        return null;
+        log.info("Cut symbol {} over to shard {}", symbol, newShardId);
     }
 
     /**
@@ -345,17 +376,18 @@ public class OrderRouter implements AutoCloseable {
 
     /**
      * Broadcast a command to all shards (e.g., for global configuration updates).
+     * The command is written to the input topic of each shard with the control key, so each shard
+     * processes it in order with its other input.
      */
     public void broadcastCommand(Command command) {
+        if (shardClients.isEmpty()) {
+            log.warn("Router is not initialized, command {} is not broadcast", command.getCode());
+            return;
+        }
         for (ShardClient client : shardClients.values()) {
-            try {
-                client.sendCommand(command);
-            } catch (Exception e) {
-                log.error("Failed to broadcast command to shard {}: {}",
-                        client.getShardId(), e.getMessage());
-            }
+            client.sendCommand(command, CONTROL_KEY);
         }
-        log.info("Broadcasted command {} to all shards", command.getCode());
+        log.info("Broadcasted command {} to {} shards", command.getCode(), shardClients.size());
     }
 
     @Override
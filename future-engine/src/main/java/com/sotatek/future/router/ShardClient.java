@@ -62,11 +62,17 @@ public class ShardClient implements AutoCloseable {
      * Send a command to this shard asynchronously.
      */
     public void sendCommand(Command command) {
+        sendCommand(command, extractPartitionKey(command));
+    }
+
+    /**
+     * Send a command to this shard asynchronously with a record key.
+     */
+    public void sendCommand(Command command, String key) {
         if (closed) {
             throw new IllegalStateException("ShardClient is closed");
         }
 
-        String key = extractPartitionKey(command);
         String value = gson.toJson(command);
 
         ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, value);
@@ -131,23 +137,13 @@ public class ShardClient implements AutoCloseable {
     }
 
     /**
-     * Extract partition key from command (symbol or account ID).
+     * Extract partition key from command. Records are keyed by symbol so the commands of a symbol
+     * stay in order on one partition, and shards skip the records of other symbols without
+     * decoding them.
      */
     private String extractPartitionKey(Command command) {
-        if (command.isOrderCommand() && command.getOrder() != null) {
-            return command.getOrder().getSymbol();
-        }
-        if (command.getData() != null) {
-            // Try to extract symbol from other command types
-            try {
-                if (command.getPosition() != null) {
-                    return command.getPosition().getSymbol();
-                }
-            } catch (ClassCastException ignored) {
-                // Not a position command
-            }
-        }
-        return shardId; // Default to shard ID
+        String symbol = command.getSymbol();
+        return symbol != null ? symbol : shardId; // Default to shard ID
     }
 
     /**
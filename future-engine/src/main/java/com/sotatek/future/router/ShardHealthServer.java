@@ -48,6 +48,9 @@ public class ShardHealthServer implements AutoCloseable {
         // Status endpoint for monitoring
         server.createContext("/status", this::handleStatus);
 
+        // Failover - promote a standby to primary
+        server.createContext("/promote", this::handlePromote);
+
         server.start();
         log.info("Health server started on port {}", port);
     }
@@ -128,6 +131,24 @@ public class ShardHealthServer implements AutoCloseable {
         }
     }
 
+    /**
+     * Handle promotion of a standby, on POST.
+     * Returns 409 if the standby is not in sync with its primary.
+     */
+    private void handlePromote(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "{\"error\":\"POST required\"}");
+            return;
+        }
+        if (engine.promote()) {
+            sendResponse(exchange, 200, "{\"status\":\"PROMOTED\",\"shard\":\""
+                    + engine.getShardId() + "\"}");
+        } else {
+            sendResponse(exchange, 409, "{\"status\":\"NOT_IN_SYNC\",\"shard\":\""
+                    + engine.getShardId() + "\"}");
+        }
+    }
+
     /**
      * Send HTTP response.
      */
@@ -2,6 +2,8 @@ package com.sotatek.future.router;
 
 import com.sotatek.future.engine.ShardHealthStatus;
 import com.sotatek.future.engine.ShardedMatchingEngine;
+import com.sotatek.future.util.metrics.LatencyCollector;
+import com.sotatek.future.util.metrics.LatencyRecorder;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
@@ -35,6 +37,7 @@ public class ShardMetricsExporter implements AutoCloseable {
     private final Gauge cpuUsage;
     private final Gauge standbyLag;
     private final Gauge pendingCommands;
+    private final Gauge rejectedRecords;
     private final Gauge shardStatus;
 
     // Histograms
@@ -142,6 +145,13 @@ public class ShardMetricsExporter implements AutoCloseable {
                 .labelNames("shard_id")
                 .register();
 
+        rejectedRecords = Gauge.build()
+                .namespace(NAMESPACE)
+                .name("rejected_input_records")
+                .help("Input records dropped since their key is not assigned to the shard")
+                .labelNames("shard_id")
+                .register();
+
         shardStatus = Gauge.build()
                 .namespace(NAMESPACE)
                 .name("shard_status")
@@ -165,6 +175,9 @@ public class ShardMetricsExporter implements AutoCloseable {
                 .buckets(0.0001, 0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1)
                 .register();
 
+        // stage latencies recorded by the engine and the output stream
+        new LatencyCollector(shardId, LatencyRecorder.getInstance()).register();
+
         log.info("ShardMetricsExporter initialized for shard {}", shardId);
     }
 
@@ -192,6 +205,7 @@ public class ShardMetricsExporter implements AutoCloseable {
             memoryMax.labels(shardId).set(status.getMemoryMax());
             pendingCommands.labels(shardId).set(status.getPendingCommandsQueueSize());
             standbyLag.labels(shardId).set(status.getStandbyLagMs() / 1000.0);
+            rejectedRecords.labels(shardId).set(status.getRejectedRecords());
 
             // Update shard status
             boolean isActive = status.isHealthy();
@@ -1,6 +1,9 @@
 package com.sotatek.future.router;
 
+import com.sotatek.future.entity.Command;
 import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.SymbolMigration;
+import com.sotatek.future.enums.CommandCode;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -22,6 +25,8 @@ public class ShardRebalancer implements AutoCloseable {
 
     private static final double DEFAULT_LOAD_THRESHOLD = 0.8; // 80%
     private static final long DEFAULT_CHECK_INTERVAL_MS = 60000; // 1 minute
+    private static final long DEFAULT_MIGRATION_TIMEOUT_MS = 60000;
+    private static final long MIGRATION_POLL_MS = 10;
 
     private final OrderRouter orderRouter;
     private final Map<String, ShardMetrics> shardMetricsMap;
@@ -30,6 +35,7 @@ public class ShardRebalancer implements AutoCloseable {
 
     private double loadThreshold = DEFAULT_LOAD_THRESHOLD;
     private long checkIntervalMs = DEFAULT_CHECK_INTERVAL_MS;
+    private long migrationTimeoutMs = DEFAULT_MIGRATION_TIMEOUT_MS;
     private final AtomicBoolean rebalancing = new AtomicBoolean(false);
 
     private volatile boolean closed = false;
@@ -59,7 +65,19 @@ public class ShardRebalancer implements AutoCloseable {
         void addSymbol(String shardId, String symbol);
     }
 
+    /**
+     * Reports the state of live symbol migrations, from the health status of the shards.
+     */
+    public interface MigrationMonitor {
+        /**
+         * Check if a shard has loaded the state of a symbol migrating to it and applies its
+         * commands.
+         */
+        boolean isShadowing(String shardId, String symbol);
+    }
+
     private RebalanceCallback callback;
+    private MigrationMonitor migrationMonitor;
 
     public ShardRebalancer(OrderRouter orderRouter) {
         this.orderRouter = orderRouter;
@@ -79,6 +97,13 @@ public class ShardRebalancer implements AutoCloseable {
         this.callback = callback;
     }
 
+    /**
+     * Set the migration monitor, symbols are then migrated live instead of paused.
+     */
+    public void setMigrationMonitor(MigrationMonitor migrationMonitor) {
+        this.migrationMonitor = migrationMonitor;
+    }
+
     /**
      * Start automatic rebalancing checks.
      */
@@ -202,6 +227,10 @@ public class ShardRebalancer implements AutoCloseable {
      * Rebalance a symbol from one shard to another.
      */
     public void rebalanceSymbol(String symbol, String fromShard, String toShard) {
+        if (migrationMonitor != null) {
+            migrateSymbol(symbol, fromShard, toShard);
+            return;
+        }
         if (callback == null) {
             log.error("No rebalance callback configured");
             return;
@@ -245,6 +274,39 @@ public class ShardRebalancer implements AutoCloseable {
         }
     }
 
+    /**
+     * Move a symbol to another shard while it keeps trading. The source shard streams the state
+     * and the commands of the symbol to the target, the routing is cut over once the target has
+     * caught up. Orders stay open, new orders only wait for the hand-over on the target.
+     */
+    private void migrateSymbol(String symbol, String fromShard, String toShard) {
+        SymbolMigration migration =
+                new SymbolMigration(symbol, fromShard, toShard, System.currentTimeMillis());
+        log.info("Migrating symbol {} from {} to {} live, migration {}",
+                symbol, fromShard, toShard, migration.getMigrationId());
+        try {
+            orderRouter.sendToShard(fromShard, new Command(CommandCode.MIGRATE_SYMBOL, migration));
+            long deadline = System.currentTimeMillis() + migrationTimeoutMs;
+            while (!migrationMonitor.isShadowing(toShard, symbol)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Shard " + toShard
+                            + " has not caught up with symbol " + symbol + " in time");
+                }
+                Thread.sleep(MIGRATION_POLL_MS);
+            }
+            orderRouter.cutOver(
+                    symbol, toShard, new Command(CommandCode.HAND_OVER_SYMBOL, migration));
+            log.info("Cut symbol {} over from {} to {}", symbol, fromShard, toShard);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Migration interrupted for symbol " + symbol, e);
+        } catch (Exception e) {
+            // the routing is unchanged, the source shard keeps the symbol
+            log.error("Failed to migrate symbol {}: {}", symbol, e.getMessage(), e);
+            throw new RuntimeException("Rebalancing failed for symbol " + symbol, e);
+        }
+    }
+
     /**
      * Manually trigger rebalancing of a specific symbol.
      */
@@ -281,6 +343,13 @@ public class ShardRebalancer implements AutoCloseable {
         this.checkIntervalMs = intervalMs;
     }
 
+    /**
+     * Set how long a live migration waits for the target shard to catch up.
+     */
+    public void setMigrationTimeoutMs(long timeoutMs) {
+        this.migrationTimeoutMs = timeoutMs;
+    }
+
     @Override
     public void close() {
         if (!closed) {
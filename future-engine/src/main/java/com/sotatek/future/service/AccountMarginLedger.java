@@ -0,0 +1,217 @@
+package com.sotatek.future.service;
+
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.enums.Asset;
+import com.sotatek.future.util.MarginAccumulator;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ObjectUtils;
+
+/**
+ * Running totals of the margin held by the open positions of each account, so that the available
+ * balance is read without walking the positions of the account.
+ *
+ * <p>Order margin is held by the positions (marBuy and marSel), so order changes reach the ledger
+ * through position updates. Cross positions are valued at the oracle price, the positions of a
+ * symbol are revalued when its oracle price moves.
+ */
+@Slf4j
+public class AccountMarginLedger {
+
+  // Contribution of each open position by position key, used to remove it on update
+  private final Map<String, PositionMargin> positionMargins = new HashMap<>();
+  // Keys of the open positions of each symbol
+  private final Map<String, Set<String>> symbolPositions = new HashMap<>();
+  // Oracle price which the positions of each symbol have been valued at
+  private final Map<String, MarginBigDecimal> oraclePrices = new HashMap<>();
+  private final Map<Long, Map<Asset, AccountMargin>> accountMargins = new HashMap<>();
+
+  public void update(Position position) {
+    String key = position.getKey();
+    remove(key);
+    if (position.getCurrentQty().isZero()) {
+      return;
+    }
+    String symbol = position.getSymbol();
+    MarginCalculator calculator = getCalculator(symbol);
+    if (calculator != null && isMoved(symbol, calculator.getOraclePrice())) {
+      revalue(symbol, calculator);
+    }
+    PositionMargin margin = valuate(position.deepCopy(), calculator);
+    positionMargins.put(key, margin);
+    symbolPositions.computeIfAbsent(symbol, s -> new HashSet<>()).add(key);
+    getAccountMargin(margin.position()).add(margin);
+  }
+
+  public void remove(String key) {
+    PositionMargin oldMargin = positionMargins.remove(key);
+    if (oldMargin == null) {
+      return;
+    }
+    Position position = oldMargin.position();
+    Set<String> keys = symbolPositions.get(position.getSymbol());
+    keys.remove(key);
+    if (keys.isEmpty()) {
+      symbolPositions.remove(position.getSymbol());
+    }
+    Map<Asset, AccountMargin> assetMargins = accountMargins.get(position.getAccountId());
+    AccountMargin accountMargin = assetMargins.get(position.getAsset());
+    accountMargin.subtract(oldMargin);
+    if (accountMargin.positions == 0) {
+      assetMargins.remove(position.getAsset());
+      if (assetMargins.isEmpty()) {
+        accountMargins.remove(position.getAccountId());
+      }
+    }
+  }
+
+  /** Revalue the positions of a symbol if its oracle price has moved */
+  public void revalue(String symbol, MarginBigDecimal oraclePrice) {
+    if (!symbolPositions.containsKey(symbol) || !isMoved(symbol, oraclePrice)) {
+      return;
+    }
+    MarginCalculator calculator = getCalculator(symbol);
+    if (calculator != null && isMoved(symbol, calculator.getOraclePrice())) {
+      revalue(symbol, calculator);
+    }
+  }
+
+  /**
+   * Return the margin totals of the positions of an account in an asset, or null if some of the
+   * positions could not be valued
+   */
+  public MarginTotals getMarginTotals(long accountId, Asset asset) {
+    Map<Asset, AccountMargin> assetMargins = accountMargins.get(accountId);
+    AccountMargin accountMargin = assetMargins == null ? null : assetMargins.get(asset);
+    if (accountMargin == null) {
+      return MarginTotals.ZERO;
+    }
+    if (accountMargin.unvaluedPositions > 0) {
+      return null;
+    }
+    return new MarginTotals(
+        accountMargin.positionMargin.get(),
+        accountMargin.orderMargin.get(),
+        accountMargin.crossUnrealisedPnl.get());
+  }
+
+  public void clear() {
+    positionMargins.clear();
+    symbolPositions.clear();
+    oraclePrices.clear();
+    accountMargins.clear();
+  }
+
+  private void revalue(String symbol, MarginCalculator calculator) {
+    oraclePrices.put(symbol, calculator.getOraclePrice());
+    Set<String> keys = symbolPositions.get(symbol);
+    if (keys == null) {
+      return;
+    }
+    for (String key : keys) {
+      PositionMargin oldMargin = positionMargins.get(key);
+      Position position = oldMargin.position();
+      // Margin of isolated positions does not depend on the oracle price
+      if (position.isCross() || !oldMargin.valued()) {
+        PositionMargin newMargin = valuate(position, calculator);
+        positionMargins.put(key, newMargin);
+        AccountMargin accountMargin = getAccountMargin(position);
+        accountMargin.subtract(oldMargin);
+        accountMargin.add(newMargin);
+      }
+    }
+  }
+
+  /** Same values as the available balance adds up for the position, see AccountService */
+  private PositionMargin valuate(Position position, MarginCalculator calculator) {
+    if (calculator != null) {
+      try {
+        MarginBigDecimal margin = calculator.calcAllocatedMargin(position);
+        MarginBigDecimal unrealisedPnl = MarginBigDecimal.ZERO;
+        if (position.isCross()) {
+          unrealisedPnl = calculator.calcUnrealisedPnl(position);
+        } else if (ObjectUtils.isNotEmpty(position.getTmpTotalFee())) {
+          margin = margin.add(position.getTmpTotalFee());
+        }
+        MarginBigDecimal orderMargin = position.getMarBuy().add(position.getMarSel());
+        return new PositionMargin(position, true, margin, orderMargin, unrealisedPnl);
+      } catch (Exception e) {
+        log.atError()
+            .setCause(e)
+            .addKeyValue("accId", position.getAccountId())
+            .addKeyValue("symbol", position.getSymbol())
+            .log("Exception when valuating position margin");
+      }
+    }
+    return new PositionMargin(
+        position, false, MarginBigDecimal.ZERO, MarginBigDecimal.ZERO, MarginBigDecimal.ZERO);
+  }
+
+  private MarginCalculator getCalculator(String symbol) {
+    try {
+      return MarginCalculator.getCalculatorFor(symbol);
+    } catch (Exception e) {
+      log.atError().setCause(e).addKeyValue("symbol", symbol).log("No margin calculator");
+      return null;
+    }
+  }
+
+  private boolean isMoved(String symbol, MarginBigDecimal oraclePrice) {
+    MarginBigDecimal valuedAt = oraclePrices.get(symbol);
+    return valuedAt == null || oraclePrice == null || !valuedAt.eq(oraclePrice);
+  }
+
+  private AccountMargin getAccountMargin(Position position) {
+    return accountMargins
+        .computeIfAbsent(position.getAccountId(), accountId -> new HashMap<>())
+        .computeIfAbsent(position.getAsset(), asset -> new AccountMargin());
+  }
+
+  public record MarginTotals(
+      MarginBigDecimal positionMargin,
+      MarginBigDecimal orderMargin,
+      MarginBigDecimal crossUnrealisedPnl) {
+    public static final MarginTotals ZERO =
+        new MarginTotals(MarginBigDecimal.ZERO, MarginBigDecimal.ZERO, MarginBigDecimal.ZERO);
+  }
+
+  // Copy of the position as it has been valued, to revalue it when the oracle price moves
+  record PositionMargin(
+      Position position,
+      boolean valued,
+      MarginBigDecimal margin,
+      MarginBigDecimal orderMargin,
+      MarginBigDecimal unrealisedPnl) {}
+
+  private static class AccountMargin {
+    private final MarginAccumulator positionMargin = new MarginAccumulator();
+    private final MarginAccumulator orderMargin = new MarginAccumulator();
+    private final MarginAccumulator crossUnrealisedPnl = new MarginAccumulator();
+    private int positions;
+    private int unvaluedPositions;
+
+    private void add(PositionMargin margin) {
+      positionMargin.add(margin.margin());
+      orderMargin.add(margin.orderMargin());
+      crossUnrealisedPnl.add(margin.unrealisedPnl());
+      positions++;
+      if (!margin.valued()) {
+        unvaluedPositions++;
+      }
+    }
+
+    private void subtract(PositionMargin margin) {
+      positionMargin.subtract(margin.margin());
+      orderMargin.subtract(margin.orderMargin());
+      crossUnrealisedPnl.subtract(margin.unrealisedPnl());
+      positions--;
+      if (!margin.valued()) {
+        unvaluedPositions--;
+      }
+    }
+  }
+}
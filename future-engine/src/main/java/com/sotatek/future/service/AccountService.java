@@ -11,6 +11,8 @@ import com.sotatek.future.enums.TransactionStatus;
 import com.sotatek.future.exception.AccountNotFoundException;
 import com.sotatek.future.exception.InsufficientBalanceException;
 import com.sotatek.future.exception.InvalidMatchingEngineConfigException;
+import com.sotatek.future.service.AccountMarginLedger.MarginTotals;
+import com.sotatek.future.util.MarginAccumulator;
 import com.sotatek.future.util.MarginBigDecimal;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +33,8 @@ public class AccountService extends BaseService<Account> {
 
   private OrderService orderService;
 
+  private AccountMarginLedger marginLedger;
+
   public static final Long INSURANCE_USER_ID = 1L;
   // Map to hold those accounts of insurance user for each asset
   public static final Map<Asset, Long> INSURANCE_ACCOUNT_IDS = new HashMap<>();
@@ -53,6 +57,7 @@ public class AccountService extends BaseService<Account> {
     this.transactionService = transactionService;
     this.positionService = positionService;
     this.orderService = orderService;
+    this.marginLedger = positionService.getMarginLedger();
   }
 
   @Override
@@ -75,8 +80,9 @@ public class AccountService extends BaseService<Account> {
   }
 
   /**
-   * Update all cross-margin position of the account with new liquidation data if wallet balance
-   * change
+   * Mark the cross-margin positions of the account to be updated with new liquidation data if
+   * wallet balance change. They are updated once at the next savepoint or commit, or when
+   * liquidation needs them
    *
    * @param accountId
    * @param oldValue
@@ -93,13 +99,7 @@ public class AccountService extends BaseService<Account> {
       }
     }
     if (shouldUpdatePositions) {
-      positionService.updateUserPosition(
-          accountId,
-          p -> {
-            if (p.isCross()) {
-              positionService.update(p);
-            }
-          });
+      positionService.markCrossPositionsDirty(accountId);
     }
   }
 
@@ -238,7 +238,8 @@ public class AccountService extends BaseService<Account> {
   }
 
   /**
-   * Available balance is dynamic then we need to re-calculate each we using it
+   * Available balance is dynamic then we need to re-calculate each we using it. Margin totals are
+   * read from the margin ledger, positions are only walked if some of them could not be valued
    *
    * @param accountId id of account
    * @return
@@ -248,33 +249,13 @@ public class AccountService extends BaseService<Account> {
     Account account = get(accountId);
     MarginBigDecimal walletBalance = account.getBalance();
     Asset asset = account.getAsset();
-    // position hold open order cost even when currentQty=0
-    List<Position> positions =
-        positionService.getUserPositions(accountId, position -> true).stream()
-            .filter(p -> p.getAsset().equals(asset))
-            .toList();
-    MarginBigDecimal positionMargin = MarginBigDecimal.ZERO;
-    MarginBigDecimal uPNLofAllCrossPosition = MarginBigDecimal.ZERO;
-    MarginBigDecimal orderMargin = MarginBigDecimal.ZERO;
-    for (Position position : positions) {
-      String symbol = position.getSymbol();
-      if (!position.getCurrentQty().eq(MarginBigDecimal.ZERO)) {
-        MarginCalculator marginCalculator = MarginCalculator.getCalculatorFor(symbol);
-        positionMargin = positionMargin.add(marginCalculator.calcAllocatedMargin(position));
-        if (position.isCross()) {
-          MarginBigDecimal uPNL = marginCalculator.calcUnrealisedPnl(position);
-          uPNLofAllCrossPosition = uPNLofAllCrossPosition.add(uPNL);
-        }
-
-        // Add tmpTotalFee if position is isolated
-        if (!position.isCross() && ObjectUtils.isNotEmpty(position.getTmpTotalFee())) {
-          positionMargin = positionMargin.add(position.getTmpTotalFee());
-        }
-
-        // Add order margin
-        orderMargin = orderMargin.add(position.getMarBuy()).add(position.getMarSel());
-      }
+    MarginTotals marginTotals = marginLedger.getMarginTotals(accountId, asset);
+    if (marginTotals == null) {
+      marginTotals = sumPositionMargins(accountId, asset);
     }
+    MarginBigDecimal positionMargin = marginTotals.positionMargin();
+    MarginBigDecimal uPNLofAllCrossPosition = marginTotals.crossUnrealisedPnl();
+    MarginBigDecimal orderMargin = marginTotals.orderMargin();
 
     // Get total order margin of processing market orders of this account
 //    List<Order> orders = this.orderService.processingEntities.values().stream().filter(o -> o.getAccountId().equals(accountId) && o.getType().equals(OrderType.MARKET)).toList();
@@ -298,6 +279,38 @@ public class AccountService extends BaseService<Account> {
         walletBalance.subtract(positionMargin).subtract(orderMargin), uPNLofAllCrossPosition);
   }
 
+  /** Sum the margin of the positions of the account from scratch */
+  private MarginTotals sumPositionMargins(long accountId, Asset asset) {
+    // position hold open order cost even when currentQty=0
+    List<Position> positions =
+        positionService.getUserPositions(accountId, position -> true).stream()
+            .filter(p -> p.getAsset().equals(asset))
+            .toList();
+    MarginAccumulator positionMarginSum = new MarginAccumulator();
+    MarginAccumulator uPNLofAllCrossPositionSum = new MarginAccumulator();
+    MarginAccumulator orderMarginSum = new MarginAccumulator();
+    for (Position position : positions) {
+      String symbol = position.getSymbol();
+      if (!position.getCurrentQty().isZero()) {
+        MarginCalculator marginCalculator = MarginCalculator.getCalculatorFor(symbol);
+        positionMarginSum.add(marginCalculator.calcAllocatedMargin(position));
+        if (position.isCross()) {
+          uPNLofAllCrossPositionSum.add(marginCalculator.calcUnrealisedPnl(position));
+        }
+
+        // Add tmpTotalFee if position is isolated
+        if (!position.isCross() && ObjectUtils.isNotEmpty(position.getTmpTotalFee())) {
+          positionMarginSum.add(position.getTmpTotalFee());
+        }
+
+        // Add order margin
+        orderMarginSum.add(position.getMarBuy()).add(position.getMarSel());
+      }
+    }
+    return new MarginTotals(
+        positionMarginSum.get(), orderMarginSum.get(), uPNLofAllCrossPositionSum.get());
+  }
+
   public Stream<Long> getAllInsuranceAccountId() {
     List<Long> insuranceAccounts = INSURANCE_ACCOUNT_IDS.values().stream().toList();
     return insuranceAccounts.stream();
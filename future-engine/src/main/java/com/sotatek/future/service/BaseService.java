@@ -1,12 +1,17 @@
 package com.sotatek.future.service;
 
 import com.sotatek.future.entity.BaseEntity;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
@@ -20,12 +25,16 @@ public class BaseService<T extends BaseEntity> {
   // This Map is whole all mapping entities state from DB to Matching Engine
   // It always keeps the same with state of entities on DB
   protected Map<Object, T> entities = new HashMap<>();
+  // Snapshot of processing entities at the last savepoint (commitTemporarily)
   protected Map<Object, T> temporaryEntities = new HashMap<>();
   // This Map is whole all processing entities which handling on Matching Engine at that time
   // The idea is we can change state of entity from original then we can roll back ( delete from
   // processing entity list ) if there is an error
   // or commit ( save to entities list above ) if all are done
   protected Map<Object, T> processingEntities = new HashMap<>();
+  // Keys of processing entities which have been written since the last savepoint. Only these
+  // entities need to be snapshot on commitTemporarily or restored on rollbackTemporary
+  protected Set<Object> dirtyKeys = new HashSet<>();
   protected Queue<Pair<T, Long>> removingEntities = new LinkedList<>();
 
   public BaseService(boolean needToCloneEntity) {
@@ -36,6 +45,10 @@ public class BaseService<T extends BaseEntity> {
     currentId = id;
   }
 
+  public long getCurrentId() {
+    return currentId;
+  }
+
   protected long getNextId() {
     if (currentId <= 0) {
       throw new RuntimeException("Uninitialized service, current id: " + currentId);
@@ -54,6 +67,16 @@ public class BaseService<T extends BaseEntity> {
    * @return
    */
   public T get(Object key) {
+    T entity = getStored(key);
+    if (entity == null) {
+      return null;
+    } else {
+      return this.cloneEntityIfNeeded(entity);
+    }
+  }
+
+  /** Get the stored object by key without copying it, the caller must not modify it */
+  protected T getStored(Object key) {
     T entity = this.processingEntities.get(key);
     if (entity == null) {
       entity = this.temporaryEntities.get(key);
@@ -61,11 +84,7 @@ public class BaseService<T extends BaseEntity> {
     if (entity == null) {
       entity = this.entities.get(key);
     }
-    if (entity == null) {
-      return null;
-    } else {
-      return this.cloneEntityIfNeeded(entity);
-    }
+    return entity;
   }
 
   /**
@@ -76,10 +95,16 @@ public class BaseService<T extends BaseEntity> {
    */
   public T update(T entity) {
     entity.setUpdatedAt(new Date());
-    this.processingEntities.put(entity.getKey(), entity);
+    putProcessingEntity(entity);
     return entity;
   }
 
+  /** Put entity to processing list and mark it as changed since the last savepoint */
+  protected void putProcessingEntity(T entity) {
+    this.processingEntities.put(entity.getKey(), entity);
+    this.dirtyKeys.add(entity.getKey());
+  }
+
   /**
    * Assign new ID and then put entity to processing list
    *
@@ -98,16 +123,24 @@ public class BaseService<T extends BaseEntity> {
   public void rollback() {
     temporaryEntities.clear();
     processingEntities.clear();
+    dirtyKeys.clear();
   }
 
   /**
-   * This method for roll back when at processing has error Then we clear processing entities and
-   * get back from temporary entities
+   * This method for roll back when at processing has error. Only entities which have been changed
+   * since the last savepoint are restored from temporary entities (or removed if they did not
+   * exist at the savepoint), the others are already in the savepoint state
    */
   public void rollbackTemporary() {
-    processingEntities.clear();
-    processingEntities.putAll(temporaryEntities);
-    temporaryEntities.clear();
+    for (Object key : dirtyKeys) {
+      T saved = temporaryEntities.get(key);
+      if (saved == null) {
+        processingEntities.remove(key);
+      } else {
+        processingEntities.put(key, cloneEntityIfNeeded(saved));
+      }
+    }
+    dirtyKeys.clear();
   }
 
   /**
@@ -117,11 +150,19 @@ public class BaseService<T extends BaseEntity> {
     entities.putAll(processingEntities);
     temporaryEntities.clear();
     processingEntities.clear();
+    dirtyKeys.clear();
   }
 
+  /**
+   * Create a savepoint of processing entities. Entities which have not been changed since the
+   * previous savepoint are already saved, so only the changed ones are cloned to temporary
+   * entities
+   */
   public void commitTemporarily() {
-    // clone current processing entity to temporary entity
-    getProcessingEntities().forEach(e -> temporaryEntities.put(e.getKey(), e));
+    for (Object key : dirtyKeys) {
+      temporaryEntities.put(key, cloneEntityIfNeeded(processingEntities.get(key)));
+    }
+    dirtyKeys.clear();
   }
 
   public List<T> getProcessingEntities() {
@@ -134,6 +175,11 @@ public class BaseService<T extends BaseEntity> {
     return entities.values().stream().map(this::cloneEntityIfNeeded).collect(Collectors.toList());
   }
 
+  /** Committed entities without copying, the caller must not modify them */
+  public Collection<T> getCommittedEntities() {
+    return Collections.unmodifiableCollection(entities.values());
+  }
+
   public List<T> getCurrentEntities() {
     Map<Object, T> currentEntities = new HashMap<>(entities);
     currentEntities.putAll(processingEntities);
@@ -142,10 +188,19 @@ public class BaseService<T extends BaseEntity> {
         .collect(Collectors.toList());
   }
 
+  /** Remove the committed entities which match the filter, between ticks */
+  public void removeIf(Predicate<T> filter) {
+    entities.values().removeIf(filter);
+    temporaryEntities.values().removeIf(filter);
+    processingEntities.values().removeIf(filter);
+  }
+
   public void clear() {
     entities.clear();
     temporaryEntities.clear();
     processingEntities.clear();
+    dirtyKeys.clear();
+    removingEntities.clear();
   }
 
   public void cleanOldEntities() {
@@ -7,9 +7,12 @@ import com.sotatek.future.entity.Instrument;
 import com.sotatek.future.entity.InstrumentExtraInformation;
 import com.sotatek.future.entity.Trade;
 import com.sotatek.future.exception.InstrumentNotFoundException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 
@@ -18,6 +21,10 @@ public class InstrumentService extends BaseService<Instrument> {
 
   private static final InstrumentService instance = new InstrumentService();
   protected Map<Object, InstrumentExtraInformation> extraInfoEntities = new HashMap<>();
+  private AccountMarginLedger marginLedger;
+  // Margin calculators by symbol, rebuilt when the instrument or its oracle price changes
+  private final Map<String, MarginCalculator> marginCalculators = new HashMap<>();
+  private long calculatorEpoch;
 
   private InstrumentService() {
     super(false);
@@ -27,6 +34,10 @@ public class InstrumentService extends BaseService<Instrument> {
     return instance;
   }
 
+  public void initialize(AccountMarginLedger marginLedger) {
+    this.marginLedger = marginLedger;
+  }
+
   @Override
   public Instrument get(Object key) {
     Instrument target = super.get(key);
@@ -39,9 +50,44 @@ public class InstrumentService extends BaseService<Instrument> {
   @Override
   public Instrument update(Instrument entity) {
     entity.updatePrecisions();
+    marginCalculators.remove(entity.getSymbol());
     return super.update(entity);
   }
 
+  @Override
+  public void rollback() {
+    super.rollback();
+    marginCalculators.clear();
+  }
+
+  @Override
+  public void rollbackTemporary() {
+    super.rollbackTemporary();
+    marginCalculators.clear();
+  }
+
+  @Override
+  public void removeIf(Predicate<Instrument> filter) {
+    super.removeIf(filter);
+    marginCalculators.clear();
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    marginCalculators.clear();
+  }
+
+  /** Margin calculator of the symbol, built again when the instrument or oracle price changes */
+  public MarginCalculator getMarginCalculator(String symbol) {
+    MarginCalculator calculator = marginCalculators.get(symbol);
+    if (calculator == null || calculator.isStale()) {
+      calculator = new MarginCalculator(get(symbol), getExtraInfo(symbol), ++calculatorEpoch);
+      marginCalculators.put(symbol, calculator);
+    }
+    return calculator;
+  }
+
   public InstrumentExtraInformation getExtraInfo(String symbol) {
     InstrumentExtraInformation extraInformation = extraInfoEntities.get(symbol);
     if (extraInformation != null) {
@@ -52,11 +98,22 @@ public class InstrumentService extends BaseService<Instrument> {
   }
 
   public void updateExtraInfo(InstrumentExtraInformation entity) {
-    extraInfoEntities.put(entity.getSymbol(), entity);
+    if (extraInfoEntities.put(entity.getSymbol(), entity) != entity) {
+      marginCalculators.remove(entity.getSymbol());
+    }
+    if (marginLedger != null) {
+      // Cross positions are valued at the oracle price
+      marginLedger.revalue(entity.getSymbol(), entity.getOraclePrice());
+    }
+  }
+
+  public Collection<InstrumentExtraInformation> getExtraInfos() {
+    return Collections.unmodifiableCollection(extraInfoEntities.values());
   }
 
   public void clearExtraInfo() {
     extraInfoEntities.clear();
+    marginCalculators.clear();
   }
 
   public void updateLastPrice(List<Trade> trades) {
@@ -77,6 +134,8 @@ public class InstrumentService extends BaseService<Instrument> {
       // update trailing price for all trailing stop order of that instrument
       if (ObjectUtils.isNotEmpty(trigger)) {
         trigger.updateTrailingPrice(oldInstrumentExtra, extraInformation);
+        // trigger stop orders reached by the new last price
+        trigger.startTrigger();
       }
     }
   }
@@ -404,6 +404,12 @@ public class LiquidationService {
     Long accId = initialPosition.getAccountId();
     String symbol = initialPosition.getSymbol();
     Position currentPosition = initialPosition;
+    // Pnl ranking is only refreshed for crossed positions on oracle price update,
+    // bring the whole symbol up to date before picking ADL candidates
+    positionService
+        .getOpenPositions(symbol)
+        .filter(p -> !p.getKey().equals(initialPosition.getKey()))
+        .forEach(positionService::update);
     // Continue to perform liquidation by ADL until the position is fully closed
     while (!currentPosition.getCurrentQty().eq(MarginBigDecimal.ZERO)) {
       final MarginBigDecimal liquidationPrice = currentPosition.getLiquidationPrice();
@@ -14,22 +14,51 @@ import org.jetbrains.annotations.VisibleForTesting;
 @Slf4j
 @NoArgsConstructor
 public class MarginCalculator {
+  private static final MarginBigDecimal ONE_HUNDRED = MarginBigDecimal.valueOf(100);
   private Instrument instrument;
   private InstrumentExtraInformation instrumentExtraInfo;
   private boolean isCoinM;
   // avoid get mark price from instrumentExtraInfo multiple times
   // because it can change from other thread
   private MarginBigDecimal oraclePrice;
-
-  private MarginCalculator(@NotNull String symbol) {
-    this.instrument = InstrumentService.getInstance().get(symbol);
-    this.instrumentExtraInfo = InstrumentService.getInstance().getExtraInfo(symbol);
-    this.oraclePrice = this.instrumentExtraInfo.getOraclePrice();
+  private MarginBigDecimal multiplier;
+  private MarginBigDecimal takerFeeRate;
+  private MarginBigDecimal makerFeeRate;
+  private long epoch;
+
+  MarginCalculator(
+      @NotNull Instrument instrument,
+      @NotNull InstrumentExtraInformation instrumentExtraInfo,
+      long epoch) {
+    this.instrument = instrument;
+    this.instrumentExtraInfo = instrumentExtraInfo;
+    this.oraclePrice = instrumentExtraInfo.getOraclePrice();
     this.isCoinM = ContractType.COIN_M.equals(instrument.getContractType());
+    this.multiplier = instrument.getMultiplier();
+    this.takerFeeRate = instrument.getTakerFee().divide(ONE_HUNDRED);
+    this.makerFeeRate = instrument.getMakerFee().divide(ONE_HUNDRED);
+    this.epoch = epoch;
   }
 
+  /**
+   * Calculator of the symbol, shared until the instrument or its oracle price changes. Don't keep
+   * it across commands, get it again instead
+   */
   public static MarginCalculator getCalculatorFor(String symbol) {
-    return new MarginCalculator(symbol);
+    return InstrumentService.getInstance().getMarginCalculator(symbol);
+  }
+
+  /**
+   * Increases whenever a calculator is rebuilt, so values derived from a calculator can be cached
+   * while the epoch of the symbol's calculator stays the same
+   */
+  public long getEpoch() {
+    return epoch;
+  }
+
+  /** The oracle price has been changed in place since the calculator was built */
+  boolean isStale() {
+    return instrumentExtraInfo.getOraclePrice() != oraclePrice;
   }
 
   public MarginBigDecimal getOpenSize(
@@ -90,7 +119,7 @@ public class MarginCalculator {
 
   public MarginBigDecimal calcUnrealisedPnl(Position position) {
     return MarginCalculator.calcUnrealisedPnl(
-        position, oraclePrice, this.instrument.getMultiplier());
+        position, oraclePrice, this.multiplier);
   }
 
   public static MarginBigDecimal calcUnrealisedPnl(
@@ -117,7 +146,7 @@ public class MarginCalculator {
     MarginBigDecimal multiplier = null;
     MarginBigDecimal realisedPnl;
     if (isCoinM) {
-      multiplier = this.instrument.getMultiplier();
+      multiplier = this.multiplier;
       // Realized PNL = Size * (1/ Entry price - 1/ Exit Price) * Side * Contract Multiplier
       // = Size * ((Exit Price - Entry price)/ Entry price * Exit Price) * Side * Contract
       // Multiplier
@@ -148,10 +177,9 @@ public class MarginCalculator {
   }
 
   public MarginBigDecimal getTakerFee(MarginBigDecimal price, MarginBigDecimal size) {
-    MarginBigDecimal feeRate = instrument.getTakerFee().divide(MarginBigDecimal.valueOf(100));
+    MarginBigDecimal feeRate = takerFeeRate;
     if (isCoinM) {
       // "Trading fee = Size * Contract Multiplier / Matching price * Taker/Maker fee"
-      MarginBigDecimal multiplier = this.instrument.getMultiplier();
       return size.multiply(multiplier).multiplyThenDivide(feeRate, price).abs();
     } else {
       // "Trading fee = Size * Matching price * Taker/Maker fee"
@@ -160,10 +188,9 @@ public class MarginCalculator {
   }
 
   public MarginBigDecimal getMakerFee(MarginBigDecimal price, MarginBigDecimal size) {
-    MarginBigDecimal feeRate = instrument.getMakerFee().divide(MarginBigDecimal.valueOf(100));
+    MarginBigDecimal feeRate = makerFeeRate;
     if (isCoinM) {
       // "Trading fee = Size * Contract Multiplier / Matching price * Taker/Maker fee"
-      MarginBigDecimal multiplier = this.instrument.getMultiplier();
       return size.multiply(multiplier).multiplyThenDivide(feeRate, price).abs();
     } else {
       // "Trading fee = Size * Matching price * Taker/Maker fee"
@@ -186,7 +213,6 @@ public class MarginCalculator {
 
     MarginBigDecimal margin;
     if (isCoinM) {
-      MarginBigDecimal multiplier = this.instrument.getMultiplier();
       if (position.isCross()) {
         // "Allocated Margin for Cross position
         // = Size * Contract Multiplier / (Leverage * Mark price)
@@ -222,7 +248,6 @@ public class MarginCalculator {
     if (position.isCross()) return;
 
     MarginBigDecimal margin;
-    MarginBigDecimal multiplier = this.instrument.getMultiplier();
     if (isCoinM) {
       // New Position Margin =
       // Old Position Margin + Matching amount * Contract Multiplier / (Average price * Leverage)
@@ -298,7 +323,6 @@ public class MarginCalculator {
 
   public MarginBigDecimal calcOrderMargin(Order order) {
     if (isCoinM) {
-      MarginBigDecimal multiplier = instrument.getMultiplier();
       // Margin of each open Buy/Sell order = Size * Contract Multiplier / (Leverage * Input price)
       return order
           .getRemaining()
@@ -366,7 +390,7 @@ public class MarginCalculator {
       MarginBigDecimal mulBuy,
       MarginBigDecimal mulSell,
       Order order) {
-    MarginBigDecimal multiplier = isCoinM ? this.instrument.getMultiplier() : MarginBigDecimal.ONE;
+    MarginBigDecimal multiplier = isCoinM ? this.multiplier : MarginBigDecimal.ONE;
     MarginBigDecimal markPrice = this.oraclePrice;
     MarginBigDecimal size = order.getRemaining();
     MarginBigDecimal leverage = order.getLeverage();
@@ -545,7 +569,7 @@ public class MarginCalculator {
       MarginBigDecimal mulBuy,
       MarginBigDecimal mulSell,
       Order order) {
-    MarginBigDecimal multiplier = isCoinM ? this.instrument.getMultiplier() : MarginBigDecimal.ONE;
+    MarginBigDecimal multiplier = isCoinM ? this.multiplier : MarginBigDecimal.ONE;
     MarginBigDecimal markPrice = this.oraclePrice;
     MarginBigDecimal size = order.getRemaining();
     MarginBigDecimal leverage = order.getLeverage();
@@ -563,7 +587,7 @@ public class MarginCalculator {
             // - 2 * Position Margin + MarSel - MarBuy)
             MarginBigDecimal tempVal =
                 size.multiplyThenDivide(multiplier, leverage.multiply(inputPrice))
-                    .subtract(MarginBigDecimal.valueOf(2L).multiply(positionMargin))
+                    .subtract(positionMargin.multiply(2))
                     .add(marSel)
                     .subtract(marBuy);
             orderCost = orderCost.max(tempVal);
@@ -574,7 +598,7 @@ public class MarginCalculator {
             MarginBigDecimal tempVal =
                 inputPrice
                     .multiplyThenDivide(size, leverage)
-                    .subtract(MarginBigDecimal.valueOf(2L).multiply(positionMargin))
+                    .subtract(positionMargin.multiply(2))
                     .add(marSel)
                     .subtract(marBuy);
             orderCost = orderCost.max(tempVal);
@@ -675,7 +699,7 @@ public class MarginCalculator {
             // - 2 * Position Margin + MarBuy - MarSel)
             MarginBigDecimal temVal =
                 size.multiplyThenDivide(multiplier, leverage.multiply(inputPrice))
-                    .subtract(MarginBigDecimal.valueOf(2L).multiply(positionMargin))
+                    .subtract(positionMargin.multiply(2))
                     .add(marBuy)
                     .subtract(marSel);
             orderCost = orderCost.max(temVal);
@@ -686,7 +710,7 @@ public class MarginCalculator {
             MarginBigDecimal temVal =
                 inputPrice
                     .multiplyThenDivide(size, leverage)
-                    .subtract(MarginBigDecimal.valueOf(2L).multiply(positionMargin))
+                    .subtract(positionMargin.multiply(2))
                     .add(marBuy)
                     .subtract(marSel);
             orderCost = orderCost.max(temVal);
@@ -720,7 +744,6 @@ public class MarginCalculator {
       // = Max (0; min (Allocated Margin for the position; Allocated Margin for the position +
       // Size * Contract Multiplier * (1/ Entry Price - 1/ Mark Price) * Side
       // - Size * Contract Multiplier / (Leverage * Mark price)))"
-      MarginBigDecimal multiplier = this.instrument.getMultiplier();
       MarginBigDecimal tempVal =
           sizeWithSide
               .multiply(multiplier)
@@ -749,17 +772,16 @@ public class MarginCalculator {
     if (isCoinM) {
       // Funding payment = (-1) * Position size * Contract Multiplier * Funding rate * Side / Mark
       // price
-      MarginBigDecimal multiplier = this.instrument.getMultiplier();
       return positionQuantity
           .multiply(multiplier)
-          .multiply(fundingRate.divide(MarginBigDecimal.valueOf("100")))
+          .multiply(fundingRate.divide(ONE_HUNDRED))
           .divide(oraclePrice)
           .negate();
     } else {
       // Funding payment = (-1) * Position size * Mark price * Funding rate * Side
       return oraclePrice
           .multiply(positionQuantity)
-          .multiply(fundingRate.divide(MarginBigDecimal.valueOf("100")))
+          .multiply(fundingRate.divide(ONE_HUNDRED))
           .negate();
     }
   }
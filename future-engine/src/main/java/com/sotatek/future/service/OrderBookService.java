@@ -1,6 +1,11 @@
 package com.sotatek.future.service;
 
+import static com.sotatek.future.engine.MatchingEngine.matchers;
+
+import com.sotatek.future.engine.Matcher;
 import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.util.MarginBigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import lombok.AccessLevel;
@@ -29,6 +34,22 @@ public class OrderBookService {
     processingEntities.clear();
   }
 
+  /**
+   * Get the aggregated quantity resting at a price level, maintained by the matcher's order book
+   *
+   * @param symbol
+   * @param side
+   * @param price
+   * @return
+   */
+  public MarginBigDecimal getLevelQuantity(String symbol, OrderSide side, MarginBigDecimal price) {
+    Matcher matcher = matchers.get(symbol);
+    if (matcher == null) {
+      return MarginBigDecimal.ZERO;
+    }
+    return matcher.getPendingOrdersQueue(side).getLevelQuantity(price);
+  }
+
   public List<OrderBookOutput> getProcessingEntities() {
     return new ArrayList<>(processingEntities);
   }
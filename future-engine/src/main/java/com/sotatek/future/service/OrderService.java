@@ -4,6 +4,7 @@ import static com.sotatek.future.engine.MatchingEngine.matchers;
 import static com.sotatek.future.engine.MatchingEngine.triggers;
 
 import com.sotatek.future.engine.Matcher;
+import com.sotatek.future.engine.OrderBookSide;
 import com.sotatek.future.engine.Trigger;
 import com.sotatek.future.entity.*;
 import com.sotatek.future.enums.*;
@@ -105,29 +106,39 @@ public class OrderService extends BaseService<Order> {
     super.commit();
   }
 
+  @Override
+  public void clear() {
+    super.clear();
+    currentOrders.clear();
+  }
+
   @Override
   public Order update(Order order) {
     order.setUpdatedAt(new Date());
-    this.processingEntities.put(order.getKey(), order);
+    this.putProcessingEntity(order);
     this.addCurrentOrders(order);
     return order;
   }
 
   @Override
   public void rollbackTemporary() {
-    // remove all process order
-    processingEntities
-        .values()
-        .forEach(
-            o -> {
-              Map<Long, Order> orderMap = currentOrders.get(o.getAccountId());
-              if (orderMap != null) {
-                orderMap.remove(o.getId());
-              }
-            });
-    // add back all order with old state
-    temporaryEntities.values().forEach(this::addCurrentOrders);
+    List<Object> changedKeys = new ArrayList<>(dirtyKeys);
+    // remove all orders changed since the savepoint
+    for (Object key : changedKeys) {
+      Order order = processingEntities.get(key);
+      Map<Long, Order> orderMap = currentOrders.get(order.getAccountId());
+      if (orderMap != null) {
+        orderMap.remove(order.getId());
+      }
+    }
     super.rollbackTemporary();
+    // add back those orders with old state
+    for (Object key : changedKeys) {
+      Order order = processingEntities.get(key);
+      if (order != null) {
+        addCurrentOrders(order);
+      }
+    }
   }
 
   private void addCurrentOrders(Order order) {
@@ -141,7 +152,7 @@ public class OrderService extends BaseService<Order> {
   }
 
   public Order updateWithoutUpdateAt(Order order) {
-    this.processingEntities.put(order.getKey(), order);
+    this.putProcessingEntity(order);
     return order;
   }
 
@@ -689,9 +700,9 @@ public class OrderService extends BaseService<Order> {
 
     // side of a position change when [before quantity * after quantity < 0]
     boolean isChangeSideOfBuyPosition =
-        buyPosition.getCurrentQty().multiply(beforeBuyPosition.getCurrentQty()).lt(0);
+        buyPosition.getCurrentQty().multiplySign(beforeBuyPosition.getCurrentQty()) < 0;
     boolean isChangeSideOfSellPosition =
-        sellPosition.getCurrentQty().multiply(beforeSellPosition.getCurrentQty()).lt(0);
+        sellPosition.getCurrentQty().multiplySign(beforeSellPosition.getCurrentQty()) < 0;
     log.debug(
         "executeTrade isChangeSideOfBuyPosition {},  isChangeSideOfSellPosition {}",
         isChangeSideOfBuyPosition,
@@ -1263,7 +1274,7 @@ public class OrderService extends BaseService<Order> {
    * @param orderQueue
    * @return
    */
-  public MarginBigDecimal calculateLockPrice(Order order, TreeSet<Order> orderQueue) {
+  public MarginBigDecimal calculateLockPrice(Order order, OrderBookSide orderQueue) {
     // order is limit then lock price = input price
     if (order.isLimitOrder()) {
       return order.getPrice();
@@ -1283,7 +1294,7 @@ public class OrderService extends BaseService<Order> {
    * @param orderQueue
    * @return
    */
-  public MarginBigDecimal calculateMarketLockPrice(Order order, TreeSet<Order> orderQueue) {
+  public MarginBigDecimal calculateMarketLockPrice(Order order, OrderBookSide orderQueue) {
     Order firstOrder = orderQueue.first();
     // buy order
     if (order.isBuyOrder()) {
@@ -1599,6 +1610,10 @@ public class OrderService extends BaseService<Order> {
     this.liquidationOrderIdPool.addAll(liqOrderIds.stream().toList());
   }
 
+  public Set<Long> getLiquidationOrderIds() {
+    return Collections.unmodifiableSet(liquidationOrderIdPool);
+  }
+
   public boolean shouldSeedLiquidationOrderIdPool() {
       return this.liquidationOrderIdPool.size() <= 700;
   }
@@ -3,8 +3,10 @@ package com.sotatek.future.service;
 import com.google.common.base.Preconditions;
 import com.sotatek.future.entity.InstrumentExtraInformation;
 import com.sotatek.future.entity.Position;
+import com.sotatek.future.util.MarginAccumulator;
 import com.sotatek.future.util.MarginBigDecimal;
 import com.sotatek.future.value.LeverageMarginRule;
+import com.sotatek.future.value.PriceRange;
 import java.util.List;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
@@ -458,30 +460,35 @@ public class PositionCalculator {
 
   @NotNull
   private MarginBigDecimal getIsolatedPositionMargin(List<Position> otherPositions) {
-    return otherPositions.stream()
-        .filter(p -> !p.isCross())
-        .map(
-            p -> {
-              MarginCalculator marginCalculator = MarginCalculator.getCalculatorFor(p.getSymbol());
-              return marginCalculator.calcAllocatedMargin(p);
-            })
-        .reduce(MarginBigDecimal.ZERO, (a, b) -> a.add(b));
+    MarginAccumulator margin = new MarginAccumulator();
+    for (Position p : otherPositions) {
+      if (!p.isCross()) {
+        margin.add(MarginCalculator.getCalculatorFor(p.getSymbol()).calcAllocatedMargin(p));
+      }
+    }
+    return margin.get();
   }
 
   @NotNull
   private MarginBigDecimal getUnrealizedPNL(List<Position> otherPositions) {
-    return otherPositions.stream()
-        .filter(Position::isCross)
-        .map(this::getUnrealizedPNL)
-        .reduce(MarginBigDecimal.ZERO, (a, b) -> a.add(b));
+    MarginAccumulator pnl = new MarginAccumulator();
+    for (Position p : otherPositions) {
+      if (p.isCross()) {
+        pnl.add(getUnrealizedPNL(p));
+      }
+    }
+    return pnl.get();
   }
 
   @NotNull
   private MarginBigDecimal getTotalMaintenanceMargin(List<Position> otherPositions) {
-    return otherPositions.stream()
-        .filter(Position::isCross)
-        .map(this::getMaintenanceMargin)
-        .reduce(MarginBigDecimal.ZERO, (a, b) -> a.add(b));
+    MarginAccumulator maintenanceMargin = new MarginAccumulator();
+    for (Position p : otherPositions) {
+      if (p.isCross()) {
+        maintenanceMargin.add(getMaintenanceMargin(p));
+      }
+    }
+    return maintenanceMargin.get();
   }
 
   @NotNull
@@ -588,6 +595,69 @@ public class PositionCalculator {
     return tradingRule;
   }
 
+  /**
+   * Oracle prices between which a position keeps its leverage tier and, if isolated, its
+   * maintenance state. Returns null if the tier does not contain the position value at the mark
+   * price, e.g. the default tier of the symbol
+   */
+  public PriceRange getTradingRulePriceRange(
+      Position position,
+      LeverageMarginRule tradingRule,
+      boolean underMaintenance,
+      MarginBigDecimal markPrice) {
+    if (!tradingRule.maxPosition().gt(0)) {
+      return null;
+    }
+    MarginBigDecimal size = position.getCurrentQty().abs();
+    MarginBigDecimal low;
+    MarginBigDecimal high;
+    MarginBigDecimal contracts = null;
+    if (position.isCoinM()) {
+      // Value = Size * Contract Multiplier / Mark price, so a higher price means a lower tier
+      contracts = size.multiply(getContractMultiplier(position));
+      low = contracts.divide(tradingRule.maxPosition());
+      high =
+          tradingRule.minPosition().gt(0) ? contracts.divide(tradingRule.minPosition()) : null;
+    } else {
+      // Value = Size * Mark price
+      low = tradingRule.minPosition().divide(size);
+      high = tradingRule.maxPosition().divide(size);
+    }
+    if (markPrice.lt(low) || (high != null && markPrice.gt(high))) {
+      return null;
+    }
+    MarginBigDecimal mmr = tradingRule.maintenanceMarginRate();
+    if (!position.isIsolated() || !mmr.gt(0)) {
+      return new PriceRange(low, high);
+    }
+    // Under maintenance when Margin <= Maintenance Margin - see getMaintenanceMargin
+    MarginBigDecimal margin =
+        position
+            .getPositionMargin()
+            .add(position.getAdjustMargin())
+            .add(tradingRule.maintenanceAmount());
+    if (position.isCoinM()) {
+      if (margin.gt(0)) {
+        // At or below Size * Contract Multiplier * MMR / Margin
+        MarginBigDecimal threshold = contracts.multiply(mmr).divide(margin);
+        if (underMaintenance) {
+          high = high == null ? threshold : high.min(threshold);
+        } else {
+          low = low.max(threshold);
+        }
+      }
+    } else {
+      // At or above Margin / (Size * MMR)
+      MarginBigDecimal threshold = margin.divide(size.multiply(mmr));
+      if (underMaintenance) {
+        low = low.max(threshold);
+      } else {
+        high = high.min(threshold);
+      }
+    }
+    return new PriceRange(low, high);
+  }
+
   public MarginBigDecimal getClearanceFee(
       Position liquidatedPosition, MarginBigDecimal size, MarginBigDecimal price) {
     if (price.eq(MarginBigDecimal.ZERO)) {
@@ -720,11 +790,12 @@ public class PositionCalculator {
   }
 
   public MarginBigDecimal getIsolatedPositionMargin(Long accountId) {
-    return positionService
-        .getUserPositions(accountId, p -> !p.getCurrentQty().eq(0) && p.isIsolated())
-        .stream()
-        .map(p -> p.getPositionMargin().add(p.getAdjustMargin()))
-        .reduce(MarginBigDecimal::add)
-        .orElse(MarginBigDecimal.ZERO);
+    MarginAccumulator margin = new MarginAccumulator();
+    for (Position p :
+        positionService.getUserPositions(
+            accountId, p -> !p.getCurrentQty().isZero() && p.isIsolated())) {
+      margin.add(p.getPositionMargin()).add(p.getAdjustMargin());
+    }
+    return margin.get();
   }
 }
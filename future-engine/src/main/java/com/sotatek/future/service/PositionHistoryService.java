@@ -5,12 +5,12 @@ import com.sotatek.future.entity.PositionHistory;
 import com.sotatek.future.enums.PositionHistoryAction;
 import com.sotatek.future.util.MarginBigDecimal;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -20,7 +20,10 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
 
   private static final PositionHistoryService instance = new PositionHistoryService();
 
-  protected Map<Long, List<PositionHistory>> positionHistoryMap = new HashMap<>();
+  // Histories of each position by creation time, histories created at the same time are kept in
+  // the order they have been committed
+  protected Map<Long, NavigableMap<Long, List<PositionHistory>>> positionHistoryMap =
+      new HashMap<>();
   private static int fundingPeriodSecond = 60 * 1000;
   private static int fundingInterval8Hour = 60 * 60 * 8 * 1000;
   private static long expireEntityPeriodMili = 86400 * 1000; // 1 day
@@ -46,12 +49,10 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
   public void commit() {
     for (var entry : processingEntities.entrySet()) {
       PositionHistory entity = entry.getValue();
-      List<PositionHistory> histories = positionHistoryMap.get(entity.getPositionId());
-      if (histories == null) {
-        histories = new ArrayList<>();
-        positionHistoryMap.put(entity.getPositionId(), histories);
-      }
-      histories.add(entity);
+      positionHistoryMap
+          .computeIfAbsent(entity.getPositionId(), positionId -> new TreeMap<>())
+          .computeIfAbsent(entity.getCreatedAt().getTime(), time -> new ArrayList<>())
+          .add(entity);
     }
     processingEntities.clear();
   }
@@ -68,6 +69,7 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
 
   @Override
   public void clear() {
+    super.clear();
     positionHistoryMap.clear();
   }
 
@@ -97,7 +99,7 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
    * @return
    */
   public MarginBigDecimal getPositionHistoryQuantity(Position position, Date date) {
-    List<PositionHistory> histories = positionHistoryMap.get(position.getId());
+    NavigableMap<Long, List<PositionHistory>> histories = positionHistoryMap.get(position.getId());
     if (ObjectUtils.isEmpty(histories)) {
       return position.getCurrentQty();
     }
@@ -106,34 +108,24 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
     long start = date.getTime() - fundingPeriodSecond;
     long end = date.getTime() + fundingPeriodSecond;
 
-    List<PositionHistory> history =
-        histories.stream()
-            .filter(
-                p ->
-                    p.getCreatedAt().getTime() >= startFundingInterval
-                        && p.getCreatedAt().getTime() <= end)
-            .sorted(Comparator.comparing(PositionHistory::getCreatedAt).reversed())
-            .collect(Collectors.toList());
+    Map.Entry<Long, List<PositionHistory>> nearest = histories.floorEntry(end);
+    if (nearest != null && nearest.getKey() < startFundingInterval) {
+      nearest = null;
+    }
 
     log.atDebug()
         .addKeyValue("startFundingInterval", startFundingInterval)
         .addKeyValue("end", end)
-        .addKeyValue("history", history)
+        .addKeyValue("history", nearest)
         .addKeyValue("positionId", position.getId())
         .log("found history for position");
 
-    if (history != null && history.size() != 0) {
-      PositionHistory nearestHistory = history.get(0);
+    if (nearest != null) {
+      PositionHistory nearestHistory = nearest.getValue().get(0);
       if (nearestHistory.getCurrentQtyAfter().eq(0)) {
-        if (nearestHistory.getCreatedAt().getTime() >= start
-            && nearestHistory.getCreatedAt().getTime() <= end) {
+        if (nearest.getKey() >= start) {
           // lookup first history
-          PositionHistory firstHistoryInRange =
-              history.stream()
-                  .filter(
-                      p -> p.getCreatedAt().getTime() >= start && p.getCreatedAt().getTime() <= end)
-                  .min(Comparator.comparing(PositionHistory::getCreatedAt))
-                  .orElse(nearestHistory);
+          PositionHistory firstHistoryInRange = histories.ceilingEntry(start).getValue().get(0);
           // return current before
           return firstHistoryInRange.getCurrentQty();
         } else {
@@ -144,11 +136,8 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
         return nearestHistory.getCurrentQtyAfter();
       }
     } else {
-      PositionHistory futureHistory =
-          histories.stream()
-              .filter(p -> p.getCreatedAt().getTime() > end)
-              .min(Comparator.comparing(PositionHistory::getCreatedAt))
-              .orElse(null);
+      Map.Entry<Long, List<PositionHistory>> future = histories.higherEntry(end);
+      PositionHistory futureHistory = future == null ? null : future.getValue().get(0);
 
       log.atDebug()
           .addKeyValue("futureHistory", futureHistory)
@@ -178,9 +167,17 @@ public class PositionHistoryService extends BaseService<PositionHistory> {
     Pair<PositionHistory, Long> oldEntity = removingEntities.peek();
     while (oldEntity != null && oldEntity.getRight() < System.currentTimeMillis()) {
       PositionHistory entity = oldEntity.getLeft();
-      List<PositionHistory> histories = positionHistoryMap.get(entity.getPositionId());
+      NavigableMap<Long, List<PositionHistory>> histories =
+          positionHistoryMap.get(entity.getPositionId());
       if (histories != null) {
-        histories.remove(entity);
+        long time = entity.getCreatedAt().getTime();
+        List<PositionHistory> sameTime = histories.get(time);
+        if (sameTime != null && sameTime.remove(entity) && sameTime.isEmpty()) {
+          histories.remove(time);
+          if (histories.isEmpty()) {
+            positionHistoryMap.remove(entity.getPositionId());
+          }
+        }
       }
       removingEntities.remove();
       oldEntity = removingEntities.peek();
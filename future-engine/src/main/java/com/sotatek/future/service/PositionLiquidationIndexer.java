@@ -0,0 +1,202 @@
+package com.sotatek.future.service;
+
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.value.LeverageMarginRule;
+import com.sotatek.future.value.PriceRange;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Indexer for maintaining liquidation price index for each symbol, so that an oracle price update
+ * only needs to look at the positions whose liquidation price, leverage tier bounds or maintenance
+ * threshold has been crossed
+ */
+public class PositionLiquidationIndexer {
+
+  private final Map<String, SymbolLiquidationIndex> symbolIndices = new HashMap<>();
+  // Current index value of each position by position key, used to remove the old value on update
+  private final Map<String, PositionLiquidationIndexValue> indexValues = new HashMap<>();
+
+  /**
+   * Index the liquidation data of a position, with the leverage tier and maintenance state it has
+   * been calculated with and the oracle prices between which they hold, so that an oracle price
+   * update can tell which positions to re-calculate. A null price range is checked on each update
+   */
+  public void updateLiquidationIndex(
+      Position p,
+      boolean underMaintenance,
+      LeverageMarginRule tradingRule,
+      PriceRange tradingRulePriceRange) {
+    String key = p.getKey();
+    removeLiquidationIndex(key);
+    MarginBigDecimal currentQty = p.getCurrentQty();
+    if (currentQty.eq(MarginBigDecimal.ZERO)) {
+      return;
+    }
+    MarginBigDecimal liquidationPrice = p.getLiquidationPrice();
+    if (liquidationPrice != null && liquidationPrice.lte(MarginBigDecimal.ZERO)) {
+      // Negative liquidation price is never crossed
+      liquidationPrice = null;
+    }
+    PositionLiquidationIndexValue value =
+        new PositionLiquidationIndexValue(
+            p.getAccountId(),
+            p.getSymbol(),
+            currentQty.gt(MarginBigDecimal.ZERO),
+            liquidationPrice,
+            underMaintenance,
+            tradingRule,
+            tradingRulePriceRange);
+    indexValues.put(key, value);
+    symbolIndices
+        .computeIfAbsent(p.getSymbol(), symbol -> new SymbolLiquidationIndex())
+        .add(key, value);
+  }
+
+  public void removeLiquidationIndex(String key) {
+    PositionLiquidationIndexValue oldValue = indexValues.remove(key);
+    if (oldValue != null) {
+      symbolIndices.get(oldValue.symbol()).remove(key, oldValue);
+    }
+  }
+
+  /**
+   * Return the positions of a symbol which may be liquidated at the oracle price: long positions
+   * with liquidation price above it, short positions with liquidation price below it and isolated
+   * positions whose margin is under maintenance margin. The most crossed positions come first
+   */
+  public List<String> getCrossedPositions(String symbol, MarginBigDecimal oraclePrice) {
+    SymbolLiquidationIndex index = symbolIndices.get(symbol);
+    if (index == null) {
+      return List.of();
+    }
+    Set<String> keys = new LinkedHashSet<>();
+    index.longIndex.tailMap(oraclePrice, false).descendingMap().values().forEach(keys::addAll);
+    index.shortIndex.headMap(oraclePrice, false).values().forEach(keys::addAll);
+    keys.addAll(index.underMaintenance);
+    return new ArrayList<>(keys);
+  }
+
+  /**
+   * Return the positions of a symbol whose leverage tier or maintenance state may have changed at
+   * the oracle price, as it is not inside the price range they have been indexed with
+   */
+  public List<String> getTradingRuleCrossedPositions(String symbol, MarginBigDecimal oraclePrice) {
+    SymbolLiquidationIndex index = symbolIndices.get(symbol);
+    if (index == null) {
+      return List.of();
+    }
+    Set<String> keys = new LinkedHashSet<>(index.unboundedTradingRule);
+    index.tradingRuleLows.tailMap(oraclePrice, true).values().forEach(keys::addAll);
+    index.tradingRuleHighs.headMap(oraclePrice, true).values().forEach(keys::addAll);
+    return new ArrayList<>(keys);
+  }
+
+  public List<String> getOpenPositions(String symbol) {
+    SymbolLiquidationIndex index = symbolIndices.get(symbol);
+    return index == null ? List.of() : new ArrayList<>(index.openPositions);
+  }
+
+  /** Return the index value of an open position, or null if the position is not indexed */
+  public PositionLiquidationIndexValue getIndexValue(String key) {
+    return indexValues.get(key);
+  }
+
+  public void clear() {
+    symbolIndices.clear();
+    indexValues.clear();
+  }
+
+  record PositionLiquidationIndexValue(
+      Long accountId,
+      String symbol,
+      boolean longPosition,
+      MarginBigDecimal liquidationPrice,
+      boolean underMaintenance,
+      LeverageMarginRule tradingRule,
+      PriceRange tradingRulePriceRange) {}
+
+  private static class SymbolLiquidationIndex {
+    // Keys of open positions grouped by liquidation price, 1 index for each side
+    private final NavigableMap<MarginBigDecimal, Set<String>> longIndex = new TreeMap<>();
+    private final NavigableMap<MarginBigDecimal, Set<String>> shortIndex = new TreeMap<>();
+    private final Set<String> underMaintenance = new HashSet<>();
+    private final Set<String> openPositions = new LinkedHashSet<>();
+    // Keys of open positions grouped by the bounds of their trading rule price range
+    private final NavigableMap<MarginBigDecimal, Set<String>> tradingRuleLows = new TreeMap<>();
+    private final NavigableMap<MarginBigDecimal, Set<String>> tradingRuleHighs = new TreeMap<>();
+    private final Set<String> unboundedTradingRule = new HashSet<>();
+
+    private void add(String key, PositionLiquidationIndexValue value) {
+      openPositions.add(key);
+      if (value.liquidationPrice() != null) {
+        getSideIndex(value)
+            .computeIfAbsent(value.liquidationPrice(), p -> new HashSet<>())
+            .add(key);
+      }
+      // Negative liquidation price means the position is not liquidated
+      if (value.underMaintenance() && value.liquidationPrice() != null) {
+        underMaintenance.add(key);
+      }
+      PriceRange range = value.tradingRulePriceRange();
+      if (range == null) {
+        unboundedTradingRule.add(key);
+        return;
+      }
+      addKey(tradingRuleLows, range.low(), key);
+      addKey(tradingRuleHighs, range.high(), key);
+    }
+
+    private void remove(String key, PositionLiquidationIndexValue value) {
+      openPositions.remove(key);
+      underMaintenance.remove(key);
+      if (value.liquidationPrice() != null) {
+        NavigableMap<MarginBigDecimal, Set<String>> sideIndex = getSideIndex(value);
+        Set<String> keys = sideIndex.get(value.liquidationPrice());
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          sideIndex.remove(value.liquidationPrice());
+        }
+      }
+      PriceRange range = value.tradingRulePriceRange();
+      if (range == null) {
+        unboundedTradingRule.remove(key);
+        return;
+      }
+      removeKey(tradingRuleLows, range.low(), key);
+      removeKey(tradingRuleHighs, range.high(), key);
+    }
+
+    private static void addKey(
+        NavigableMap<MarginBigDecimal, Set<String>> index, MarginBigDecimal price, String key) {
+      if (price != null) {
+        index.computeIfAbsent(price, p -> new HashSet<>()).add(key);
+      }
+    }
+
+    private static void removeKey(
+        NavigableMap<MarginBigDecimal, Set<String>> index, MarginBigDecimal price, String key) {
+      if (price == null) {
+        return;
+      }
+      Set<String> keys = index.get(price);
+      keys.remove(key);
+      if (keys.isEmpty()) {
+        index.remove(price);
+      }
+    }
+
+    private NavigableMap<MarginBigDecimal, Set<String>> getSideIndex(
+        PositionLiquidationIndexValue value) {
+      return value.longPosition() ? longIndex : shortIndex;
+    }
+  }
+}
@@ -1,17 +1,20 @@
 package com.sotatek.future.service;
 
 import com.sotatek.future.entity.Account;
-import com.sotatek.future.entity.Instrument;
 import com.sotatek.future.entity.InstrumentExtraInformation;
 import com.sotatek.future.entity.Position;
 import com.sotatek.future.enums.Asset;
+import com.sotatek.future.service.PositionLiquidationIndexer.PositionLiquidationIndexValue;
 import com.sotatek.future.service.PositionPnlRankingIndexer.PositionPnlIndexValue;
 import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.value.LeverageMarginRule;
+import com.sotatek.future.value.PriceRange;
 
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -19,6 +22,22 @@ public class PositionService extends BaseService<Position> {
 
   private PositionPnlRankingIndexer pnlRankingIndexer;
 
+  private PositionLiquidationIndexer liquidationIndexer;
+
+  // Kept with the positions it sums, so that it outlives a re-initialization of the services
+  @Getter private final AccountMarginLedger marginLedger = new AccountMarginLedger();
+
+  // Symbols of the positions held by each account, including positions which have been closed
+  // but may still hold open order margin
+  private final Map<Long, Set<String>> accountSymbols = new HashMap<>();
+
+  // Keys of the positions of each symbol, including closed positions
+  private final Map<String, Set<String>> symbolPositions = new HashMap<>();
+
+  // Accounts whose wallet balance has changed since their cross positions have been updated. The
+  // liquidation data of these positions is re-calculated once, before it is read or committed
+  private final Set<Long> dirtyCrossAccounts = new LinkedHashSet<>();
+
   private static final PositionService instance = new PositionService();
 
   private InstrumentService instrumentService;
@@ -39,11 +58,13 @@ public class PositionService extends BaseService<Position> {
       InstrumentService instrumentService,
       AccountService accountService,
       PositionCalculator positionCalculator,
-      PositionPnlRankingIndexer pnlRankingIndexer) {
+      PositionPnlRankingIndexer pnlRankingIndexer,
+      PositionLiquidationIndexer liquidationIndexer) {
     this.instrumentService = instrumentService;
     this.positionCalculator = positionCalculator;
     this.accountService = accountService;
     this.pnlRankingIndexer = pnlRankingIndexer;
+    this.liquidationIndexer = liquidationIndexer;
   }
 
   @Override
@@ -53,9 +74,68 @@ public class PositionService extends BaseService<Position> {
     // Persisted object
     Position updated = super.update(entity);
     pnlRankingIndexer.updatePnlRankingIndex(updated);
+    updateLiquidationIndex(updated);
+    marginLedger.update(updated);
+    accountSymbols
+        .computeIfAbsent(updated.getAccountId(), accountId -> new TreeSet<>())
+        .add(updated.getSymbol());
+    symbolPositions
+        .computeIfAbsent(updated.getSymbol(), symbol -> new LinkedHashSet<>())
+        .add(updated.getKey());
     return updated;
   }
 
+  @Override
+  public void commit() {
+    updateDirtyCrossPositions();
+    super.commit();
+  }
+
+  @Override
+  public void commitTemporarily() {
+    updateDirtyCrossPositions();
+    super.commitTemporarily();
+  }
+
+  @Override
+  public void rollback() {
+    List<Position> positions = new ArrayList<>(processingEntities.values());
+    super.rollback();
+    positions.forEach(this::reindex);
+    // The balances are rolled back with the positions
+    dirtyCrossAccounts.clear();
+  }
+
+  @Override
+  public void rollbackTemporary() {
+    List<Position> positions = dirtyKeys.stream().map(processingEntities::get).toList();
+    super.rollbackTemporary();
+    positions.forEach(this::reindex);
+    // Accounts marked before the savepoint have been updated when it was created
+    dirtyCrossAccounts.clear();
+  }
+
+  @Override
+  public void removeIf(Predicate<Position> filter) {
+    List<Position> positions =
+        Stream.of(entities, temporaryEntities, processingEntities)
+            .flatMap(map -> map.values().stream())
+            .filter(filter)
+            .toList();
+    super.removeIf(filter);
+    positions.forEach(this::reindex);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    liquidationIndexer.clear();
+    marginLedger.clear();
+    accountSymbols.clear();
+    symbolPositions.clear();
+    dirtyCrossAccounts.clear();
+  }
+
   public Position get(long accountId, String symbol) {
     return get(Position.getKey(accountId, symbol));
   }
@@ -90,13 +170,118 @@ public class PositionService extends BaseService<Position> {
     }
   }
 
+  // Restore the indices of a rolled-back position to the state it has been restored to
+  private void reindex(Position rolledBack) {
+    Position position = get(rolledBack.getKey());
+    if (position != null) {
+      updateLiquidationIndex(position);
+      marginLedger.update(position);
+      return;
+    }
+    // Position was inserted after the savepoint, or has been removed
+    liquidationIndexer.removeLiquidationIndex(rolledBack.getKey());
+    marginLedger.remove(rolledBack.getKey());
+    Set<String> symbols = accountSymbols.get(rolledBack.getAccountId());
+    if (symbols != null) {
+      symbols.remove(rolledBack.getSymbol());
+      if (symbols.isEmpty()) {
+        accountSymbols.remove(rolledBack.getAccountId());
+      }
+    }
+    Set<String> keys = symbolPositions.get(rolledBack.getSymbol());
+    if (keys != null) {
+      keys.remove(rolledBack.getKey());
+      if (keys.isEmpty()) {
+        symbolPositions.remove(rolledBack.getSymbol());
+      }
+    }
+  }
+
+  private void updateLiquidationIndex(Position position) {
+    boolean underMaintenance = isUnderMaintenance(position);
+    LeverageMarginRule tradingRule = getTradingRule(position);
+    liquidationIndexer.updateLiquidationIndex(
+        position,
+        underMaintenance,
+        tradingRule,
+        getTradingRulePriceRange(position, tradingRule, underMaintenance));
+  }
+
+  /** Leverage tier of an open position at the current oracle price */
+  private LeverageMarginRule getTradingRule(Position position) {
+    if (position.getCurrentQty().eq(MarginBigDecimal.ZERO)) {
+      return null;
+    }
+    try {
+      InstrumentExtraInformation extraInfo = instrumentService.getExtraInfo(position.getSymbol());
+      return extraInfo == null
+          ? null
+          : positionCalculator.getTradingRule(position, extraInfo.getOraclePrice());
+    } catch (Exception e) {
+      log.atError()
+          .setCause(e)
+          .addKeyValue("accId", position.getAccountId())
+          .addKeyValue("symbol", position.getSymbol())
+          .log("Exception when getting position leverage tier");
+      return null;
+    }
+  }
+
+  /** Oracle prices between which the leverage tier and maintenance state of a position hold */
+  private PriceRange getTradingRulePriceRange(
+      Position position, LeverageMarginRule tradingRule, boolean underMaintenance) {
+    if (tradingRule == null) {
+      return null;
+    }
+    try {
+      InstrumentExtraInformation extraInfo = instrumentService.getExtraInfo(position.getSymbol());
+      return extraInfo == null
+          ? null
+          : positionCalculator.getTradingRulePriceRange(
+              position, tradingRule, underMaintenance, extraInfo.getOraclePrice());
+    } catch (Exception e) {
+      log.atError()
+          .setCause(e)
+          .addKeyValue("accId", position.getAccountId())
+          .addKeyValue("symbol", position.getSymbol())
+          .log("Exception when getting position leverage tier price range");
+      return null;
+    }
+  }
+
+  /** Isolated position whose allocated margin is not above maintenance margin at any price */
+  private boolean isUnderMaintenance(Position position) {
+    if (!position.isIsolated() || position.getCurrentQty().eq(MarginBigDecimal.ZERO)) {
+      return false;
+    }
+    try {
+      MarginBigDecimal allocatedMargin =
+          position.getPositionMargin().add(position.getAdjustMargin());
+      return allocatedMargin.lte(positionCalculator.getMaintenanceMargin(position));
+    } catch (Exception e) {
+      log.atError()
+          .setCause(e)
+          .addKeyValue("accId", position.getAccountId())
+          .addKeyValue("symbol", position.getSymbol())
+          .log("Exception when checking position maintenance margin");
+      return false;
+    }
+  }
+
   public Stream<Position> getOpenPositions(String symbol) {
-    return getCurrentEntities().stream()
-        .filter(position -> !position.getCurrentQty().eq(0) && position.getSymbol().equals(symbol));
+    return liquidationIndexer.getOpenPositions(symbol).stream()
+        .map(this::get)
+        .filter(position -> position != null && !position.getCurrentQty().eq(0));
   }
 
+  /** Positions of a symbol, including closed positions, in the order they have been created */
   public Stream<Position> getPositions(String symbol) {
-    return getCurrentEntities().stream().filter(position -> position.getSymbol().equals(symbol));
+    Set<String> keys = symbolPositions.get(symbol);
+    if (keys == null) {
+      return Stream.empty();
+    }
+    // Copy of the keys, since callers may update positions while iterating
+    return new ArrayList<>(keys).stream().map(this::get).filter(Objects::nonNull);
   }
 
   public List<Position> getUserPositions(Long accountId) {
@@ -104,12 +289,9 @@ public class PositionService extends BaseService<Position> {
   }
 
   public List<Position> getUserPositions(Long accountId, Predicate<Position> predicate) {
-    List<Instrument> instruments = instrumentService.getEntities();
-
     List<Position> positions = new ArrayList<>();
-    for (Instrument instrument : instruments) {
-      Position position = this.get(accountId, instrument.getSymbol());
-      // get only open position
+    for (String symbol : getUserSymbols(accountId)) {
+      Position position = this.get(accountId, symbol);
       if (position != null && predicate.test(position)) {
         positions.add(position);
       }
@@ -118,10 +300,8 @@ public class PositionService extends BaseService<Position> {
   }
 
   public void updateUserPosition(Long accountId, Consumer<Position> consumer) {
-    List<Instrument> instruments = instrumentService.getEntities();
-
-    for (Instrument instrument : instruments) {
-      Position position = this.get(accountId, instrument.getSymbol());
+    for (String symbol : getUserSymbols(accountId)) {
+      Position position = this.get(accountId, symbol);
       // get only open position
       if (position != null && !position.getCurrentQty().eq(0)) {
         consumer.accept(position);
@@ -129,6 +309,35 @@ public class PositionService extends BaseService<Position> {
     }
   }
 
+  /** Re-calculate the liquidation data of the cross positions of the account later */
+  public void markCrossPositionsDirty(Long accountId) {
+    dirtyCrossAccounts.add(accountId);
+  }
+
+  /** Re-calculate the liquidation data of the cross positions of the marked accounts */
+  public void updateDirtyCrossPositions() {
+    if (dirtyCrossAccounts.isEmpty()) {
+      return;
+    }
+    List<Long> accountIds = new ArrayList<>(dirtyCrossAccounts);
+    dirtyCrossAccounts.clear();
+    for (Long accountId : accountIds) {
+      updateUserPosition(
+          accountId,
+          p -> {
+            if (p.isCross()) {
+              update(p);
+            }
+          });
+    }
+  }
+
+  // Copy of the indexed symbols, since callers may update positions while iterating
+  private List<String> getUserSymbols(Long accountId) {
+    Set<String> symbols = accountSymbols.get(accountId);
+    return symbols == null ? List.of() : new ArrayList<>(symbols);
+  }
+
   private MarginBigDecimal getLiquidationPrice(Position position) {
     MarginCalculator marginCalculator = MarginCalculator.getCalculatorFor(position.getSymbol());
     marginCalculator.calcAllocatedMargin(position);
@@ -180,20 +389,69 @@ public class PositionService extends BaseService<Position> {
   }
 
   public Optional<Position> getPositionForAdl(String symbol, boolean longPosition) {
+    updateDirtyCrossPositions();
     Optional<PositionPnlIndexValue> candidate = pnlRankingIndexer.poll(symbol, longPosition);
     return candidate.map(v -> get(v.getAccountId(), v.getSymbol()));
   }
 
+  /**
+   * Re-calculate the liquidation data which depends on the oracle price of a symbol: the positions
+   * of the symbol which may be liquidated at this price or whose leverage tier or maintenance state
+   * has changed, and the cross positions on other symbols of the accounts whose positions have
+   * changed. The liquidation price of a cross position includes the maintenance margin of the
+   * other positions
+   */
   public void updateLiquidationData(String symbol) {
-    getOpenPositions(symbol).forEach(this::update);
+    updateDirtyCrossPositions();
+    MarginBigDecimal oraclePrice = instrumentService.getExtraInfo(symbol).getOraclePrice();
+    Set<String> keys =
+        new LinkedHashSet<>(liquidationIndexer.getCrossedPositions(symbol, oraclePrice));
+    for (String key : liquidationIndexer.getTradingRuleCrossedPositions(symbol, oraclePrice)) {
+      PositionLiquidationIndexValue value = liquidationIndexer.getIndexValue(key);
+      // The price range may be left at its bounds without changing the tier
+      Position position = getStored(key);
+      if (position != null
+          && (!Objects.equals(getTradingRule(position), value.tradingRule())
+              || isUnderMaintenance(position) != value.underMaintenance())) {
+        keys.add(key);
+      }
+    }
+    Set<Long> accountIds = new LinkedHashSet<>();
+    for (String key : keys) {
+      Position position = get(key);
+      if (position == null) {
+        continue;
+      }
+      PositionLiquidationIndexValue value = liquidationIndexer.getIndexValue(key);
+      update(position);
+      if (!Objects.equals(value, liquidationIndexer.getIndexValue(key))) {
+        accountIds.add(position.getAccountId());
+      }
+    }
+    for (Long accountId : accountIds) {
+      for (String otherSymbol : getUserSymbols(accountId)) {
+        if (otherSymbol.equals(symbol)) {
+          continue;
+        }
+        Position position = get(Position.getKey(accountId, otherSymbol));
+        if (position != null && position.isCross() && !position.getCurrentQty().eq(0)) {
+          update(position);
+        }
+      }
+    }
   }
 
   public Stream<Position> getLiquidablePositionsForSymbol(String symbol) {
-    return getOpenPositions(symbol).filter(this::checkLiquidable);
+    updateDirtyCrossPositions();
+    MarginBigDecimal oraclePrice = instrumentService.getExtraInfo(symbol).getOraclePrice();
+    return liquidationIndexer.getCrossedPositions(symbol, oraclePrice).stream()
+        .map(this::get)
+        .filter(position -> position != null && checkLiquidable(position));
   }
 
   public Optional<Position> getNextLiquidableCrossPositionForAccount(
       Long accId, Set<String> alreadyLiquidated) {
+    updateDirtyCrossPositions();
     List<Position> positions =
         getUserPositions(
             accId,
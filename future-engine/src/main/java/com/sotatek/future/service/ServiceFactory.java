@@ -28,6 +28,7 @@ public class ServiceFactory {
 
   public static void initialize() {
     PositionPnlRankingIndexer pnlRankingIndexer = new PositionPnlRankingIndexer();
+    PositionLiquidationIndexer liquidationIndexer = new PositionLiquidationIndexer();
     // TODO use DI
     MatchingEngine matchingEngine = MatchingEngine.getInstance();
     AccountService accountService = AccountService.getInstance();
@@ -70,7 +71,12 @@ public class ServiceFactory {
         positionCalculator);
     positionHistoryService.initialize();
     positionService.initialize(
-        instrumentService, accountService, positionCalculator, pnlRankingIndexer);
+        instrumentService,
+        accountService,
+        positionCalculator,
+        pnlRankingIndexer,
+        liquidationIndexer);
+    instrumentService.initialize(positionService.getMarginLedger());
     tradeService.initialize();
     transactionService.initialize();
     leverageMarginService.initialize();
@@ -3,10 +3,15 @@ package com.sotatek.future.service;
 import com.sotatek.future.entity.LeverageMargin;
 import com.sotatek.future.entity.Position;
 import com.sotatek.future.entity.TradingRule;
+import com.sotatek.future.util.IntervalTable;
 import com.sotatek.future.util.IntervalTree;
 import com.sotatek.future.util.MarginBigDecimal;
 import com.sotatek.future.value.LeverageMarginRule;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -17,11 +22,16 @@ public class TradingRuleService {
 
   public static final TradingRuleService INSTANCE = new TradingRuleService();
   private final Map<String, IntervalTree<MarginBigDecimal, LeverageMarginRule>> lmSymbolIndex;
+  // Same rules as lmSymbolIndex, replaced by a new table whenever a rule of the symbol is loaded
+  private final Map<String, IntervalTable<LeverageMarginRule>> lmSymbolTiers = new HashMap<>();
   // default leverage margin rule is the highest tier notional bracket(or LM have the highest Max
   // notional value)
   public final Map<String, LeverageMarginRule> lmSymbolIndexDefault;
 
   private final Map<String, MarginBigDecimal> liquidationClearanceRateIndex;
+  // Loaded rules in loading order, to save them in engine snapshots
+  private final List<LeverageMargin> leverageMargins = new ArrayList<>();
+  private final Map<String, TradingRule> tradingRules = new LinkedHashMap<>();
 
   public TradingRuleService() {
     this.lmSymbolIndex = new HashMap<>();
@@ -37,36 +47,24 @@ public class TradingRuleService {
     } else {
       notionalValue = position.getCurrentQty().abs().multiply(markPrice);
     }
-    log.atDebug()
-        .addKeyValue("symbol", symbol)
-        .log(
-            "Looking up trading rule for position. [isCoinM={}, size={}, markPrice={},"
-                + " multiplier={}, value={}]",
-            position.isCoinM(),
-            position.getCurrentQty(),
-            markPrice,
-            multiplier,
-            notionalValue);
-    Optional<IntervalTree<MarginBigDecimal, LeverageMarginRule>> rulesIndexOpt =
-        Optional.ofNullable(lmSymbolIndex).map(l -> l.get(symbol));
-    return rulesIndexOpt.flatMap(
-        rulesIndex -> {
-          List<LeverageMarginRule> matched = rulesIndex.lookup(notionalValue);
-          if (matched.isEmpty()) {
-            return Optional.empty();
-          }
-          if (matched.size() > 1) {
-            log.atDebug()
-                .log(
-                    "More than 1 trading rule matched, returning the first one. [size={} using={}]",
-                    matched.size(),
-                    matched.get(0));
-          }
-          return Optional.of(matched.get(0));
-        });
+    if (log.isDebugEnabled()) {
+      log.atDebug()
+          .addKeyValue("symbol", symbol)
+          .log(
+              "Looking up trading rule for position. [isCoinM={}, size={}, markPrice={},"
+                  + " multiplier={}, value={}]",
+              position.isCoinM(),
+              position.getCurrentQty(),
+              markPrice,
+              multiplier,
+              notionalValue);
+    }
+    IntervalTable<LeverageMarginRule> tiers = lmSymbolTiers.get(symbol);
+    return tiers == null ? Optional.empty() : Optional.ofNullable(tiers.lookup(notionalValue));
   }
 
   public void loadLeverageMarginRule(LeverageMargin leverageMargin) {
+    leverageMargins.add(leverageMargin);
     String symbol = leverageMargin.getSymbol();
     LeverageMarginRule rule =
         new LeverageMarginRule(
@@ -83,6 +81,8 @@ public class TradingRuleService {
       symbolIndex = lmSymbolIndex.get(symbol);
     }
     symbolIndex.insert(rule);
+    lmSymbolTiers.put(
+        symbol, lmSymbolTiers.getOrDefault(symbol, IntervalTable.empty()).with(rule));
     // initial default leverage margin rule for each symbol
     if (lmSymbolIndexDefault.containsKey(symbol)) {
       LeverageMarginRule defaultLM = lmSymbolIndexDefault.get(symbol);
@@ -107,6 +107,7 @@ public class TradingRuleService {
   }
 
   public void loadTradingRule(TradingRule tradingRule) {
+    tradingRules.put(tradingRule.getSymbol(), tradingRule);
     String symbol = tradingRule.getSymbol();
     MarginBigDecimal liqClearanceRate = tradingRule.getLiqClearanceFee();
     if (liqClearanceRate != null) {
@@ -118,6 +119,24 @@ public class TradingRuleService {
     }
   }
 
+  /** Remove all loaded rules, before the rules of a snapshot are loaded again */
+  public void clear() {
+    lmSymbolIndex.clear();
+    lmSymbolTiers.clear();
+    lmSymbolIndexDefault.clear();
+    liquidationClearanceRateIndex.clear();
+    leverageMargins.clear();
+    tradingRules.clear();
+  }
+
+  public List<LeverageMargin> getLeverageMargins() {
+    return Collections.unmodifiableList(leverageMargins);
+  }
+
+  public Collection<TradingRule> getTradingRules() {
+    return Collections.unmodifiableCollection(tradingRules.values());
+  }
+
   public IntervalTree<MarginBigDecimal, LeverageMarginRule> getLmSymbolIndexBySymbol(String symbol) {
     return this.lmSymbolIndex.get(symbol);
   }
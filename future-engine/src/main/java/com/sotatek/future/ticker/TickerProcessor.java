@@ -25,8 +25,17 @@ import org.apache.commons.lang3.ArrayUtils;
 
 @Slf4j
 public class TickerProcessor {
+  // a slot per second from 24h ago to now, the point of a second is at time % WINDOW_SIZE
+  private static final int WINDOW_SIZE = 86400 + 2;
+
   private final String symbol;
-  private final Map<Long, TickerPoint> points = new LinkedHashMap<>();
+  private final TickerPoint[] points = new TickerPoint[WINDOW_SIZE];
+  // points of the window in time order with decreasing highPrice and increasing lowPrice, the
+  // first ones are the 24h high and low
+  private final Deque<TickerPoint> highPoints = new ArrayDeque<>();
+  private final Deque<TickerPoint> lowPoints = new ArrayDeque<>();
+  // set when a point is replaced by an older one, the deques are rebuilt before the next ticker
+  private boolean extremesOutdated = false;
   private TickerPoint lastPoint;
   private Trade lastTrade;
   private MarginBigDecimal lastPriceChange;
@@ -42,7 +51,7 @@ public class TickerProcessor {
     lastPoint =
             new TickerPoint(
                     MarginBigDecimal.ZERO, MarginBigDecimal.ZERO, MarginBigDecimal.ZERO, time24hAgo);
-    points.put(time24hAgo, this.lastPoint);
+    putPoint(this.lastPoint);
     lastPriceChange = MarginBigDecimal.ZERO;
     try {
       String socketUrl = symbol.contains("USDM")
@@ -92,7 +101,7 @@ public class TickerProcessor {
   }
 
   public Ticker getTicker() {
-    TickerPoint firstPoint = points.get(TickerProcessor.getTime24Ago());
+    TickerPoint firstPoint = getPoint(TickerProcessor.getTime24Ago());
     Ticker ticker = new Ticker();
     ticker.symbol(this.symbol);
     if (firstPoint.price.eq(MarginBigDecimal.ZERO)) {
@@ -117,20 +126,9 @@ public class TickerProcessor {
     BinanceTradeDataResponse binanceLastTrade = ArrayUtils.isNotEmpty(binanceTrades)? binanceTrades[binanceTrades.length - 1]: null;
     ticker.lastPrice(binanceLastTrade != null ? MarginBigDecimal.valueOf(binanceLastTrade.getPrice()) : lastPoint.price);
 
-    List<MarginBigDecimal> pointsPrice =
-            points.values().stream()
-                    .filter(p -> p.time > firstPoint.time)
-                    .map(p -> p.allPrices)
-                    .flatMap(List::stream)
-                    .toList();
-    ticker.highPrice(Collections.max(pointsPrice));
-    ticker.lowPrice(ticker.highPrice());
-    pointsPrice.forEach(
-            p -> {
-              if (!MarginBigDecimal.ZERO.eq(p) && p.lt(ticker.lowPrice())) {
-                ticker.lowPrice(p);
-              }
-            });
+    removeOutdatedExtremes(firstPoint.time);
+    ticker.highPrice(highPoints.isEmpty() ? lastPoint.price : highPoints.peekFirst().highPrice);
+    ticker.lowPrice(lowPoints.isEmpty() ? ticker.highPrice() : lowPoints.peekFirst().lowPrice);
     ticker.volume(lastPoint.volume.subtract(firstPoint.volume));
     ticker.quoteVolume(lastPoint.quoteVolume.subtract(firstPoint.quoteVolume));
     ticker.lastPriceChange(lastPriceChange);
@@ -204,21 +202,22 @@ public class TickerProcessor {
     }
     if (lastPoint.time == tradeTime) {
       // add other price
-      TickerPoint point = points.get(tradeTime);
-      point.allPrices.add(trade.getPrice());
+      lastPoint.addPrice(trade.getPrice());
       addTradeToLastPoint(trade);
+      addExtremes(lastPoint);
     }
     if (lastPoint.time > tradeTime) {
       if (lastPoint.volume.eq(MarginBigDecimal.ZERO)) { // the last point is mock data
-        points.remove(lastPoint.time);
+        removePoint(lastPoint);
         lastPoint =
                 new TickerPoint(
                         trade.getPrice(),
                         trade.getQuantity(),
                         trade.getPrice().multiply(trade.getQuantity()),
                         tradeTime);
-        log.debug("overwrite point old {} new {}", points.get(tradeTime), lastPoint);
-        points.put(tradeTime, lastPoint);
+        log.debug("overwrite point old {} new {}", getPoint(tradeTime), lastPoint);
+        putPoint(lastPoint);
+        extremesOutdated = true;
       } else {
         log.debug("Shouldn't go here {}, {}", trade, lastPoint);
       }
@@ -227,19 +226,61 @@ public class TickerProcessor {
   }
 
   public void clean() {
+    // points older than 24h are overwritten by the new points of their slot
     try {
       addEmptyPointIfNeeded();
     } catch (Exception e) {
       log.error("addEmptyPointIfNeeded before publish get exception", e);
     }
-    try {
-      long time = TickerProcessor.getTime24Ago();
-      long oldestTime = Collections.min(points.keySet());
-      for (long i = oldestTime; i < time; i++) {
-        points.remove(i);
+  }
+
+  private TickerPoint getPoint(long time) {
+    TickerPoint point = points[Math.floorMod(time, WINDOW_SIZE)];
+    return point != null && point.time == time ? point : null;
+  }
+
+  private void putPoint(TickerPoint point) {
+    points[Math.floorMod(point.time, WINDOW_SIZE)] = point;
+  }
+
+  private void removePoint(TickerPoint point) {
+    if (getPoint(point.time) == point) {
+      points[Math.floorMod(point.time, WINDOW_SIZE)] = null;
+    }
+  }
+
+  // add the newest point, or the last point after its prices changed, to the extreme deques
+  private void addExtremes(TickerPoint point) {
+    while (!highPoints.isEmpty() && highPoints.peekLast().highPrice.lte(point.highPrice)) {
+      highPoints.pollLast();
+    }
+    highPoints.addLast(point);
+    if (point.lowPrice != null) {
+      while (!lowPoints.isEmpty() && lowPoints.peekLast().lowPrice.gte(point.lowPrice)) {
+        lowPoints.pollLast();
       }
-    } catch (Exception e) {
-      log.error("clean before publish get exception", e);
+      lowPoints.addLast(point);
+    }
+  }
+
+  // drop the points which are not after the first point of the window
+  private void removeOutdatedExtremes(long firstTime) {
+    if (extremesOutdated) {
+      highPoints.clear();
+      lowPoints.clear();
+      for (long time = firstTime + 1; time <= lastPoint.time; time++) {
+        TickerPoint point = getPoint(time);
+        if (point != null) {
+          addExtremes(point);
+        }
+      }
+      extremesOutdated = false;
+    }
+    while (!highPoints.isEmpty() && highPoints.peekFirst().time <= firstTime) {
+      highPoints.pollFirst();
+    }
+    while (!lowPoints.isEmpty() && lowPoints.peekFirst().time <= firstTime) {
+      lowPoints.pollFirst();
     }
   }
 
@@ -249,7 +290,8 @@ public class TickerProcessor {
     if (lastPoint.time < time) {
       for (long i = lastPoint.time + 1; i <= time; i++) {
         point = new TickerPoint(lastPoint.price, lastPoint.volume, lastPoint.quoteVolume, i);
-        points.put(i, point);
+        putPoint(point);
+        addExtremes(point);
       }
       lastPoint = point;
     }
@@ -260,7 +302,8 @@ public class TickerProcessor {
     TickerPoint point = null;
     for (long i = lastPoint.time + 1; i <= tradeTime; i++) {
       point = new TickerPoint(lastPoint.price, lastPoint.volume, lastPoint.quoteVolume, i);
-      points.put(i, point);
+      putPoint(point);
+      addExtremes(point);
     }
     lastPoint = point;
   }
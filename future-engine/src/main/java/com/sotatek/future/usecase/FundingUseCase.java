@@ -1,6 +1,7 @@
 package com.sotatek.future.usecase;
 
 import com.sotatek.future.engine.MatchingEngine;
+import com.sotatek.future.engine.MatchingEngineConfig;
 import com.sotatek.future.entity.Command;
 import com.sotatek.future.entity.FundingParams;
 import com.sotatek.future.entity.Position;
@@ -10,6 +11,7 @@ import com.sotatek.future.util.MarginBigDecimal;
 import java.util.Date;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 @RequiredArgsConstructor
@@ -22,6 +24,10 @@ public class FundingUseCase {
 
   private final MatchingEngine matchingEngine;
 
+  // Positions settled in one commit, so that funding a symbol does not output every position
+  // on its own
+  @Setter private int batchSize = MatchingEngineConfig.FUNDING_BATCH_SIZE;
+
   public void payFunding(Command command) {
     FundingParams params = (FundingParams) command.getData();
     try {
@@ -38,19 +44,26 @@ public class FundingUseCase {
       if (!positions.isEmpty()) {
         log.info("Pay funding for {} positions.", positions.size());
       }
+      int pendingPositions = 0;
       for (Position position : positions) {
         if (!fundingService.isPositionFundingPaid(position, time)) {
           fundingService.payFunding(position, fundingRate, oraclePrice, time);
-          matchingEngine.commit();
+          if (++pendingPositions >= batchSize) {
+            matchingEngine.commit();
+            pendingPositions = 0;
+          }
         } else {
           log.info("Already paid funding for position {} at {}", position, time);
         }
       }
       fundingService.setFundingPaid(symbol, time);
-      // commit with no data to set funding paid
+      // commit the last batch, or with no data to set funding paid
       matchingEngine.commit();
     } catch (Exception e) {
       log.error("Exception when pay funding fee for {}", params, e);
+      // the positions of the batches committed before are paid, the others are paid again when
+      // the funding is retried
+      matchingEngine.rollback();
     }
   }
 }
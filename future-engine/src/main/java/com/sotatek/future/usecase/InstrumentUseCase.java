@@ -54,5 +54,9 @@ public class InstrumentUseCase {
     instrumentService.updateExtraInfo(instrumentExtra);
     instrumentService.commit();
     matchingEngine.commit();
+    // trigger stop orders reached by the new prices
+    if (ObjectUtils.isNotEmpty(trigger)) {
+      trigger.startTrigger();
+    }
   }
 }
@@ -79,6 +79,10 @@ public class LiquidationUseCase {
               instrumentExtra.getOraclePrice());
       performLiquidation(matchingEngine, instrumentExtra);
       matchingEngine.commit();
+      // trigger stop orders reached by the new oracle price
+      if (ObjectUtils.isNotEmpty(trigger)) {
+        trigger.startTrigger();
+      }
     }
   }
 
@@ -33,6 +33,11 @@ import com.sotatek.future.service.MarginHistoryService;
 import com.sotatek.future.service.OrderService;
 import com.sotatek.future.service.PositionService;
 import com.sotatek.future.util.MarginBigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
@@ -242,6 +247,81 @@ public class OrderUseCase {
         cancelOrder(slOrder);
       }
     }
+    cancelOrder = getCancelableOrder(cancelOrder);
+    if (cancelOrder == null) {
+      return;
+    }
+    Matcher matcher = matchers.get(cancelOrder.getSymbol());
+    matcher.cancelOrder(cancelOrder);
+    matcher.commit();
+    matchingEngine.commit();
+  }
+
+  /**
+   * Cancel orders of an account with one commit: the listed orders for CANCEL_ORDERS_BATCH, all its
+   * open orders for CANCEL_ALL. The tp/sl orders of a canceled order are canceled with it, like
+   * for a single cancel
+   *
+   * @param command
+   */
+  public void cancelOrders(Command command) {
+    CancelOrders request = command.getCancelOrders();
+    List<Order> requestedOrders;
+    if (CommandCode.CANCEL_ALL.equals(command.getCode())) {
+      Long accountId = request.getAccountId();
+      requestedOrders =
+          request.getSymbol() == null
+              ? orderService.getUserOpenOrders(accountId).toList()
+              : orderService.getUserOpenOrders(accountId, request.getSymbol()).toList();
+    } else {
+      requestedOrders = new ArrayList<>();
+      for (Long orderId : request.getOrderIds()) {
+        Order order = orderService.get(orderId);
+        if (order == null || !order.getAccountId().equals(request.getAccountId())) {
+          log.debug(
+              "Cannot find Order {} of account {} to cancel", orderId, request.getAccountId());
+          continue;
+        }
+        requestedOrders.add(order);
+      }
+    }
+    // orders to cancel by id, each tp/sl order before its parent order
+    Map<Long, Order> cancelOrders = new LinkedHashMap<>();
+    for (Order order : requestedOrders) {
+      addCancelableOrder(cancelOrders, orderService.get(order.getTakeProfitOrderId()));
+      addCancelableOrder(cancelOrders, orderService.get(order.getStopLossOrderId()));
+      addCancelableOrder(cancelOrders, order);
+    }
+    Map<String, List<Order>> ordersBySymbol =
+        cancelOrders.values().stream()
+            .collect(
+                Collectors.groupingBy(Order::getSymbol, LinkedHashMap::new, Collectors.toList()));
+    ordersBySymbol.forEach(
+        (symbol, orders) -> {
+          Matcher matcher = matchers.get(symbol);
+          matcher.cancelOrders(orders);
+          matcher.commit();
+        });
+    matchingEngine.commit();
+  }
+
+  private void addCancelableOrder(Map<Long, Order> cancelOrders, Order order) {
+    if (order == null || cancelOrders.containsKey(order.getId())) {
+      return;
+    }
+    Order cancelOrder = getCancelableOrder(order);
+    if (cancelOrder != null) {
+      cancelOrders.put(cancelOrder.getId(), cancelOrder);
+    }
+  }
+
+  /**
+   * Get the order to cancel with its current state
+   *
+   * @param cancelOrder order of the cancel command
+   * @return null if the order cannot be canceled
+   */
+  private Order getCancelableOrder(Order cancelOrder) {
     Order updatedOrder = orderService.get(cancelOrder.getKey());
     if (updatedOrder == null) {
       if (!cancelOrder.canBeActivated()) {
@@ -249,28 +329,22 @@ public class OrderUseCase {
             "Cannot find Order ({}, {}) to cancel. Ignore command.",
             cancelOrder.getId(),
             cancelOrder.getStatus());
-        return;
-      }
-    } else {
-      if (updatedOrder.canBeActivated()
-          || updatedOrder.canBeMatched()
-          || updatedOrder.isUntriggered()) {
-        cancelOrder = updatedOrder;
-        // cancel below
-      } else {
-        log.debug(
-            "Cannot cancel Order ({}, {}). Origin Order ({}, {})",
-            updatedOrder.getId(),
-            updatedOrder.getStatus(),
-            cancelOrder.getId(),
-            cancelOrder.getStatus());
-        return;
+        return null;
       }
+      return cancelOrder;
     }
-    Matcher matcher = matchers.get(cancelOrder.getSymbol());
-    matcher.cancelOrder(cancelOrder);
-    matcher.commit();
-    matchingEngine.commit();
+    if (updatedOrder.canBeActivated()
+        || updatedOrder.canBeMatched()
+        || updatedOrder.isUntriggered()) {
+      return updatedOrder;
+    }
+    log.debug(
+        "Cannot cancel Order ({}, {}). Origin Order ({}, {})",
+        updatedOrder.getId(),
+        updatedOrder.getStatus(),
+        cancelOrder.getId(),
+        cancelOrder.getStatus());
+    return null;
   }
 
   /**
@@ -208,7 +208,7 @@ public class PositionUseCase {
       // create command to place
       Order order = tpSlOrder.cloneOrder();
       Command placeCommand = new Command(CommandCode.PLACE_ORDER, order);
-      matchingEngine.onReceiveCommand(placeCommand);
+      matchingEngine.onEngineCommand(placeCommand);
     }
     if (TpSlAction.CANCEL.equals(tpSlOrder.getAction())) {
       // cancel order
@@ -247,7 +247,7 @@ public class PositionUseCase {
       }
       // create command to cancel
       Command cancelCommand = new Command(CommandCode.CANCEL_ORDER, oldOrder);
-      matchingEngine.onReceiveCommand(cancelCommand);
+      matchingEngine.onEngineCommand(cancelCommand);
     }
   }
 }
@@ -140,6 +140,8 @@ public class RetrieveDataUseCase {
                 log.error("orderBookData of " + orderBookQuery.getSymbol() + " is null or empty");
                 return null;
             }
+            // the requester is resynchronizing, publish a snapshot to the stream consumers too
+            ((OrderBookOutputStream) orderBookOutputStream).requestSnapshot(orderBookQuery.getSymbol());
             return orderBookData;
         }
         return null;
@@ -0,0 +1,113 @@
+package com.sotatek.future.util;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/** Reader of the primitive encodings written by {@link BinaryWriter}. */
+public class BinaryReader {
+  private final byte[] buffer;
+  private final int limit;
+  private int position;
+
+  public BinaryReader(byte[] buffer) {
+    this(buffer, 0, buffer.length);
+  }
+
+  public BinaryReader(byte[] buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.position = offset;
+    this.limit = offset + length;
+  }
+
+  public int readByte() {
+    if (position >= limit) {
+      throw new IllegalStateException("Unexpected end of binary data at " + position);
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  public boolean readBoolean() {
+    return readByte() != 0;
+  }
+
+  public long readVarLong() {
+    long zigZag = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (shift >= 64) {
+        throw new IllegalStateException("Malformed varint at " + position);
+      }
+      b = readByte();
+      zigZag |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (zigZag >>> 1) ^ -(zigZag & 1);
+  }
+
+  public int readVarInt() {
+    return (int) readVarLong();
+  }
+
+  public Long readLong() {
+    return readByte() == 0 ? null : readVarLong();
+  }
+
+  public Date readDate() {
+    Long time = readLong();
+    return time == null ? null : new Date(time);
+  }
+
+  public <E extends Enum<E>> E readEnum(E[] values) {
+    int ordinal = readVarInt();
+    if (ordinal == 0) {
+      return null;
+    }
+    if (ordinal > values.length) {
+      throw new IllegalStateException("Unknown enum ordinal " + (ordinal - 1) + " at " + position);
+    }
+    return values[ordinal - 1];
+  }
+
+  public String readString() {
+    int length = readVarInt() - 1;
+    if (length < 0) {
+      return null;
+    }
+    checkRemaining(length);
+    String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return value;
+  }
+
+  public MarginBigDecimal readDecimal() {
+    int tag = readByte();
+    if (tag == 0) {
+      return null;
+    }
+    int scale = (tag & ~BinaryWriter.DECIMAL_INFLATED) - 1;
+    if ((tag & BinaryWriter.DECIMAL_INFLATED) == 0) {
+      return MarginBigDecimal.fromUnscaled(readVarLong(), scale);
+    }
+    return MarginBigDecimal.fromUnscaled(new BigInteger(readBytes(readVarInt())), scale);
+  }
+
+  public byte[] readBytes(int length) {
+    checkRemaining(length);
+    byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+    position += length;
+    return bytes;
+  }
+
+  public boolean hasRemaining() {
+    return position < limit;
+  }
+
+  private void checkRemaining(int length) {
+    if (length < 0 || position + length > limit) {
+      throw new IllegalStateException("Unexpected end of binary data at " + position);
+    }
+  }
+}
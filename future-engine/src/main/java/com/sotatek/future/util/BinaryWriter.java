@@ -0,0 +1,120 @@
+package com.sotatek.future.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Growable byte buffer with the primitive encodings of the binary codec.
+ *
+ * <p>Integers are written as zig-zag varints, so small ids and enum ordinals take one or two
+ * bytes. Every nullable value starts with a presence marker. {@link MarginBigDecimal} is written
+ * from its unscaled value without going through a string.
+ */
+public class BinaryWriter {
+  // decimal tags: 0 is null, otherwise the low bits hold scale + 1 and the flag marks a BigInteger
+  static final int DECIMAL_INFLATED = 0x80;
+
+  private byte[] buffer;
+  private int position = 0;
+
+  public BinaryWriter() {
+    this(256);
+  }
+
+  public BinaryWriter(int initialCapacity) {
+    this.buffer = new byte[initialCapacity];
+  }
+
+  public BinaryWriter writeByte(int value) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+    return this;
+  }
+
+  public BinaryWriter writeBoolean(boolean value) {
+    return writeByte(value ? 1 : 0);
+  }
+
+  public BinaryWriter writeVarLong(long value) {
+    ensureCapacity(10);
+    // zig-zag encoding so that small negative values stay short
+    long zigZag = (value << 1) ^ (value >> 63);
+    while ((zigZag & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+      zigZag >>>= 7;
+    }
+    buffer[position++] = (byte) zigZag;
+    return this;
+  }
+
+  public BinaryWriter writeVarInt(int value) {
+    return writeVarLong(value);
+  }
+
+  public BinaryWriter writeLong(Long value) {
+    if (value == null) {
+      return writeByte(0);
+    }
+    writeByte(1);
+    return writeVarLong(value);
+  }
+
+  public BinaryWriter writeDate(Date value) {
+    return writeLong(value == null ? null : value.getTime());
+  }
+
+  /** Enums are written by ordinal, so their constants must only be appended */
+  public BinaryWriter writeEnum(Enum<?> value) {
+    return writeVarInt(value == null ? 0 : value.ordinal() + 1);
+  }
+
+  public BinaryWriter writeString(String value) {
+    if (value == null) {
+      return writeVarInt(0);
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(bytes.length + 1);
+    return writeBytes(bytes);
+  }
+
+  public BinaryWriter writeDecimal(MarginBigDecimal value) {
+    if (value == null) {
+      return writeByte(0);
+    }
+    if (value.isCompact()) {
+      writeByte(value.getScale() + 1);
+      return writeVarLong(value.compactValue());
+    }
+    writeByte(DECIMAL_INFLATED | (value.getScale() + 1));
+    byte[] bytes = value.toBigInteger().toByteArray();
+    writeVarInt(bytes.length);
+    return writeBytes(bytes);
+  }
+
+  public BinaryWriter writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+    return this;
+  }
+
+  public int size() {
+    return position;
+  }
+
+  public BinaryWriter reset() {
+    position = 0;
+    return this;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, position);
+  }
+
+  private void ensureCapacity(int length) {
+    if (position + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.sotatek.future.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable table of intervals sorted by low bound, for a small set of intervals which is
+ * looked up often and changed rarely. A point matches the intervals with low < point <= high like
+ * in {@link IntervalTree}, and the matched interval with the lowest low bound is returned.
+ *
+ * <p>Lookups do not allocate: when the intervals do not overlap, the table is searched with a
+ * binary search over the unscaled bounds when the point and the bounds are at the default scale.
+ *
+ * @param <K>
+ */
+public final class IntervalTable<K extends Interval<MarginBigDecimal>> {
+
+  private static final IntervalTable<?> EMPTY = new IntervalTable<>(List.of());
+
+  private final List<K> intervals;
+  private final MarginBigDecimal[] lows;
+  private final MarginBigDecimal[] highs;
+  // unscaled bounds at the default scale, null when some bound does not fit in a long or has more
+  // decimals than the default scale
+  private final long[] compactLows;
+  private final long[] compactHighs;
+  // overlapping intervals are looked up by scanning the table
+  private final boolean overlapping;
+
+  private IntervalTable(List<K> sortedIntervals) {
+    int size = sortedIntervals.size();
+    intervals = Collections.unmodifiableList(sortedIntervals);
+    lows = new MarginBigDecimal[size];
+    highs = new MarginBigDecimal[size];
+    long[] unscaledLows = new long[size];
+    long[] unscaledHighs = new long[size];
+    boolean compact = true;
+    boolean overlap = false;
+    for (int i = 0; i < size; i++) {
+      K interval = sortedIntervals.get(i);
+      lows[i] = interval.low().normalize();
+      highs[i] = interval.high().normalize();
+      compact &= isCompactAtDefaultScale(lows[i]) && isCompactAtDefaultScale(highs[i]);
+      unscaledLows[i] = lows[i].compactValue();
+      unscaledHighs[i] = highs[i].compactValue();
+      if (i > 0 && highs[i - 1].gt(lows[i])) {
+        overlap = true;
+      }
+    }
+    compactLows = compact ? unscaledLows : null;
+    compactHighs = compact ? unscaledHighs : null;
+    overlapping = overlap;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K extends Interval<MarginBigDecimal>> IntervalTable<K> empty() {
+    return (IntervalTable<K>) EMPTY;
+  }
+
+  /**
+   * Return a new table with the interval added. An interval with the same bounds as the new one is
+   * replaced, intervals with the same low bound keep their insertion order
+   */
+  public IntervalTable<K> with(K interval) {
+    List<K> sortedIntervals = new ArrayList<>(intervals.size() + 1);
+    int index = 0;
+    boolean replaced = false;
+    for (K existing : intervals) {
+      if (existing.low().eq(interval.low()) && existing.high().eq(interval.high())) {
+        sortedIntervals.add(interval);
+        replaced = true;
+      } else {
+        sortedIntervals.add(existing);
+      }
+      if (!existing.low().gt(interval.low())) {
+        index++;
+      }
+    }
+    if (!replaced) {
+      sortedIntervals.add(index, interval);
+    }
+    return new IntervalTable<>(sortedIntervals);
+  }
+
+  /** Return the matched interval, or null if no interval contains the point */
+  public K lookup(MarginBigDecimal point) {
+    if (point == null || intervals.isEmpty()) {
+      return null;
+    }
+    point.normalize();
+    if (overlapping) {
+      return scan(point);
+    }
+    // non-overlapping intervals: only the last interval starting below the point can contain it
+    int index;
+    boolean contained;
+    if (compactLows != null && isCompactAtDefaultScale(point)) {
+      long value = point.compactValue();
+      index = lastLowBelow(value);
+      contained = index >= 0 && value <= compactHighs[index];
+    } else {
+      index = lastLowBelow(point);
+      contained = index >= 0 && point.lte(highs[index]);
+    }
+    return contained ? intervals.get(index) : null;
+  }
+
+  public List<K> getIntervals() {
+    return intervals;
+  }
+
+  private static boolean isCompactAtDefaultScale(MarginBigDecimal value) {
+    return value.isCompact() && value.getScale() == MarginBigDecimal.DEFAULT_SCALE;
+  }
+
+  private int lastLowBelow(long point) {
+    int low = 0;
+    int high = compactLows.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compactLows[mid] < point) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low - 1;
+  }
+
+  private int lastLowBelow(MarginBigDecimal point) {
+    int low = 0;
+    int high = lows.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (lows[mid].lt(point)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low - 1;
+  }
+
+  private K scan(MarginBigDecimal point) {
+    for (int i = 0; i < lows.length && lows[i].lt(point); i++) {
+      if (point.lte(highs[i])) {
+        return intervals.get(i);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,101 @@
+package com.sotatek.future.util;
+
+import java.math.BigInteger;
+
+/**
+ * Mutable running total of {@link MarginBigDecimal} values.
+ *
+ * <p>Summing with {@code total = total.add(value)} allocates a new MarginBigDecimal for every
+ * term. This accumulator keeps the unscaled total in a long and only inflates to a {@link
+ * BigInteger} on overflow, so a loop over positions or orders allocates once, when the result is
+ * read. The result is identical to chaining {@link MarginBigDecimal#add} and {@link
+ * MarginBigDecimal#multiply}.
+ */
+public final class MarginAccumulator {
+  private long compact;
+  // total when it has overflowed the compact value, otherwise null
+  private BigInteger inflated;
+
+  public MarginAccumulator() {}
+
+  public MarginAccumulator(MarginBigDecimal initial) {
+    add(initial);
+  }
+
+  public MarginAccumulator add(MarginBigDecimal value) {
+    value.normalize();
+    if (inflated == null && value.isCompact()) {
+      long result = MarginBigDecimal.addOrInflated(compact, value.compactValue());
+      if (result != MarginBigDecimal.INFLATED) {
+        compact = result;
+        return this;
+      }
+    }
+    inflated = toBigInteger().add(value.toBigInteger());
+    return this;
+  }
+
+  public MarginAccumulator subtract(MarginBigDecimal value) {
+    value.normalize();
+    if (inflated == null && value.isCompact()) {
+      long result = MarginBigDecimal.addOrInflated(compact, -value.compactValue());
+      if (result != MarginBigDecimal.INFLATED) {
+        compact = result;
+        return this;
+      }
+    }
+    inflated = toBigInteger().subtract(value.toBigInteger());
+    return this;
+  }
+
+  /** Add {@code multiplicand * multiplier}, with the same rounding as {@link MarginBigDecimal#multiply}. */
+  public MarginAccumulator addProduct(MarginBigDecimal multiplicand, MarginBigDecimal multiplier) {
+    multiplicand.normalize();
+    multiplier.normalize();
+    if (multiplicand.isCompact() && multiplier.isCompact()) {
+      long product =
+          MarginBigDecimal.multiplyDivide(
+              multiplicand.compactValue(),
+              multiplier.compactValue(),
+              MarginBigDecimal.ONE_UNSCALED);
+      if (product != MarginBigDecimal.INFLATED) {
+        long result =
+            inflated == null
+                ? MarginBigDecimal.addOrInflated(compact, product)
+                : MarginBigDecimal.INFLATED;
+        if (result != MarginBigDecimal.INFLATED) {
+          compact = result;
+          return this;
+        }
+      }
+    }
+    return add(multiplicand.multiply(multiplier));
+  }
+
+  public MarginAccumulator reset() {
+    compact = 0;
+    inflated = null;
+    return this;
+  }
+
+  /** @return -1, 0 or 1 as the total is negative, zero or positive */
+  public int signum() {
+    return inflated == null ? Long.signum(compact) : inflated.signum();
+  }
+
+  public MarginBigDecimal get() {
+    if (inflated == null) {
+      return MarginBigDecimal.fromUnscaled(compact);
+    }
+    return MarginBigDecimal.fromUnscaled(inflated);
+  }
+
+  private BigInteger toBigInteger() {
+    return inflated != null ? inflated : BigInteger.valueOf(compact);
+  }
+
+  @Override
+  public String toString() {
+    return get().toString();
+  }
+}
@@ -2,47 +2,76 @@ package com.sotatek.future.util;
 
 import java.io.Serializable;
 import java.math.BigInteger;
-import java.util.Objects;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.VisibleForTesting;
 
+/**
+ * Fixed-point decimal used for every price, quantity and balance in the engine.
+ *
+ * <p>The unscaled value is kept in a {@code long} whenever it fits, and only falls back to a
+ * {@link BigInteger} when an operation overflows 64 bits. Multiplications and divisions go through
+ * a 128-bit intermediate product, so the common price * quantity case stays on primitives.
+ * Comparisons never allocate. Results are identical to the pure {@link BigInteger} arithmetic:
+ * every multiplication and division truncates toward zero at {@link #DEFAULT_SCALE}.
+ */
 @Slf4j
 public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializable {
   public static final int MAX_SCALE = 18;
   public static final int DEFAULT_SCALE = 11;
-  private static final BigInteger[] SCALES =
-      new BigInteger[] {
-        BigInteger.valueOf(1),
-        BigInteger.valueOf(10),
-        BigInteger.valueOf(100),
-        BigInteger.valueOf(1000),
-        BigInteger.valueOf(10000),
-        BigInteger.valueOf(100000),
-        BigInteger.valueOf(1000000),
-        BigInteger.valueOf(10000000),
-        BigInteger.valueOf(100000000),
-        BigInteger.valueOf(1000000000),
-        BigInteger.valueOf(10000000000L),
-        BigInteger.valueOf(100000000000L),
-        BigInteger.valueOf(1000000000000L),
-        BigInteger.valueOf(10000000000000L),
-        BigInteger.valueOf(100000000000000L),
-        BigInteger.valueOf(1000000000000000L),
-        BigInteger.valueOf(10000000000000000L),
-        BigInteger.valueOf(100000000000000000L),
-        BigInteger.valueOf(1000000000000000000L)
+  // marker of compact value when the unscaled value is held in inflated BigInteger
+  static final long INFLATED = Long.MIN_VALUE;
+  private static final long[] LONG_SCALES =
+      new long[] {
+        1L,
+        10L,
+        100L,
+        1000L,
+        10000L,
+        100000L,
+        1000000L,
+        10000000L,
+        100000000L,
+        1000000000L,
+        10000000000L,
+        100000000000L,
+        1000000000000L,
+        10000000000000L,
+        100000000000000L,
+        1000000000000000L,
+        10000000000000000L,
+        100000000000000000L,
+        1000000000000000000L
       };
+  private static final BigInteger[] SCALES = new BigInteger[LONG_SCALES.length];
+
+  static {
+    for (int i = 0; i < LONG_SCALES.length; i++) {
+      SCALES[i] = BigInteger.valueOf(LONG_SCALES[i]);
+    }
+  }
+
+  static final long ONE_UNSCALED = LONG_SCALES[DEFAULT_SCALE];
+  private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+  private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
   public static final MarginBigDecimal ZERO = MarginBigDecimal.valueOf(0);
   public static final MarginBigDecimal ONE = MarginBigDecimal.valueOf(1);
   public static final MarginBigDecimal NEGATIVE_ONE = MarginBigDecimal.valueOf(-1);
   private static final String[] ZERO_PADDINGS =
       new String[] {"", "0", "00", "000", "0000", "00000", "000000", "0000000", "00000000", "000000000", "0000000000", "00000000000", "000000000000", "0000000000000", "00000000000000", "000000000000000", "0000000000000000", "00000000000000000", "000000000000000000"};
-  private BigInteger value;
+  // unscaled value when it fits in a long, otherwise INFLATED
+  private long compact;
+  // unscaled value when it does not fit in a long, otherwise null
+  private BigInteger inflated;
   private int scale;
 
+  private MarginBigDecimal(long compact) {
+    this.compact = compact;
+    this.scale = DEFAULT_SCALE;
+  }
+
   @VisibleForTesting
   private MarginBigDecimal(BigInteger value) {
-    this.value = value;
+    setUnscaledValue(value);
     this.scale = DEFAULT_SCALE;
   }
 
@@ -54,11 +83,10 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
   public MarginBigDecimal(String string) {
     int dotIndex = string.indexOf('.');
     if (dotIndex < 0) {
-      BigInteger longValue = new BigInteger(string);
       scale = DEFAULT_SCALE;
-      value = longValue.multiply(SCALES[scale]);
+      setUnscaledValue(parseUnscaled(string), DEFAULT_SCALE);
     } else {
-      String formattedString = string.replaceAll("0*$", "");
+      String formattedString = stripTrailingZeros(string);
       scale = formattedString.length() - dotIndex - 1;
       if (scale > MAX_SCALE) {
         log.debug("The value has scale {} is over the maximum scale is {}", scale, MAX_SCALE);
@@ -71,14 +99,65 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
         log.debug("The value after cutting is {}", formattedString);
       }
       formattedString = formattedString.replace(".", "");
-      value = new BigInteger(formattedString);
       if (scale < DEFAULT_SCALE) {
-        value = value.multiply(SCALES[DEFAULT_SCALE - scale]);
+        setUnscaledValue(parseUnscaled(formattedString), DEFAULT_SCALE - scale);
         scale = DEFAULT_SCALE;
+      } else {
+        setUnscaledValue(parseUnscaled(formattedString), 0);
       }
     }
   }
 
+  private static String stripTrailingZeros(String string) {
+    int end = string.length();
+    while (end > 0 && string.charAt(end - 1) == '0') {
+      end--;
+    }
+    return string.substring(0, end);
+  }
+
+  /** Parse an integer string to a Long when it always fits in a long, otherwise a BigInteger. */
+  private static Object parseUnscaled(String string) {
+    // 18 characters always fit in a long, including the sign
+    if (string.length() <= 18) {
+      return Long.parseLong(string);
+    }
+    return new BigInteger(string);
+  }
+
+  private void setUnscaledValue(Object parsed, int multiplyScale) {
+    if (parsed instanceof Long value) {
+      long result = multiplyScale == 0 ? value : multiplyExactOrInflated(value, multiplyScale);
+      if (result != INFLATED) {
+        this.compact = result;
+        return;
+      }
+      setUnscaledValue(BigInteger.valueOf(value).multiply(SCALES[multiplyScale]));
+    } else {
+      setUnscaledValue(((BigInteger) parsed).multiply(SCALES[multiplyScale]));
+    }
+  }
+
+  private void setUnscaledValue(BigInteger value) {
+    if (value.compareTo(LONG_MIN) > 0 && value.compareTo(LONG_MAX) <= 0) {
+      this.compact = value.longValue();
+      this.inflated = null;
+    } else {
+      this.compact = INFLATED;
+      this.inflated = value;
+    }
+  }
+
+  private static long multiplyExactOrInflated(long value, int multiplyScale) {
+    long factor = LONG_SCALES[multiplyScale];
+    long high = Math.multiplyHigh(value, factor);
+    long low = value * factor;
+    if ((high == 0 && low >= 0) || (high == -1 && low < 0 && low != INFLATED)) {
+      return low;
+    }
+    return INFLATED;
+  }
+
   /**
    * Convert a long number to MarginBigDecimal
    *
@@ -86,6 +165,10 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
    * @return
    */
   public static MarginBigDecimal valueOf(long n) {
+    long unscaled = multiplyExactOrInflated(n, DEFAULT_SCALE);
+    if (unscaled != INFLATED) {
+      return new MarginBigDecimal(unscaled);
+    }
     return new MarginBigDecimal(BigInteger.valueOf(n).multiply(SCALES[DEFAULT_SCALE]));
   }
 
@@ -99,18 +182,71 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
     return new MarginBigDecimal(n);
   }
 
+  /** Create a MarginBigDecimal from an unscaled value at DEFAULT_SCALE */
+  static MarginBigDecimal fromUnscaled(long unscaled) {
+    if (unscaled == INFLATED) {
+      return new MarginBigDecimal(BigInteger.valueOf(unscaled));
+    }
+    return new MarginBigDecimal(unscaled);
+  }
+
+  /** Create a MarginBigDecimal from an unscaled value at DEFAULT_SCALE */
+  static MarginBigDecimal fromUnscaled(BigInteger unscaled) {
+    return new MarginBigDecimal(unscaled);
+  }
+
+  /** Create a MarginBigDecimal from an unscaled value at the given scale */
+  static MarginBigDecimal fromUnscaled(long unscaled, int scale) {
+    MarginBigDecimal result = fromUnscaled(unscaled);
+    result.scale = scale;
+    return result;
+  }
+
+  /** Create a MarginBigDecimal from an unscaled value at the given scale */
+  static MarginBigDecimal fromUnscaled(BigInteger unscaled, int scale) {
+    MarginBigDecimal result = fromUnscaled(unscaled);
+    result.scale = scale;
+    return result;
+  }
+
+  boolean isCompact() {
+    return inflated == null;
+  }
+
+  /** @return unscaled value when it is compact */
+  long compactValue() {
+    return compact;
+  }
+
+  BigInteger toBigInteger() {
+    return inflated != null ? inflated : BigInteger.valueOf(compact);
+  }
+
   public long longValue() {
-    return value.divide(SCALES[this.scale]).longValue();
+    if (inflated == null) {
+      return compact / LONG_SCALES[this.scale];
+    }
+    return inflated.divide(SCALES[this.scale]).longValue();
   }
 
   public static MarginBigDecimal getSign(MarginBigDecimal num) {
-    if (num.gt(0)) return MarginBigDecimal.ONE;
-    if (num.lt(0)) return MarginBigDecimal.NEGATIVE_ONE;
+    int signum = num.signum();
+    if (signum > 0) return MarginBigDecimal.ONE;
+    if (signum < 0) return MarginBigDecimal.NEGATIVE_ONE;
     return MarginBigDecimal.ZERO;
   }
 
+  /** @return -1, 0 or 1 as the value is negative, zero or positive */
+  public int signum() {
+    return inflated == null ? Long.signum(compact) : inflated.signum();
+  }
+
+  public boolean isZero() {
+    return inflated == null && compact == 0;
+  }
+
   public boolean eq(long n) {
-    return value.equals(BigInteger.valueOf(n).multiply(SCALES[scale]));
+    return compareToLong(n, scale) == 0;
   }
 
   public boolean eq(MarginBigDecimal n) {
@@ -122,11 +258,11 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
   }
 
   public boolean gt(long n) {
-    return gt(MarginBigDecimal.valueOf(n));
+    return compareToLong(n, DEFAULT_SCALE) > 0;
   }
 
   public boolean gte(long n) {
-    return gte(MarginBigDecimal.valueOf(n));
+    return compareToLong(n, DEFAULT_SCALE) >= 0;
   }
 
   public boolean gte(MarginBigDecimal n) {
@@ -134,7 +270,7 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
   }
 
   public boolean lt(long n) {
-    return lt(MarginBigDecimal.valueOf(n));
+    return compareToLong(n, DEFAULT_SCALE) < 0;
   }
 
   public boolean lt(MarginBigDecimal n) {
@@ -145,33 +281,85 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
     return compareTo(n) <= 0;
   }
 
+  /** Compare the unscaled value with n scaled by the given scale, without allocation */
+  private int compareToLong(long n, int nScale) {
+    normalize();
+    long other = multiplyExactOrInflated(n, nScale);
+    if (inflated == null) {
+      if (other != INFLATED) {
+        return Long.compare(compact, other);
+      }
+      // |n * 10^scale| is larger than any compact value
+      return n > 0 ? -1 : 1;
+    }
+    return inflated.compareTo(BigInteger.valueOf(n).multiply(SCALES[nScale]));
+  }
+
   public MarginBigDecimal add(MarginBigDecimal augend) {
     normalize();
     augend.normalize();
-    return new MarginBigDecimal(value.add(augend.value));
+    if (inflated == null && augend.inflated == null) {
+      long result = addOrInflated(compact, augend.compact);
+      if (result != INFLATED) {
+        return new MarginBigDecimal(result);
+      }
+    }
+    return new MarginBigDecimal(toBigInteger().add(augend.toBigInteger()));
   }
 
   public MarginBigDecimal subtract(MarginBigDecimal augend) {
     normalize();
     augend.normalize();
-    return new MarginBigDecimal(value.subtract(augend.value));
+    if (inflated == null && augend.inflated == null) {
+      long result = addOrInflated(compact, -augend.compact);
+      if (result != INFLATED) {
+        return new MarginBigDecimal(result);
+      }
+    }
+    return new MarginBigDecimal(toBigInteger().subtract(augend.toBigInteger()));
   }
 
   public MarginBigDecimal multiply(MarginBigDecimal multiplicand) {
     normalize();
     multiplicand.normalize();
-    BigInteger result = value.multiply(multiplicand.value).divide(SCALES[DEFAULT_SCALE]);
+    if (inflated == null && multiplicand.inflated == null) {
+      long result = multiplyDivide(compact, multiplicand.compact, ONE_UNSCALED);
+      if (result != INFLATED) {
+        return new MarginBigDecimal(result);
+      }
+    }
+    BigInteger result =
+        toBigInteger().multiply(multiplicand.toBigInteger()).divide(SCALES[DEFAULT_SCALE]);
     return new MarginBigDecimal(result);
   }
 
   public MarginBigDecimal multiply(long multiplicand) {
+    normalize();
+    if (inflated == null) {
+      // value * (multiplicand * 10^scale) / 10^scale is exactly value * multiplicand
+      long high = Math.multiplyHigh(compact, multiplicand);
+      long low = compact * multiplicand;
+      if ((high == 0 && low >= 0) || (high == -1 && low < 0 && low != INFLATED)) {
+        return new MarginBigDecimal(low);
+      }
+    }
     return multiply(MarginBigDecimal.valueOf(multiplicand));
   }
 
   public MarginBigDecimal divide(MarginBigDecimal divisor) {
     normalize();
     divisor.normalize();
-    BigInteger result = value.multiply(SCALES[DEFAULT_SCALE]).divide(divisor.value);
+    if (inflated == null && divisor.inflated == null) {
+      if (divisor.compact == 0) {
+        throw new ArithmeticException("BigInteger divide by zero");
+      }
+      long result = multiplyDivide(compact, ONE_UNSCALED, divisor.compact);
+      if (result != INFLATED) {
+        return new MarginBigDecimal(result);
+      }
+    }
+    BigInteger result =
+        toBigInteger().multiply(SCALES[DEFAULT_SCALE]).divide(divisor.toBigInteger());
     return new MarginBigDecimal(result);
   }
 
@@ -184,13 +372,14 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
   }
 
   public int multiplySign(MarginBigDecimal multiplicand) {
-    int sign = compare(this, ZERO);
-    int multiplicandSign = compare(multiplicand, ZERO);
-    return sign * multiplicandSign;
+    return signum() * multiplicand.signum();
   }
 
   public MarginBigDecimal abs() {
-    return new MarginBigDecimal(value.abs());
+    if (inflated == null) {
+      return compact >= 0 ? new MarginBigDecimal(compact) : new MarginBigDecimal(-compact);
+    }
+    return new MarginBigDecimal(inflated.abs());
   }
 
   public MarginBigDecimal min(MarginBigDecimal val) {
@@ -202,13 +391,32 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
   }
 
   public MarginBigDecimal negate() {
-    return new MarginBigDecimal(value.multiply(new BigInteger("-1")));
+    if (inflated == null) {
+      return new MarginBigDecimal(-compact);
+    }
+    return new MarginBigDecimal(inflated.negate());
   }
 
   private int compare(MarginBigDecimal value1, MarginBigDecimal value2) {
     value1.normalize();
     value2.normalize();
-    return value1.value.compareTo(value2.value);
+    if (value1.scale != value2.scale) {
+      // values with more decimals than the default scale keep their scale
+      int scale = Math.max(value1.scale, value2.scale);
+      return value1.toBigInteger().multiply(SCALES[scale - value1.scale])
+          .compareTo(value2.toBigInteger().multiply(SCALES[scale - value2.scale]));
+    }
+    if (value1.inflated == null && value2.inflated == null) {
+      return Long.compare(value1.compact, value2.compact);
+    }
+    if (value1.inflated == null) {
+      // an inflated value is always out of the compact range
+      return -value2.inflated.signum();
+    }
+    if (value2.inflated == null) {
+      return value1.inflated.signum();
+    }
+    return value1.inflated.compareTo(value2.inflated);
   }
 
   /**
@@ -218,12 +426,100 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
    */
   public MarginBigDecimal normalize() {
     if (this.scale != DEFAULT_SCALE && this.scale < DEFAULT_SCALE) {
-      value = value.multiply(SCALES[DEFAULT_SCALE - scale]);
+      if (inflated == null) {
+        setUnscaledValue(compact, DEFAULT_SCALE - scale);
+      } else {
+        setUnscaledValue(inflated.multiply(SCALES[DEFAULT_SCALE - scale]));
+      }
       scale = DEFAULT_SCALE;
     }
     return this;
   }
 
+  /**
+   * Add two unscaled values.
+   *
+   * @return the sum, or INFLATED if it does not fit in a compact value
+   */
+  static long addOrInflated(long a, long b) {
+    long result = a + b;
+    if (((a ^ result) & (b ^ result)) < 0) {
+      return INFLATED;
+    }
+    return result;
+  }
+
+  /**
+   * Compute a * b / divisor, truncated toward zero, through a 128-bit intermediate product.
+   *
+   * @return the quotient, or INFLATED if it does not fit in a compact value
+   */
+  static long multiplyDivide(long a, long b, long divisor) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    boolean negative = (a < 0) ^ (b < 0) ^ (divisor < 0);
+    // compact values are never Long.MIN_VALUE, so abs cannot overflow
+    long x = Math.abs(a);
+    long y = Math.abs(b);
+    long d = Math.abs(divisor);
+    long high = Math.multiplyHigh(x, y);
+    long low = x * y;
+    if (high == 0 && low >= 0) {
+      long quotient = low / d;
+      return negative ? -quotient : quotient;
+    }
+    if (Long.compareUnsigned(high, d) >= 0) {
+      // quotient needs more than 64 bits
+      return INFLATED;
+    }
+    long quotient = divideUnsigned128(high, low, d);
+    if (quotient < 0) {
+      return INFLATED;
+    }
+    return negative ? -quotient : quotient;
+  }
+
+  /**
+   * Unsigned division of the 128-bit value high:low by divisor, where high < divisor.
+   *
+   * <p>Algorithm divlu from Hacker's Delight, using 32-bit digits.
+   */
+  private static long divideUnsigned128(long high, long low, long divisor) {
+    final long base = 1L << 32;
+    final long mask = base - 1;
+    int shift = Long.numberOfLeadingZeros(divisor);
+    long v = divisor << shift;
+    long un32 = shift == 0 ? high : (high << shift) | (low >>> (64 - shift));
+    long un10 = low << shift;
+    long vn1 = v >>> 32;
+    long vn0 = v & mask;
+    long un1 = un10 >>> 32;
+    long un0 = un10 & mask;
+
+    long q1 = Long.divideUnsigned(un32, vn1);
+    long rhat = un32 - q1 * vn1;
+    while (q1 >= base || Long.compareUnsigned(q1 * vn0, (rhat << 32) + un1) > 0) {
+      q1--;
+      rhat += vn1;
+      if (rhat >= base) {
+        break;
+      }
+    }
+
+    long un21 = (un32 << 32) + un1 - q1 * v;
+    long q0 = Long.divideUnsigned(un21, vn1);
+    rhat = un21 - q0 * vn1;
+    while (q0 >= base || Long.compareUnsigned(q0 * vn0, (rhat << 32) + un0) > 0) {
+      q0--;
+      rhat += vn1;
+      if (rhat >= base) {
+        break;
+      }
+    }
+    return (q1 << 32) + q0;
+  }
+
   @Override
   public int compareTo(MarginBigDecimal o) {
     return this.compare(this, o);
@@ -243,33 +539,62 @@ public class MarginBigDecimal implements Comparable<MarginBigDecimal>, Serializa
 
   @Override
   public int hashCode() {
-    return Objects.hash(value, scale);
+    // same value as Objects.hash(BigInteger.valueOf(unscaled), scale)
+    int valueHash;
+    if (inflated != null) {
+      valueHash = inflated.hashCode();
+    } else {
+      long magnitude = Math.abs(compact);
+      int highWord = (int) (magnitude >>> 32);
+      valueHash = 0;
+      if (highWord != 0) {
+        valueHash = highWord;
+      }
+      valueHash = (int) (31 * valueHash + (magnitude & 0xFFFFFFFFL));
+      valueHash *= Long.signum(compact);
+    }
+    return 31 * (31 + valueHash) + scale;
   }
 
   @Override
   public String toString() {
-    BigInteger quotient = value.divide(SCALES[scale]);
-    BigInteger remainder = value.remainder(SCALES[scale]);
+    if (inflated == null) {
+      long quotient = compact / LONG_SCALES[scale];
+      long remainder = compact % LONG_SCALES[scale];
+      if (remainder == 0) {
+        return String.valueOf(quotient);
+      }
+      String string = String.valueOf(quotient);
+      if (quotient == 0 && compact < 0) {
+        string = "-0";
+      }
+      return string + "." + fraction(String.valueOf(Math.abs(remainder)));
+    }
+    BigInteger quotient = inflated.divide(SCALES[scale]);
+    BigInteger remainder = inflated.remainder(SCALES[scale]);
     if (remainder.equals(BigInteger.ZERO)) {
       return String.valueOf(quotient);
     } else {
-      String remainderString = String.valueOf(remainder.abs());
-      String padding = ZERO_PADDINGS[scale - remainderString.length()];
-      int index = remainderString.length() - 1;
-      while (remainderString.charAt(index) == '0') {
-        index--;
-      }
       String string = String.valueOf(quotient);
-      if (quotient.equals(BigInteger.ZERO) & value.compareTo(BigInteger.ZERO) < 0) {
+      if (quotient.equals(BigInteger.ZERO) & inflated.compareTo(BigInteger.ZERO) < 0) {
         string = "-0";
       }
-      return string + "." + padding + remainderString.substring(0, index + 1);
+      return string + "." + fraction(String.valueOf(remainder.abs()));
+    }
+  }
+
+  private String fraction(String remainderString) {
+    String padding = ZERO_PADDINGS[scale - remainderString.length()];
+    int index = remainderString.length() - 1;
+    while (remainderString.charAt(index) == '0') {
+      index--;
     }
+    return padding + remainderString.substring(0, index + 1);
   }
 
   @VisibleForTesting
   BigInteger getUnscaledValue() {
-    return value;
+    return toBigInteger();
   }
 
   @VisibleForTesting
@@ -0,0 +1,481 @@
+package com.sotatek.future.util.binary;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.entity.AdjustLeverage;
+import com.sotatek.future.entity.BaseEntity;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandError;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.FundingHistory;
+import com.sotatek.future.entity.MarginHistory;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.entity.PositionHistory;
+import com.sotatek.future.entity.Trade;
+import com.sotatek.future.entity.Transaction;
+import com.sotatek.future.enums.Asset;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.ContractType;
+import com.sotatek.future.enums.MarginMode;
+import com.sotatek.future.enums.OrderNote;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderTrigger;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.enums.TPSLType;
+import com.sotatek.future.enums.TimeInForce;
+import com.sotatek.future.enums.TriggerCondition;
+import com.sotatek.future.model.AccHasNoOpenOrdersAndPositions;
+import com.sotatek.future.util.BinaryReader;
+import com.sotatek.future.util.BinaryWriter;
+import com.sotatek.future.util.json.JsonUtil;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Versioned binary codec of engine commands and outputs.
+ *
+ * <p>{@link Order}, {@link Trade}, {@link Position} and {@link Account} are written field by field
+ * in the fixed order of this class, which is the schema of the format. Fields marked with
+ * {@code @Exclude} are engine state and are not written, the same as in JSON. Payloads which are
+ * rare or not on the hot path (funding, margin and position histories, transactions, errors and
+ * command data of the other command codes) are embedded as JSON, so they keep the JSON shape the
+ * backend already knows.
+ *
+ * <p>Each message starts with {@link #VERSION}. Any change of the schema, including reordering
+ * the constants of an enum, must increase it.
+ */
+public final class BinaryCodec {
+  public static final int VERSION = 1;
+
+  private static final Gson gson = JsonUtil.createGson();
+  private static final CommandCode[] COMMAND_CODES = CommandCode.values();
+  private static final Asset[] ASSETS = Asset.values();
+  private static final ContractType[] CONTRACT_TYPES = ContractType.values();
+  private static final MarginMode[] MARGIN_MODES = MarginMode.values();
+  private static final OrderNote[] ORDER_NOTES = OrderNote.values();
+  private static final OrderSide[] ORDER_SIDES = OrderSide.values();
+  private static final OrderStatus[] ORDER_STATUSES = OrderStatus.values();
+  private static final OrderTrigger[] ORDER_TRIGGERS = OrderTrigger.values();
+  private static final OrderType[] ORDER_TYPES = OrderType.values();
+  private static final TPSLType[] TPSL_TYPES = TPSLType.values();
+  private static final TimeInForce[] TIME_IN_FORCES = TimeInForce.values();
+  private static final TriggerCondition[] TRIGGER_CONDITIONS = TriggerCondition.values();
+
+  private static final Type FUNDING_HISTORIES = listType(FundingHistory.class);
+  private static final Type MARGIN_HISTORIES = listType(MarginHistory.class);
+  private static final Type POSITION_HISTORIES = listType(PositionHistory.class);
+  private static final Type TRANSACTIONS = listType(Transaction.class);
+  private static final Type ERRORS = listType(CommandError.class);
+  private static final Type OBJECTS = listType(Object.class);
+  private static final Type ACC_HAS_NO_OPEN_ORDERS_AND_POSITIONS =
+      listType(AccHasNoOpenOrdersAndPositions.class);
+
+  private BinaryCodec() {}
+
+  public static byte[] encodeCommand(Command command) {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeByte(VERSION);
+    writer.writeEnum(command.getCode());
+    Object data = command.getData();
+    if (data instanceof Order order) {
+      writer.writeByte(DataType.ORDER);
+      writeOrder(writer, order);
+    } else if (data instanceof Position position) {
+      writer.writeByte(DataType.POSITION);
+      writePosition(writer, position);
+    } else if (data instanceof Account account) {
+      writer.writeByte(DataType.ACCOUNT);
+      writeAccount(writer, account);
+    } else if (data != null) {
+      writer.writeByte(DataType.JSON);
+      writer.writeString(gson.toJson(data));
+    } else {
+      writer.writeByte(DataType.NULL);
+    }
+    return writer.toByteArray();
+  }
+
+  public static Command decodeCommand(byte[] bytes) {
+    BinaryReader reader = new BinaryReader(bytes);
+    checkVersion(reader);
+    CommandCode code = reader.readEnum(COMMAND_CODES);
+    int dataType = reader.readByte();
+    Object data =
+        switch (dataType) {
+          case DataType.NULL -> null;
+          case DataType.ORDER -> readOrder(reader);
+          case DataType.POSITION -> readPosition(reader);
+          case DataType.ACCOUNT -> readAccount(reader);
+          case DataType.JSON -> gson.fromJson(reader.readString(), code.getDataClass());
+          default -> throw new IllegalStateException("Unknown command data type " + dataType);
+        };
+    return new Command(code, data);
+  }
+
+  public static byte[] encodeOutput(CommandOutput output) {
+    BinaryWriter writer = new BinaryWriter(1024);
+    writer.writeByte(VERSION);
+    writer.writeEnum(output.getCode());
+    writeJson(writer, output.getData());
+    writer.writeBoolean(output.isShouldSeedLiquidationOrderId());
+    writeList(writer, output.getAccounts(), BinaryCodec::writeAccount);
+    writeJson(writer, output.getFundingHistories());
+    writeJson(writer, output.getMarginHistories());
+    writeList(writer, output.getOrders(), BinaryCodec::writeOrder);
+    writeJson(writer, output.getPositionHistories());
+    writeList(writer, output.getPositions(), BinaryCodec::writePosition);
+    writeList(writer, output.getTrades(), BinaryCodec::writeTrade);
+    writeJson(writer, output.getTransactions());
+    writeJson(writer, output.getErrors());
+    writeList(writer, output.getLiquidatedPositions(), BinaryCodec::writePosition);
+    writeJson(writer, output.getAdjustLeverage());
+    writeJson(writer, output.getRetrievingData());
+    writeJson(writer, output.getAccHasNoOpenOrdersAndPositionsList());
+    return writer.toByteArray();
+  }
+
+  public static CommandOutput decodeOutput(byte[] bytes) {
+    BinaryReader reader = new BinaryReader(bytes);
+    checkVersion(reader);
+    CommandOutput output = new CommandOutput();
+    output.setCode(reader.readEnum(COMMAND_CODES));
+    output.setData(readJson(reader, Object.class));
+    output.setShouldSeedLiquidationOrderId(reader.readBoolean());
+    output.setAccounts(readList(reader, BinaryCodec::readAccount));
+    output.setFundingHistories(readJson(reader, FUNDING_HISTORIES));
+    output.setMarginHistories(readJson(reader, MARGIN_HISTORIES));
+    output.setOrders(readList(reader, BinaryCodec::readOrder));
+    output.setPositionHistories(readJson(reader, POSITION_HISTORIES));
+    output.setPositions(readList(reader, BinaryCodec::readPosition));
+    output.setTrades(readList(reader, BinaryCodec::readTrade));
+    output.setTransactions(readJson(reader, TRANSACTIONS));
+    output.setErrors(readJson(reader, ERRORS));
+    output.setLiquidatedPositions(readList(reader, BinaryCodec::readPosition));
+    output.setAdjustLeverage(readJson(reader, AdjustLeverage.class));
+    output.setRetrievingData(readJson(reader, OBJECTS));
+    output.setAccHasNoOpenOrdersAndPositionsList(
+        readJson(reader, ACC_HAS_NO_OPEN_ORDERS_AND_POSITIONS));
+    return output;
+  }
+
+  static void writeOrder(BinaryWriter writer, Order order) {
+    writeBaseEntity(writer, order);
+    writer.writeLong(order.getUserId());
+    writer.writeLong(order.getAccountId());
+    writer.writeString(order.getSymbol());
+    writer.writeEnum(order.getAsset());
+    writer.writeEnum(order.getSide());
+    writer.writeEnum(order.getType());
+    writer.writeDecimal(order.getPrice());
+    writer.writeDecimal(order.getQuantity());
+    writer.writeDecimal(order.getRemaining());
+    writer.writeDecimal(order.getLockPrice());
+    writer.writeDecimal(order.getOrderValue());
+    writer.writeDecimal(order.getExecutedPrice());
+    writer.writeEnum(order.getTpSLType());
+    writer.writeDecimal(order.getTpSLPrice());
+    writer.writeEnum(order.getTrigger());
+    writer.writeEnum(order.getTimeInForce());
+    writer.writeDecimal(order.getTrailPrice());
+    writer.writeDecimal(order.getCallbackRate());
+    writer.writeDecimal(order.getActivationPrice());
+    writer.writeEnum(order.getStatus());
+    writer.writeEnum(order.getStopCondition());
+    writer.writeBoolean(order.isReduceOnly());
+    writer.writeBoolean(order.isPostOnly());
+    writer.writeBoolean(order.isClosePositionOrder());
+    writer.writeEnum(order.getNote());
+    writer.writeDecimal(order.getLeverage());
+    writer.writeEnum(order.getMarginMode());
+    writer.writeBoolean(order.isHidden());
+    writer.writeLong(order.getLinkedOrderId());
+    writer.writeLong(order.getTakeProfitOrderId());
+    writer.writeLong(order.getStopLossOrderId());
+    writer.writeLong(order.getParentOrderId());
+    writer.writeDecimal(order.getCost());
+    writer.writeDecimal(order.getOriginalCost());
+    writer.writeDecimal(order.getOrderMargin());
+    writer.writeDecimal(order.getOriginalOrderMargin());
+    writer.writeBoolean(order.isTriggered());
+    writer.writeBoolean(order.isTpSlOrder());
+    writer.writeBoolean(order.isTpSlTriggered());
+    writer.writeEnum(order.getContractType());
+    writer.writeString(order.getUserEmail());
+    writer.writeString(order.getTmpId());
+  }
+
+  static Order readOrder(BinaryReader reader) {
+    Order order = new Order();
+    readBaseEntity(reader, order);
+    order.setUserId(reader.readLong());
+    order.setAccountId(reader.readLong());
+    order.setSymbol(reader.readString());
+    order.setAsset(reader.readEnum(ASSETS));
+    order.setSide(reader.readEnum(ORDER_SIDES));
+    order.setType(reader.readEnum(ORDER_TYPES));
+    order.setPrice(reader.readDecimal());
+    order.setQuantity(reader.readDecimal());
+    order.setRemaining(reader.readDecimal());
+    order.setLockPrice(reader.readDecimal());
+    order.setOrderValue(reader.readDecimal());
+    order.setExecutedPrice(reader.readDecimal());
+    order.setTpSLType(reader.readEnum(TPSL_TYPES));
+    order.setTpSLPrice(reader.readDecimal());
+    order.setTrigger(reader.readEnum(ORDER_TRIGGERS));
+    order.setTimeInForce(reader.readEnum(TIME_IN_FORCES));
+    order.setTrailPrice(reader.readDecimal());
+    order.setCallbackRate(reader.readDecimal());
+    order.setActivationPrice(reader.readDecimal());
+    order.setStatus(reader.readEnum(ORDER_STATUSES));
+    order.setStopCondition(reader.readEnum(TRIGGER_CONDITIONS));
+    order.setReduceOnly(reader.readBoolean());
+    order.setPostOnly(reader.readBoolean());
+    order.setClosePositionOrder(reader.readBoolean());
+    order.setNote(reader.readEnum(ORDER_NOTES));
+    order.setLeverage(reader.readDecimal());
+    order.setMarginMode(reader.readEnum(MARGIN_MODES));
+    order.setHidden(reader.readBoolean());
+    order.setLinkedOrderId(reader.readLong());
+    order.setTakeProfitOrderId(reader.readLong());
+    order.setStopLossOrderId(reader.readLong());
+    order.setParentOrderId(reader.readLong());
+    order.setCost(reader.readDecimal());
+    order.setOriginalCost(reader.readDecimal());
+    order.setOrderMargin(reader.readDecimal());
+    order.setOriginalOrderMargin(reader.readDecimal());
+    order.setTriggered(reader.readBoolean());
+    order.setTpSlOrder(reader.readBoolean());
+    order.setTpSlTriggered(reader.readBoolean());
+    order.setContractType(reader.readEnum(CONTRACT_TYPES));
+    order.setUserEmail(reader.readString());
+    order.setTmpId(reader.readString());
+    return order;
+  }
+
+  static void writeTrade(BinaryWriter writer, Trade trade) {
+    writeBaseEntity(writer, trade);
+    writer.writeString(trade.getSymbol());
+    writer.writeLong(trade.getBuyAccountId());
+    writer.writeLong(trade.getSellAccountId());
+    writer.writeLong(trade.getBuyUserId());
+    writer.writeLong(trade.getSellUserId());
+    writeNullable(writer, trade.getBuyOrder(), BinaryCodec::writeOrder);
+    writeNullable(writer, trade.getSellOrder(), BinaryCodec::writeOrder);
+    writer.writeLong(trade.getBuyOrderId());
+    writer.writeLong(trade.getSellOrderId());
+    writer.writeBoolean(trade.isBuyerIsTaker());
+    writer.writeDecimal(trade.getQuantity());
+    writer.writeDecimal(trade.getPrice());
+    writer.writeDecimal(trade.getBuyFee());
+    writer.writeDecimal(trade.getSellFee());
+    writer.writeEnum(trade.getNote());
+    writer.writeDecimal(trade.getBuyFeeRate());
+    writer.writeDecimal(trade.getSellFeeRate());
+    writer.writeDecimal(trade.getRealizedPnlOrderBuy());
+    writer.writeDecimal(trade.getRealizedPnlOrderSell());
+    writer.writeEnum(trade.getContractType());
+    writer.writeString(trade.getBuyEmail());
+    writer.writeString(trade.getSellEmail());
+    writer.writeString(trade.getUuid());
+  }
+
+  static Trade readTrade(BinaryReader reader) {
+    Trade trade = new Trade();
+    readBaseEntity(reader, trade);
+    trade.setSymbol(reader.readString());
+    trade.setBuyAccountId(reader.readLong());
+    trade.setSellAccountId(reader.readLong());
+    trade.setBuyUserId(reader.readLong());
+    trade.setSellUserId(reader.readLong());
+    trade.setBuyOrder(readNullable(reader, BinaryCodec::readOrder));
+    trade.setSellOrder(readNullable(reader, BinaryCodec::readOrder));
+    trade.setBuyOrderId(reader.readLong());
+    trade.setSellOrderId(reader.readLong());
+    trade.setBuyerIsTaker(reader.readBoolean());
+    trade.setQuantity(reader.readDecimal());
+    trade.setPrice(reader.readDecimal());
+    trade.setBuyFee(reader.readDecimal());
+    trade.setSellFee(reader.readDecimal());
+    trade.setNote(reader.readEnum(ORDER_NOTES));
+    trade.setBuyFeeRate(reader.readDecimal());
+    trade.setSellFeeRate(reader.readDecimal());
+    trade.setRealizedPnlOrderBuy(reader.readDecimal());
+    trade.setRealizedPnlOrderSell(reader.readDecimal());
+    trade.setContractType(reader.readEnum(CONTRACT_TYPES));
+    trade.setBuyEmail(reader.readString());
+    trade.setSellEmail(reader.readString());
+    trade.setUuid(reader.readString());
+    return trade;
+  }
+
+  static void writePosition(BinaryWriter writer, Position position) {
+    writeBaseEntity(writer, position);
+    writer.writeBoolean(position.isCross());
+    writer.writeLong(position.getUserId());
+    writer.writeLong(position.getAccountId());
+    writer.writeLong(position.getStopLossOrderId());
+    writer.writeLong(position.getTakeProfitOrderId());
+    writer.writeString(position.getSymbol());
+    writer.writeEnum(position.getAsset());
+    writer.writeDecimal(position.getLeverage());
+    writer.writeDecimal(position.getCurrentQty());
+    writer.writeDecimal(position.getEntryPrice());
+    writer.writeDecimal(position.getEntryValue());
+    writer.writeDecimal(position.getPositionMargin());
+    writer.writeEnum(position.getContractType());
+    writeList(
+        writer,
+        position.getOrders(),
+        (w, order) -> writeNullable(w, order, BinaryCodec::writeOrder));
+    writer.writeDecimal(position.getMarBuy());
+    writer.writeDecimal(position.getMarSel());
+    writer.writeDecimal(position.getOrderCost());
+    writer.writeDecimal(position.getAdjustMargin());
+    writer.writeVarInt(position.getLiquidationProgress());
+    writer.writeDecimal(position.getPnlRanking());
+    writer.writeDecimal(position.getLiquidationPrice());
+    writer.writeDecimal(position.getBankruptPrice());
+    writer.writeDecimal(position.getCloseSize());
+    writer.writeDecimal(position.getAvgClosePrice());
+    writer.writeDecimal(position.getTmpTotalFee());
+    writer.writeDate(position.getLastOpenTime());
+  }
+
+  static Position readPosition(BinaryReader reader) {
+    Position position = new Position();
+    readBaseEntity(reader, position);
+    position.setCross(reader.readBoolean());
+    position.setUserId(reader.readLong());
+    position.setAccountId(reader.readLong());
+    position.setStopLossOrderId(reader.readLong());
+    position.setTakeProfitOrderId(reader.readLong());
+    position.setSymbol(reader.readString());
+    position.setAsset(reader.readEnum(ASSETS));
+    position.setLeverage(reader.readDecimal());
+    position.setCurrentQty(reader.readDecimal());
+    position.setEntryPrice(reader.readDecimal());
+    position.setEntryValue(reader.readDecimal());
+    position.setPositionMargin(reader.readDecimal());
+    position.setContractType(reader.readEnum(CONTRACT_TYPES));
+    position.setOrders(readList(reader, r -> readNullable(r, BinaryCodec::readOrder)));
+    position.setMarBuy(reader.readDecimal());
+    position.setMarSel(reader.readDecimal());
+    position.setOrderCost(reader.readDecimal());
+    position.setAdjustMargin(reader.readDecimal());
+    position.setLiquidationProgress(reader.readVarInt());
+    position.setPnlRanking(reader.readDecimal());
+    position.setLiquidationPrice(reader.readDecimal());
+    position.setBankruptPrice(reader.readDecimal());
+    position.setCloseSize(reader.readDecimal());
+    position.setAvgClosePrice(reader.readDecimal());
+    position.setTmpTotalFee(reader.readDecimal());
+    position.setLastOpenTime(reader.readDate());
+    return position;
+  }
+
+  static void writeAccount(BinaryWriter writer, Account account) {
+    writeBaseEntity(writer, account);
+    writer.writeLong(account.getUserId());
+    writer.writeEnum(account.getAsset());
+    writer.writeDecimal(account.getBalance());
+    writer.writeString(account.getUserEmail());
+  }
+
+  static Account readAccount(BinaryReader reader) {
+    Account account = new Account();
+    readBaseEntity(reader, account);
+    account.setUserId(reader.readLong());
+    account.setAsset(reader.readEnum(ASSETS));
+    account.setBalance(reader.readDecimal());
+    account.setUserEmail(reader.readString());
+    return account;
+  }
+
+  private static void writeBaseEntity(BinaryWriter writer, BaseEntity entity) {
+    writer.writeLong(entity.getId());
+    writer.writeString(entity.getOperationId());
+    writer.writeDate(entity.getCreatedAt());
+    writer.writeDate(entity.getUpdatedAt());
+  }
+
+  private static void readBaseEntity(BinaryReader reader, BaseEntity entity) {
+    entity.setId(reader.readLong());
+    entity.setOperationId(reader.readString());
+    entity.setCreatedAt(reader.readDate());
+    entity.setUpdatedAt(reader.readDate());
+  }
+
+  private static <T> void writeNullable(
+      BinaryWriter writer, T value, BiConsumer<BinaryWriter, T> valueWriter) {
+    writer.writeBoolean(value != null);
+    if (value != null) {
+      valueWriter.accept(writer, value);
+    }
+  }
+
+  private static <T> T readNullable(BinaryReader reader, Function<BinaryReader, T> valueReader) {
+    return reader.readBoolean() ? valueReader.apply(reader) : null;
+  }
+
+  private static <T> void writeList(
+      BinaryWriter writer, List<T> list, BiConsumer<BinaryWriter, T> elementWriter) {
+    // size + 1, 0 means a null list
+    if (list == null) {
+      writer.writeVarInt(0);
+      return;
+    }
+    writer.writeVarInt(list.size() + 1);
+    for (T element : list) {
+      elementWriter.accept(writer, element);
+    }
+  }
+
+  private static <T> List<T> readList(
+      BinaryReader reader, Function<BinaryReader, T> elementReader) {
+    int size = reader.readVarInt() - 1;
+    if (size < 0) {
+      return null;
+    }
+    List<T> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(elementReader.apply(reader));
+    }
+    return list;
+  }
+
+  private static void writeJson(BinaryWriter writer, Object value) {
+    writer.writeString(value == null ? null : gson.toJson(value));
+  }
+
+  private static <T> T readJson(BinaryReader reader, Type type) {
+    String json = reader.readString();
+    return json == null ? null : gson.fromJson(json, type);
+  }
+
+  private static void checkVersion(BinaryReader reader) {
+    int version = reader.readByte();
+    if (version != VERSION) {
+      throw new IllegalStateException(
+          "Unsupported binary codec version " + version + ", expected " + VERSION);
+    }
+  }
+
+  private static Type listType(Class<?> elementClass) {
+    return TypeToken.getParameterized(List.class, elementClass).getType();
+  }
+
+  /** Tag of the payload of a command */
+  private static final class DataType {
+    static final int NULL = 0;
+    static final int ORDER = 1;
+    static final int POSITION = 2;
+    static final int ACCOUNT = 3;
+    static final int JSON = 4;
+  }
+}
@@ -0,0 +1,66 @@
+package com.sotatek.future.util.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.SummaryMetricFamily;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the histograms of the {@link LatencyRecorder} to Prometheus as summaries. Count and sum
+ * are totals, quantiles and max are over the values recorded since the previous scrape, so they
+ * are meant for one Prometheus server.
+ */
+public class LatencyCollector extends Collector {
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final List<String> LABEL_NAMES =
+      List.of("shard_id", "stage", "command_code", "symbol");
+
+  private final String shardId;
+  private final LatencyRecorder recorder;
+
+  public LatencyCollector(String shardId, LatencyRecorder recorder) {
+    this.shardId = shardId;
+    this.recorder = recorder;
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<Double> quantiles = new ArrayList<>();
+    for (double quantile : QUANTILES) {
+      quantiles.add(quantile);
+    }
+    SummaryMetricFamily latency =
+        new SummaryMetricFamily(
+            "matching_engine_command_latency_seconds",
+            "Command latency by pipeline stage",
+            LABEL_NAMES,
+            quantiles);
+    GaugeMetricFamily max =
+        new GaugeMetricFamily(
+            "matching_engine_command_latency_max_seconds",
+            "Highest command latency by pipeline stage since the previous scrape",
+            LABEL_NAMES);
+    recorder.forEach(
+        (stage, code, symbol, histogram) -> {
+          List<String> labels = List.of(shardId, stage.name(), code.name(), symbol);
+          LatencyHistogram.Interval interval = histogram.readInterval(QUANTILES);
+          List<Double> values = new ArrayList<>(QUANTILES.length);
+          for (int i = 0; i < QUANTILES.length; i++) {
+            values.add(
+                interval.quantileNanos() != null
+                    ? interval.quantileNanos()[i] / NANOS_PER_SECOND
+                    : Double.NaN);
+          }
+          latency.addMetric(
+              labels,
+              histogram.getCount(),
+              histogram.getTotalNanos() / NANOS_PER_SECOND,
+              values);
+          max.addMetric(labels, interval.maxNanos() / NANOS_PER_SECOND);
+        });
+    return List.of(latency, max);
+  }
+}
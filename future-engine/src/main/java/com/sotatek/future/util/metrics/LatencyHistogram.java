@@ -0,0 +1,120 @@
+package com.sotatek.future.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, like HdrHistogram with about 2
+ * significant digits.
+ *
+ * <p>Each power of 2 is split into 32 buckets, so a value is reported within 1/32 of itself.
+ * Buckets of a power of 2 are allocated when a value first falls into it, so a histogram costs a
+ * few KB. Recording is lock free and safe from any thread. Quantiles are read for the interval
+ * since the previous read, by one reader at a time.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values above are recorded as this, about 18 minutes
+  static final long MAX_VALUE = (1L << 40) - 1;
+  private static final int OCTAVES =
+      64 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BUCKET_BITS + 1;
+
+  private final AtomicReferenceArray<AtomicLongArray> counts = new AtomicReferenceArray<>(OCTAVES);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator intervalMax = new LongAccumulator(Long::max, 0);
+  // counts at the previous read
+  private final long[][] readCounts = new long[OCTAVES][];
+
+  public void record(long nanos) {
+    long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+    int octave = octaveOf(value);
+    AtomicLongArray buckets = counts.get(octave);
+    if (buckets == null) {
+      counts.compareAndSet(octave, null, new AtomicLongArray(SUB_BUCKETS));
+      buckets = counts.get(octave);
+    }
+    buckets.incrementAndGet(subBucketOf(value, octave));
+    totalCount.increment();
+    totalNanos.add(value);
+    intervalMax.accumulate(value);
+  }
+
+  static int octaveOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return 0;
+    }
+    return 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+  }
+
+  static int subBucketOf(long value, int octave) {
+    return octave == 0 ? (int) value : (int) (value >>> (octave - 1)) - SUB_BUCKETS;
+  }
+
+  /** Highest value which falls into a bucket */
+  static long highestValueOf(int octave, int subBucket) {
+    if (octave == 0) {
+      return subBucket;
+    }
+    return ((long) (subBucket + SUB_BUCKETS + 1) << (octave - 1)) - 1;
+  }
+
+  public long getCount() {
+    return totalCount.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Take the values recorded since the previous call.
+   *
+   * @param quantiles quantiles to compute, in increasing order
+   */
+  public synchronized Interval readInterval(double... quantiles) {
+    long[][] interval = new long[OCTAVES][];
+    long count = 0;
+    for (int octave = 0; octave < OCTAVES; octave++) {
+      AtomicLongArray buckets = counts.get(octave);
+      if (buckets == null) {
+        continue;
+      }
+      if (readCounts[octave] == null) {
+        readCounts[octave] = new long[SUB_BUCKETS];
+      }
+      interval[octave] = new long[SUB_BUCKETS];
+      for (int i = 0; i < SUB_BUCKETS; i++) {
+        long current = buckets.get(i);
+        interval[octave][i] = current - readCounts[octave][i];
+        readCounts[octave][i] = current;
+        count += interval[octave][i];
+      }
+    }
+    long max = intervalMax.getThenReset();
+    long[] values = new long[quantiles.length];
+    int next = 0;
+    long seen = 0;
+    for (int octave = 0; octave < OCTAVES && next < quantiles.length && count > 0; octave++) {
+      if (interval[octave] == null) {
+        continue;
+      }
+      for (int i = 0; i < SUB_BUCKETS && next < quantiles.length; i++) {
+        seen += interval[octave][i];
+        while (next < quantiles.length && seen >= Math.ceil(quantiles[next] * count)) {
+          values[next++] = Math.min(highestValueOf(octave, i), max);
+        }
+      }
+    }
+    return new Interval(count, max, count > 0 ? values : null);
+  }
+
+  /**
+   * Values recorded in an interval, quantiles are null if there are none.
+   */
+  public record Interval(long count, long maxNanos, long[] quantileNanos) {}
+}
@@ -0,0 +1,99 @@
+package com.sotatek.future.util.metrics;
+
+import com.sotatek.future.enums.CommandCode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histograms of the commands by pipeline stage, command code and symbol.
+ *
+ * <p>A command goes through the stages in order: it waits in the command queue, it is matched,
+ * its output is committed, then serialized and published by the output stream. Each stage is
+ * recorded from the end of the previous one. Recording is cheap enough to stay on, it can be
+ * turned off with the {@code latency.recording} system property.
+ */
+public class LatencyRecorder {
+
+  /** Pipeline stages of a command */
+  public enum Stage {
+    // enqueued to dequeued by the engine
+    QUEUE,
+    // dequeued, or previous commit, to commit
+    MATCH,
+    // building and writing the output
+    COMMIT,
+    // dequeued to the end of the tick, with journaling and replication
+    TICK,
+    // output written to serialized
+    SERIALIZE,
+    // serialized to published
+    PUBLISH,
+    // enqueued to published
+    END_TO_END,
+    // copying and encoding an engine snapshot on the engine thread, after the command
+    SNAPSHOT
+  }
+
+  private static final String NO_SYMBOL = "";
+  private static final LatencyRecorder instance = new LatencyRecorder();
+
+  private final boolean enabled =
+      Boolean.parseBoolean(System.getProperty("latency.recording", "true"));
+  // by code, then by symbol, then by stage
+  @SuppressWarnings("unchecked")
+  private final Map<String, AtomicReferenceArray<LatencyHistogram>>[] histograms =
+      new Map[CommandCode.values().length];
+
+  LatencyRecorder() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new ConcurrentHashMap<>();
+    }
+  }
+
+  public static LatencyRecorder getInstance() {
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void record(Stage stage, CommandCode code, String symbol, long nanos) {
+    if (!enabled || code == null) {
+      return;
+    }
+    Map<String, AtomicReferenceArray<LatencyHistogram>> bySymbol = histograms[code.ordinal()];
+    String key = symbol != null ? symbol : NO_SYMBOL;
+    AtomicReferenceArray<LatencyHistogram> byStage = bySymbol.get(key);
+    if (byStage == null) {
+      byStage =
+          bySymbol.computeIfAbsent(key, k -> new AtomicReferenceArray<>(Stage.values().length));
+    }
+    LatencyHistogram histogram = byStage.get(stage.ordinal());
+    if (histogram == null) {
+      byStage.compareAndSet(stage.ordinal(), null, new LatencyHistogram());
+      histogram = byStage.get(stage.ordinal());
+    }
+    histogram.record(nanos);
+  }
+
+  /** Visit the histograms which have values */
+  public void forEach(Visitor visitor) {
+    for (CommandCode code : CommandCode.values()) {
+      histograms[code.ordinal()].forEach(
+          (symbol, byStage) -> {
+            for (Stage stage : Stage.values()) {
+              LatencyHistogram histogram = byStage.get(stage.ordinal());
+              if (histogram != null) {
+                visitor.visit(stage, code, symbol, histogram);
+              }
+            }
+          });
+    }
+  }
+
+  public interface Visitor {
+    void visit(Stage stage, CommandCode code, String symbol, LatencyHistogram histogram);
+  }
+}
@@ -0,0 +1,6 @@
+package com.sotatek.future.value;
+
+import com.sotatek.future.util.MarginBigDecimal;
+
+/** Range of prices, a null bound means the range is unbounded on that side */
+public record PriceRange(MarginBigDecimal low, MarginBigDecimal high) {}
@@ -154,6 +154,39 @@ public class BaseServiceTest {
     TestEntity savedEntity = service.get(1L);
     Assertions.assertEquals(savedEntity, null);
   }
+
+  @Test
+  void test10() {
+    TestService service = new TestService();
+    service.setCurrentId(1);
+    TestEntity entity1 = new TestEntity("Entity1");
+    TestEntity entity2 = new TestEntity("Entity2");
+
+    service.insert(entity1);
+    service.insert(entity2);
+    service.commitTemporarily();
+
+    // change entity1 and insert entity3 after the savepoint
+    TestEntity changed = service.get(1L);
+    changed.setData("Entity1b");
+    service.update(changed);
+    service.insert(new TestEntity("Entity3"));
+    service.rollbackTemporary();
+
+    Assertions.assertEquals("Entity1", service.get(1L).getData());
+    Assertions.assertEquals("Entity2", service.get(2L).getData());
+    Assertions.assertNull(service.get(3L));
+
+    // the savepoint is still valid after a rollback
+    changed = service.get(2L);
+    changed.setData("Entity2b");
+    service.update(changed);
+    service.rollbackTemporary();
+    Assertions.assertEquals("Entity2", service.get(2L).getData());
+
+    service.commit();
+    Assertions.assertEquals(2, service.getEntities().size());
+  }
 }
 
 class TestEntity extends BaseEntity {
@@ -3,9 +3,11 @@ package com.sotatek.future;
 import com.sotatek.future.entity.OrderBook;
 import com.sotatek.future.entity.OrderBookEvent;
 import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.OrderBookDepth;
 import com.sotatek.future.enums.OrderSide;
 import com.sotatek.future.output.ListOrderBookStream;
 import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.util.TimeUtil;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -313,6 +315,111 @@ class OrderBookTest {
     this.doTest(input, output, changes);
   }
 
+  @Test
+  void publishChangesWithinDepth_when_snapshotNotDue() {
+    ListOrderBookStream stream =
+        new ListOrderBookStream(10, 60_000, List.of(OrderBookDepth.TOP_20, OrderBookDepth.FULL));
+    stream.connect();
+    List<OrderBookOutput> levels = new ArrayList<>();
+    for (int i = 0; i < 21; i++) {
+      levels.add(this.createOrderBookOutput(OrderSide.BUY, String.valueOf(10000 - i), "1"));
+    }
+    stream.write(levels);
+    stream.flush();
+    // the best bid is removed, the 21st level moves into the top 20
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.BUY, "10000", "-1")));
+    stream.flush();
+    // a change below the top 20 is only published to the full depth
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.BUY, "9000", "1")));
+    stream.flush();
+    stream.close();
+
+    List<OrderBookEvent> top20 =
+        stream.getDepthData().stream()
+            .filter(event -> event.getDepth() == OrderBookDepth.TOP_20)
+            .collect(Collectors.toList());
+    Assertions.assertEquals(2, top20.size());
+    List<String> best20 = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      best20.addAll(Arrays.asList(String.valueOf(10000 - i), "1"));
+    }
+    Assertions.assertEquals(
+        this.createOrderBook(best20, Arrays.asList()), top20.get(0).getOrderbook());
+    Assertions.assertNull(top20.get(1).getOrderbook());
+    Assertions.assertEquals(2L, top20.get(1).getSequence());
+    Assertions.assertEquals(
+        this.createOrderBook(Arrays.asList("10000", "0", "9980", "1"), Arrays.asList()),
+        top20.get(1).getChanges());
+
+    List<OrderBookEvent> full =
+        stream.getDepthData().stream()
+            .filter(event -> event.getDepth() == OrderBookDepth.FULL)
+            .collect(Collectors.toList());
+    Assertions.assertEquals(
+        List.of(1L, 2L, 3L),
+        full.stream().map(OrderBookEvent::getSequence).collect(Collectors.toList()));
+    Assertions.assertEquals(
+        this.createOrderBook(Arrays.asList("9000", "1"), Arrays.asList()),
+        full.get(2).getChanges());
+  }
+
+  @Test
+  void publishFullBookToLegacyStream_when_depthsPublished() {
+    ListOrderBookStream stream =
+        new ListOrderBookStream(10, 60_000, List.of(OrderBookDepth.TOP_20));
+    stream.connect();
+    List<OrderBookOutput> levels = new ArrayList<>();
+    for (int i = 0; i < 21; i++) {
+      levels.add(this.createOrderBookOutput(OrderSide.BUY, String.valueOf(10000 - i), "1"));
+    }
+    stream.write(levels);
+    stream.flush();
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.BUY, "9000", "1")));
+    stream.flush();
+    stream.close();
+
+    // every legacy event has the whole book, though the top 20 did not change
+    List<OrderBookEvent> data = stream.getData();
+    Assertions.assertEquals(2, data.size());
+    Assertions.assertNull(data.get(1).getDepth());
+    List<String> bids = new ArrayList<>();
+    for (int i = 0; i < 21; i++) {
+      bids.addAll(Arrays.asList(String.valueOf(10000 - i), "1"));
+    }
+    bids.addAll(Arrays.asList("9000", "1"));
+    Assertions.assertEquals(
+        this.createOrderBook(bids, Arrays.asList()), data.get(1).getOrderbook());
+    Assertions.assertEquals(
+        this.createOrderBook(Arrays.asList("9000", "1"), Arrays.asList()),
+        data.get(1).getChanges());
+    Assertions.assertEquals(1, stream.getDepthData().size());
+  }
+
+  @Test
+  void publishLegacyEventsOnTheirOwnInterval_when_depthsPublishedOften() {
+    ListOrderBookStream stream =
+        new ListOrderBookStream(10, 1000, 60_000, List.of(OrderBookDepth.TOP_20));
+    stream.connect();
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.BUY, "10000", "1")));
+    stream.flush();
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.BUY, "9999", "1")));
+    stream.flush();
+    stream.write(List.of(this.createOrderBookOutput(OrderSide.SELL, "10001", "1")));
+    stream.flush();
+
+    // the depth events follow each batch, the legacy event waits for its interval
+    Assertions.assertEquals(3, stream.getDepthData().size());
+    Assertions.assertEquals(1, stream.getData().size());
+    TimeUtil.sleep(1000);
+    stream.close();
+
+    List<OrderBookEvent> data = stream.getData();
+    Assertions.assertEquals(2, data.size());
+    Assertions.assertEquals(
+        this.createOrderBook(Arrays.asList("9999", "1"), Arrays.asList("10001", "1")),
+        data.get(1).getChanges());
+  }
+
   protected OrderBookOutput createOrderBookOutput(OrderSide side, String price, String quantity) {
     return new OrderBookOutput(
         side, MarginBigDecimal.valueOf(price), MarginBigDecimal.valueOf(quantity), "BTCUSD");
@@ -0,0 +1,145 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.CancelOrders;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.output.ListOutputStream;
+import com.sotatek.future.service.AccountService;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CancelOrdersTest extends BaseMatchingEngineTest {
+
+  private MatchingEngine previousEngine;
+  // commands left in the queue by the tests before, they are queued again after the test
+  private final List<Command> queuedCommands = new ArrayList<>();
+  private final ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+  private final ListOutputStream<OrderBookOutput> orderBookOutputStream =
+      new ListOutputStream<>();
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+    previousEngine = MatchingEngine.getInstance();
+    while (!MatchingEngine.commands.isEmpty()) {
+      queuedCommands.add(MatchingEngine.commands.take());
+    }
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    MatchingEngine.setInstance(previousEngine);
+    MatchingEngine.commands.addAll(queuedCommands);
+    super.tearDown();
+  }
+
+  @Test
+  void cancelOrdersBatch_cancelsTheListedOrdersOfTheAccount() {
+    CancelOrders cancelOrders = new CancelOrders();
+    cancelOrders.setAccountId(1L);
+    // order 4 belongs to another account
+    cancelOrders.setOrderIds(List.of(1L, 2L, 3L, 4L));
+
+    run(new Command(CommandCode.CANCEL_ORDERS_BATCH, cancelOrders));
+
+    assertThat(orderService.get(1L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(2L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(3L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(4L).getStatus()).isEqualTo(OrderStatus.ACTIVE);
+    assertThat(orderService.get(5L).getStatus()).isEqualTo(OrderStatus.ACTIVE);
+    // one output and one order book update per price level
+    CommandOutput output = lastOutput();
+    assertThat(output.getCode()).isEqualTo(CommandCode.CANCEL_ORDERS_BATCH);
+    assertThat(output.getOrders()).extracting(Order::getId).containsExactlyInAnyOrder(1L, 2L, 3L);
+    assertThat(lastOrderBookOutputs(2))
+        .containsExactly(
+            createOrderbookOutput(OrderSide.SELL, "65000", "-3"),
+            createOrderbookOutput(OrderSide.SELL, "65010", "-1"));
+  }
+
+  @Test
+  void cancelAll_cancelsTheOpenOrdersOfTheAccount() {
+    CancelOrders cancelOrders = new CancelOrders();
+    cancelOrders.setAccountId(1L);
+    cancelOrders.setSymbol(defaultSymbol);
+
+    run(new Command(CommandCode.CANCEL_ALL, cancelOrders));
+
+    assertThat(orderService.get(1L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(2L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(3L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(orderService.get(4L).getStatus()).isEqualTo(OrderStatus.ACTIVE);
+    assertThat(orderService.get(5L).getStatus()).isEqualTo(OrderStatus.CANCELED);
+    assertThat(lastOutput().getOrders())
+        .extracting(Order::getId)
+        .containsExactlyInAnyOrder(1L, 2L, 3L, 5L);
+    assertThat(lastOrderBookOutputs(3))
+        .containsExactly(
+            createOrderbookOutput(OrderSide.BUY, "64000", "-1"),
+            createOrderbookOutput(OrderSide.SELL, "65000", "-3"),
+            createOrderbookOutput(OrderSide.SELL, "65010", "-1"));
+  }
+
+  /** Place the orders of the tests, then run the cancel command */
+  private void run(Command cancelCommand) {
+    List<Command> commands = new ArrayList<>();
+    commands.add(
+        new Command(
+            CommandCode.CREATE_ACCOUNT,
+            createAccount(
+                defaultInsuranceAccountId,
+                AccountService.INSURANCE_USER_ID,
+                defaultBalance.multiply(1000))));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(1, defaultBalance)));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(2, defaultBalance)));
+    commands.add(order(1, 1, OrderSide.SELL, "65000", "1"));
+    commands.add(order(2, 1, OrderSide.SELL, "65000", "2"));
+    commands.add(order(3, 1, OrderSide.SELL, "65010", "1"));
+    commands.add(order(4, 2, OrderSide.SELL, "65000", "1"));
+    commands.add(order(5, 1, OrderSide.BUY, "64000", "1"));
+    commands.add(cancelCommand);
+    commands.add(new Command(CommandCode.STOP_ENGINE, null));
+
+    MatchingEngine engine = new MatchingEngine();
+    MatchingEngine.setInstance(engine);
+    MatchingEngineConfig config =
+        ReplayMatchingEngine.createConfig(commandOutputStream, orderBookOutputStream);
+    config.setCommandPreloadStream(createPreloadStream());
+    config.setCommandInputDriver(InputDriver.JAVA_LIST);
+    config.setCommandInputStream(new ListInputStream<>(commands));
+    engine.initialize(config);
+    engine.start();
+  }
+
+  private Command order(long id, long accountId, OrderSide side, String price, String quantity) {
+    return new Command(
+        CommandCode.PLACE_ORDER,
+        createOrder(id, accountId, side, OrderType.LIMIT, price, quantity));
+  }
+
+  private CommandOutput lastOutput() {
+    List<CommandOutput> outputs = commandOutputStream.getData();
+    return outputs.get(outputs.size() - 1);
+  }
+
+  private List<OrderBookOutput> lastOrderBookOutputs(int count) {
+    List<OrderBookOutput> outputs = orderBookOutputStream.getData();
+    return outputs.subList(outputs.size() - count, outputs.size());
+  }
+}
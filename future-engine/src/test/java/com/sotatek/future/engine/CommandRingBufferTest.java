@@ -0,0 +1,106 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sotatek.future.engine.CommandRingBuffer.WaitStrategy;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.enums.CommandCode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class CommandRingBufferTest {
+
+  private Command command(long value) {
+    return new Command(CommandCode.PLACE_ORDER, value);
+  }
+
+  @Test
+  void takeInEnqueueOrder_when_engineThreadOverflowsRing() throws Exception {
+    CommandRingBuffer buffer = new CommandRingBuffer(4);
+    buffer.add(command(0));
+    // register this thread as the engine thread
+    assertThat(buffer.take().getData()).isEqualTo(0L);
+
+    // the engine thread never waits for space, extra commands go to the overflow queue
+    for (long i = 1; i <= 10; i++) {
+      buffer.add(command(i));
+    }
+    assertThat(buffer.size()).isEqualTo(10);
+    for (long i = 1; i <= 10; i++) {
+      assertThat(buffer.take().getData()).isEqualTo(i);
+    }
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test
+  void reportTakenSequence_when_producerCommandsTaken() throws Exception {
+    CommandRingBuffer buffer = new CommandRingBuffer(4);
+    Thread producer = new Thread(() -> buffer.addAll(List.of(command(0), command(1))));
+    producer.start();
+    producer.join();
+    long added = buffer.getAddedSequence();
+
+    buffer.take();
+    assertThat(buffer.getTakenSequence()).isLessThan(added);
+    buffer.take();
+    assertThat(buffer.getTakenSequence()).isEqualTo(added);
+  }
+
+  @Test
+  void neverWait_when_registeredConsumerFillsRingBeforeTaking() throws Exception {
+    CommandRingBuffer buffer = new CommandRingBuffer(4);
+    // the engine enqueues a list preload before it takes its first command
+    buffer.registerConsumer();
+    for (long i = 0; i < 10; i++) {
+      buffer.add(command(i));
+    }
+    for (long i = 0; i < 10; i++) {
+      assertThat(buffer.take().getData()).isEqualTo(i);
+    }
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test
+  void keepOrderOfEachProducer_when_manyProducers() throws Exception {
+    CommandRingBuffer buffer = new CommandRingBuffer(8);
+    buffer.setWaitStrategy(WaitStrategy.YIELD);
+    int producers = 4;
+    int perProducer = 5000;
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      long base = (long) p * perProducer;
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int i = 0; i < perProducer; i++) {
+                  buffer.add(command(base + i));
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+
+    Map<Long, Long> lastByProducer = new HashMap<>();
+    for (int i = 0; i < producers * perProducer; i++) {
+      long value = (Long) buffer.take().getData();
+      long producer = value / perProducer;
+      Long last = lastByProducer.put(producer, value);
+      if (last != null) {
+        assertThat(value).isGreaterThan(last);
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test
+  void rejectCapacity_when_notPowerOfTwo() {
+    assertThrows(IllegalArgumentException.class, () -> new CommandRingBuffer(10));
+  }
+}
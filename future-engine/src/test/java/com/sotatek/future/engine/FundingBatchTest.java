@@ -0,0 +1,125 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.FundingHistory;
+import com.sotatek.future.entity.FundingParams;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.output.ListOutputStream;
+import com.sotatek.future.service.AccountService;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FundingBatchTest extends BaseMatchingEngineTest {
+
+  private MatchingEngine previousEngine;
+  // commands left in the queue by the tests before, they are queued again after the test
+  private final List<Command> queuedCommands = new ArrayList<>();
+  private final ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+    previousEngine = MatchingEngine.getInstance();
+    while (!MatchingEngine.commands.isEmpty()) {
+      queuedCommands.add(MatchingEngine.commands.take());
+    }
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    MatchingEngine.setInstance(previousEngine);
+    MatchingEngine.commands.addAll(queuedCommands);
+    super.tearDown();
+  }
+
+  @Test
+  void payFunding_outputsEachPosition_when_batchSizeIsOne() {
+    List<CommandOutput> outputs = payFunding(1);
+
+    // one output per position, then the output which sets the funding paid
+    assertThat(outputs).hasSize(3);
+    assertThat(outputs.get(0).getFundingHistories()).hasSize(1);
+    assertThat(outputs.get(1).getFundingHistories()).hasSize(1);
+    assertThat(outputs.get(2).getFundingHistories()).isEmpty();
+    assertFundingFees(outputs);
+  }
+
+  @Test
+  void payFunding_outputsPositionsInBatches() {
+    List<CommandOutput> outputs = payFunding(10);
+
+    assertThat(outputs).hasSize(1);
+    assertThat(outputs.get(0).getFundingHistories()).hasSize(2);
+    assertThat(outputs.get(0).getAccounts()).hasSize(2);
+    assertFundingFees(outputs);
+  }
+
+  /** Open a position for account 1 and 2, pay funding, then return the funding outputs */
+  private List<CommandOutput> payFunding(int batchSize) {
+    List<Command> commands = new ArrayList<>();
+    commands.add(
+        new Command(
+            CommandCode.CREATE_ACCOUNT,
+            createAccount(
+                defaultInsuranceAccountId,
+                AccountService.INSURANCE_USER_ID,
+                defaultBalance.multiply(1000))));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(1, defaultBalance)));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(2, defaultBalance)));
+    commands.add(
+        new Command(
+            CommandCode.PLACE_ORDER,
+            createOrder(1, 1, OrderSide.SELL, OrderType.LIMIT, "65000", "1")));
+    commands.add(
+        new Command(
+            CommandCode.PLACE_ORDER,
+            createOrder(2, 2, OrderSide.BUY, OrderType.LIMIT, "65000", "1")));
+    FundingParams params =
+        new FundingParams(
+            defaultSymbol,
+            MarginBigDecimal.valueOf("0.01"),
+            MarginBigDecimal.valueOf(65000),
+            new Date());
+    commands.add(new Command(CommandCode.PAY_FUNDING, params));
+    commands.add(new Command(CommandCode.STOP_ENGINE, null));
+
+    MatchingEngine engine = new MatchingEngine();
+    MatchingEngine.setInstance(engine);
+    MatchingEngineConfig config =
+        ReplayMatchingEngine.createConfig(commandOutputStream, new ListOutputStream<>());
+    config.setCommandPreloadStream(createPreloadStream());
+    config.setCommandInputDriver(InputDriver.JAVA_LIST);
+    config.setCommandInputStream(new ListInputStream<>(commands));
+    config.setFundingBatchSize(batchSize);
+    engine.initialize(config);
+    engine.start();
+    return commandOutputStream.getData().stream()
+        .filter(output -> output.getCode() == CommandCode.PAY_FUNDING)
+        .toList();
+  }
+
+  private void assertFundingFees(List<CommandOutput> outputs) {
+    // funding payment = (-1) * size * mark price * funding rate / 100
+    assertThat(outputs.stream().flatMap(output -> output.getFundingHistories().stream()))
+        .extracting(FundingHistory::getAccountId, FundingHistory::getAmount)
+        .containsExactlyInAnyOrder(
+            tuple(1L, MarginBigDecimal.valueOf("6.5")),
+            tuple(2L, MarginBigDecimal.valueOf("-6.5")));
+  }
+}
@@ -0,0 +1,74 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
+import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.output.ListOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MatchingEngineJournalTest extends BaseMatchingEngineTest {
+
+  @TempDir Path directory;
+  private MatchingEngine previousEngine;
+  // commands left in the queue by the tests before, they are queued again after the test
+  private final List<Command> queuedCommands = new ArrayList<>();
+  private final ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+    previousEngine = MatchingEngine.getInstance();
+    while (!MatchingEngine.commands.isEmpty()) {
+      queuedCommands.add(MatchingEngine.commands.take());
+    }
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    // commands of the preload which were not processed
+    while (!MatchingEngine.commands.isEmpty()) {
+      MatchingEngine.commands.take();
+    }
+    MatchingEngine.setInstance(previousEngine);
+    MatchingEngine.commands.addAll(queuedCommands);
+    super.tearDown();
+  }
+
+  @Test
+  void stopEngine_when_commandCannotBeJournaled() {
+    List<Command> commands = new ArrayList<>();
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(3, defaultBalance)));
+    commands.add(new Command(CommandCode.STOP_ENGINE, null));
+
+    MatchingEngine engine = new MatchingEngine();
+    MatchingEngine.setInstance(engine);
+    MatchingEngineConfig config =
+        ReplayMatchingEngine.createConfig(commandOutputStream, new ListOutputStream<>());
+    config.setCommandPreloadStream(createPreloadStream());
+    config.setCommandInputDriver(InputDriver.JAVA_LIST);
+    config.setCommandInputStream(new ListInputStream<>(commands));
+    config.setJournalDirectory(directory.toString());
+    // no record fits in a segment, as if the segment could not be mapped
+    config.setJournalSegmentSize(16);
+    engine.initialize(config);
+    engine.start();
+
+    // the engine stopped at the first command, without processing it
+    assertThat(commandOutputStream.getData()).isEmpty();
+    assertThat(accountService.getEntities()).extracting(Account::getId).doesNotContain(3L);
+  }
+}
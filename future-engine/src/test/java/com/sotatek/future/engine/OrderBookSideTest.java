@@ -0,0 +1,123 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+
+class OrderBookSideTest {
+
+  private Order createOrder(long id, OrderSide side, String price, String quantity) {
+    Order order = new Order(id, id, side, OrderType.LIMIT, price, quantity);
+    order.setStatus(OrderStatus.ACTIVE);
+    order.setPriority(id);
+    return order;
+  }
+
+  private List<Long> ids(OrderBookSide book) {
+    List<Long> ids = new ArrayList<>();
+    book.forEach(o -> ids.add(o.getId()));
+    return ids;
+  }
+
+  @Test
+  void returnBestPriceFirst_when_buySide() {
+    OrderBookSide book = new OrderBookSide(OrderSide.BUY);
+    book.add(createOrder(1, OrderSide.BUY, "100", "1"));
+    book.add(createOrder(2, OrderSide.BUY, "102", "1"));
+    book.add(createOrder(3, OrderSide.BUY, "101", "1"));
+    book.add(createOrder(4, OrderSide.BUY, "102", "2"));
+
+    assertThat(book.first().getId()).isEqualTo(2L);
+    assertThat(ids(book)).containsExactly(2L, 4L, 3L, 1L);
+    assertThat(book.getLevelCount()).isEqualTo(3);
+    assertThat(book.getLevelQuantity(MarginBigDecimal.valueOf(102)))
+        .isEqualTo(MarginBigDecimal.valueOf(3));
+  }
+
+  @Test
+  void returnBestPriceFirst_when_sellSide() {
+    OrderBookSide book = new OrderBookSide(OrderSide.SELL);
+    book.add(createOrder(1, OrderSide.SELL, "100", "1"));
+    book.add(createOrder(2, OrderSide.SELL, "98", "1"));
+    book.add(createOrder(3, OrderSide.SELL, "99", "1"));
+
+    assertThat(book.first().getId()).isEqualTo(2L);
+    assertThat(ids(book)).containsExactly(2L, 3L, 1L);
+  }
+
+  @Test
+  void keepPriorityOrder_when_orderIsReinserted() {
+    OrderBookSide book = new OrderBookSide(OrderSide.SELL);
+    Order order1 = createOrder(1, OrderSide.SELL, "100", "1");
+    book.add(order1);
+    book.add(createOrder(2, OrderSide.SELL, "100", "1"));
+    book.add(createOrder(3, OrderSide.SELL, "100", "1"));
+
+    assertThat(book.remove(order1)).isTrue();
+    assertThat(book.add(order1)).isTrue();
+    assertThat(book.add(order1)).isFalse();
+
+    assertThat(ids(book)).containsExactly(1L, 2L, 3L);
+    assertThat(book.size()).isEqualTo(3);
+  }
+
+  @Test
+  void updateLevelQuantity_when_removeAndUpdate() {
+    OrderBookSide book = new OrderBookSide(OrderSide.BUY);
+    Order order1 = createOrder(1, OrderSide.BUY, "100", "5");
+    Order order2 = createOrder(2, OrderSide.BUY, "100", "3");
+    book.add(order1);
+    book.add(order2);
+
+    Order partial = order1.deepCopy();
+    partial.setRemaining(MarginBigDecimal.valueOf(2));
+    assertThat(book.update(partial)).isTrue();
+    assertThat(book.first().getRemaining()).isEqualTo(MarginBigDecimal.valueOf(2));
+    assertThat(book.getLevelQuantity(MarginBigDecimal.valueOf(100)))
+        .isEqualTo(MarginBigDecimal.valueOf(5));
+
+    // remove by a copy of the order works the same as with the resting instance
+    assertThat(book.remove(order2.deepCopy())).isTrue();
+    assertThat(book.getLevelQuantity(MarginBigDecimal.valueOf(100)))
+        .isEqualTo(MarginBigDecimal.valueOf(2));
+
+    assertThat(book.remove(order1)).isTrue();
+    assertThat(book.isEmpty()).isTrue();
+    assertThat(book.getLevelCount()).isZero();
+    assertThat(book.bestLevel()).isNull();
+    assertThat(book.getLevelQuantity(MarginBigDecimal.valueOf(100)))
+        .isEqualTo(MarginBigDecimal.ZERO);
+    assertThrows(NoSuchElementException.class, book::first);
+  }
+
+  @Test
+  void keepLadderSorted_when_manyLevels() {
+    OrderBookSide book = new OrderBookSide(OrderSide.SELL);
+    for (int i = 0; i < 200; i++) {
+      long price = (i * 37L) % 200 + 1;
+      book.add(createOrder(i + 1, OrderSide.SELL, String.valueOf(price), "1"));
+    }
+    assertThat(book.getLevelCount()).isEqualTo(200);
+    MarginBigDecimal previous = MarginBigDecimal.ZERO;
+    for (Order order : book) {
+      assertThat(order.getPrice().gt(previous)).isTrue();
+      previous = order.getPrice();
+    }
+    while (!book.isEmpty()) {
+      Order first = book.first();
+      book.remove(first);
+      if (!book.isEmpty()) {
+        assertThat(book.first().getPrice().gt(first.getPrice())).isTrue();
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.OrderBookOutput;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.journal.CommandJournal;
+import com.sotatek.future.output.ListOutputStream;
+import com.sotatek.future.service.AccountService;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReplayMatchingEngineTest extends BaseMatchingEngineTest {
+
+  @TempDir Path recordDirectory;
+  private MatchingEngine previousEngine;
+  // commands left in the queue by the tests before, they are queued again after the test
+  private final List<Command> queuedCommands = new ArrayList<>();
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+    // histories left by the tests before would be published with the first output
+    marginHistoryService.clear();
+    previousEngine = MatchingEngine.getInstance();
+    while (!MatchingEngine.commands.isEmpty()) {
+      queuedCommands.add(MatchingEngine.commands.take());
+    }
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    MatchingEngine.setInstance(previousEngine);
+    MatchingEngine.commands.addAll(queuedCommands);
+    super.tearDown();
+  }
+
+  @Test
+  void replay_producesTheRecordedOutputs() throws Exception {
+    List<CommandOutput> recordedOutputs = record();
+    List<Command> recording = new ArrayList<>();
+    CommandJournal.read(recordDirectory, 0, r -> recording.add(r.command()));
+    // the preload, the accounts and the orders, without the commands generated by the engine
+    assertThat(recording).extracting(Command::getCode).contains(CommandCode.START_ENGINE);
+    assertThat(recording).noneMatch(Command::isEngineGenerated);
+
+    ReplayMatchingEngine firstReplay = new ReplayMatchingEngine(recording);
+    List<CommandOutput> replayedOutputs = replay(firstReplay);
+    assertThat(firstReplay.getFedCommands()).isEqualTo(recording.size());
+    assertThat(firstReplay.getLatencies().getCount()).isEqualTo(recording.size());
+
+    List<Command> sameRecording = new ArrayList<>();
+    CommandJournal.read(recordDirectory, 0, r -> sameRecording.add(r.command()));
+    List<CommandOutput> replayedAgain = replay(new ReplayMatchingEngine(sameRecording));
+
+    String digest = ReplayMatchingEngine.digest(replayedOutputs);
+    assertThat(replayedOutputs).hasSameSizeAs(recordedOutputs);
+    assertThat(ReplayMatchingEngine.digest(recordedOutputs)).isEqualTo(digest);
+    assertThat(ReplayMatchingEngine.digest(replayedAgain)).isEqualTo(digest);
+  }
+
+  private List<CommandOutput> record() throws Exception {
+    List<Command> commands = new ArrayList<>();
+    commands.add(
+        new Command(
+            CommandCode.CREATE_ACCOUNT,
+            createAccount(
+                defaultInsuranceAccountId,
+                AccountService.INSURANCE_USER_ID,
+                defaultBalance.multiply(1000))));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(1, defaultBalance)));
+    commands.add(new Command(CommandCode.CREATE_ACCOUNT, createAccount(2, defaultBalance)));
+    commands.add(order(1, 1, OrderSide.SELL, OrderType.LIMIT, "65000", "1"));
+    commands.add(order(2, 1, OrderSide.SELL, OrderType.LIMIT, "65010", "2"));
+    commands.add(order(3, 2, OrderSide.BUY, OrderType.MARKET, null, "2"));
+    commands.add(order(4, 2, OrderSide.BUY, OrderType.LIMIT, "64990", "1"));
+    Command cancel = order(4, 2, OrderSide.BUY, OrderType.LIMIT, "64990", "1");
+    cancel.setCode(CommandCode.CANCEL_ORDER);
+    commands.add(cancel);
+    commands.add(new Command(CommandCode.STOP_ENGINE, null));
+
+    MatchingEngine engine = new MatchingEngine();
+    MatchingEngine.setInstance(engine);
+    ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+    MatchingEngineConfig config =
+        ReplayMatchingEngine.createConfig(commandOutputStream, new ListOutputStream<>());
+    config.setCommandPreloadStream(createPreloadStream());
+    config.setCommandInputDriver(InputDriver.JAVA_LIST);
+    config.setCommandInputStream(new ListInputStream<>(commands));
+    config.setRecordDirectory(recordDirectory.toString());
+    engine.initialize(config);
+    engine.start();
+    return commandOutputStream.getData();
+  }
+
+  private List<CommandOutput> replay(ReplayMatchingEngine engine) throws Exception {
+    super.tearDown();
+    ListOutputStream<CommandOutput> commandOutputStream = new ListOutputStream<>();
+    ListOutputStream<OrderBookOutput> orderBookOutputStream = new ListOutputStream<>();
+    engine.initialize(
+        ReplayMatchingEngine.createConfig(commandOutputStream, orderBookOutputStream));
+    engine.replay();
+    return commandOutputStream.getData();
+  }
+
+  private Command order(
+      long id, long accountId, OrderSide side, OrderType type, String price, String quantity) {
+    return new Command(
+        CommandCode.PLACE_ORDER, createOrder(id, accountId, side, type, price, quantity));
+  }
+}
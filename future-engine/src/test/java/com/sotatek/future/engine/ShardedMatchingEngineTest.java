@@ -1,19 +1,33 @@
 package com.sotatek.future.engine;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.Account;
 import com.sotatek.future.entity.Command;
 import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.EngineParams;
 import com.sotatek.future.entity.Order;
 import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.InputDriver;
 import com.sotatek.future.enums.OrderSide;
 import com.sotatek.future.enums.OrderStatus;
 import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.enums.OutputDriver;
 import com.sotatek.future.input.ListInputStream;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.ReplicationMessage;
 import com.sotatek.future.output.ListOutputStream;
+import com.sotatek.future.router.OrderRouter;
 import com.sotatek.future.router.ShardInfo.ShardRole;
+import com.sotatek.future.router.ShardInfo.ShardStatus;
+import com.sotatek.future.service.AccountService;
 import com.sotatek.future.service.OrderService;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -146,6 +160,28 @@ class ShardedMatchingEngineTest extends BaseMatchingEngineTest {
         assertThat(queueSize).isGreaterThanOrEqualTo(0);
     }
 
+    @Test
+    void shouldAcceptRecordKeysOfAssignedSymbolsAndControl() {
+        assertThat(shardedEngine.acceptsRecordKey("BTCUSDT")).isTrue();
+        assertThat(shardedEngine.acceptsRecordKey(OrderRouter.CONTROL_KEY)).isTrue();
+        assertThat(shardedEngine.acceptsRecordKey("shard-1")).isTrue();
+        assertThat(shardedEngine.acceptsRecordKey(null)).isTrue();
+        assertThat(shardedEngine.acceptsRecordKey("ETHUSDT")).isFalse();
+
+        long epoch = shardedEngine.getAssignmentEpoch();
+        shardedEngine.addSymbol("ETHUSDT");
+        assertThat(shardedEngine.acceptsRecordKey("ETHUSDT")).isTrue();
+        assertThat(shardedEngine.getAssignmentEpoch()).isGreaterThan(epoch);
+    }
+
+    @Test
+    void shouldCountRecordsOfRejectedKeys() {
+        shardedEngine.onRecordKeyRejected("ETHUSDT");
+        shardedEngine.onRecordKeyRejected("ETHUSDT");
+
+        assertThat(shardedEngine.getHealthStatus().getRejectedRecords()).isEqualTo(2);
+    }
+
     @Test
     void shouldUpdateHealthMetricsOverTime() {
         ShardHealthStatus status1 = shardedEngine.getHealthStatus();
@@ -194,4 +230,104 @@ class ShardedMatchingEngineTest extends BaseMatchingEngineTest {
         assertThat(summary).contains("PRIMARY");
         assertThat(summary).contains("symbols=2");
     }
+
+    @Test
+    void shouldReloadSnapshot_when_replicationStreamHasGapOrRestarts() throws Exception {
+        StandbyApplier applier = mock(StandbyApplier.class);
+        ShardedMatchingEngine standby =
+                new ShardedMatchingEngine("shard-1", assignedSymbols, applier);
+        try {
+            standby.initialize(createStandbyConfig());
+
+            // a snapshot missing its first part is not loaded
+            List<ReplicationMessage> parts = createSnapshotParts(42, 5, 11, 12);
+            parts.subList(1, parts.size()).forEach(standby::applyReplicationMessage);
+            assertThat(standby.getHealthStatus().getStatus()).isEqualTo(ShardStatus.DEGRADED);
+
+            parts.forEach(standby::applyReplicationMessage);
+            assertThat(standby.getHealthStatus().getStatus()).isEqualTo(ShardStatus.ACTIVE);
+            standby.applyReplicationMessage(createBatch(42, 6, 13));
+            assertThat(getAccountIds()).contains(11L, 12L, 13L);
+
+            // seq=7 is missing
+            standby.applyReplicationMessage(createBatch(42, 8, 14));
+            assertThat(standby.getHealthStatus().getStatus()).isEqualTo(ShardStatus.DEGRADED);
+            assertThat(getAccountIds()).doesNotContain(14L);
+            verify(applier, times(1)).requestSnapshot();
+
+            createSnapshotParts(42, 8, 15).forEach(standby::applyReplicationMessage);
+            assertThat(standby.getHealthStatus().getStatus()).isEqualTo(ShardStatus.ACTIVE);
+            assertThat(getAccountIds()).containsExactly(15L);
+
+            // the primary restarted
+            standby.applyReplicationMessage(createBatch(43, 1, 16));
+            assertThat(standby.getHealthStatus().getStatus()).isEqualTo(ShardStatus.DEGRADED);
+            assertThat(getAccountIds()).containsExactly(15L);
+            verify(applier, times(2)).requestSnapshot();
+        } finally {
+            standby.shutdown();
+        }
+    }
+
+    @Test
+    void shouldIgnoreSnapshot_when_alreadyApplied() throws Exception {
+        StandbyApplier applier = mock(StandbyApplier.class);
+        ShardedMatchingEngine standby =
+                new ShardedMatchingEngine("shard-1", assignedSymbols, applier);
+        try {
+            standby.initialize(createStandbyConfig());
+            createSnapshotParts(42, 5, 11).forEach(standby::applyReplicationMessage);
+            standby.applyReplicationMessage(createBatch(42, 6, 12));
+
+            // served twice by the primary
+            createSnapshotParts(42, 5, 11).forEach(standby::applyReplicationMessage);
+
+            assertThat(getAccountIds()).contains(11L, 12L);
+            verify(applier, never()).requestSnapshot();
+        } finally {
+            standby.shutdown();
+        }
+    }
+
+    private ShardedMatchingEngineConfig createStandbyConfig() {
+        ShardedMatchingEngineConfig config =
+                new ShardedMatchingEngineConfig("shard-1", assignedSymbols);
+        config.setRole(ShardRole.STANDBY);
+        config.setStandbySyncEnabled(false);
+        config.setCommandPreloadDriver(InputDriver.JAVA_LIST);
+        config.setCommandPreloadStream(new ListInputStream<>(List.of()));
+        config.setCommandInputDriver(InputDriver.JAVA_LIST);
+        config.setCommandInputStream(new ListInputStream<>(List.of()));
+        config.setCommandOutputDriver(OutputDriver.JAVA_LIST);
+        config.setCommandOutputStream(new ListOutputStream<>());
+        config.setOrderBookOutputDriver(OutputDriver.JAVA_LIST);
+        config.setOrderBookOutputStream(new ListOutputStream<>());
+        return config;
+    }
+
+    // one part per command
+    private List<ReplicationMessage> createSnapshotParts(
+            long streamId, long sequence, long... accountIds) {
+        List<Command> commands = new ArrayList<>();
+        commands.add(new Command(CommandCode.INITIALIZE_ENGINE, new EngineParams()));
+        for (long accountId : accountIds) {
+            commands.add(new Command(CommandCode.CREATE_ACCOUNT,
+                    createAccount(accountId, defaultBalance)));
+        }
+        EngineSnapshot snapshot = new EngineSnapshot(sequence, 0, commands);
+        return ReplicationMessage.encodeSnapshotParts(streamId, 0, snapshot, 1).stream()
+                .map(ReplicationMessage::decode)
+                .toList();
+    }
+
+    private ReplicationMessage createBatch(long streamId, long sequence, long accountId) {
+        Command command =
+                new Command(CommandCode.CREATE_ACCOUNT, createAccount(accountId, defaultBalance));
+        return ReplicationMessage.decode(ReplicationMessage.encodeBatch(streamId, 0,
+                List.of(ReplicationMessage.encodeRecord(sequence, command))));
+    }
+
+    private List<Long> getAccountIds() {
+        return AccountService.getInstance().getEntities().stream().map(Account::getId).toList();
+    }
 }
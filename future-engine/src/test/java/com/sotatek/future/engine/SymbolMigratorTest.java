@@ -0,0 +1,190 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sotatek.future.engine.SymbolMigrator.State;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.SymbolMigration;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.journal.EngineSnapshot;
+import com.sotatek.future.journal.ReplicationMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class SymbolMigratorTest {
+
+    private static final String SYMBOL = "BTCUSDT";
+
+    private final SymbolMigration migration = new SymbolMigration(SYMBOL, "shard-a", "shard-b", 7);
+    private ShardedMatchingEngine engine;
+    private MockProducer<String, byte[]> producer;
+
+    @BeforeEach
+    void setUp() {
+        engine = mock(ShardedMatchingEngine.class);
+        producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+    }
+
+    @Test
+    void takeSymbolOver_when_handOverRecordApplied() {
+        SymbolMigrator migrator = new SymbolMigrator(engine, "shard-b", producer);
+
+        apply(migrator, createSnapshot(0, createPlaceCommand(1)));
+        Command held = createPlaceCommand(10);
+        assertThat(migrator.hold(held, SYMBOL)).isTrue();
+        assertThat(migrator.getStates()).isEqualTo(Map.of(SYMBOL, State.SHADOWING));
+        apply(migrator, createBatch(createPlaceCommand(2), handOver()));
+
+        InOrder inOrder = inOrder(engine);
+        inOrder.verify(engine).acceptSymbol(SYMBOL);
+        inOrder.verify(engine).replayRecord(argThat(record -> isOrder(record.command(), 1)), any());
+        inOrder.verify(engine).replayRecord(argThat(record -> isOrder(record.command(), 2)), any());
+        inOrder.verify(engine).onSymbolTakenOver(SYMBOL);
+        inOrder.verify(engine).processHeldCommand(held);
+        assertThat(getSent("shard-a")).extracting(this::getReplyCode)
+                .containsExactly(CommandCode.HAND_OVER_SYMBOL);
+        assertThat(migrator.hold(createPlaceCommand(11), SYMBOL)).isFalse();
+        assertThat(migrator.getStates()).isEmpty();
+    }
+
+    @Test
+    void requestNewSnapshot_when_recordsAreMissing() {
+        SymbolMigrator migrator = new SymbolMigrator(engine, "shard-b", producer);
+        apply(migrator, createSnapshot(0, createPlaceCommand(1)));
+
+        // seq=1 is missing
+        apply(migrator, createBatch(2, createPlaceCommand(2)));
+        assertThat(getSent("shard-a")).extracting(this::getReplyCode)
+                .containsExactly(CommandCode.MIGRATE_SYMBOL);
+        assertThat(migrator.getStates()).isEqualTo(Map.of(SYMBOL, State.LOADING));
+        apply(migrator, createBatch(3, createPlaceCommand(3)));
+        Command held = createPlaceCommand(10);
+        assertThat(migrator.hold(held, SYMBOL)).isTrue();
+
+        apply(migrator, createSnapshot(3, createPlaceCommand(1)));
+        apply(migrator, createBatch(4, handOver()));
+
+        verify(engine, never())
+                .replayRecord(argThat(record -> isOrder(record.command(), 2)), any());
+        verify(engine, never())
+                .replayRecord(argThat(record -> isOrder(record.command(), 3)), any());
+        InOrder inOrder = inOrder(engine);
+        inOrder.verify(engine).removeSymbolState(SYMBOL);
+        inOrder.verify(engine).onSymbolTakenOver(SYMBOL);
+        inOrder.verify(engine).processHeldCommand(held);
+    }
+
+    @Test
+    void keepStateUntilAcknowledged_when_symbolHandedOver() {
+        when(engine.handlesSymbol(SYMBOL)).thenReturn(true);
+        when(engine.canSnapshot()).thenReturn(true);
+        when(engine.createSymbolSnapshot(SYMBOL)).thenReturn(List.of(createPlaceCommand(1)));
+        SymbolMigrator migrator = new SymbolMigrator(engine, "shard-a", producer);
+
+        migrator.afterTick(new Command(CommandCode.MIGRATE_SYMBOL, migration));
+        Command place = createPlaceCommand(2);
+        migrator.beforeTick(place);
+        migrator.afterTick(place);
+        migrator.afterTick(new Command(CommandCode.HAND_OVER_SYMBOL, migration));
+
+        verify(engine).onSymbolHandingOver(SYMBOL);
+        verify(engine, never()).onSymbolHandedOver(SYMBOL);
+        assertThat(migrator.hold(createPlaceCommand(3), SYMBOL)).isTrue();
+        assertThat(migrator.getStates()).isEqualTo(Map.of(SYMBOL, State.HANDING_OVER));
+
+        // the target missed a record
+        applyReply(migrator, CommandCode.MIGRATE_SYMBOL);
+        List<ReplicationMessage> sent = getSent("shard-b");
+        ReplicationMessage snapshot = sent.get(sent.size() - 2);
+        assertThat(snapshot.snapshot().sequence()).isEqualTo(2);
+        assertThat(snapshot.snapshot().commands().get(0).getCode())
+                .isEqualTo(CommandCode.MIGRATE_SYMBOL);
+        ReplicationMessage handOver = sent.get(sent.size() - 1);
+        assertThat(handOver.records()).singleElement()
+                .satisfies(record -> assertThat(record.sequence()).isEqualTo(3))
+                .satisfies(record -> assertThat(record.command().getCode())
+                        .isEqualTo(CommandCode.HAND_OVER_SYMBOL));
+        verify(engine, never()).onSymbolHandedOver(SYMBOL);
+
+        applyReply(migrator, CommandCode.HAND_OVER_SYMBOL);
+        verify(engine).onSymbolHandedOver(SYMBOL);
+        assertThat(migrator.getStates()).isEmpty();
+    }
+
+    private void apply(SymbolMigrator migrator, ReplicationMessage message) {
+        migrator.afterTick(
+                new Command(CommandCode.APPLY_MIGRATION, migrator.receive(SYMBOL, message)));
+    }
+
+    private void applyReply(SymbolMigrator migrator, CommandCode code) {
+        apply(migrator, ReplicationMessage.decode(ReplicationMessage.encodeBatch(
+                migration.getMigrationId(), 0,
+                List.of(ReplicationMessage.encodeRecord(0, new Command(code, migration))))));
+    }
+
+    private ReplicationMessage createSnapshot(long sequence, Command... state) {
+        List<Command> commands = new ArrayList<>();
+        commands.add(new Command(CommandCode.MIGRATE_SYMBOL, migration));
+        commands.addAll(List.of(state));
+        return ReplicationMessage.decode(ReplicationMessage.encodeSnapshot(
+                migration.getMigrationId(), 0, new EngineSnapshot(sequence, 0, commands)));
+    }
+
+    // records numbered from 1
+    private ReplicationMessage createBatch(Command... commands) {
+        return createBatch(1, commands);
+    }
+
+    private ReplicationMessage createBatch(long firstSequence, Command... commands) {
+        List<byte[]> records = new ArrayList<>();
+        for (Command command : commands) {
+            records.add(ReplicationMessage.encodeRecord(firstSequence + records.size(), command));
+        }
+        return ReplicationMessage.decode(
+                ReplicationMessage.encodeBatch(migration.getMigrationId(), 0, records));
+    }
+
+    private Command handOver() {
+        return new Command(CommandCode.HAND_OVER_SYMBOL, migration);
+    }
+
+    private Command createPlaceCommand(long id) {
+        Order order = new Order(id, 10 + id, OrderSide.SELL, OrderType.LIMIT, "64000", "1");
+        order.setSymbol(SYMBOL);
+        return new Command(CommandCode.PLACE_ORDER, order);
+    }
+
+    private static boolean isOrder(Command command, long id) {
+        return command.getData() instanceof Order order && order.getId() == id;
+    }
+
+    private List<ReplicationMessage> getSent(String shardId) {
+        return producer.history().stream()
+                .filter(record -> record.topic().equals(SymbolMigrator.getTopic(shardId)))
+                .map(ProducerRecord::value)
+                .map(ReplicationMessage::decode)
+                .toList();
+    }
+
+    private CommandCode getReplyCode(ReplicationMessage message) {
+        return message.records().get(0).command().getCode();
+    }
+}
@@ -0,0 +1,73 @@
+package com.sotatek.future.engine;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.TriggerCondition;
+import com.sotatek.future.util.MarginBigDecimal;
+import org.junit.jupiter.api.Test;
+
+class TrailingStopIndexTest {
+
+  private Order createTrailingOrder(
+      long id, OrderSide side, TriggerCondition condition, String activation, String rate) {
+    Order order = new Order();
+    order.setId(id);
+    order.setSide(side);
+    order.setStopCondition(condition);
+    order.setActivationPrice(MarginBigDecimal.valueOf(activation));
+    order.setCallbackRate(MarginBigDecimal.valueOf(rate));
+    return order;
+  }
+
+  private MarginBigDecimal price(String value) {
+    return MarginBigDecimal.valueOf(value);
+  }
+
+  @Test
+  void triggerLowestCallbackRateFirst_when_priceFallsFromTop() {
+    TrailingStopIndex index = new TrailingStopIndex(OrderSide.SELL);
+    Order order1 = createTrailingOrder(1, OrderSide.SELL, TriggerCondition.GT, "60000", "1");
+    Order order2 = createTrailingOrder(2, OrderSide.SELL, TriggerCondition.GT, "60000", "2");
+    Order order3 = createTrailingOrder(3, OrderSide.SELL, TriggerCondition.GT, "70000", "1");
+    index.add(order1);
+    index.add(order2);
+    index.add(order3);
+
+    // activates order 1 and 2, trailing prices follow the top price 61000
+    index.updateTrailingPrice(price("59000"), price("61000"));
+    assertThat(order1.isActivated()).isTrue();
+    assertThat(order3.isActivated()).isFalse();
+    assertThat(index.pollTriggeredOrders(price("61000"))).isEmpty();
+
+    // 61000 * 0.99 = 60390
+    index.updateTrailingPrice(price("61000"), price("60390"));
+    assertThat(index.pollTriggeredOrders(price("60390"))).containsExactly(order1);
+    assertThat(order1.getTrailPrice().eq(price("60390"))).isTrue();
+
+    // 61000 * 0.98 = 59780
+    index.updateTrailingPrice(price("60390"), price("59000"));
+    assertThat(index.pollTriggeredOrders(price("59000"))).containsExactly(order2);
+    assertThat(index.pollTriggeredOrders(price("50000"))).isEmpty();
+  }
+
+  @Test
+  void keepOwnTrailingPrice_when_activatedBeforePriceMove() {
+    TrailingStopIndex index = new TrailingStopIndex(OrderSide.BUY);
+    Order order1 = createTrailingOrder(1, OrderSide.BUY, TriggerCondition.LT, "60000", "1");
+    order1.setActivated(true);
+    order1.setTrailPrice(price("60500"));
+    Order order2 = createTrailingOrder(2, OrderSide.BUY, TriggerCondition.LT, "60000", "1");
+    index.add(order1);
+    index.add(order2);
+
+    assertThat(index.pollTriggeredOrders(price("60000"))).isEmpty();
+    assertThat(index.pollTriggeredOrders(price("60500"))).containsExactly(order1);
+
+    // 59000 * 1.01 = 59590, cancelled order is not triggered
+    index.updateTrailingPrice(price("60000"), price("59000"));
+    index.remove(order2);
+    assertThat(index.pollTriggeredOrders(price("60000"))).isEmpty();
+  }
+}
@@ -0,0 +1,88 @@
+package com.sotatek.future.input;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+class InputOffsetsTest {
+
+  private static final String TOPIC = "matching_engine_input";
+  private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+  private static final TopicPartition PARTITION_1 = new TopicPartition(TOPIC, 1);
+
+  private final TestProgress progress = new TestProgress();
+  private final InputOffsets offsets = new InputOffsets(progress);
+
+  @Test
+  void commitOffsets_when_commandsJournaled() {
+    progress.inputPosition = 2;
+    offsets.onPolled(createRecords(record(0, 10), record(0, 11), record(1, 5)));
+    progress.inputPosition = 3;
+    offsets.onPolled(createRecords(record(0, 12)));
+
+    // queued but not journaled yet
+    progress.journaledPosition = 1;
+    assertThat(offsets.takeCommittable(List.of())).isEmpty();
+
+    progress.journaledPosition = 2;
+    assertThat(offsets.takeCommittable(List.of()))
+        .isEqualTo(Map.of(PARTITION_0, offset(12), PARTITION_1, offset(6)));
+    assertThat(offsets.takeCommittable(List.of())).isEmpty();
+
+    progress.journaledPosition = 3;
+    assertThat(offsets.takeCommittable(List.of())).isEqualTo(Map.of(PARTITION_0, offset(13)));
+  }
+
+  @Test
+  void keepOffsetAtParkedRecord_when_recordNotGivenToEngine() {
+    progress.inputPosition = 2;
+    offsets.onPolled(createRecords(record(0, 10), record(0, 11), record(1, 5)));
+    progress.journaledPosition = 2;
+
+    assertThat(offsets.takeCommittable(List.of(record(0, 11))))
+        .isEqualTo(Map.of(PARTITION_0, offset(11), PARTITION_1, offset(6)));
+  }
+
+  private ConsumerRecord<String, String> record(int partition, long offset) {
+    return new ConsumerRecord<>(TOPIC, partition, offset, "BTCUSDT", "{}");
+  }
+
+  @SafeVarargs
+  private ConsumerRecords<String, String> createRecords(ConsumerRecord<String, String>... records) {
+    Map<TopicPartition, List<ConsumerRecord<String, String>>> byPartition = new HashMap<>();
+    for (ConsumerRecord<String, String> record : records) {
+      byPartition
+          .computeIfAbsent(
+              new TopicPartition(record.topic(), record.partition()), p -> new ArrayList<>())
+          .add(record);
+    }
+    return new ConsumerRecords<>(byPartition);
+  }
+
+  private static OffsetAndMetadata offset(long offset) {
+    return new OffsetAndMetadata(offset);
+  }
+
+  private static class TestProgress implements InputProgress {
+    private long inputPosition;
+    private long journaledPosition;
+
+    @Override
+    public long getInputPosition() {
+      return inputPosition;
+    }
+
+    @Override
+    public long getJournaledPosition() {
+      return journaledPosition;
+    }
+  }
+}
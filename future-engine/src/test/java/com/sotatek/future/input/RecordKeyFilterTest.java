@@ -0,0 +1,80 @@
+package com.sotatek.future.input;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class RecordKeyFilterTest {
+
+  private final TestAssignment assignment = new TestAssignment();
+  private final RecordKeyFilter<String> filter = new RecordKeyFilter<>(assignment);
+  private final List<String> accepted = new ArrayList<>();
+
+  @Test
+  void acceptRecords_when_keyAssigned() {
+    assignment.assign("BTCUSDT");
+
+    filter.accept("BTCUSDT", "1", accepted::add);
+    filter.accept(null, "2", accepted::add);
+
+    assertThat(accepted).containsExactly("1", "2");
+    assertThat(filter.getParkedRecords()).isZero();
+  }
+
+  @Test
+  void releaseParkedRecordsInOrder_when_keyAssignedLater() {
+    filter.accept("ETHUSDT", "1", accepted::add);
+    filter.accept("ETHUSDT", "2", accepted::add);
+    assertThat(accepted).isEmpty();
+
+    // assigned after the first records have been read
+    assignment.assign("ETHUSDT");
+    filter.accept("ETHUSDT", "3", accepted::add);
+
+    assertThat(accepted).containsExactly("1", "2", "3");
+    assertThat(assignment.rejected).isEmpty();
+  }
+
+  @Test
+  void keepParkedRecords_when_otherKeyAssigned() {
+    filter.accept("ETHUSDT", "1", accepted::add);
+
+    assignment.assign("BTCUSDT");
+    filter.release(accepted::add);
+
+    assertThat(accepted).isEmpty();
+    assertThat(filter.getParkedRecords()).isEqualTo(1);
+    assertThat(assignment.rejected).isEmpty();
+  }
+
+  private static class TestAssignment implements RecordKeyAssignment {
+
+    private final Set<String> keys = new HashSet<>();
+    private final List<String> rejected = new ArrayList<>();
+    private long epoch;
+
+    private void assign(String key) {
+      keys.add(key);
+      epoch++;
+    }
+
+    @Override
+    public long getAssignmentEpoch() {
+      return epoch;
+    }
+
+    @Override
+    public boolean acceptsRecordKey(String key) {
+      return keys.contains(key);
+    }
+
+    @Override
+    public void onRecordKeyRejected(String key) {
+      rejected.add(key);
+    }
+  }
+}
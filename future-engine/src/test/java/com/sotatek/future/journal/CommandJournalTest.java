@@ -0,0 +1,110 @@
+package com.sotatek.future.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderType;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CommandJournalTest {
+  @TempDir Path directory;
+
+  private Command createPlaceCommand(long id) {
+    Order order = new Order(id, 10 + id, OrderSide.BUY, OrderType.LIMIT, "65000", "0.5");
+    order.setSymbol("BTCUSDT");
+    order.setPriority(100 + id);
+    order.setActivated(id % 2 == 0);
+    Command command = new Command(CommandCode.PLACE_ORDER, order);
+    command.setEngineGenerated(id % 3 == 0);
+    return command;
+  }
+
+  private List<JournalRecord> readAll(long afterSequence) {
+    List<JournalRecord> records = new ArrayList<>();
+    CommandJournal.read(directory, afterSequence, records::add);
+    return records;
+  }
+
+  @Test
+  void readAppendedRecords_when_segmentsRolled() {
+    CommandJournal journal = new CommandJournal(directory, 512, 0);
+    for (long id = 1; id <= 20; id++) {
+      assertThat(journal.append(createPlaceCommand(id))).isEqualTo(id);
+    }
+    journal.close();
+
+    List<JournalRecord> records = readAll(0);
+    assertThat(records).hasSize(20);
+    JournalRecord record = records.get(5);
+    assertThat(record.sequence()).isEqualTo(6);
+    assertThat(record.command().getOrder().getId()).isEqualTo(6);
+    assertThat(record.command().getOrder().getPriority()).isEqualTo(106);
+    assertThat(record.command().getOrder().isActivated()).isTrue();
+    assertThat(record.command().isEngineGenerated()).isTrue();
+    assertThat(readAll(15))
+        .extracting(JournalRecord::sequence)
+        .containsExactly(16L, 17L, 18L, 19L, 20L);
+
+    CommandJournal.deleteSegmentsBefore(directory, 15);
+    assertThat(readAll(15)).hasSize(5);
+  }
+
+  @Test
+  void stopAtTornRecord_when_tailIsCorrupted() throws Exception {
+    CommandJournal journal = new CommandJournal(directory, 1 << 16, 0);
+    for (long id = 1; id <= 3; id++) {
+      journal.append(createPlaceCommand(id));
+    }
+    journal.close();
+    Path segment;
+    try (Stream<Path> files = Files.list(directory)) {
+      segment = files.findFirst().orElseThrow();
+    }
+    // flip a byte of the last record body
+    List<JournalRecord> records = readAll(0);
+    assertThat(records).hasSize(3);
+    long lastRecordOffset = 0;
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      for (int i = 0; i < 2; i++) {
+        file.seek(lastRecordOffset);
+        lastRecordOffset += JournalRecord.HEADER_SIZE + file.readInt();
+      }
+      file.seek(lastRecordOffset + JournalRecord.HEADER_SIZE + 2);
+      int value = file.read();
+      file.seek(lastRecordOffset + JournalRecord.HEADER_SIZE + 2);
+      file.write(value ^ 0xFF);
+    }
+    assertThat(readAll(0)).extracting(JournalRecord::sequence).containsExactly(1L, 2L);
+
+    // appending after a restart continues from the last valid record in a new segment
+    CommandJournal reopened = new CommandJournal(directory, 1 << 16, 2);
+    reopened.append(createPlaceCommand(4));
+    reopened.close();
+    assertThat(readAll(0)).extracting(JournalRecord::sequence).containsExactly(1L, 2L, 3L);
+    assertThat(readAll(0).get(2).command().getOrder().getId()).isEqualTo(4);
+  }
+
+  @Test
+  void loadSavedSnapshot_when_snapshotWritten() {
+    SnapshotStore store = new SnapshotStore(directory);
+    store.save(new EngineSnapshot(7, 120, List.of(createPlaceCommand(1), createPlaceCommand(2))));
+    store.save(new EngineSnapshot(9, 130, List.of(createPlaceCommand(3))));
+    store.close();
+
+    EngineSnapshot snapshot = new SnapshotStore(directory).loadLatest().orElseThrow();
+    assertThat(snapshot.sequence()).isEqualTo(9);
+    assertThat(snapshot.currentPriority()).isEqualTo(130);
+    assertThat(snapshot.commands()).hasSize(1);
+    assertThat(snapshot.commands().get(0).getOrder().getPriority()).isEqualTo(103);
+  }
+}
@@ -0,0 +1,100 @@
+package com.sotatek.future.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderType;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ReplicationMessageTest {
+
+  private Command createPlaceCommand(long id) {
+    Order order = new Order(id, 10 + id, OrderSide.SELL, OrderType.LIMIT, "64000", "1");
+    order.setSymbol("BTCUSDT");
+    order.setPriority(200 + id);
+    Command command = new Command(CommandCode.PLACE_ORDER, order);
+    command.setEngineGenerated(id % 2 == 0);
+    return command;
+  }
+
+  @Test
+  void decodeRecordsInOrder_when_batchEncoded() {
+    byte[] message =
+        ReplicationMessage.encodeBatch(
+            42,
+            1000,
+            List.of(
+                ReplicationMessage.encodeRecord(7, createPlaceCommand(1)),
+                ReplicationMessage.encodeRecord(8, createPlaceCommand(2))));
+
+    ReplicationMessage decoded = ReplicationMessage.decode(message);
+    assertThat(decoded.isSnapshot()).isFalse();
+    assertThat(decoded.streamId()).isEqualTo(42);
+    assertThat(decoded.sentAt()).isEqualTo(1000);
+    assertThat(decoded.records()).extracting(JournalRecord::sequence).containsExactly(7L, 8L);
+    Command command = decoded.records().get(1).command();
+    assertThat(command.getOrder().getId()).isEqualTo(2);
+    assertThat(command.getOrder().getPriority()).isEqualTo(202);
+    assertThat(command.isEngineGenerated()).isTrue();
+  }
+
+  @Test
+  void decodeSnapshot_when_snapshotEncoded() {
+    EngineSnapshot snapshot = new EngineSnapshot(9, 300, List.of(createPlaceCommand(3)));
+
+    ReplicationMessage decoded =
+        ReplicationMessage.decode(ReplicationMessage.encodeSnapshot(42, 1000, snapshot));
+    assertThat(decoded.isSnapshot()).isTrue();
+    assertThat(decoded.snapshot().sequence()).isEqualTo(9);
+    assertThat(decoded.snapshot().currentPriority()).isEqualTo(300);
+    assertThat(decoded.snapshot().commands()).hasSize(1);
+    assertThat(decoded.snapshot().commands().get(0).getOrder().getPriority()).isEqualTo(203);
+  }
+
+  @Test
+  void splitSnapshotInParts_when_recordsExceedPartSize() {
+    List<Command> commands =
+        List.of(createPlaceCommand(3), createPlaceCommand(4), createPlaceCommand(5));
+    int recordBytes = ReplicationMessage.encodeRecord(9, commands.get(0)).length;
+    EngineSnapshot snapshot = new EngineSnapshot(9, 300, commands);
+
+    List<ReplicationMessage> parts =
+        ReplicationMessage.encodeSnapshotParts(42, 1000, snapshot, recordBytes + 1).stream()
+            .map(ReplicationMessage::decode)
+            .toList();
+    assertThat(parts).extracting(ReplicationMessage::part).containsExactly(0, 1, 2);
+    assertThat(parts).extracting(ReplicationMessage::parts).containsOnly(3);
+    assertThat(parts.get(2).isLastPart()).isTrue();
+    assertThat(parts.get(1).snapshot().sequence()).isEqualTo(9);
+    assertThat(parts.get(1).snapshot().currentPriority()).isEqualTo(300);
+    assertThat(parts.get(1).snapshot().commands().get(0).getOrder().getId()).isEqualTo(4);
+  }
+
+  @Test
+  void encodeOnePart_when_snapshotIsEmpty() {
+    List<byte[]> parts =
+        ReplicationMessage.encodeSnapshotParts(42, 1000, new EngineSnapshot(9, 300, List.of()), 64);
+
+    assertThat(parts).hasSize(1);
+    ReplicationMessage decoded = ReplicationMessage.decode(parts.get(0));
+    assertThat(decoded.isLastPart()).isTrue();
+    assertThat(decoded.snapshot().commands()).isEmpty();
+  }
+
+  @Test
+  void rejectMessage_when_recordIsCorrupted() {
+    byte[] message =
+        ReplicationMessage.encodeBatch(
+            42, 1000, List.of(ReplicationMessage.encodeRecord(7, createPlaceCommand(1))));
+    message[message.length - 3] ^= (byte) 0xFF;
+
+    assertThatThrownBy(() -> ReplicationMessage.decode(message))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("checksum");
+  }
+}
@@ -0,0 +1,65 @@
+package com.sotatek.future.output;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class JsonOutputStreamTest {
+
+  private static class CollectingOutputStream extends JsonOutputStream<Integer> {
+    private final List<String> messages = new ArrayList<>();
+
+    CollectingOutputStream(Map<String, Object> parameters) {
+      configure(parameters);
+    }
+
+    @Override
+    public void publish(String data) {
+      messages.add(data);
+    }
+
+    @Override
+    public void close() {
+      closePipeline();
+    }
+  }
+
+  @Test
+  void publishBatchesInOrder_when_serializedInParallel() throws Exception {
+    CollectingOutputStream stream =
+        new CollectingOutputStream(
+            Map.of(JsonOutputStream.BATCH_SIZE, 7, JsonOutputStream.SERIALIZATION_THREADS, 4));
+    stream.connect();
+    IntStream.range(0, 1000).forEach(stream::write);
+    stream.flush();
+    stream.close();
+
+    Gson gson = new Gson();
+    List<Integer> published = new ArrayList<>();
+    for (String message : stream.messages) {
+      Integer[] batch = gson.fromJson(message, Integer[].class);
+      assertThat(batch.length).isBetween(1, 7);
+      published.addAll(List.of(batch));
+    }
+    assertThat(published).isEqualTo(IntStream.range(0, 1000).boxed().toList());
+    assertThat(stream.getStageMetrics())
+        .allSatisfy(metrics -> assertThat(metrics.getCount()).isEqualTo(stream.messages.size()));
+  }
+
+  @Test
+  void publishOutputsAlone_when_batchSizeIsZero() throws Exception {
+    CollectingOutputStream stream =
+        new CollectingOutputStream(Map.of(JsonOutputStream.BATCH_SIZE, 0));
+    stream.connect();
+    stream.write(List.of(1, 2, 3));
+    stream.flush();
+    stream.close();
+
+    assertThat(stream.messages).containsExactly("1", "2", "3");
+  }
+}
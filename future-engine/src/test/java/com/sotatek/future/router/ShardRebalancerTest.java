@@ -170,6 +170,22 @@ class ShardRebalancerTest {
         assertThat(router.isSymbolPaused("BTCUSDT")).isFalse();
     }
 
+    @Test
+    void shouldKeepRoutingAndOrders_whenLiveMigrationFails() {
+        rebalancer.setMigrationMonitor((shardId, symbol) -> false);
+        rebalancer.setMigrationTimeoutMs(50);
+
+        // The router has no shard client, the migration cannot start
+        assertThatThrownBy(() -> rebalancer.manualRebalance("BTCUSDT", "shard-2"))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("Rebalancing failed");
+
+        assertThat(router.getShardForSymbol("BTCUSDT").getShardId()).isEqualTo("shard-1");
+        assertThat(router.isSymbolPaused("BTCUSDT")).isFalse();
+        assertThat(callback.exportOrdersCalled.get()).isFalse();
+        assertThat(callback.removeSymbolCalled.get()).isFalse();
+    }
+
     @Test
     void shouldTrackRebalanceOperationCount() {
         rebalancer.manualRebalance("BTCUSDT", "shard-2");
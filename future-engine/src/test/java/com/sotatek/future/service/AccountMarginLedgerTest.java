@@ -0,0 +1,94 @@
+package com.sotatek.future.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.BaseTest;
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.service.AccountMarginLedger.MarginTotals;
+import com.sotatek.future.util.MarginBigDecimal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccountMarginLedgerTest extends BaseTest {
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  @Test
+  void sumMargins_when_positionsUpdated() {
+    AccountMarginLedger ledger = new AccountMarginLedger();
+    // cross margin = 1 * 65000 / 10, uPnl = 1 * (65000 - 60000)
+    ledger.update(crossPosition(1L, "1", "60000"));
+    // isolated margin = position margin + adjust margin + tmpTotalFee
+    ledger.update(isolatedPosition(1L, "ETHUSD"));
+    ledger.update(crossPosition(2L, "1", "60000"));
+
+    assertTotals(ledger.getMarginTotals(1L, defaultAsset), "19030", "100", "5000");
+
+    // Closed position is removed from the totals
+    ledger.update(crossPosition(1L, "0", "60000"));
+    assertTotals(ledger.getMarginTotals(1L, defaultAsset), "12530", "0", "0");
+    ledger.remove(Position.getKey(1L, "ETHUSD"));
+    assertThat(ledger.getMarginTotals(1L, defaultAsset)).isEqualTo(MarginTotals.ZERO);
+  }
+
+  @Test
+  void revalueCrossPositions_when_oraclePriceMoves() {
+    AccountMarginLedger ledger = new AccountMarginLedger();
+    ledger.update(crossPosition(1L, "1", "60000"));
+    ledger.update(isolatedPosition(2L, defaultSymbol));
+
+    MarginBigDecimal oraclePrice = MarginBigDecimal.valueOf(66000);
+    instrumentService.getExtraInfo(defaultSymbol).setOraclePrice(oraclePrice);
+    ledger.revalue(defaultSymbol, oraclePrice);
+
+    assertTotals(ledger.getMarginTotals(1L, defaultAsset), "6600", "100", "6000");
+    // Margin of isolated position does not depend on the oracle price
+    assertTotals(ledger.getMarginTotals(2L, defaultAsset), "12530", "0", "0");
+  }
+
+  private void assertTotals(
+      MarginTotals totals, String positionMargin, String orderMargin, String unrealisedPnl) {
+    assertThat(totals.positionMargin()).isEqualTo(MarginBigDecimal.valueOf(positionMargin));
+    assertThat(totals.orderMargin()).isEqualTo(MarginBigDecimal.valueOf(orderMargin));
+    assertThat(totals.crossUnrealisedPnl()).isEqualTo(MarginBigDecimal.valueOf(unrealisedPnl));
+  }
+
+  private Position crossPosition(Long accountId, String quantity, String entryPrice) {
+    Position p = new Position();
+    p.setAccountId(accountId);
+    p.setSymbol(defaultSymbol);
+    p.setAsset(defaultAsset);
+    p.setCross(true);
+    p.setLeverage(MarginBigDecimal.valueOf(10));
+    p.setCurrentQty(MarginBigDecimal.valueOf(quantity));
+    p.setEntryPrice(MarginBigDecimal.valueOf(entryPrice));
+    p.setMarBuy(MarginBigDecimal.valueOf(100));
+    return p;
+  }
+
+  private Position isolatedPosition(Long accountId, String symbol) {
+    Position p = new Position();
+    p.setAccountId(accountId);
+    p.setSymbol(symbol);
+    p.setAsset(defaultAsset);
+    p.setCross(false);
+    p.setLeverage(MarginBigDecimal.valueOf(10));
+    p.setCurrentQty(MarginBigDecimal.valueOf(-2));
+    p.setEntryPrice(MarginBigDecimal.valueOf(60000));
+    p.setPositionMargin(MarginBigDecimal.valueOf(12000));
+    p.setAdjustMargin(MarginBigDecimal.valueOf(500));
+    p.setTmpTotalFee(MarginBigDecimal.valueOf(30));
+    return p;
+  }
+}
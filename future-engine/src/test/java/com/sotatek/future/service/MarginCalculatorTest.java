@@ -1,6 +1,9 @@
 package com.sotatek.future.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
 
@@ -217,4 +220,19 @@ class MarginCalculatorTest extends BaseTest {
     );
     assertEquals(MarginBigDecimal.valueOf("0.00745156"), margin, "margin short position");
   }
+
+  @Test
+  public void calculatorIsRebuiltWhenOraclePriceChanges() {
+    MarginCalculator calculator = MarginCalculator.getCalculatorFor(defaultSymbol);
+    assertSame(calculator, MarginCalculator.getCalculatorFor(defaultSymbol));
+
+    InstrumentExtraInformation extraInfo = instrumentService.getExtraInfo(defaultSymbol);
+    extraInfo.setOraclePrice(MarginBigDecimal.valueOf("66000"));
+    MarginCalculator rebuilt = MarginCalculator.getCalculatorFor(defaultSymbol);
+    assertEquals(MarginBigDecimal.valueOf("66000"), rebuilt.getOraclePrice());
+    assertTrue(rebuilt.getEpoch() > calculator.getEpoch());
+
+    instrumentService.update(instrumentService.get(defaultSymbol));
+    assertNotSame(rebuilt, MarginCalculator.getCalculatorFor(defaultSymbol));
+  }
 }
@@ -1,8 +1,15 @@
 package com.sotatek.future.service;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import com.sotatek.future.BaseTest;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderType;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 
 class OrderServiceTest extends BaseTest {
 
@@ -17,4 +24,24 @@ class OrderServiceTest extends BaseTest {
   public void tearDown() throws Exception {
     super.tearDown();
   }
+
+  @Test
+  void clearOpenOrdersAndRemovalQueue_when_cleared() {
+    // a standby reloading a snapshot clears the services before loading it
+    OrderService orderService = OrderService.getInstance();
+    Order open = createOrder(1, 1, OrderSide.BUY, OrderType.LIMIT, "65000", "1");
+    open.setStatus(OrderStatus.ACTIVE);
+    Order filled = createOrder(2, 1, OrderSide.SELL, OrderType.LIMIT, "65000", "1");
+    filled.setStatus(OrderStatus.FILLED);
+    orderService.update(open);
+    orderService.update(filled);
+    orderService.commit();
+    assertThat(orderService.getUserActiveOrders(1L)).containsExactly(open);
+    assertThat(orderService.removingEntities).hasSize(1);
+
+    orderService.clear();
+
+    assertThat(orderService.getUserActiveOrders(1L)).isEmpty();
+    assertThat(orderService.removingEntities).isEmpty();
+  }
 }
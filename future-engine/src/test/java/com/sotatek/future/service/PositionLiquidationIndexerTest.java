@@ -0,0 +1,91 @@
+package com.sotatek.future.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.value.PriceRange;
+import org.junit.jupiter.api.Test;
+
+public class PositionLiquidationIndexerTest {
+  private static final String testSymbol = "BTCUSD";
+
+  @Test
+  void returnCrossedPositions_when_oraclePriceMoves() {
+    PositionLiquidationIndexer indexer = new PositionLiquidationIndexer();
+    indexer.updateLiquidationIndex(newPosition(1L, "1", "60000"), false, null, null);
+    indexer.updateLiquidationIndex(newPosition(2L, "1", "62000"), false, null, null);
+    indexer.updateLiquidationIndex(newPosition(3L, "-1", "70000"), false, null, null);
+    indexer.updateLiquidationIndex(newPosition(4L, "-1", "68000"), false, null, null);
+    indexer.updateLiquidationIndex(newPosition(5L, "1", "-100"), true, null, null);
+
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(65000))).isEmpty();
+    // Most crossed long position comes first
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(59000)))
+        .containsExactly(Position.getKey(2L, testSymbol), Position.getKey(1L, testSymbol));
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(69000)))
+        .containsExactly(Position.getKey(4L, testSymbol));
+    assertThat(indexer.getOpenPositions(testSymbol)).hasSize(5);
+  }
+
+  @Test
+  void removeOldValue_when_positionUpdated() {
+    PositionLiquidationIndexer indexer = new PositionLiquidationIndexer();
+    indexer.updateLiquidationIndex(newPosition(1L, "1", "60000"), false, null, null);
+    indexer.updateLiquidationIndex(newPosition(1L, "1", "50000"), true, null, null);
+
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(55000)))
+        .containsExactly(Position.getKey(1L, testSymbol));
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(45000)))
+        .containsExactly(Position.getKey(1L, testSymbol));
+
+    // Closed position is removed from the index
+    indexer.updateLiquidationIndex(newPosition(1L, "0", "50000"), false, null, null);
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(45000))).isEmpty();
+    assertThat(indexer.getOpenPositions(testSymbol)).isEmpty();
+  }
+
+  @Test
+  void keepCalculationInputs_when_positionIndexed() {
+    PositionLiquidationIndexer indexer = new PositionLiquidationIndexer();
+    indexer.updateLiquidationIndex(newPosition(1L, "1", "-100"), true, null, null);
+
+    PositionLiquidationIndexer.PositionLiquidationIndexValue value =
+        indexer.getIndexValue(Position.getKey(1L, testSymbol));
+    assertThat(value.accountId()).isEqualTo(1L);
+    // Maintenance state is kept even if the position is not liquidated
+    assertThat(value.underMaintenance()).isTrue();
+    assertThat(indexer.getCrossedPositions(testSymbol, MarginBigDecimal.valueOf(1))).isEmpty();
+  }
+
+  @Test
+  void returnTradingRuleCrossedPositions_when_oraclePriceLeavesRange() {
+    PositionLiquidationIndexer indexer = new PositionLiquidationIndexer();
+    indexer.updateLiquidationIndex(
+        newPosition(1L, "1", "40000"), false, null, newPriceRange("50000", "250000"));
+    indexer.updateLiquidationIndex(
+        newPosition(2L, "1", "40000"), false, null, newPriceRange("0", "50000"));
+    indexer.updateLiquidationIndex(newPosition(3L, "1", "40000"), false, null, null);
+
+    // Position without a range is always returned
+    assertThat(indexer.getTradingRuleCrossedPositions(testSymbol, MarginBigDecimal.valueOf(55000)))
+        .containsExactlyInAnyOrder(
+            Position.getKey(2L, testSymbol), Position.getKey(3L, testSymbol));
+    assertThat(indexer.getTradingRuleCrossedPositions(testSymbol, MarginBigDecimal.valueOf(49000)))
+        .containsExactlyInAnyOrder(
+            Position.getKey(1L, testSymbol), Position.getKey(3L, testSymbol));
+  }
+
+  private static PriceRange newPriceRange(String low, String high) {
+    return new PriceRange(MarginBigDecimal.valueOf(low), MarginBigDecimal.valueOf(high));
+  }
+
+  private static Position newPosition(Long accountId, String quantity, String liquidationPrice) {
+    Position p = new Position();
+    p.setAccountId(accountId);
+    p.setSymbol(testSymbol);
+    p.setCurrentQty(MarginBigDecimal.valueOf(quantity));
+    p.setLiquidationPrice(MarginBigDecimal.valueOf(liquidationPrice));
+    return p;
+  }
+}
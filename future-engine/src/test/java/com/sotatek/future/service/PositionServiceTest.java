@@ -0,0 +1,113 @@
+package com.sotatek.future.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sotatek.future.BaseMatchingEngineTest;
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.util.MarginBigDecimal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PositionServiceTest extends BaseMatchingEngineTest {
+
+  @Override
+  @BeforeEach
+  public void setUp() throws Exception {
+    super.setUp();
+    getLeverageMarginCommand().forEach(
+        command -> TradingRuleService.INSTANCE.loadLeverageMarginRule(command.getLeverageMargin()));
+    positionService.update(crossPosition(1L));
+    positionService.commit();
+  }
+
+  @Override
+  @AfterEach
+  public void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  @Test
+  void updateCrossPositionsOnce_when_balanceChanges() {
+    positionService.updateLiquidationData(defaultSymbol);
+    positionService.commit();
+    MarginBigDecimal liquidationPrice =
+        positionService.get(1L, defaultSymbol).getLiquidationPrice();
+    for (int i = 0; i < 3; i++) {
+      Account account = accountService.get(1L);
+      account.addAmountToBalance(MarginBigDecimal.valueOf(-10000));
+      accountService.update(account);
+    }
+    // Not updated by each balance change
+    assertThat(positionService.getProcessingEntities()).isEmpty();
+
+    positionService.commitTemporarily();
+    assertThat(positionService.getProcessingEntities()).hasSize(1);
+    // Long position is liquidated at a higher price with less balance
+    assertThat(positionService.get(1L, defaultSymbol).getLiquidationPrice())
+        .isGreaterThan(liquidationPrice);
+  }
+
+  @Test
+  void discardMarkedAccounts_when_rolledBack() {
+    positionService.commitTemporarily();
+    Account account = accountService.get(1L);
+    account.addAmountToBalance(MarginBigDecimal.valueOf(-10000));
+    accountService.update(account);
+
+    accountService.rollbackTemporary();
+    positionService.rollbackTemporary();
+    positionService.updateDirtyCrossPositions();
+    assertThat(positionService.getProcessingEntities()).isEmpty();
+  }
+
+  @Test
+  void updateCrossPositionsOfAccount_when_otherLeverageTierChanges() {
+    getLeverageMarginCommand().forEach(
+        command -> {
+          command.getLeverageMargin().setSymbol("ETHUSD");
+          TradingRuleService.INSTANCE.loadLeverageMarginRule(command.getLeverageMargin());
+        });
+    Position ethPosition = crossPosition(1L, "ETHUSD");
+    ethPosition.setId(2L);
+    ethPosition.setEntryPrice(MarginBigDecimal.valueOf(32000));
+    ethPosition.setEntryValue(MarginBigDecimal.valueOf(32000));
+    positionService.update(ethPosition);
+    positionService.commit();
+    MarginBigDecimal liquidationPrice = positionService.get(1L, "ETHUSD").getLiquidationPrice();
+
+    // Loss of the BTCUSD position, in the same leverage tier
+    setOraclePrice("60000");
+    positionService.updateLiquidationData(defaultSymbol);
+    assertThat(positionService.getProcessingEntities()).isEmpty();
+
+    // BTCUSD position value below 50000 is in the lowest tier
+    setOraclePrice("49000");
+    positionService.updateLiquidationData(defaultSymbol);
+
+    assertThat(positionService.getProcessingEntities())
+        .extracting(Position::getSymbol)
+        .containsExactlyInAnyOrder(defaultSymbol, "ETHUSD");
+    assertThat(positionService.get(1L, "ETHUSD").getLiquidationPrice())
+        .isGreaterThan(liquidationPrice);
+  }
+
+  private Position crossPosition(Long accountId) {
+    return crossPosition(accountId, defaultSymbol);
+  }
+
+  private Position crossPosition(Long accountId, String symbol) {
+    Position p = new Position();
+    p.setId(accountId);
+    p.setAccountId(accountId);
+    p.setSymbol(symbol);
+    p.setAsset(defaultAsset);
+    p.setCross(true);
+    p.setLeverage(MarginBigDecimal.valueOf(10));
+    p.setCurrentQty(MarginBigDecimal.ONE);
+    p.setEntryPrice(MarginBigDecimal.valueOf(65000));
+    p.setEntryValue(MarginBigDecimal.valueOf(65000));
+    return p;
+  }
+}
@@ -0,0 +1,126 @@
+package com.sotatek.future.ticker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mockStatic;
+
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.Ticker;
+import com.sotatek.future.entity.Trade;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.util.TimeUtil;
+import java.util.Date;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+class TickerProcessorTest {
+
+  private static final long START = 1_700_000_000L;
+  private static final long DAY = 86400;
+
+  private MockedStatic<TimeUtil> timeUtil;
+  private long now = START;
+  private long tradeId = 0;
+
+  @BeforeEach
+  void setUp() {
+    timeUtil = mockStatic(TimeUtil.class);
+    timeUtil.when(TimeUtil::currentTimeSeconds).thenAnswer(invocation -> now);
+  }
+
+  @AfterEach
+  void tearDown() {
+    timeUtil.close();
+  }
+
+  @Test
+  void dropVolume_when_tradeLeavesWindow() {
+    TickerProcessor processor = new TickerProcessor("BTCUSD");
+    processor.processTrade(createTrade("100", "2", START));
+
+    Ticker ticker = publish(processor);
+    assertThat(ticker.volume()).isEqualTo(MarginBigDecimal.valueOf(2));
+    assertThat(ticker.quoteVolume()).isEqualTo(MarginBigDecimal.valueOf(200));
+
+    // the first point of the window is the one of the trade
+    now = START + DAY + 1;
+    ticker = publish(processor);
+    assertThat(ticker.volume()).isEqualTo(MarginBigDecimal.ZERO);
+    assertThat(ticker.quoteVolume()).isEqualTo(MarginBigDecimal.ZERO);
+    assertThat(ticker.lastPrice()).isEqualTo(MarginBigDecimal.valueOf(100));
+  }
+
+  @Test
+  void evictHighAndLow_when_theirPointsAgeOut() {
+    TickerProcessor processor = new TickerProcessor("BTCUSD");
+    processor.processTrade(createTrade("300", "1", START));
+    processor.processTrade(createTrade("100", "1", START + 10));
+    now = START + 20;
+    processor.processTrade(createTrade("200", "1", START + 20));
+
+    assertHighLow(publish(processor), "300", "100");
+
+    // the seconds following a trade start at its price, up to the second of the next trade
+    now = START + 10 + DAY + 1;
+    assertHighLow(publish(processor), "200", "100");
+
+    now = START + 20 + DAY + 1;
+    assertHighLow(publish(processor), "200", "200");
+  }
+
+  @Test
+  void aggregateTrades_when_sameSecond() {
+    TickerProcessor processor = new TickerProcessor("BTCUSD");
+    processor.processTrade(createTrade("100", "1", START));
+    processor.processTrade(createTrade("120", "2", START));
+    processor.processTrade(createTrade("90", "1", START));
+
+    Ticker ticker = publish(processor);
+
+    assertHighLow(ticker, "120", "90");
+    assertThat(ticker.lastPrice()).isEqualTo(MarginBigDecimal.valueOf(90));
+    assertThat(ticker.volume()).isEqualTo(MarginBigDecimal.valueOf(4));
+    assertThat(ticker.quoteVolume()).isEqualTo(MarginBigDecimal.valueOf(430));
+    assertThat(ticker.trades()).hasSize(3);
+  }
+
+  @Test
+  void rebuildExtremes_when_mockPointOverwritten() {
+    TickerProcessor processor = new TickerProcessor("BTCUSD");
+    // empty points up to 23h ago, the last one is a mock point without trades
+    processor.clean();
+    long tradeTime = START - DAY + 3000;
+    processor.processTrade(createTrade("500", "1", tradeTime));
+
+    Ticker ticker = processor.getTicker();
+
+    // the extremes of the removed mock point are replaced by the ones of the trade
+    assertHighLow(ticker, "500", "500");
+    assertThat(ticker.volume()).isEqualTo(MarginBigDecimal.ONE);
+  }
+
+  private Ticker publish(TickerProcessor processor) {
+    processor.clean();
+    return processor.getTicker();
+  }
+
+  private void assertHighLow(Ticker ticker, String high, String low) {
+    assertThat(ticker.highPrice()).isEqualTo(MarginBigDecimal.valueOf(high));
+    assertThat(ticker.lowPrice()).isEqualTo(MarginBigDecimal.valueOf(low));
+  }
+
+  private Trade createTrade(String price, String quantity, long createdAt) {
+    Order order = Order.builder().build();
+    order.setId(++tradeId);
+    order.setSide(OrderSide.BUY);
+    order.setSymbol("BTCUSD");
+    Trade trade =
+        new Trade(
+            order, order, MarginBigDecimal.valueOf(price), MarginBigDecimal.valueOf(quantity));
+    trade.setId(tradeId);
+    trade.setCreatedAt(new Date(createdAt * 1000));
+    return trade;
+  }
+}
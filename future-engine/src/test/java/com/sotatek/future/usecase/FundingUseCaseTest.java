@@ -0,0 +1,58 @@
+package com.sotatek.future.usecase;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sotatek.future.engine.MatchingEngine;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.FundingParams;
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.service.FundingService;
+import com.sotatek.future.service.PositionService;
+import com.sotatek.future.util.MarginBigDecimal;
+import java.util.Date;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class FundingUseCaseTest {
+
+  private final FundingService fundingService = mock(FundingService.class);
+  private final PositionService positionService = mock(PositionService.class);
+  private final MatchingEngine matchingEngine = mock(MatchingEngine.class);
+  private final FundingUseCase fundingUseCase =
+      new FundingUseCase(fundingService, positionService, matchingEngine);
+
+  @Test
+  void commitSettledBatchesAndRollbackTheRest_when_payingPositionFails() {
+    Position first = mock(Position.class);
+    Position second = mock(Position.class);
+    Position failing = mock(Position.class);
+    when(positionService.getPositions("BTCUSD")).thenReturn(Stream.of(first, second, failing));
+    doThrow(new IllegalStateException("no position history"))
+        .when(fundingService)
+        .payFunding(eq(failing), any(), any(), any());
+    fundingUseCase.setBatchSize(2);
+
+    fundingUseCase.payFunding(new Command(CommandCode.PAY_FUNDING, params()));
+
+    InOrder order = inOrder(fundingService, matchingEngine);
+    order.verify(fundingService).payFunding(eq(second), any(), any(), any());
+    order.verify(matchingEngine).commit();
+    order.verify(fundingService).payFunding(eq(failing), any(), any(), any());
+    order.verify(matchingEngine).rollback();
+    verify(fundingService, never()).setFundingPaid(any(), any());
+  }
+
+  private FundingParams params() {
+    return new FundingParams(
+        "BTCUSD", MarginBigDecimal.valueOf("0.01"), MarginBigDecimal.valueOf(65000), new Date());
+  }
+}
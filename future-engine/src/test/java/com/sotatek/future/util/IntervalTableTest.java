@@ -0,0 +1,108 @@
+package com.sotatek.future.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class IntervalTableTest {
+
+  @ParameterizedTest
+  @MethodSource("provider_returnInterval_when_notOverlap")
+  void returnInterval_when_notOverlap(String point, TestInterval expected) {
+    IntervalTable<TestInterval> table =
+        tableOf(TestInterval.of(10, 15), TestInterval.of(0, 5), TestInterval.of(5, 10));
+
+    assertThat(table.lookup(MarginBigDecimal.valueOf(point))).isEqualTo(expected);
+  }
+
+  private static Stream<Arguments> provider_returnInterval_when_notOverlap() {
+    return Stream.of(
+        Arguments.of("0", null),
+        Arguments.of("0.00000000001", TestInterval.of(0, 5)),
+        Arguments.of("5", TestInterval.of(0, 5)),
+        Arguments.of("6", TestInterval.of(5, 10)),
+        Arguments.of("15", TestInterval.of(10, 15)),
+        Arguments.of("15.1", null),
+        Arguments.of("-1", null));
+  }
+
+  @Test
+  void returnLowestInterval_when_overlap() {
+    IntervalTable<TestInterval> table =
+        tableOf(TestInterval.of(4, 10), TestInterval.of(0, 5), TestInterval.of(3, 8));
+
+    assertThat(table.lookup(MarginBigDecimal.valueOf(4))).isEqualTo(TestInterval.of(0, 5));
+    assertThat(table.lookup(MarginBigDecimal.valueOf(6))).isEqualTo(TestInterval.of(3, 8));
+    assertThat(table.lookup(MarginBigDecimal.valueOf(9))).isEqualTo(TestInterval.of(4, 10));
+  }
+
+  @Test
+  void replaceInterval_when_sameBounds() {
+    TestInterval replacement = new TestInterval(MarginBigDecimal.valueOf(5), "10", "new");
+    IntervalTable<TestInterval> table =
+        tableOf(TestInterval.of(0, 5), TestInterval.of(5, 10)).with(replacement);
+
+    assertThat(table.getIntervals()).containsExactly(TestInterval.of(0, 5), replacement);
+    assertThat(table.lookup(MarginBigDecimal.valueOf(7)).name()).isEqualTo("new");
+  }
+
+  @Test
+  void lookupWithBigDecimal_when_boundsNotCompact() {
+    // 10^10 does not fit in a long at the default scale
+    MarginBigDecimal big = MarginBigDecimal.valueOf("10000000000");
+    IntervalTable<TestInterval> table =
+        tableOf(TestInterval.of(0, 5), new TestInterval(MarginBigDecimal.valueOf(5), big, "big"));
+
+    assertThat(table.lookup(MarginBigDecimal.valueOf(3))).isEqualTo(TestInterval.of(0, 5));
+    assertThat(table.lookup(MarginBigDecimal.valueOf("9000000000")).name()).isEqualTo("big");
+    assertThat(table.lookup(big.add(MarginBigDecimal.ONE))).isNull();
+  }
+
+  @Test
+  void lookupWithBigDecimal_when_pointHasMoreDecimalsThanDefaultScale() {
+    IntervalTable<TestInterval> table = tableOf(TestInterval.of(0, 5), TestInterval.of(5, 10));
+    // 12 decimals, the unscaled value is at scale 12 after normalize()
+    MarginBigDecimal point = MarginBigDecimal.valueOf("5.000000000001");
+
+    assertThat(point.normalize().getScale()).isEqualTo(12);
+    assertThat(table.lookup(point)).isEqualTo(TestInterval.of(5, 10));
+    assertThat(table.lookup(MarginBigDecimal.valueOf("4.999999999999")))
+        .isEqualTo(TestInterval.of(0, 5));
+  }
+
+  @Test
+  void lookupWithBigDecimal_when_boundHasMoreDecimalsThanDefaultScale() {
+    MarginBigDecimal bound = MarginBigDecimal.valueOf("5.000000000001");
+    IntervalTable<TestInterval> table = tableOf(
+        new TestInterval(MarginBigDecimal.ZERO, bound, "low"),
+        new TestInterval(bound, "10", "high"));
+
+    assertThat(table.lookup(MarginBigDecimal.valueOf(5)).name()).isEqualTo("low");
+    assertThat(table.lookup(MarginBigDecimal.valueOf(6)).name()).isEqualTo("high");
+  }
+
+  private IntervalTable<TestInterval> tableOf(TestInterval... intervals) {
+    IntervalTable<TestInterval> table = IntervalTable.empty();
+    for (TestInterval interval : intervals) {
+      table = table.with(interval);
+    }
+    return table;
+  }
+
+  record TestInterval(MarginBigDecimal low, MarginBigDecimal high, String name)
+      implements Interval<MarginBigDecimal> {
+
+    TestInterval(MarginBigDecimal low, String high, String name) {
+      this(low, MarginBigDecimal.valueOf(high), name);
+    }
+
+    static TestInterval of(long low, long high) {
+      return new TestInterval(MarginBigDecimal.valueOf(low), MarginBigDecimal.valueOf(high), "");
+    }
+  }
+}
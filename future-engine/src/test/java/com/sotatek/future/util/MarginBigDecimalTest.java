@@ -4,6 +4,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.math.BigInteger;
+import java.util.Objects;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 
 public class MarginBigDecimalTest {
@@ -95,4 +98,73 @@ public class MarginBigDecimalTest {
 
     assertEquals(expect, num.multiplyThenDivide(multiplier, numerator));
   }
+
+  @Test
+  public void returnSameResultAsBigInteger_when_calculateRandomValues() {
+    Random random = new Random(42);
+    BigInteger scale = BigInteger.TEN.pow(MarginBigDecimal.DEFAULT_SCALE);
+    for (int i = 0; i < 20000; i++) {
+      BigInteger a = randomUnscaled(random);
+      BigInteger b = randomUnscaled(random);
+      MarginBigDecimal x = new MarginBigDecimal(toDecimalString(a));
+      MarginBigDecimal y = new MarginBigDecimal(toDecimalString(b));
+
+      assertEquals(a, x.getUnscaledValue());
+      assertEquals(a.add(b), x.add(y).getUnscaledValue());
+      assertEquals(a.subtract(b), x.subtract(y).getUnscaledValue());
+      assertEquals(a.multiply(b).divide(scale), x.multiply(y).getUnscaledValue());
+      if (b.signum() != 0) {
+        assertEquals(a.multiply(scale).divide(b), x.divide(y).getUnscaledValue());
+      }
+      assertEquals(a.compareTo(b), x.compareTo(y));
+      assertEquals(a.signum() * b.signum(), x.multiplySign(y));
+      assertEquals(Objects.hash(a, MarginBigDecimal.DEFAULT_SCALE), x.hashCode());
+      assertEquals(toDecimalString(a), x.toString());
+    }
+  }
+
+  @Test
+  public void compareWithLong_when_valueIsLarge() {
+    MarginBigDecimal large = new MarginBigDecimal("100000000000");
+    assertTrue(large.gt(99999999999L));
+    assertTrue(large.eq(100000000000L));
+    assertTrue(large.lt(Long.MAX_VALUE));
+    assertTrue(large.negate().gt(Long.MIN_VALUE));
+    assertTrue(MarginBigDecimal.ZERO.eq(0));
+    assertTrue(MarginBigDecimal.valueOf(-3).lt(0));
+  }
+
+  @Test
+  public void returnSameResultAsChainedAdd_when_accumulate() {
+    Random random = new Random(7);
+    MarginBigDecimal expected = MarginBigDecimal.ZERO;
+    MarginAccumulator accumulator = new MarginAccumulator();
+    for (int i = 0; i < 1000; i++) {
+      MarginBigDecimal a = new MarginBigDecimal(toDecimalString(randomUnscaled(random)));
+      MarginBigDecimal b = new MarginBigDecimal(toDecimalString(randomUnscaled(random)));
+      expected = expected.add(a).subtract(b).add(a.multiply(b));
+      accumulator.add(a).subtract(b).addProduct(a, b);
+      assertEquals(expected, accumulator.get());
+      assertEquals(expected.signum(), accumulator.signum());
+    }
+    assertEquals(MarginBigDecimal.ZERO, accumulator.reset().get());
+  }
+
+  private static BigInteger randomUnscaled(Random random) {
+    // mix of small values, values around the long range and values far above it
+    int bits = switch (random.nextInt(4)) {
+      case 0 -> 20 + random.nextInt(30);
+      case 1 -> 50 + random.nextInt(14);
+      case 2 -> 60 + random.nextInt(8);
+      default -> 64 + random.nextInt(40);
+    };
+    BigInteger value = new BigInteger(bits, random);
+    return random.nextBoolean() ? value.negate() : value;
+  }
+
+  private static String toDecimalString(BigInteger unscaled) {
+    return new java.math.BigDecimal(unscaled, MarginBigDecimal.DEFAULT_SCALE)
+        .stripTrailingZeros()
+        .toPlainString();
+  }
 }
@@ -0,0 +1,112 @@
+package com.sotatek.future.util.binary;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.sotatek.future.entity.Account;
+import com.sotatek.future.entity.Command;
+import com.sotatek.future.entity.CommandOutput;
+import com.sotatek.future.entity.Order;
+import com.sotatek.future.entity.Position;
+import com.sotatek.future.entity.Trade;
+import com.sotatek.future.entity.Transaction;
+import com.sotatek.future.enums.CommandCode;
+import com.sotatek.future.enums.OrderSide;
+import com.sotatek.future.enums.OrderStatus;
+import com.sotatek.future.enums.OrderType;
+import com.sotatek.future.enums.TimeInForce;
+import com.sotatek.future.enums.TransactionType;
+import com.sotatek.future.util.MarginBigDecimal;
+import com.sotatek.future.util.json.JsonUtil;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BinaryCodecTest {
+  private final Gson gson = JsonUtil.createGson();
+
+  private Order createOrder(long id, OrderSide side) {
+    Order order = new Order(id, 10 + id, side, OrderType.LIMIT, "65000.123456789", "0.5");
+    order.setSymbol("BTCUSDT");
+    order.setStatus(OrderStatus.ACTIVE);
+    order.setTimeInForce(TimeInForce.GTC);
+    order.setLeverage(MarginBigDecimal.valueOf(20));
+    order.setCost(new MarginBigDecimal("-12.000000000000000001"));
+    order.setUserEmail("user@example.com");
+    order.setCreatedAt(new Date(1700000000000L));
+    order.setReduceOnly(true);
+    return order;
+  }
+
+  @Test
+  void decodeSameCommand_when_orderCommand() {
+    Command command = new Command(CommandCode.PLACE_ORDER, createOrder(1, OrderSide.BUY));
+
+    Command decoded = BinaryCodec.decodeCommand(BinaryCodec.encodeCommand(command));
+
+    assertThat(decoded.getCode()).isEqualTo(CommandCode.PLACE_ORDER);
+    assertThat(gson.toJson(decoded.getOrder())).isEqualTo(gson.toJson(command.getOrder()));
+    assertThat(decoded.getOrder().getCost()).isEqualTo(command.getOrder().getCost());
+  }
+
+  @Test
+  void decodeSameCommand_when_jsonBridgedData() {
+    Transaction transaction = new Transaction();
+    transaction.setAccountId(3L);
+    transaction.setAmount(MarginBigDecimal.valueOf(1000));
+    transaction.setType(TransactionType.DEPOSIT);
+    Command command = new Command(CommandCode.DEPOSIT, transaction);
+
+    Command decoded = BinaryCodec.decodeCommand(BinaryCodec.encodeCommand(command));
+
+    assertThat(decoded.getTransaction().getAmount()).isEqualTo(MarginBigDecimal.valueOf(1000));
+    assertThat(gson.toJson(decoded.getData())).isEqualTo(gson.toJson(transaction));
+
+    Command stop =
+        BinaryCodec.decodeCommand(
+            BinaryCodec.encodeCommand(new Command(CommandCode.STOP_ENGINE, null)));
+    assertThat(stop.getCode()).isEqualTo(CommandCode.STOP_ENGINE);
+    assertThat(stop.getData()).isNull();
+  }
+
+  @Test
+  void decodeSameOutput_when_outputHasEntities() {
+    Order buy = createOrder(1, OrderSide.BUY);
+    Order sell = createOrder(2, OrderSide.SELL);
+    Trade trade = new Trade(buy, sell, buy.getPrice(), buy.getQuantity());
+    trade.setId(7L);
+    Position position = new Position(false);
+    position.setId(5L);
+    position.setSymbol("BTCUSDT");
+    position.setCurrentQty(MarginBigDecimal.valueOf("0.5"));
+    position.setOrders(new ArrayList<>(List.of(sell)));
+    Account account = new Account(3L, MarginBigDecimal.valueOf("123.45"));
+
+    CommandOutput output = new CommandOutput();
+    output.setCode(CommandCode.PLACE_ORDER);
+    output.setData(gson.fromJson(gson.toJson(buy), Object.class));
+    output.setAccounts(List.of(account));
+    output.setOrders(List.of(buy, sell));
+    output.setTrades(List.of(trade));
+    output.setPositions(List.of(position));
+    output.setFundingHistories(List.of());
+    output.setMarginHistories(List.of());
+    output.setPositionHistories(List.of());
+    output.setTransactions(List.of());
+    output.setErrors(List.of());
+
+    CommandOutput decoded = BinaryCodec.decodeOutput(BinaryCodec.encodeOutput(output));
+
+    assertThat(gson.toJson(decoded)).isEqualTo(gson.toJson(output));
+  }
+
+  @Test
+  void rejectMessage_when_unknownVersion() {
+    Command command = new Command(CommandCode.PLACE_ORDER, createOrder(1, OrderSide.BUY));
+    byte[] bytes = BinaryCodec.encodeCommand(command);
+    bytes[0] = (byte) (BinaryCodec.VERSION + 1);
+    assertThrows(IllegalStateException.class, () -> BinaryCodec.decodeCommand(bytes));
+  }
+}
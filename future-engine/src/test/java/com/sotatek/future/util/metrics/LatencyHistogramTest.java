@@ -0,0 +1,48 @@
+package com.sotatek.future.util.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void readQuantilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long nanos = 1; nanos <= 100_000; nanos++) {
+      histogram.record(nanos);
+    }
+
+    LatencyHistogram.Interval interval = histogram.readInterval(0.5, 0.99, 0.999);
+    assertThat(interval.count()).isEqualTo(100_000);
+    assertThat(interval.maxNanos()).isEqualTo(100_000);
+    assertThat(interval.quantileNanos()[0]).isCloseTo(50_000L, within(50_000L / 32));
+    assertThat(interval.quantileNanos()[1]).isCloseTo(99_000L, within(99_000L / 32));
+    assertThat(interval.quantileNanos()[2]).isCloseTo(99_900L, within(99_900L / 32));
+  }
+
+  @Test
+  void readOnlyNewValues_when_readAgain() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1_000_000);
+    histogram.readInterval(0.5);
+
+    assertThat(histogram.readInterval(0.5).quantileNanos()).isNull();
+    histogram.record(20);
+    LatencyHistogram.Interval interval = histogram.readInterval(0.5);
+    assertThat(interval.count()).isEqualTo(1);
+    assertThat(interval.quantileNanos()).containsExactly(20);
+    assertThat(histogram.getCount()).isEqualTo(2);
+  }
+
+  @Test
+  void bucketValuesByPowerOfTwo() {
+    for (long value : new long[] {0, 31, 32, 63, 64, 65, 1_000_003, LatencyHistogram.MAX_VALUE}) {
+      int octave = LatencyHistogram.octaveOf(value);
+      long highest =
+          LatencyHistogram.highestValueOf(octave, LatencyHistogram.subBucketOf(value, octave));
+      assertThat(highest).isBetween(value, value + value / 32);
+    }
+  }
+}